@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Steps an IterativeContext layout a fixed number of times on a background
+ * thread, then hands the result back to the event thread in one piece.
+ * <p/>
+ * Stepping stops early if the layout says it is done, if a wall-clock
+ * deadline passes, or if the future is cancelled. Unless cancelled, the
+ * <code>apply</code> runnable is then run on the event thread, and the
+ * future completes with the number of steps performed. As with
+ * {@link LayoutWorker}, changes the UI makes to the layout while it is being
+ * stepped go through a {@link LayoutInput}.
+ *
+ * @author Tim Boudreau
+ */
+final class FastForward<N, E> implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(FastForward.class.getName());
+    private static final long PROGRESS_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private final Layout<N, E> layout;
+    private final IterativeContext ctx;
+    private final int iterations;
+    private final long deadline;
+    private final LayoutProgress progress;
+    private final Runnable apply;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+    private final LayoutInput<N, E> input = new LayoutInput<>();
+    private final AtomicBoolean progressQueued = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile int steps;
+
+    /**
+     * Create a fast forward; it does nothing until run.
+     *
+     * @param layout The layout, which must implement IterativeContext
+     * @param iterations The maximum number of steps
+     * @param deadline The value of <code>System.nanoTime()</code> after which
+     * to stop stepping, or zero for none
+     * @param progress Notified of progress on the event thread, may be null
+     * @param apply Run on the event thread to show the result
+     */
+    FastForward(Layout<N, E> layout, int iterations, long deadline,
+            LayoutProgress progress, Runnable apply) {
+        this.layout = layout;
+        this.ctx = (IterativeContext) layout;
+        this.iterations = iterations;
+        this.deadline = deadline;
+        this.progress = progress;
+        this.apply = apply;
+    }
+
+    CompletableFuture<Integer> future() {
+        return future;
+    }
+
+    LayoutInput<N, E> input() {
+        return input;
+    }
+
+    Layout<N, E> layout() {
+        return layout;
+    }
+
+    /**
+     * Determine if the layout is still being stepped or waiting for its
+     * result to be applied.
+     *
+     * @return true if not finished
+     */
+    boolean isRunning() {
+        return !future.isDone();
+    }
+
+    /**
+     * Wait until the thread running this has stopped touching the layout.
+     * Cancelling the future does not interrupt a step in progress, so call
+     * this before using the layout on another thread after cancelling.
+     */
+    void join() {
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            LOG.log(Level.FINE, "Interrupted waiting for the last step", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastProgress = System.nanoTime();
+        try {
+            while (steps < iterations && !future.isDone() && !ctx.done()) {
+                input.drain(layout);
+                long now = System.nanoTime();
+                if (deadline != 0 && now - deadline >= 0) {
+                    break;
+                }
+                ctx.step();
+                steps++;
+                if (progress != null && now - lastProgress > PROGRESS_INTERVAL) {
+                    lastProgress = now;
+                    reportProgress();
+                }
+            }
+        } catch (Exception e) {
+            // Some layouts are buggy; show whatever we got
+            LOG.log(Level.INFO, null, e);
+        } finally {
+            input.close();
+            input.drain(layout);
+            stopped.countDown();
+        }
+        if (!future.isDone()) {
+            SwingUtilities.invokeLater(this::finish);
+        }
+    }
+
+    private void reportProgress() {
+        if (progressQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                progressQueued.set(false);
+                if (!future.isDone()) {
+                    progress.progress(steps, iterations);
+                }
+            });
+        }
+    }
+
+    private void finish() {
+        if (future.isDone()) {
+            // cancelled
+            return;
+        }
+        try {
+            if (progress != null) {
+                progress.progress(steps, iterations);
+            }
+            apply.run();
+            future.complete(steps);
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -52,12 +52,14 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.Point2D;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for Visual Library scenes which use Jung to manage layout and
@@ -80,11 +82,19 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
     private SelectByClickAction clickAction;
     private final GraphSelection selection = new GraphSelection<>(this);
     private LayoutAnimationEvaluator evaluator = new LayoutAnimationEvaluator();
+    private LayoutScheduler scheduler = new LayoutScheduler();
     private boolean animate = true;
-    private final ActionListener timerListener = new TimerListener();
+    private final TimerListener timerListener = new TimerListener();
     private int fastForwardIterations = 300;
     private final Timer timer = new Timer(1000 / 24, timerListener);
     private final Lookup lkp;
+    private boolean layoutInBackground;
+    private LayoutWorker<N, E> worker;
+    private FastForward<N, E> fastForward;
+    private Dimension workerSize;
+    private LayoutCache layoutCache;
+    private Map<N, Point2D> pendingPositions;
+    private LayoutWorker.Frame<N> lastFrame;
 
     /**
      * Create a new Scene backed by the passed graph, and whose initial layout
@@ -237,13 +247,15 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
     @Override
     public JComponent createView() {
         boolean was = initialized;
+        boolean cached = false;
         if (!initialized) {
             initialized = true;
             sync();
+            cached = useCachedPositions();
             sceneLayout.performLayout();
         }
         JComponent view = super.createView();
-        if (!was && layout instanceof IterativeContext && animate) {
+        if (!was && !cached && layout instanceof IterativeContext && animate) {
             startAnimation();
         }
         return view;
@@ -279,7 +291,9 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
      * layout a bunch of steps immediately. Depending on how computationally
      * expensive the layout is, and the number of nodes and edges in the graph,
      * this could be slow, so we provide this way to limit the number of
-     * iterations.
+     * iterations. The iterations are performed on a background thread, as
+     * with <code>fastForward()</code>, and the nodes move to their new
+     * positions when they are done.
      *
      * @param val The number of iterations; &lt;=0 equals none.
      */
@@ -295,29 +309,86 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
      */
     public final void setGraphLayout(Layout<N, E> layout, boolean animate) {
         assert layout != null : "Layout null";
-        timer.stop();
+        stopAnimation();
+        cancelFastForward();
         this.layout = layout;
+        boolean cached = useCachedPositions();
         sceneLayout.performLayout(animate);
-        if (this.animate && layout instanceof IterativeContext && getView() != null) {
+        if (cached) {
+            // Already laid out in an earlier session; nothing to iterate
+            validate();
+            repaint();
+            return;
+        }
+        if (!(layout instanceof IterativeContext)) {
+            cacheLayout();
+        } else if (this.animate && getView() != null) {
             startAnimation();
-        } else if (!this.animate && layout instanceof IterativeContext) {
-            // Fast forward it a bit
+        } else if (!this.animate) {
+            // Fast forward it a bit, off the event thread
             IterativeContext ctx = (IterativeContext) layout;
             if (!ctx.done() && fastForwardIterations > 0) {
-                try {
-                    for (int i = 0; i < fastForwardIterations; i++) {
-                        ctx.step();
-                        if (ctx.done()) {
-                            break;
-                        }
-                    }
-                } catch (Exception e) {
-                    Logger.getLogger(JungScene.class.getName()).log(Level.INFO, null, e);
-                }
+                fastForward(fastForwardIterations, null, null);
+            } else {
+                sceneLayout.performLayout(true);
+                validate();
+                repaint();
             }
-            sceneLayout.performLayout(true);
-            validate();
-            repaint();
+        }
+    }
+
+    /**
+     * Set a cache of layout results. When a layout is set, positions cached
+     * for the same graph and kind of layout are applied at once and the
+     * layout is not iterated; if only a similar graph is cached, its
+     * positions are the starting point for iterating. Positions are cached
+     * when a layout which is not iterative is set, and when iterating one
+     * finishes.
+     *
+     * @param cache The cache, or null for none
+     */
+    public final void setLayoutCache(LayoutCache cache) {
+        this.layoutCache = cache;
+    }
+
+    /**
+     * Get the cache of layout results, if any.
+     *
+     * @return The cache, or null
+     */
+    public final LayoutCache getLayoutCache() {
+        return layoutCache;
+    }
+
+    /**
+     * Look up the graph and current layout in the cache, and arrange for
+     * the next performLayout() to apply what is found.
+     *
+     * @return true if the cached positions are the finished layout
+     */
+    private boolean useCachedPositions() {
+        LayoutCache.Hit<N> hit = layoutCache == null ? null : layoutCache.find(graph, layout);
+        if (hit == null || (!hit.isExact() && !(layout instanceof IterativeContext))) {
+            // Warm starts are only useful to layouts which iterate from
+            // their starting positions
+            return false;
+        }
+        pendingPositions = hit.getPositions();
+        return hit.isExact();
+    }
+
+    private void cacheLayout() {
+        if (layoutCache != null) {
+            layoutCache.put(graph, layout);
+        }
+    }
+
+    private void workerFinished() {
+        if (layoutCache != null && lastFrame != null) {
+            // The positions the user is looking at, without touching the
+            // layout, which the worker thread may still be draining input
+            // into
+            layoutCache.put(graph, LayoutCache.describe(layout), lastFrame.positions());
         }
     }
 
@@ -348,7 +419,46 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
             if (val && this.layout instanceof IterativeContext && getView() != null) {
                 startAnimation();
             } else if (!val) {
-                timer.stop();
+                stopAnimation();
+            }
+        }
+    }
+
+    /**
+     * Determine whether iterative layouts are animated by stepping them on a
+     * background thread rather than on the event thread.
+     *
+     * @return Whether layout steps run in the background
+     * @see #setLayoutInBackground(boolean)
+     */
+    public final boolean isLayoutInBackground() {
+        return layoutInBackground;
+    }
+
+    /**
+     * Run the steps of animated iterative layouts on a background thread
+     * rather than on the event thread. With expensive layouts and large
+     * graphs, a single step can take long enough to make the UI unresponsive;
+     * in this mode the event thread only copies the most recent set of node
+     * positions onto the widgets, and skips frames if it cannot keep up.
+     * <p/>
+     * While the background thread is running, the layout must not be
+     * touched from other threads - node moves made through this scene's
+     * move action are handed to the worker to apply between steps. Layouts
+     * which read the graph during a step may see concurrent modifications if
+     * the graph is changed while they run; such steps are discarded.
+     * ForceDir handles structural changes of an ObservableGraph itself, on
+     * the thread that steps it.
+     *
+     * @param val Whether to step layouts in the background
+     */
+    public final void setLayoutInBackground(boolean val) {
+        if (val != layoutInBackground) {
+            boolean wasAnimating = isAnimating();
+            stopAnimation();
+            layoutInBackground = val;
+            if (wasAnimating) {
+                startAnimation();
             }
         }
     }
@@ -386,8 +496,172 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
      * insignificant changes.
      */
     private void startAnimation() {
+        cancelFastForward();
         evaluator.reset();
-        timer.start();
+        scheduler.reset();
+        timerListener.lastFrame = 0;
+        if (layoutInBackground && layout instanceof IterativeContext) {
+            stopWorker();
+            lastFrame = null;
+            worker = new LayoutWorker<>(graph, layout, evaluator, scheduler,
+                    timer.getDelay(), this::applyFrame, this::workerFinished);
+            JComponent view = getView();
+            if (view != null) {
+                workerSize = view.getSize();
+                worker.input().resize(workerSize);
+            }
+        } else {
+            timer.start();
+        }
+    }
+
+    private void stopAnimation() {
+        timer.stop();
+        stopWorker();
+    }
+
+    /**
+     * The layout finished or the evaluator decided further steps are not
+     * useful, as opposed to animation being stopped from outside; the
+     * layout is as good as it will get, so cache it.
+     */
+    private void animationFinished() {
+        stopAnimation();
+        cacheLayout();
+    }
+
+    private void stopWorker() {
+        if (worker != null) {
+            worker.stop();
+            worker = null;
+        }
+    }
+
+    private boolean isAnimating() {
+        return timer.isRunning() || (worker != null && worker.isRunning());
+    }
+
+    /**
+     * Get the queue for changes to the layout if it is currently being
+     * stepped on another thread.
+     *
+     * @return The input, or null if the layout may be used directly
+     */
+    private LayoutInput<N, E> backgroundInput() {
+        if (worker != null && worker.isRunning()) {
+            return worker.input();
+        } else if (fastForward != null && fastForward.isRunning()) {
+            return fastForward.input();
+        }
+        releaseLayout();
+        return null;
+    }
+
+    /**
+     * Wait for a background thread which has stopped stepping the layout to
+     * finish with it, so it can be used on this thread.
+     */
+    private void releaseLayout() {
+        if (worker != null && !worker.isRunning()) {
+            // It may have decided to stop but still be in its last tick
+            worker.join();
+        }
+        if (fastForward != null && (!fastForward.isRunning() || !fastForward.input().isOpen())) {
+            // Cancelled, or done stepping and waiting for its result to be
+            // applied
+            fastForward.join();
+        }
+    }
+
+    /**
+     * Step the current layout, if it implements IterativeContext, on a
+     * background thread, and apply the resulting node positions to the scene
+     * in one batch when done. Progress is reported to the passed callback on
+     * the event thread as the steps proceed.
+     * <p/>
+     * Stepping stops when the requested number of steps has been performed,
+     * the layout reports that it is done, or the time limit passes,
+     * whichever comes first; the returned future then completes with the
+     * number of steps performed, after the positions have been applied.
+     * Cancelling the future stops stepping and leaves the scene as it is.
+     * Setting a new layout, or starting animation, cancels any fast forward
+     * in progress.
+     * <p/>
+     * Call this method on the event thread.
+     *
+     * @param iterations The maximum number of steps
+     * @param timeLimit The maximum wall-clock time to spend, or null for no
+     * limit
+     * @param progress A progress callback, or null
+     * @return A future
+     */
+    public final CompletableFuture<Integer> fastForward(int iterations,
+            Duration timeLimit, LayoutProgress progress) {
+        stopAnimation();
+        cancelFastForward();
+        if (!(layout instanceof IterativeContext) || iterations <= 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        long deadline = timeLimit == null ? 0
+                : System.nanoTime() + Math.max(1, timeLimit.toNanos());
+        FastForward<N, E> ff = new FastForward<>(layout, iterations, deadline,
+                progress, () -> {
+                    fastForward = null;
+                    sceneLayout.performLayout(true);
+                    validate();
+                    repaint();
+                    cacheLayout();
+                });
+        fastForward = ff;
+        JComponent view = getView();
+        if (view != null) {
+            ff.input().resize(view.getSize());
+        }
+        Thread t = new Thread(ff, "fast-forward-" + layout.getClass().getSimpleName());
+        t.setDaemon(true);
+        t.start();
+        return ff.future();
+    }
+
+    private void cancelFastForward() {
+        if (fastForward != null) {
+            fastForward.future().cancel(false);
+            // The step in progress runs to completion; wait for it before
+            // anything else uses the layout
+            fastForward.join();
+            fastForward = null;
+        }
+    }
+
+    /**
+     * Copy a frame published by the layout worker onto the node widgets.
+     *
+     * @param frame The frame
+     */
+    private void applyFrame(LayoutWorker.Frame<N> frame) {
+        lastFrame = frame;
+        JComponent view = getView();
+        if (view != null && worker != null && !view.getSize().equals(workerSize)) {
+            workerSize = view.getSize();
+            worker.input().resize(workerSize);
+        }
+        Widget dragging = sceneLayout.dragging;
+        for (Map.Entry<N, Point> e : frame.positions().entrySet()) {
+            Widget widget = findWidget(e.getKey());
+            if (widget != null && widget != dragging) {
+                widget.setPreferredLocation(e.getValue());
+            }
+        }
+        for (E e : getEdges()) {
+            Widget w = findWidget(e);
+            if (w instanceof ConnectionWidget) {
+                ((ConnectionWidget) w).reroute();
+            } else if (w != null) {
+                w.revalidate();
+            }
+        }
+        validate();
+        repaint();
     }
 
     /**
@@ -619,6 +893,29 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
         return evaluator;
     }
 
+    /**
+     * Set the object which decides how many layout steps to perform in each
+     * frame of an animated layout, and when to skip updating the widgets.
+     *
+     * @param scheduler A scheduler
+     * @see LayoutScheduler
+     */
+    public void setLayoutScheduler(LayoutScheduler scheduler) {
+        Parameters.notNull("scheduler", scheduler);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get the object which decides how many layout steps to perform in each
+     * frame of an animated layout.
+     *
+     * @return A scheduler
+     * @see LayoutScheduler
+     */
+    public LayoutScheduler getLayoutScheduler() {
+        return scheduler;
+    }
+
     /**
      * Adapter which implements SceneLayout and uses the layout logic of the
      * JUNG layout. Also acts as our MoveProvider which will tell the layout
@@ -654,6 +951,15 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
         protected void performLayout(boolean animate) {
             // Make sure the layout knows about the size of the view
             JComponent vw = getView();
+            LayoutInput<N, E> input = backgroundInput();
+            if (input != null) {
+                // The layout belongs to another thread until it stops, and
+                // positions will be applied when it publishes them
+                if (vw != null) {
+                    input.resize(vw.getSize());
+                }
+                return;
+            }
             if (vw != null) {
                 try {
                     layout.setSize(vw.getSize());
@@ -661,6 +967,13 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
                     // some layouts dont support this
                 }
             }
+            if (pendingPositions != null) {
+                // After setSize(), which reinitializes some layouts
+                for (Map.Entry<N, Point2D> e : pendingPositions.entrySet()) {
+                    layout.setLocation(e.getKey(), e.getValue());
+                }
+                pendingPositions = null;
+            }
 
             minDist = Double.MAX_VALUE;
             maxDist = Double.MIN_VALUE;
@@ -702,19 +1015,22 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
             }
             JungScene.this.validate();
             if (animating && evaluator.animationIsFinished(minDist, maxDist, avgDist, layout)) {
-                timer.stop();
+                animationFinished();
             }
         }
 
         private MoveProvider delegate = ActionFactory.createDefaultMoveProvider();
+        private Widget dragging;
 
         @Override
         public void movementStarted(Widget widget) {
+            dragging = widget;
             delegate.movementStarted(widget);
         }
 
         @Override
         public void movementFinished(Widget widget) {
+            dragging = null;
             delegate.movementFinished(widget);
             onMove((N) findObject(widget), widget);
         }
@@ -734,7 +1050,18 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
                 }
             }
             if (node != null) {
-                layout.setLocation(node, location);
+                LayoutInput<N, E> input = backgroundInput();
+                if (input == null || !input.move(node, location)) {
+                    // Refused if the thread stepping it stopped meanwhile
+                    releaseLayout();
+                    layout.setLocation(node, location);
+                }
+                if (animate && layout instanceof IterativeContext && !isAnimating()
+                        && getView() != null) {
+                    // The layout may have settled and stopped the timer; a
+                    // drag can disturb it again
+                    startAnimation();
+                }
                 for (E e : graph.getOutEdges(node)) {
                     Widget w = findWidget(e);
                     w.revalidate();
@@ -835,6 +1162,7 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
 
     private class TimerListener implements ActionListener {
 
+        private long lastFrame;
 
         @Override
         public void actionPerformed(ActionEvent e) {
@@ -843,21 +1171,37 @@ public abstract class JungScene<N, E> extends GraphScene<N, E> {
             }
             if (layout instanceof IterativeContext) {
                 IterativeContext c = (IterativeContext) layout;
-                try {
-                    c.step();
-                } catch (Exception ex) {
-                    // e.g. IllegalArgumentException: Unexpected mathematical result in FRLayout:calcPositions
-                    // Some layouts are buggy.
+                long start = System.nanoTime();
+                long target = TimeUnit.MILLISECONDS.toNanos(timer.getDelay());
+                scheduler.frameStarted(lastFrame == 0 ? 0 : start - lastFrame, target);
+                lastFrame = start;
+                int steps = scheduler.stepsForFrame(target);
+                int performed = 0;
+                boolean done = false;
+                while (performed < steps && !done) {
+                    try {
+                        c.step();
+                    } catch (Exception ex) {
+                        // e.g. IllegalArgumentException: Unexpected mathematical result in FRLayout:calcPositions
+                        // Some layouts are buggy.
 //                    Logger.getLogger(JungScene.class.getName()).log(Level.INFO, null, ex);
-                    ex.printStackTrace();
+                        ex.printStackTrace();
 //                    timer.stop();
+                    }
+                    performed++;
+                    done = c.done();
                 }
-                if (c.done()) {
-                    timer.stop();
+                long stepped = System.nanoTime();
+                scheduler.stepsPerformed(performed, stepped - start);
+                if (done) {
+                    animationFinished();
+                } else if (!scheduler.shouldApply(stepped - start, target)) {
+                    return;
                 }
                 getSceneLayout().invokeLayout();
                 validate();
                 repaint();
+                scheduler.frameApplied(System.nanoTime() - stepped);
             }
         }
     }
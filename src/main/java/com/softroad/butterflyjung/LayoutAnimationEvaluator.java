@@ -1,5 +1,6 @@
 package com.softroad.butterflyjung;
 
+import com.softroad.butterflyjung.layouts.ConvergingLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 
 /**
@@ -23,6 +24,11 @@ import edu.uci.ics.jung.algorithms.layout.Layout;
  * the default implementation will consider it done.
  * <p/>
  * This class is only used if the associated scene's animation timer is running.
+ * <p/>
+ * Layouts which implement {@link ConvergingLayout} know better than any
+ * heuristic based on movement when they are finished, so the default
+ * implementation considers the animation finished as soon as such a layout
+ * says it has converged.
  *
  * @author Tim Boudreau
  */
@@ -151,6 +157,9 @@ public class LayoutAnimationEvaluator {
      * @return True if no significant moves have occurred
      */
     protected boolean animationIsFinished(double min, double max, double average, Layout<?,?> layout) {
+        if (layout instanceof ConvergingLayout && ((ConvergingLayout) layout).isConverged()) {
+            return true;
+        }
         if (callCount++ < minIterations) {
             return false;
         }
@@ -0,0 +1,791 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import com.softroad.butterflyjung.layouts.ForceDir;
+import edu.uci.ics.jung.algorithms.layout.CircleLayout;
+import edu.uci.ics.jung.algorithms.layout.KKLayout;
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.layout.SpringLayout;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the final node positions of layouts, so that reopening a graph
+ * with a layout it has been laid out with before shows the result at once
+ * instead of recomputing it from random starting positions, and a graph
+ * which has changed a little since can start from the positions of the
+ * most similar graph in the cache.
+ * <p/>
+ * Entries are keyed by a fingerprint of the graph's structure - a hash of
+ * its nodes and edges which does not depend on the order the graph returns
+ * them in - and a description of the layout, by default its class, size
+ * and settings. Nodes are identified by the strings their
+ * <code>toString()</code> methods return, so those should be unique and
+ * stable across sessions.
+ * <p/>
+ * A small number of entries is kept in memory, in front of a directory of
+ * files bounded by total size; both evict the least recently used entry
+ * first. Alongside the fingerprint, each entry has a MinHash signature of
+ * the graph's nodes and edges, which estimates how much two graphs have in
+ * common; on a miss, the entry for the same layout whose graph is most
+ * similar, if it is similar enough, provides positions for the nodes the
+ * graphs share, and new nodes are placed among their neighbors.
+ * <p/>
+ * Storing an entry only updates memory on the calling thread, which may be
+ * the event thread; files are written, one at a time and in order, by a
+ * background thread, so a new instance reading the directory sees an entry
+ * only once {@link #flush} has returned.
+ * <p/>
+ * The cache is a convenience: failures to read or write the directory are
+ * logged and otherwise treated as misses. Instances are thread-safe.
+ *
+ * @author Tim Boudreau
+ */
+public final class LayoutCache {
+
+    private static final Logger LOG = Logger.getLogger(LayoutCache.class.getName());
+    public static final int DEFAULT_MEMORY_ENTRIES = 8;
+    public static final long DEFAULT_DISK_BYTES = 256L * 1024 * 1024;
+    /**
+     * The default estimated fraction of nodes and edges two graphs must
+     * have in common for one to be warm-started from the other.
+     */
+    public static final double DEFAULT_MIN_SIMILARITY = 0.5;
+    static final int SIGNATURE_LENGTH = 64;
+    private static final int MAGIC = 0x424A4C43;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".layout";
+    private static final long[] SEEDS = new long[SIGNATURE_LENGTH];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < SEEDS.length; i++) {
+            SEEDS[i] = mix(seed += 0x9E3779B97F4A7C15L);
+        }
+    }
+    private final Path directory;
+    private final int memoryEntries;
+    private final long diskBytes;
+    private final double minSimilarity;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75F, true);
+    private final LinkedHashMap<String, Stored> disk = new LinkedHashMap<>(16, 0.75F, true);
+    private long diskUsed;
+    // Created only for caches with a directory; its one thread exits when
+    // it has been idle a while
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * Create an in-memory cache with the default size.
+     */
+    public LayoutCache() {
+        this(DEFAULT_MEMORY_ENTRIES, DEFAULT_MIN_SIMILARITY, null, 0);
+    }
+
+    /**
+     * Create a cache backed by a directory, with the default sizes.
+     *
+     * @param directory The directory, which is created if necessary
+     * @throws IOException if the directory cannot be created or listed
+     */
+    public LayoutCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MEMORY_ENTRIES, DEFAULT_DISK_BYTES, DEFAULT_MIN_SIMILARITY);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param directory The directory to store entries in, or null to keep
+     * them only in memory
+     * @param memoryEntries The number of entries to keep in memory
+     * @param diskBytes The most space entries may take in the directory
+     * @param minSimilarity The estimated fraction of nodes and edges a cached
+     * graph must share with a graph for its positions to be used as a
+     * starting point, between 0 and 1; 1 disables warm starts
+     * @throws IOException if the directory cannot be created or listed
+     */
+    public LayoutCache(Path directory, int memoryEntries, long diskBytes,
+            double minSimilarity) throws IOException {
+        this(memoryEntries, minSimilarity, directory, diskBytes);
+        if (directory != null) {
+            Files.createDirectories(directory);
+            scan();
+        }
+    }
+
+    private LayoutCache(int memoryEntries, double minSimilarity, Path directory, long diskBytes) {
+        if (memoryEntries < 1) {
+            throw new IllegalArgumentException("Memory entries must be at least 1: " + memoryEntries);
+        }
+        if (diskBytes < 0) {
+            throw new IllegalArgumentException("Negative disk bytes " + diskBytes);
+        }
+        if (!(minSimilarity > 0 && minSimilarity <= 1)) {
+            throw new IllegalArgumentException("Similarity must be > 0 and <= 1: " + minSimilarity);
+        }
+        this.directory = directory;
+        this.memoryEntries = memoryEntries;
+        this.diskBytes = diskBytes;
+        this.minSimilarity = minSimilarity;
+        writer = directory == null ? null : new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "layout-cache-writer");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Describe a layout for use in cache keys: its class, the size it lays
+     * out in, and the settings which affect the result, for ForceDir and for
+     * those JUNG layouts whose settings can be read back.
+     *
+     * @param layout The layout
+     * @return A description
+     */
+    public static String describe(Layout<?, ?> layout) {
+        StringBuilder result = new StringBuilder(layout.getClass().getName());
+        if (layout instanceof ForceDir<?, ?>) {
+            ForceDir<?, ?> fd = (ForceDir<?, ?>) layout;
+            result.append(':').append(fd.getRepulsionMode())
+                    .append(':').append(fd.getTickMode())
+                    .append(':').append(fd.isMultilevel() ? "multilevel" : "flat")
+                    .append(':').append(fd.getStarts());
+            // ForceDir ignores setSize(), and its getSize() is the extent of
+            // the nodes so far, so it is no part of the description
+            return result.toString();
+        }
+        Dimension size = layout.getSize();
+        if (size != null) {
+            result.append(':').append(size.width).append('x').append(size.height);
+        }
+        if (layout instanceof SpringLayout<?, ?>) {
+            SpringLayout<?, ?> spring = (SpringLayout<?, ?>) layout;
+            result.append(':').append(spring.getStretch())
+                    .append(':').append(spring.getRepulsionRange())
+                    .append(':').append(spring.getForceMultiplier());
+        } else if (layout instanceof KKLayout<?, ?>) {
+            KKLayout<?, ?> kk = (KKLayout<?, ?>) layout;
+            result.append(':').append(kk.getAdjustForGravity())
+                    .append(':').append(kk.getExchangeVertices());
+        } else if (layout instanceof CircleLayout<?, ?>) {
+            result.append(':').append(((CircleLayout<?, ?>) layout).getRadius());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Look up positions for a graph laid out with a layout described by
+     * {@link #describe}.
+     *
+     * @param <N> The node type
+     * @param <E> The edge type
+     * @param graph The graph
+     * @param layout The layout
+     * @return A hit, or null
+     */
+    public <N, E> Hit<N> find(Graph<N, E> graph, Layout<N, E> layout) {
+        return find(graph, describe(layout));
+    }
+
+    /**
+     * Look up positions for a graph and layout description - the positions
+     * last stored for the same graph and description, or if there are none,
+     * starting positions derived from those of the most similar graph stored
+     * with the same description.
+     *
+     * @param <N> The node type
+     * @param <E> The edge type
+     * @param graph The graph
+     * @param layoutDescription The layout description
+     * @return A hit, or null if there is nothing close enough
+     */
+    public synchronized <N, E> Hit<N> find(Graph<N, E> graph, String layoutDescription) {
+        Fingerprint fp = Fingerprint.of(graph);
+        String key = fp.key(layoutDescription);
+        Entry exact = load(key);
+        if (exact != null) {
+            return exact.positions(graph, true, 1);
+        }
+        String best = null;
+        double bestSimilarity = 0;
+        for (Map.Entry<String, Entry> e : memory.entrySet()) {
+            if (e.getValue().layout.equals(layoutDescription)) {
+                double sim = fp.similarity(e.getValue().signature);
+                if (sim > bestSimilarity) {
+                    best = e.getKey();
+                    bestSimilarity = sim;
+                }
+            }
+        }
+        for (Map.Entry<String, Stored> e : disk.entrySet()) {
+            if (e.getValue().layout.equals(layoutDescription)) {
+                double sim = fp.similarity(e.getValue().signature);
+                if (sim > bestSimilarity) {
+                    best = e.getKey();
+                    bestSimilarity = sim;
+                }
+            }
+        }
+        if (best == null || bestSimilarity < minSimilarity) {
+            return null;
+        }
+        Entry ancestor = load(best);
+        return ancestor == null ? null : ancestor.positions(graph, false, bestSimilarity);
+    }
+
+    /**
+     * Store the current positions of a layout's nodes.
+     *
+     * @param <N> The node type
+     * @param <E> The edge type
+     * @param graph The graph
+     * @param layout The layout
+     */
+    public <N, E> void put(Graph<N, E> graph, Layout<N, E> layout) {
+        Map<N, Point2D> positions = new HashMap<>(graph.getVertexCount() * 2);
+        for (N n : graph.getVertices()) {
+            Point2D p = layout.apply(n);
+            if (p != null) {
+                positions.put(n, p);
+            }
+        }
+        put(graph, describe(layout), positions);
+    }
+
+    /**
+     * Store node positions for a graph and layout description. Only memory
+     * is updated before this returns; the entry is written to the directory
+     * in the background.
+     *
+     * @param <N> The node type
+     * @param <E> The edge type
+     * @param graph The graph
+     * @param layoutDescription The layout description
+     * @param positions The positions; nodes with no position are not stored
+     */
+    public <N, E> void put(Graph<N, E> graph, String layoutDescription,
+            Map<N, ? extends Point2D> positions) {
+        Fingerprint fp = Fingerprint.of(graph);
+        List<String> names = new ArrayList<>(positions.size());
+        double[] xs = new double[positions.size()];
+        double[] ys = new double[positions.size()];
+        for (N n : graph.getVertices()) {
+            Point2D p = positions.get(n);
+            if (p != null) {
+                xs[names.size()] = p.getX();
+                ys[names.size()] = p.getY();
+                names.add(String.valueOf(n));
+            }
+        }
+        Entry entry = new Entry(layoutDescription, fp.signature,
+                names.toArray(new String[names.size()]), xs, ys);
+        String key = fp.key(layoutDescription);
+        synchronized (this) {
+            remember(key, entry);
+        }
+        if (writer != null) {
+            writer.execute(() -> write(key, entry));
+        }
+    }
+
+    /**
+     * Remove all entries, from memory and disk; files are deleted in the
+     * background, after any writes already pending.
+     */
+    public void clear() {
+        synchronized (this) {
+            memory.clear();
+        }
+        if (writer != null) {
+            writer.execute(() -> {
+                List<String> keys;
+                synchronized (this) {
+                    keys = new ArrayList<>(disk.keySet());
+                }
+                for (String key : keys) {
+                    delete(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait until everything stored or cleared before this call has reached
+     * the directory.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        if (writer != null) {
+            try {
+                writer.submit(() -> {
+                }).get();
+            } catch (ExecutionException ex) {
+                // A no-op cannot fail
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * The number of bytes entries take in the directory.
+     *
+     * @return A number of bytes
+     */
+    public synchronized long getDiskBytesUsed() {
+        return diskUsed;
+    }
+
+    private void remember(String key, Entry entry) {
+        memory.put(key, entry);
+        if (memory.size() > memoryEntries) {
+            Iterator<String> it = memory.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Entry load(String key) {
+        Entry result = memory.get(key);
+        if (result == null && disk.containsKey(key)) {
+            // Mark it recently used
+            disk.get(key);
+            Path file = directory.resolve(key + SUFFIX);
+            try {
+                result = read(file, true);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                remember(key, result);
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.INFO, "Dropping unreadable cached layout " + file, ex);
+                delete(key);
+            }
+        }
+        return result;
+    }
+
+    private void scan() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : dir) {
+                files.add(file);
+            }
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        // Oldest first, so the least recently used is evicted first
+        Collections.sort(files, Comparator.comparing(times::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String key = name.substring(0, name.length() - SUFFIX.length());
+            try {
+                Entry header = read(file, false);
+                long size = Files.size(file);
+                disk.put(key, new Stored(header.layout, header.signature, size));
+                diskUsed += size;
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.INFO, "Deleting unreadable cached layout " + file, ex);
+                Files.deleteIfExists(file);
+            }
+        }
+        evict();
+    }
+
+    private void write(String key, Entry entry) {
+        Path file = directory.resolve(key + SUFFIX);
+        Path temp = directory.resolve(key + SUFFIX + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, entry.layout);
+                for (long val : entry.signature) {
+                    out.writeLong(val);
+                }
+                out.writeInt(entry.names.length);
+                for (int i = 0; i < entry.names.length; i++) {
+                    writeString(out, entry.names[i]);
+                    out.writeDouble(entry.xs[i]);
+                    out.writeDouble(entry.ys[i]);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            long size = Files.size(file);
+            synchronized (this) {
+                Stored old = disk.put(key, new Stored(entry.layout, entry.signature, size));
+                diskUsed += size - (old == null ? 0 : old.bytes);
+            }
+            evict();
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Could not cache layout in " + file, ex);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ex1) {
+                LOG.log(Level.FINE, null, ex1);
+            }
+        }
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Stored>> it = disk.entrySet().iterator();
+            while (diskUsed > diskBytes && it.hasNext()) {
+                Map.Entry<String, Stored> e = it.next();
+                evicted.add(e.getKey());
+                diskUsed -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(key + SUFFIX));
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Could not evict cached layout " + key, ex);
+            }
+        }
+    }
+
+    private void delete(String key) {
+        Stored stored;
+        synchronized (this) {
+            stored = disk.remove(key);
+            if (stored != null) {
+                diskUsed -= stored.bytes;
+            }
+        }
+        if (stored != null) {
+            try {
+                Files.deleteIfExists(directory.resolve(key + SUFFIX));
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Could not delete cached layout " + key, ex);
+            }
+        }
+    }
+
+    private static Entry read(Path file, boolean positions) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cached layout");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            String layout = readString(in);
+            long[] signature = new long[SIGNATURE_LENGTH];
+            for (int i = 0; i < signature.length; i++) {
+                signature[i] = in.readLong();
+            }
+            if (!positions) {
+                return new Entry(layout, signature, null, null, null);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Negative node count " + count);
+            }
+            String[] names = new String[count];
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = readString(in);
+                xs[i] = in.readDouble();
+                ys[i] = in.readDouble();
+            }
+            return new Entry(layout, signature, names, xs, ys);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    static long hash(String s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Positions found in the cache.
+     *
+     * @param <N> The node type
+     */
+    public static final class Hit<N> {
+
+        private final Map<N, Point2D> positions;
+        private final boolean exact;
+        private final double similarity;
+
+        Hit(Map<N, Point2D> positions, boolean exact, double similarity) {
+            this.positions = Collections.unmodifiableMap(positions);
+            this.exact = exact;
+            this.similarity = similarity;
+        }
+
+        /**
+         * Whether these are the stored final positions for this graph, as
+         * opposed to starting positions derived from a similar one.
+         *
+         * @return true if this is an exact match
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * The estimated fraction of nodes and edges the graph has in common
+         * with the one the positions were stored for.
+         *
+         * @return The similarity, 1 for an exact match
+         */
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        /**
+         * The positions, for every node of the graph.
+         *
+         * @return An unmodifiable map
+         */
+        public Map<N, Point2D> getPositions() {
+            return positions;
+        }
+    }
+
+    /**
+     * A hash of a graph's structure which does not depend on iteration
+     * order, and a MinHash signature of its nodes and edges.
+     */
+    static final class Fingerprint {
+
+        private final long nodeSum;
+        private final long edgeSum;
+        private final int nodes;
+        private final int edges;
+        final long[] signature;
+
+        private Fingerprint(long nodeSum, long edgeSum, int nodes, int edges, long[] signature) {
+            this.nodeSum = nodeSum;
+            this.edgeSum = edgeSum;
+            this.nodes = nodes;
+            this.edges = edges;
+            this.signature = signature;
+        }
+
+        static <N, E> Fingerprint of(Graph<N, E> graph) {
+            long[] signature = new long[SIGNATURE_LENGTH];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            Map<N, Long> hashes = new HashMap<>(graph.getVertexCount() * 2);
+            long nodeSum = 0;
+            for (N n : graph.getVertices()) {
+                long h = hash(String.valueOf(n));
+                hashes.put(n, h);
+                nodeSum += h;
+                minHash(signature, h);
+            }
+            long edgeSum = 0;
+            for (E e : graph.getEdges()) {
+                Pair<N> ends = graph.getEndpoints(e);
+                long a = hashes.get(ends.getFirst());
+                long b = hashes.get(ends.getSecond());
+                if (graph.getEdgeType(e) == EdgeType.UNDIRECTED && a > b) {
+                    long swap = a;
+                    a = b;
+                    b = swap;
+                }
+                // Tagged so an edge never hashes like a node
+                long h = mix(a ^ Long.rotateLeft(b, 29) ^ 0x5DEECE66DL);
+                edgeSum += h;
+                minHash(signature, h);
+            }
+            return new Fingerprint(nodeSum, edgeSum, graph.getVertexCount(),
+                    graph.getEdgeCount(), signature);
+        }
+
+        private static void minHash(long[] signature, long h) {
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                long v = mix(h ^ SEEDS[i]);
+                if (v < signature[i]) {
+                    signature[i] = v;
+                }
+            }
+        }
+
+        String key(String layoutDescription) {
+            return Long.toHexString(nodeSum) + '-' + Long.toHexString(edgeSum)
+                    + '-' + Integer.toHexString(nodes) + '-' + Integer.toHexString(edges)
+                    + '-' + Long.toHexString(hash(layoutDescription));
+        }
+
+        double similarity(long[] other) {
+            int same = 0;
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                if (signature[i] == other[i]) {
+                    same++;
+                }
+            }
+            return same / (double) SIGNATURE_LENGTH;
+        }
+    }
+
+    /**
+     * The positions stored for one graph and layout.
+     */
+    private static final class Entry {
+
+        final String layout;
+        final long[] signature;
+        final String[] names;
+        final double[] xs;
+        final double[] ys;
+
+        Entry(String layout, long[] signature, String[] names, double[] xs, double[] ys) {
+            this.layout = layout;
+            this.signature = signature;
+            this.names = names;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        <N, E> Hit<N> positions(Graph<N, E> graph, boolean exact, double similarity) {
+            Map<String, Integer> index = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                index.put(names[i], i);
+            }
+            Map<N, Point2D> result = new HashMap<>(graph.getVertexCount() * 2);
+            List<N> unplaced = new ArrayList<>();
+            double cx = 0;
+            double cy = 0;
+            for (N n : graph.getVertices()) {
+                Integer ix = index.get(String.valueOf(n));
+                if (ix == null) {
+                    unplaced.add(n);
+                } else {
+                    result.put(n, new Point2D.Double(xs[ix], ys[ix]));
+                    cx += xs[ix];
+                    cy += ys[ix];
+                }
+            }
+            if (result.isEmpty()) {
+                return null;
+            }
+            cx /= result.size();
+            cy /= result.size();
+            // New nodes go to the middle of their placed neighbors, which
+            // may themselves be new nodes placed earlier in this loop; the
+            // force layouts push apart any which land on the same spot
+            for (N n : unplaced) {
+                double x = 0;
+                double y = 0;
+                int count = 0;
+                for (N nb : graph.getNeighbors(n)) {
+                    Point2D p = result.get(nb);
+                    if (p != null) {
+                        x += p.getX();
+                        y += p.getY();
+                        count++;
+                    }
+                }
+                result.put(n, count == 0 ? new Point2D.Double(cx, cy)
+                        : new Point2D.Double(x / count, y / count));
+            }
+            return new Hit<>(result, exact, similarity);
+        }
+    }
+
+    /**
+     * What is kept in memory about an entry on disk.
+     */
+    private static final class Stored {
+
+        final String layout;
+        final long[] signature;
+        final long bytes;
+
+        Stored(String layout, long[] signature, long bytes) {
+            this.layout = layout;
+            this.signature = signature;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Changes to a layout which is being stepped on another thread, queued by
+ * the UI and applied by the stepping thread between steps.
+ * <p/>
+ * Once closed, {@link #submit} refuses changes, telling the caller that
+ * nothing is stepping the layout any more and it may apply them itself. A
+ * change which races with closing is either refused or picked up by the
+ * stepping thread's final call to {@link #drain}, never lost.
+ *
+ * @author Tim Boudreau
+ */
+final class LayoutInput<N, E> {
+
+    private static final Logger LOG = Logger.getLogger(LayoutInput.class.getName());
+    private final ConcurrentLinkedQueue<Consumer<Layout<N, E>>> queue
+            = new ConcurrentLinkedQueue<>();
+    private volatile boolean open = true;
+
+    /**
+     * Queue a change to the layout.
+     *
+     * @param change The change
+     * @return false if the layout is no longer being stepped, in which case
+     * the caller should apply the change itself
+     */
+    boolean submit(Consumer<Layout<N, E>> change) {
+        if (!open) {
+            return false;
+        }
+        queue.add(change);
+        // If we were closed in the meantime and the change is still
+        // queued, nobody will apply it
+        return open || !queue.remove(change);
+    }
+
+    /**
+     * Queue moving a node, as when the user drags it.
+     *
+     * @param node The node
+     * @param location Its new location
+     * @return false if the layout is no longer being stepped
+     */
+    boolean move(N node, Point2D location) {
+        Point2D copy = new Point2D.Double(location.getX(), location.getY());
+        return submit(lay -> lay.setLocation(node, copy));
+    }
+
+    /**
+     * Queue a change to the size the layout should fill.
+     *
+     * @param size The size
+     * @return false if the layout is no longer being stepped
+     */
+    boolean resize(Dimension size) {
+        Dimension copy = new Dimension(size);
+        return submit(lay -> {
+            try {
+                lay.setSize(copy);
+            } catch (UnsupportedOperationException e) {
+                // some layouts dont support this
+            }
+        });
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Determine whether changes are still accepted; once not, the stepping
+     * thread is done stepping and at most applying the last changes.
+     *
+     * @return true if not closed
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Refuse any further changes. The stepping thread should call
+     * <code>drain()</code> once more afterwards.
+     */
+    void close() {
+        open = false;
+    }
+
+    /**
+     * Apply all queued changes; called on the thread stepping the layout.
+     *
+     * @param layout The layout
+     */
+    void drain(Layout<N, E> layout) {
+        Consumer<Layout<N, E>> change;
+        while ((change = queue.poll()) != null) {
+            try {
+                change.accept(layout);
+            } catch (RuntimeException e) {
+                LOG.log(Level.INFO, null, e);
+            }
+        }
+    }
+}
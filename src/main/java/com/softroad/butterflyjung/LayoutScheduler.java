@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+/**
+ * Decides how much layout work an animated JungScene does per frame.
+ * <p/>
+ * The scene's animation timer fires at the frame rate set with
+ * <code>setLayoutAnimationFramesPerSecond()</code>. Rather than performing
+ * exactly one <code>step()</code> per frame - which makes small graphs
+ * converge needlessly slowly and makes large ones drop frames - the scene
+ * asks this object how many steps to run, tells it how long they took, and
+ * asks whether there is time left to copy the results onto the widgets.
+ * <p/>
+ * The default implementation keeps exponentially smoothed averages of the
+ * cost of a step, of applying a frame to the widgets, and of whatever else
+ * the event thread spends between frames (mostly painting), and runs as many
+ * steps as fit in the frame time once the rest is accounted for. When the
+ * steps alone overrun the frame time, it skips applying positions to widgets
+ * for a few frames so the layout can make progress.
+ * <p/>
+ * When the scene steps its layout on a background thread, only the step
+ * count is consulted; frames the event thread cannot keep up with are
+ * dropped anyway.
+ *
+ * @author Tim Boudreau
+ */
+public class LayoutScheduler {
+
+    /**
+     * The default maximum number of steps performed in a single frame.
+     */
+    public static final int DEFAULT_MAXIMUM_STEPS_PER_FRAME = 32;
+    /**
+     * The default maximum number of consecutive frames for which applying
+     * positions to widgets may be skipped.
+     */
+    public static final int DEFAULT_MAXIMUM_SKIPPED_FRAMES = 3;
+    private static final double SMOOTHING = 0.2;
+    private static final double NANOS_PER_MILLI = 1000000D;
+
+    private int maxSteps = DEFAULT_MAXIMUM_STEPS_PER_FRAME;
+    private int maxSkipped = DEFAULT_MAXIMUM_SKIPPED_FRAMES;
+    private double stepCost = -1;
+    private double applyCost;
+    private double otherCost;
+    private long lastWork;
+    private int skipped;
+
+    /**
+     * Create an instance which performs one step per frame and always
+     * applies it, which is how scenes behaved before schedulers existed.
+     * Schedulers keep measurements, so each scene needs its own.
+     *
+     * @return A new scheduler
+     */
+    public static LayoutScheduler oneStepPerFrame() {
+        return new LayoutScheduler() {
+            @Override
+            protected int stepsForFrame(long targetNanos) {
+                return 1;
+            }
+
+            @Override
+            protected boolean shouldApply(long elapsedNanos, long targetNanos) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the maximum number of steps performed in a single frame, however
+     * cheap they are.
+     *
+     * @return The maximum
+     */
+    public final int getMaximumStepsPerFrame() {
+        return maxSteps;
+    }
+
+    /**
+     * Set the maximum number of steps performed in a single frame, however
+     * cheap they are.
+     *
+     * @param steps The maximum, at least one
+     */
+    public final void setMaximumStepsPerFrame(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("Must perform at least one step per frame, not " + steps);
+        }
+        this.maxSteps = steps;
+    }
+
+    /**
+     * Get the maximum number of consecutive frames for which copying node
+     * positions onto widgets may be skipped because the layout steps used up
+     * the frame time.
+     *
+     * @return The number of frames
+     */
+    public final int getMaximumSkippedFrames() {
+        return maxSkipped;
+    }
+
+    /**
+     * Set the maximum number of consecutive frames for which copying node
+     * positions onto widgets may be skipped because the layout steps used up
+     * the frame time.
+     *
+     * @param frames The number of frames, zero to never skip
+     */
+    public final void setMaximumSkippedFrames(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("Negative values not allowed: " + frames);
+        }
+        this.maxSkipped = frames;
+    }
+
+    /**
+     * Forget all measurements, as when a new layout is being animated.
+     */
+    protected void reset() {
+        stepCost = -1;
+        applyCost = 0;
+        otherCost = 0;
+        lastWork = 0;
+        skipped = 0;
+    }
+
+    /**
+     * Called when the animation timer fires, with the time since it last
+     * fired. Time not spent in steps or applying frames was spent by the
+     * event thread on other things, mostly painting; the default
+     * implementation subtracts it from the time available for steps.
+     *
+     * @param sinceLastFrameNanos Nanoseconds since the previous frame, or
+     * zero for the first one
+     * @param targetNanos The target frame time
+     */
+    protected void frameStarted(long sinceLastFrameNanos, long targetNanos) {
+        if (sinceLastFrameNanos > 0 && lastWork > 0) {
+            // If the timer fired on time, whatever else happened fit in the
+            // frame; we only learn its cost when it made us late
+            double other = sinceLastFrameNanos > targetNanos
+                    ? Math.max(0, sinceLastFrameNanos - lastWork) : 0;
+            otherCost = smooth(otherCost, other);
+        }
+        lastWork = 0;
+    }
+
+    /**
+     * Get the number of layout steps to perform in the coming frame.
+     *
+     * @param targetNanos The target frame time in nanoseconds
+     * @return A number of steps, at least one
+     */
+    protected int stepsForFrame(long targetNanos) {
+        if (stepCost <= 0) {
+            // Nothing measured yet
+            return 1;
+        }
+        double available = targetNanos - applyCost - otherCost;
+        int result = (int) (available / stepCost);
+        return Math.max(1, Math.min(maxSteps, result));
+    }
+
+    /**
+     * Called after the steps for a frame have been performed.
+     *
+     * @param steps The number of steps actually performed, which may be
+     * fewer than requested if the layout finished
+     * @param nanos The time they took
+     */
+    protected void stepsPerformed(int steps, long nanos) {
+        if (steps > 0) {
+            double perStep = nanos / (double) steps;
+            stepCost = stepCost <= 0 ? perStep : smooth(stepCost, perStep);
+        }
+        lastWork += nanos;
+    }
+
+    /**
+     * Decide whether to copy node positions onto widgets in this frame, or
+     * to skip it because the steps already used up the frame time.
+     *
+     * @param elapsedNanos The time spent in this frame so far
+     * @param targetNanos The target frame time
+     * @return true if the frame should be applied
+     */
+    protected boolean shouldApply(long elapsedNanos, long targetNanos) {
+        if (elapsedNanos + applyCost > targetNanos && skipped < maxSkipped) {
+            skipped++;
+            return false;
+        }
+        skipped = 0;
+        return true;
+    }
+
+    /**
+     * Called after node positions have been applied to widgets.
+     *
+     * @param nanos The time it took
+     */
+    protected void frameApplied(long nanos) {
+        applyCost = smooth(applyCost, nanos);
+        lastWork += nanos;
+    }
+
+    /**
+     * Get the current estimate of the cost of one layout step, in
+     * milliseconds, or a negative number if nothing has been measured yet.
+     *
+     * @return The estimated cost
+     */
+    public final double getEstimatedStepMillis() {
+        return stepCost < 0 ? stepCost : stepCost / NANOS_PER_MILLI;
+    }
+
+    private static double smooth(double average, double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
+import edu.uci.ics.jung.graph.Graph;
+
+import javax.swing.SwingUtilities;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the steps of an IterativeContext layout on a background thread, so
+ * that an expensive layout does not freeze the UI. How many steps are
+ * performed per frame is up to the scene's {@link LayoutScheduler}.
+ * <p/>
+ * After each step the worker copies the node positions into an immutable
+ * {@link Frame} and publishes it through an AtomicReference, replacing any
+ * frame the event thread has not picked up yet; at most one runnable to
+ * consume it is queued on the event thread at a time, so if painting falls
+ * behind, intermediate frames are simply dropped and only the newest one is
+ * shown.
+ * <p/>
+ * The layout is only touched on the worker thread while it is running.
+ * Anything the UI needs to tell it - a node dragged to a new location, the
+ * view being resized - goes through its {@link LayoutInput}, and is applied by the
+ * worker between steps.
+ *
+ * @author Tim Boudreau
+ */
+final class LayoutWorker<N, E> {
+
+    private static final Logger LOG = Logger.getLogger(LayoutWorker.class.getName());
+    private final Graph<N, E> graph;
+    private final Layout<N, E> layout;
+    private final IterativeContext ctx;
+    private final LayoutAnimationEvaluator evaluator;
+    private final LayoutScheduler scheduler;
+    private final long frameNanos;
+    private final Consumer<Frame<N>> onFrame;
+    private final Runnable onFinished;
+    private final AtomicReference<Frame<N>> latest = new AtomicReference<>();
+    private final AtomicBoolean frameQueued = new AtomicBoolean();
+    private final LayoutInput<N, E> input = new LayoutInput<>();
+    private final ScheduledExecutorService executor;
+    private volatile boolean running = true;
+    private volatile boolean cancelled;
+    private Frame<N> previous;
+    private int steps;
+
+    /**
+     * Create and start a worker.
+     *
+     * @param graph The graph
+     * @param layout The layout, which must implement IterativeContext
+     * @param evaluator Decides when stepping the layout has stopped being
+     * useful
+     * @param scheduler Decides how many steps to perform per frame
+     * @param delay The frame time in milliseconds
+     * @param onFrame Called on the event thread with the most recent frame
+     * @param onFinished Called on the event thread after the last frame,
+     * if the layout finishes rather than being stopped
+     */
+    LayoutWorker(Graph<N, E> graph, Layout<N, E> layout,
+            LayoutAnimationEvaluator evaluator, LayoutScheduler scheduler,
+            int delay, Consumer<Frame<N>> onFrame, Runnable onFinished) {
+        this.graph = graph;
+        this.layout = layout;
+        this.ctx = (IterativeContext) layout;
+        this.evaluator = evaluator;
+        this.scheduler = scheduler;
+        this.frameNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, delay));
+        this.onFrame = onFrame;
+        this.onFinished = onFinished;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "layout-" + layout.getClass().getSimpleName());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        executor.scheduleAtFixedRate(this::tick, 0, frameNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Determine if the worker is still stepping the layout.
+     *
+     * @return true if running
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Get the layout this worker steps.
+     *
+     * @return The layout
+     */
+    Layout<N, E> layout() {
+        return layout;
+    }
+
+    /**
+     * Stop stepping the layout. Blocks until a step already in progress has
+     * completed, so that when this method returns the layout may be used by
+     * the calling thread, or handed to another worker; once it has been
+     * called on the event thread, no further frames will be delivered.
+     */
+    void stop() {
+        cancelled = true;
+        finish();
+        join();
+    }
+
+    /**
+     * Once the worker has stopped or finished by itself, wait for its last
+     * tick, which may still be stepping the layout or applying queued
+     * changes to it, to complete.
+     */
+    void join() {
+        if (running) {
+            throw new IllegalStateException("Still running");
+        }
+        try {
+            // shutdown() cancels the periodic task, but not a tick which is
+            // already running
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            LOG.log(Level.FINE, "Interrupted waiting for the last step", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finish() {
+        running = false;
+        input.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Get the queue of changes the worker applies between steps.
+     *
+     * @return The input
+     */
+    LayoutInput<N, E> input() {
+        return input;
+    }
+
+    private void tick() {
+        if (!running) {
+            return;
+        }
+        input.drain(layout);
+        long start = System.nanoTime();
+        int count = scheduler.stepsForFrame(frameNanos);
+        int performed = 0;
+        boolean done = false;
+        while (performed < count && !done) {
+            try {
+                ctx.step();
+            } catch (Exception ex) {
+                // e.g. IllegalArgumentException: Unexpected mathematical result in FRLayout:calcPositions
+                // Some layouts are buggy.
+                LOG.log(Level.FINE, null, ex);
+            }
+            performed++;
+            done = ctx.done();
+        }
+        steps += performed;
+        long stepped = System.nanoTime();
+        scheduler.stepsPerformed(performed, stepped - start);
+        Frame<N> frame = capture();
+        // Copying positions is the worker's share of the cost of a frame
+        scheduler.frameApplied(System.nanoTime() - stepped);
+        if (frame == null) {
+            // The graph was modified while we were reading it; try again
+            // next tick
+            return;
+        }
+        boolean finished = done || finished(frame);
+        previous = frame;
+        publish(frame);
+        if (finished && input.isEmpty()) {
+            finish();
+            // Anything submitted while we were deciding to stop
+            input.drain(layout);
+            // Queued after the last frame, so runs after it is delivered
+            SwingUtilities.invokeLater(() -> {
+                if (!cancelled) {
+                    onFinished.run();
+                }
+            });
+        }
+    }
+
+    private Frame<N> capture() {
+        List<N> nodes;
+        try {
+            nodes = new ArrayList<>(graph.getVertices());
+        } catch (ConcurrentModificationException e) {
+            return null;
+        }
+        Map<N, Point> positions = new LinkedHashMap<>(nodes.size() + (nodes.size() / 3));
+        for (N n : nodes) {
+            Point2D p;
+            try {
+                p = layout.apply(n);
+            } catch (RuntimeException e) {
+                // Node added to the graph but not yet known to the layout
+                continue;
+            }
+            if (p != null) {
+                positions.put(n, new Point((int) p.getX(), (int) p.getY()));
+            }
+        }
+        return new Frame<>(steps, positions);
+    }
+
+    private boolean finished(Frame<N> frame) {
+        if (previous == null) {
+            return false;
+        }
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double total = 0;
+        int count = 0;
+        for (Map.Entry<N, Point> e : frame.positions.entrySet()) {
+            Point old = previous.positions.get(e.getKey());
+            if (old != null) {
+                double dist = old.distance(e.getValue());
+                min = Math.min(min, dist);
+                max = Math.max(max, dist);
+                total += dist;
+                count++;
+            }
+        }
+        if (count == 0) {
+            min = 0;
+        }
+        return evaluator.animationIsFinished(min, max,
+                count == 0 ? 0 : total / count, layout);
+    }
+
+    private void publish(Frame<N> frame) {
+        latest.set(frame);
+        if (frameQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        frameQueued.set(false);
+        Frame<N> frame = latest.getAndSet(null);
+        if (frame != null && !cancelled) {
+            onFrame.accept(frame);
+        }
+    }
+
+    /**
+     * An immutable snapshot of node positions after some number of steps.
+     */
+    static final class Frame<N> {
+
+        private final int step;
+        private final Map<N, Point> positions;
+
+        Frame(int step, Map<N, Point> positions) {
+            this.step = step;
+            this.positions = Collections.unmodifiableMap(positions);
+        }
+
+        /**
+         * The number of steps the worker had performed when this frame was
+         * taken.
+         *
+         * @return The step
+         */
+        int step() {
+            return step;
+        }
+
+        /**
+         * The node positions, as integer coordinates suitable for widgets.
+         *
+         * @return An unmodifiable map
+         */
+        Map<N, Point> positions() {
+            return positions;
+        }
+    }
+}
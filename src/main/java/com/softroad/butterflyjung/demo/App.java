@@ -28,7 +28,13 @@ package com.softroad.butterflyjung.demo;
 
 import com.google.common.base.Function;
 import com.softroad.butterflyjung.JungConnectionWidget;
+import com.softroad.butterflyjung.LayoutCache;
 import com.softroad.butterflyjung.extensions.BaseJungScene;
+import com.softroad.butterflyjung.io.DotReader;
+import com.softroad.butterflyjung.io.EdgeList;
+import com.softroad.butterflyjung.io.EdgeListBuilder;
+import com.softroad.butterflyjung.io.EdgeListLoader;
+import com.softroad.butterflyjung.io.GraphMLReader;
 import edu.uci.ics.jung.algorithms.layout.SpringLayout;
 import edu.uci.ics.jung.algorithms.layout.*;
 import edu.uci.ics.jung.graph.*;
@@ -43,16 +49,13 @@ import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class App {
 
-    private static final Pattern QUOTES = Pattern.compile("\"(.*?)\"\\s+\"(.*?)\"\\s+");
-    private static final Pattern NO_QUOTES = Pattern.compile("(.*?)\\s+(.*)");
-
     private static class GraphAndForest {
 
         private final ObservableGraph<String, String> graph;
@@ -94,6 +97,10 @@ public class App {
             layout = new KKLayout(graph);
         }
         final BaseJungScene scene = new SceneImpl(graph, layout);
+        // Graphs reopened with a layout they have been shown with before
+        // come up laid out
+        scene.setLayoutCache(new LayoutCache(Paths.get(System.getProperty("user.home"),
+                ".butterflyjung", "layouts")));
         jf.setLayout(new BorderLayout());
         jf.add(new JScrollPane(scene.createView()), BorderLayout.CENTER);
 
@@ -244,98 +251,38 @@ public class App {
         }
     }
 
-    private static String[] elements(String line, String[] into) {
-        if (line.startsWith("#")) {
-            return null;
+    private static EdgeList load(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".graphml")) {
+            EdgeListBuilder builder = new EdgeListBuilder();
+            new GraphMLReader().read(file, builder);
+            return builder.build();
+        } else if (name.endsWith(".dot") || name.endsWith(".gv")) {
+            EdgeListBuilder builder = new EdgeListBuilder();
+            new DotReader().read(file, builder);
+            return builder.build();
         }
-        Matcher m = QUOTES.matcher(line);
-        if (m.find()) {
-            into[0] = m.group(1);
-            into[1] = m.group(2);
-            return into;
-        } else {
-            m = NO_QUOTES.matcher(line);
-            if (m.find()) {
-                into[0] = m.group(1);
-                into[1] = m.group(2);
-                return into;
-            }
-        }
-        return null;
+        return new EdgeListLoader().load(file);
     }
 
-    private static GraphAndForest loadGraph(String[] args) throws FileNotFoundException, IOException {
+    private static GraphAndForest loadGraph(String[] args) throws IOException {
         if (args.length > 0) {
             File f = new File(args[0]);
             if (!f.exists() || !f.isFile() || !f.canRead()) {
                 System.err.println("File does not exist, is not readable, or is not a file: " + f);
                 System.exit(1);
             }
-            try {
-                Forest<String, String> forest = new DelegateForest<>();
-                String[] arr = new String[2];
-                Set<String> pairs = new HashSet<>();
-                try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-                    int ix = 0;
-                    for (String line; (line = br.readLine()) != null;) {
-                        line = line.trim();
-                        String[] items = elements(line, arr);
-                        if (items != null) {
-                            if (items[0].equals(items[1])) {
-                                continue;
-                            }
-                            String[] x = new String[]{items[0], items[1]};
-                            Arrays.sort(x);
-                            String key = x[0] + "::" + x[1];
-                            if (!pairs.contains(key)) {
-                                String edge = Integer.toString(ix);
-                                forest.addEdge(edge, items[0], items[1]);
-                                pairs.add(key);
-                            } else {
-                                System.out.println("DUP: " + key);
-                            }
-                        }
-                        ix++;
-                    }
-                }
-                ObservableGraph<String, String> g = new ObservableGraph<>(forest);
-                return new GraphAndForest(g, forest);
-            } catch (Exception e) {
-                // Graph has cycles - try undirected
-                e.printStackTrace();
-                UndirectedOrderedSparseMultigraph<String, String> graph = new UndirectedOrderedSparseMultigraph<String, String>();
-                String[] arr = new String[2];
-                Set<String> pairs = new HashSet<>();
-                try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-                    int ix = 0;
-                    for (String line; (line = br.readLine()) != null;) {
-                        line = line.trim();
-                        String[] items = elements(line, arr);
-                        if (items != null) {
-                            if (items[0].equals(items[1])) {
-                                continue;
-                            }
-                            String edge = Integer.toString(ix);
-                            try {
-                                String[] x = new String[]{items[0], items[1]};
-                                Arrays.sort(x);
-                                String key = x[0] + "::" + x[1];
-                                if (!pairs.contains(key)) {
-                                    graph.addEdge(edge, items[0], items[1]);
-                                    pairs.add(key);
-                                } else {
-                                    System.out.println("DUP: " + key);
-                                }
-                            } catch (IllegalArgumentException ex) {
-                                System.err.println(ex.getMessage());
-                            }
-                        }
-                        ix++;
-                    }
-                }
-                ObservableGraph<String, String> g = new ObservableGraph<>(graph);
-                return new GraphAndForest(g, null);
+            // One pass tells us whether the edges form a forest, so there
+            // is no need to try building one and re-read the file if it fails
+            EdgeList edges = load(f.toPath());
+            if (edges.duplicates() > 0) {
+                System.out.println("Skipped " + edges.duplicates() + " duplicate edges");
+            }
+            if (edges.isForest()) {
+                Forest<String, String> forest = edges.toForest();
+                return new GraphAndForest(new ObservableGraph<>(forest), forest);
             }
+            return new GraphAndForest(new ObservableGraph<>(edges.toUndirectedGraph()), null);
         } else {
             Forest<String, String> forest = new DelegateForest<>();
             ObservableGraph<String, String> g = new ObservableGraph(new BalloonLayoutDemo().createTree(forest));
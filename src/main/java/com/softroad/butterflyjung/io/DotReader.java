@@ -0,0 +1,537 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the nodes and edges of Graphviz DOT files incrementally, through a
+ * fixed-size character buffer, passing each to a {@link GraphSink} as it is
+ * parsed, so that memory use depends on the graph being built and not on
+ * the size of the file.
+ * <p>
+ * The whole DOT grammar is accepted - strict graphs and digraphs, several
+ * graphs in one file, quoted, numeric and HTML ids, quoted strings joined
+ * with +, ports, comments and preprocessor lines, attribute statements and
+ * lists, and subgraphs, including as edge endpoints, where
+ * <code>a -&gt; {b c}</code> connects <code>a</code> to each of
+ * <code>b</code> and <code>c</code>. Attributes are skipped without being
+ * kept. The only thing held besides the current token is the node names of
+ * subgraphs which are still open, since the statement containing a
+ * subgraph may go on to use it as an edge endpoint once it closes.
+ * </p><p>
+ * Edges are passed from left to right whether the graph is directed or
+ * not. Instances are not thread-safe; use one per thread.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class DotReader {
+
+    /**
+     * The longest id accepted, so a malformed file - a quote which is never
+     * closed, say - fails rather than reading the rest of the file into one
+     * string.
+     */
+    public static final int MAX_ID_LENGTH = 1 << 16;
+    private static final int EOF = -1;
+    private static final int ID = 0;
+    private static final int LBRACE = '{';
+    private static final int RBRACE = '}';
+    private static final int LBRACKET = '[';
+    private static final int RBRACKET = ']';
+    private static final int EQUALS = '=';
+    private static final int SEMICOLON = ';';
+    private static final int COMMA = ',';
+    private static final int COLON = ':';
+    private static final int EDGE_OP = '>';
+    private static final int NONE = -2;
+    private final char[] buffer = new char[1 << 16];
+    private final StringBuilder text = new StringBuilder();
+    private Reader reader;
+    private GraphSink sink;
+    private int position;
+    private int limit;
+    private int line;
+    private int pushedBack = NONE;
+    private int token;
+    private boolean quoted;
+    private boolean discard;
+
+    /**
+     * Read a DOT file.
+     *
+     * @param file The file, which is expected to be UTF-8
+     * @param sink Receives nodes and edges
+     * @throws IOException if the file cannot be read or is not valid DOT
+     */
+    public void read(Path file, GraphSink sink) throws IOException {
+        try (Reader in = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            read(in, sink);
+        }
+    }
+
+    /**
+     * Read DOT from a reader, which is not closed.
+     *
+     * @param reader The reader
+     * @param sink Receives nodes and edges
+     * @throws IOException if reading fails or the input is not valid DOT
+     */
+    public void read(Reader reader, GraphSink sink) throws IOException {
+        this.reader = reader;
+        this.sink = sink;
+        position = limit = 0;
+        line = 1;
+        pushedBack = NONE;
+        discard = false;
+        try {
+            next();
+            while (token != EOF) {
+                graph();
+            }
+        } finally {
+            this.reader = null;
+            this.sink = null;
+            text.setLength(0);
+        }
+    }
+
+    private void graph() throws IOException {
+        if (isKeyword("strict")) {
+            next();
+        }
+        if (!isKeyword("graph") && !isKeyword("digraph")) {
+            throw error("Expected graph or digraph");
+        }
+        next();
+        if (token == ID) {
+            next();
+        }
+        expect(LBRACE);
+        next();
+        statements(null);
+        expect(RBRACE);
+        next();
+    }
+
+    /**
+     * Parse statements up to a closing brace.
+     *
+     * @param members If within a subgraph, collects the names of the nodes
+     * in it
+     */
+    private void statements(List<String> members) throws IOException {
+        while (token != RBRACE && token != EOF) {
+            statement(members);
+            if (token == SEMICOLON || token == COMMA) {
+                next();
+            }
+        }
+    }
+
+    private void statement(List<String> members) throws IOException {
+        if (isKeyword("graph") || isKeyword("node") || isKeyword("edge")) {
+            // Default attributes
+            next();
+            attributes();
+            return;
+        }
+        Object left;
+        if (token == ID && !isKeyword("subgraph")) {
+            String name = text.toString();
+            next();
+            if (token == EQUALS) {
+                // A graph attribute, id = id
+                next();
+                expect(ID);
+                next();
+                return;
+            }
+            left = node(name, members);
+            if (token != EDGE_OP) {
+                sink.node(name);
+                attributes();
+                return;
+            }
+        } else {
+            left = subgraph(members);
+        }
+        while (token == EDGE_OP) {
+            next();
+            Object right = endpoint(members);
+            connect(left, right);
+            left = right;
+        }
+        attributes();
+    }
+
+    /**
+     * Parse a node id, with any port, or a subgraph.
+     *
+     * @return The node name, or a list of the names of the nodes in the
+     * subgraph
+     */
+    private Object endpoint(List<String> members) throws IOException {
+        if (token == LBRACE || isKeyword("subgraph")) {
+            return subgraph(members);
+        }
+        expect(ID);
+        String name = text.toString();
+        next();
+        return node(name, members);
+    }
+
+    private String node(String name, List<String> members) throws IOException {
+        if (token == COLON) {
+            // port, or port:compass point, neither of which matters here
+            next();
+            expect(ID);
+            next();
+            if (token == COLON) {
+                next();
+                expect(ID);
+                next();
+            }
+        }
+        if (members != null) {
+            members.add(name);
+        }
+        return name;
+    }
+
+    private List<String> subgraph(List<String> members) throws IOException {
+        if (isKeyword("subgraph")) {
+            next();
+            if (token == ID) {
+                next();
+            }
+        }
+        expect(LBRACE);
+        next();
+        List<String> own = new ArrayList<>();
+        statements(own);
+        expect(RBRACE);
+        next();
+        if (members != null) {
+            members.addAll(own);
+        }
+        return own;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void connect(Object left, Object right) {
+        if (left instanceof String) {
+            if (right instanceof String) {
+                sink.edge((String) left, (String) right);
+            } else {
+                for (String r : (List<String>) right) {
+                    sink.edge((String) left, r);
+                }
+            }
+        } else {
+            for (String l : (List<String>) left) {
+                connect(l, right);
+            }
+        }
+    }
+
+    /**
+     * Skip any number of attribute lists, keeping none of their text.
+     */
+    private void attributes() throws IOException {
+        while (token == LBRACKET) {
+            discard = true;
+            next();
+            while (token != RBRACKET) {
+                if (token == EOF) {
+                    throw error("Unterminated attribute list");
+                }
+                next();
+            }
+            discard = false;
+            next();
+        }
+    }
+
+    private boolean isKeyword(String keyword) {
+        if (token != ID || quoted || text.length() != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.toLowerCase(text.charAt(i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(int kind) throws IOException {
+        if (token != kind) {
+            throw error("Expected " + describe(kind));
+        }
+    }
+
+    private static String describe(int kind) {
+        switch (kind) {
+            case ID:
+                return "an id";
+            case EOF:
+                return "end of input";
+            case EDGE_OP:
+                return "-> or --";
+            default:
+                return "'" + (char) kind + "'";
+        }
+    }
+
+    private IOException error(String message) {
+        String found = token == ID ? "'" + text + "'" : describe(token);
+        return new IOException(message + " but found " + found + " at line " + line);
+    }
+
+    private int peek() throws IOException {
+        if (pushedBack != NONE) {
+            return pushedBack;
+        }
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != NONE) {
+            int result = pushedBack;
+            pushedBack = NONE;
+            return result;
+        }
+        int result = peek();
+        if (result >= 0) {
+            position++;
+            if (result == '\n') {
+                line++;
+            }
+        }
+        return result;
+    }
+
+    private void append(int c) throws IOException {
+        if (!discard) {
+            if (text.length() == MAX_ID_LENGTH) {
+                throw new IOException("Id longer than " + MAX_ID_LENGTH
+                        + " characters at line " + line);
+            }
+            text.append((char) c);
+        }
+    }
+
+    private void next() throws IOException {
+        text.setLength(0);
+        quoted = false;
+        int c = skipSpace();
+        switch (c) {
+            case -1:
+                token = EOF;
+                return;
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case '=':
+            case ';':
+            case ',':
+            case ':':
+                token = c;
+                return;
+            case '"':
+                token = ID;
+                quoted = true;
+                quoted();
+                return;
+            case '<':
+                token = ID;
+                quoted = true;
+                html();
+                return;
+            case '-':
+                int n = peek();
+                if (n == '>' || n == '-') {
+                    read();
+                    token = EDGE_OP;
+                    return;
+                }
+                // A negative number
+                token = ID;
+                append(c);
+                while (isIdChar(peek())) {
+                    append(read());
+                }
+                return;
+            default:
+                break;
+        }
+        if (!isIdChar(c)) {
+            throw new IOException("Unexpected character '" + (char) c + "' at line " + line);
+        }
+        token = ID;
+        append(c);
+        while (isIdChar(peek())) {
+            append(read());
+        }
+    }
+
+    private static boolean isIdChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '.' || c >= 0x80;
+    }
+
+    /**
+     * Skip whitespace, comments and preprocessor lines.
+     *
+     * @return The first character after them, consumed, or -1
+     */
+    private int skipSpace() throws IOException {
+        boolean lineStart = position == 0 && line == 1 && limit == 0;
+        for (;;) {
+            int c = read();
+            if (c == '\n') {
+                lineStart = true;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                continue;
+            }
+            if (c == '#' && lineStart) {
+                skipLine();
+                continue;
+            }
+            if (c == '/') {
+                int n = peek();
+                if (n == '/') {
+                    skipLine();
+                    lineStart = true;
+                    continue;
+                } else if (n == '*') {
+                    read();
+                    skipBlockComment();
+                    continue;
+                }
+            }
+            return c;
+        }
+    }
+
+    private void skipLine() throws IOException {
+        for (int c = read(); c != '\n' && c >= 0; c = read()) {
+            // skip
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        int start = line;
+        for (int prev = 0, c = read(); ; prev = c, c = read()) {
+            if (c < 0) {
+                throw new IOException("Unterminated comment starting at line " + start);
+            }
+            if (prev == '*' && c == '/') {
+                return;
+            }
+        }
+    }
+
+    private void quoted() throws IOException {
+        int start = line;
+        for (;;) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unterminated string starting at line " + start);
+            }
+            if (c == '"') {
+                // "a" + "b" is one id
+                int n = skipSpace();
+                if (n == '+') {
+                    n = skipSpace();
+                    if (n != '"') {
+                        throw new IOException("Expected a string after + at line " + line);
+                    }
+                    continue;
+                }
+                unread(n);
+                return;
+            }
+            if (c == '\\') {
+                int n = read();
+                if (n == '"') {
+                    append('"');
+                    continue;
+                } else if (n == '\n') {
+                    // Line continuation
+                    continue;
+                }
+                append(c);
+                c = n;
+                if (c < 0) {
+                    continue;
+                }
+            }
+            append(c);
+        }
+    }
+
+    private void html() throws IOException {
+        int start = line;
+        int depth = 1;
+        for (;;) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unterminated HTML string starting at line " + start);
+            }
+            if (c == '<') {
+                depth++;
+            } else if (c == '>' && --depth == 0) {
+                return;
+            }
+            append(c);
+        }
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+}
@@ -0,0 +1,223 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import com.mastfrog.graph.IntGraph;
+import com.mastfrog.graph.ObjectGraph;
+import edu.uci.ics.jung.graph.DelegateForest;
+import edu.uci.ics.jung.graph.Forest;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedOrderedSparseMultigraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A graph read by {@link EdgeListLoader}: node names interned to ints in
+ * order of first appearance, and the edges, with self-edges and repeats of
+ * a pair already seen (in either direction) dropped.
+ *
+ * @author Tim Boudreau
+ */
+public final class EdgeList {
+
+    private final String[] names;
+    private final int[] sources;
+    private final int[] targets;
+    private final int edgeCount;
+    private final boolean forest;
+    private final boolean cyclic;
+    private final int duplicates;
+    private final int selfEdges;
+
+    EdgeList(String[] names, int[] sources, int[] targets, int edgeCount, boolean forest,
+            boolean cyclic, int duplicates, int selfEdges) {
+        this.names = names;
+        this.sources = sources;
+        this.targets = targets;
+        this.edgeCount = edgeCount;
+        this.forest = forest;
+        this.cyclic = cyclic;
+        this.duplicates = duplicates;
+        this.selfEdges = selfEdges;
+    }
+
+    /**
+     * The number of nodes.
+     *
+     * @return The node count
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int node) {
+        return names[node];
+    }
+
+    /**
+     * The node names, indexed by node.
+     *
+     * @return An unmodifiable list
+     */
+    public List<String> names() {
+        return Arrays.asList(names.clone());
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public int source(int edge) {
+        if (edge >= edgeCount) {
+            throw new IndexOutOfBoundsException(edge + " of " + edgeCount);
+        }
+        return sources[edge];
+    }
+
+    public int target(int edge) {
+        if (edge >= edgeCount) {
+            throw new IndexOutOfBoundsException(edge + " of " + edgeCount);
+        }
+        return targets[edge];
+    }
+
+    /**
+     * Whether the edges, taken as pointing from parent to child, form a
+     * forest - no node has more than one parent, and there are no cycles.
+     *
+     * @return true if this is a forest
+     */
+    public boolean isForest() {
+        return forest;
+    }
+
+    /**
+     * Whether the graph contains a cycle, ignoring edge direction.
+     *
+     * @return true if there is a cycle
+     */
+    public boolean hasCycles() {
+        return cyclic;
+    }
+
+    /**
+     * The number of edges dropped because the pair of nodes was already
+     * connected.
+     *
+     * @return The count
+     */
+    public int duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * The number of edges dropped because they connect a node to itself.
+     *
+     * @return The count
+     */
+    public int selfEdges() {
+        return selfEdges;
+    }
+
+    /**
+     * Create an IntGraph with the same node indices.
+     *
+     * @return A graph
+     */
+    public IntGraph toIntGraph() {
+        BitSet[] children = new BitSet[names.length];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new BitSet();
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            children[sources[i]].set(targets[i]);
+        }
+        return IntGraph.create(children);
+    }
+
+    /**
+     * Create an ObjectGraph over the node names.
+     *
+     * @return A graph
+     */
+    public ObjectGraph<String> toObjectGraph() {
+        return toIntGraph().toObjectGraph(Arrays.asList(names));
+    }
+
+    /**
+     * Create a JUNG graph: a forest if the edges form one, otherwise an
+     * undirected graph, as the demo application has always done. Edges are
+     * named by their index.
+     *
+     * @return A graph
+     */
+    public Graph<String, String> toGraph() {
+        return forest ? toForest() : toUndirectedGraph();
+    }
+
+    /**
+     * Create a JUNG forest.
+     *
+     * @return A forest
+     * @throws IllegalStateException if the edges do not form a forest
+     */
+    public Forest<String, String> toForest() {
+        if (!forest) {
+            throw new IllegalStateException("Not a forest");
+        }
+        Forest<String, String> result = new DelegateForest<>();
+        for (int i = 0; i < edgeCount; i++) {
+            result.addEdge(Integer.toString(i), names[sources[i]], names[targets[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Create an undirected JUNG graph.
+     *
+     * @return A graph
+     */
+    public Graph<String, String> toUndirectedGraph() {
+        Graph<String, String> result = new UndirectedOrderedSparseMultigraph<>();
+        for (String name : names) {
+            result.addVertex(name);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            result.addEdge(Integer.toString(i), names[sources[i]], names[targets[i]]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "EdgeList(" + names.length + " nodes, " + edgeCount + " edges"
+                + (forest ? ", forest" : cyclic ? ", cyclic" : "")
+                + (duplicates > 0 ? ", " + duplicates + " duplicates" : "")
+                + (selfEdges > 0 ? ", " + selfEdges + " self-edges" : "") + ")";
+    }
+}
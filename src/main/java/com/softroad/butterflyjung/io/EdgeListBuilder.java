@@ -0,0 +1,134 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sink which collects a graph as an {@link EdgeList}, interning node names
+ * to ints in order of first appearance and dropping duplicate and self-edges
+ * exactly as {@link EdgeListLoader} does, so a graph read from GraphML or
+ * DOT can be turned into an IntGraph, forest or undirected graph the same
+ * way as one read from an edge list.
+ * <p>
+ * Instances are not thread-safe, and are used up by {@link #build()}.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class EdgeListBuilder implements GraphSink {
+
+    private final int maxNodes;
+    private final Map<String, Integer> ids = new HashMap<>(1024);
+    private final List<String> names = new ArrayList<>(1024);
+    private Edges edges = new Edges();
+
+    public EdgeListBuilder() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a builder which fails early on graphs which are too large.
+     *
+     * @param maxNodes The maximum number of distinct nodes
+     */
+    public EdgeListBuilder(int maxNodes) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Max nodes must be at least 1: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if this is one more node than the
+     * maximum
+     */
+    @Override
+    public void node(String name) {
+        intern(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if this names more nodes than the
+     * maximum
+     */
+    @Override
+    public void edge(String source, String target) {
+        int a = intern(source);
+        edges().edge(a, intern(target));
+    }
+
+    private int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int node = names.size();
+        if (node == maxNodes) {
+            throw new IllegalArgumentException("Graph has more than " + maxNodes + " nodes");
+        }
+        edges().added(node);
+        ids.put(name, node);
+        names.add(name);
+        return node;
+    }
+
+    private Edges edges() {
+        if (edges == null) {
+            throw new IllegalStateException("Already built");
+        }
+        return edges;
+    }
+
+    /**
+     * The number of distinct nodes so far.
+     *
+     * @return The count
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Create the edge list and release the working storage.
+     *
+     * @return The graph
+     */
+    public EdgeList build() {
+        EdgeList result = edges().toEdgeList(names.toArray(new String[names.size()]));
+        edges = null;
+        ids.clear();
+        names.clear();
+        return result;
+    }
+}
@@ -0,0 +1,348 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads edge lists - one edge per line, as two node names separated by
+ * whitespace, either of which may be double-quoted if it contains spaces,
+ * with lines starting with # ignored - in one pass over a memory-mapped
+ * file, without regular expressions and without creating any objects per
+ * line.
+ * <p>
+ * Node names are interned straight from the file's bytes into an int
+ * dictionary, so a name is only decoded into a String once. Edges between
+ * a pair of nodes which are already connected, in either direction, are
+ * detected with a primitive hash set of packed node pairs and dropped, as
+ * are self-edges. A union-find over the edges as they are read tells
+ * whether the graph has cycles, and together with a note of which nodes
+ * already have a parent, whether it is a forest - so the caller can build
+ * a tree or a general graph from the {@link EdgeList} without reading the
+ * file again.
+ * </p><p>
+ * Instances are not thread-safe; use one per thread.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class EdgeListLoader {
+
+    /**
+     * Files are mapped this much at a time, so files too big to map as one
+     * buffer can be read too.
+     */
+    static final int WINDOW = 1 << 30;
+    private final int window;
+    private int maxNodes = Integer.MAX_VALUE;
+    // Name dictionary: UTF-8 bytes of each name, end to end
+    private byte[] arena;
+    private int arenaLength;
+    private int[] offsets;
+    private int[] hashes;
+    private int[] slots;
+    private int size;
+    private Edges edges;
+
+    public EdgeListLoader() {
+        this(WINDOW);
+    }
+
+    /**
+     * Create a loader which maps files the passed number of bytes at a
+     * time, for tests of lines which span two mappings.
+     *
+     * @param window The mapping size
+     */
+    EdgeListLoader(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be at least 1: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Get the maximum number of distinct nodes a file may contain.
+     *
+     * @return The limit
+     */
+    public int maxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * Set the maximum number of distinct nodes a file may contain, so that
+     * loading fails early on files which are too large.
+     *
+     * @param maxNodes The limit
+     * @return this
+     */
+    public EdgeListLoader maxNodes(int maxNodes) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Max nodes must be at least 1: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+        return this;
+    }
+
+    /**
+     * Load an edge list file.
+     *
+     * @param file The file, which is expected to be UTF-8
+     * @return The graph
+     * @throws IOException if the file cannot be read, or contains a line
+     * longer than the mapping window - a gigabyte, unless set otherwise
+     * @throws IllegalArgumentException if the file contains more than the
+     * maximum number of nodes
+     */
+    public EdgeList load(Path file) throws IOException {
+        reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            long position = 0;
+            while (position < length) {
+                long remaining = length - position;
+                boolean last = remaining <= window;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        last ? remaining : window);
+                int consumed = parse(buffer, last);
+                if (consumed == 0 && !last) {
+                    throw new IOException("Line longer than " + window + " bytes at " + position
+                            + " in " + file);
+                }
+                position += consumed;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Load an edge list from bytes already in memory, from the buffer's
+     * position to its limit.
+     *
+     * @param buffer The UTF-8 bytes
+     * @return The graph
+     * @throws IllegalArgumentException if the input contains more than the
+     * maximum number of nodes
+     */
+    public EdgeList load(ByteBuffer buffer) {
+        reset();
+        parse(buffer.slice(), true);
+        return finish();
+    }
+
+    private void reset() {
+        arena = new byte[1 << 16];
+        arenaLength = 0;
+        offsets = new int[1024];
+        hashes = new int[1024];
+        slots = new int[2048];
+        size = 0;
+        edges = new Edges();
+    }
+
+    private EdgeList finish() {
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = new String(arena, offsets[i], end(i) - offsets[i], StandardCharsets.UTF_8);
+        }
+        EdgeList result = edges.toEdgeList(names);
+        // Let the working storage go
+        arena = null;
+        offsets = hashes = slots = null;
+        edges = null;
+        return result;
+    }
+
+    /**
+     * Parse the lines in a buffer.
+     *
+     * @param buffer The buffer
+     * @param last Whether the end of the buffer is the end of the input,
+     * in which case a final line with no line terminator is parsed too
+     * @return The number of bytes consumed, which is up to the end of the
+     * last complete line
+     */
+    private int parse(ByteBuffer buffer, boolean last) {
+        int limit = buffer.limit();
+        int lineStart = 0;
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                line(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (last && lineStart < limit) {
+            line(buffer, lineStart, limit);
+            lineStart = limit;
+        }
+        return lineStart;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private void line(ByteBuffer buffer, int start, int end) {
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        if (start == end || buffer.get(start) == '#') {
+            return;
+        }
+        // First name: quoted, or up to the first whitespace
+        int aStart;
+        int aEnd;
+        int pos;
+        if (buffer.get(start) == '"' && (aEnd = indexOf(buffer, '"', start + 1, end)) >= 0) {
+            aStart = start + 1;
+            pos = aEnd + 1;
+        } else {
+            aStart = start;
+            pos = start;
+            while (pos < end && !isSpace(buffer.get(pos))) {
+                pos++;
+            }
+            aEnd = pos;
+        }
+        int whitespace = pos;
+        while (pos < end && isSpace(buffer.get(pos))) {
+            pos++;
+        }
+        if (pos == end || pos == whitespace) {
+            // Only one name on the line
+            return;
+        }
+        // Second name: quoted, or the rest of the line
+        int bStart = pos;
+        int bEnd = end;
+        if (buffer.get(pos) == '"') {
+            int close = indexOf(buffer, '"', pos + 1, end);
+            if (close >= 0) {
+                bStart = pos + 1;
+                bEnd = close;
+            }
+        }
+        int a = intern(buffer, aStart, aEnd);
+        int b = intern(buffer, bStart, bEnd);
+        edges.edge(a, b);
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int end(int node) {
+        return node + 1 < size ? offsets[node + 1] : arenaLength;
+    }
+
+    private int intern(ByteBuffer buffer, int start, int end) {
+        int hash = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ buffer.get(i)) * 0x01000193;
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        for (;;) {
+            int node = slots[slot] - 1;
+            if (node < 0) {
+                break;
+            }
+            if (hashes[node] == hash && sameBytes(buffer, start, end, node)) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == maxNodes) {
+            throw new IllegalArgumentException("Edge list has more than " + maxNodes + " nodes");
+        }
+        int len = end - start;
+        if (arenaLength + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + len));
+        }
+        for (int i = 0; i < len; i++) {
+            arena[arenaLength + i] = buffer.get(start + i);
+        }
+        int node = size++;
+        if (node == offsets.length) {
+            offsets = Arrays.copyOf(offsets, node * 2);
+            hashes = Arrays.copyOf(hashes, node * 2);
+        }
+        offsets[node] = arenaLength;
+        hashes[node] = hash;
+        edges.added(node);
+        arenaLength += len;
+        slots[slot] = node + 1;
+        if (size * 2 > slots.length) {
+            rehashNames();
+        }
+        return node;
+    }
+
+    private boolean sameBytes(ByteBuffer buffer, int start, int end, int node) {
+        int offset = offsets[node];
+        if (end - start != end(node) - offset) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) != arena[offset++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashNames() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int node = 0; node < size; node++) {
+            int slot = mix(hashes[node]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = node + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,145 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The edges of a graph being read, with the bookkeeping every reader in
+ * this package shares: self-edges and repeats of a pair already connected
+ * in either direction are dropped using a primitive hash set of packed
+ * node pairs, and a union-find plus a note of which nodes already have a
+ * parent tell whether the graph has cycles and whether it is a forest, as
+ * the edges arrive rather than in a second pass.
+ *
+ * @author Tim Boudreau
+ */
+final class Edges {
+
+    private int[] sources = new int[1024];
+    private int[] targets = new int[1024];
+    private int edgeCount;
+    private long[] pairs = new long[2048];
+    private int pairCount;
+    private int[] roots = new int[1024];
+    private final BitSet parented = new BitSet();
+    private boolean forest = true;
+    private boolean cyclic;
+    private int duplicates;
+    private int selfEdges;
+
+    /**
+     * A node has been interned; node indices must be added in order.
+     *
+     * @param node The new node's index
+     */
+    void added(int node) {
+        if (node == roots.length) {
+            roots = Arrays.copyOf(roots, node * 2);
+        }
+        roots[node] = node;
+    }
+
+    void edge(int a, int b) {
+        if (a == b) {
+            selfEdges++;
+            return;
+        }
+        if (!addPair(a < b ? ((long) a << 32) | b : ((long) b << 32) | a)) {
+            duplicates++;
+            return;
+        }
+        if (edgeCount == sources.length) {
+            sources = Arrays.copyOf(sources, edgeCount * 2);
+            targets = Arrays.copyOf(targets, edgeCount * 2);
+        }
+        sources[edgeCount] = a;
+        targets[edgeCount] = b;
+        edgeCount++;
+        // A second parent means not a forest; joining two nodes already
+        // connected some other way means a cycle
+        if (parented.get(b)) {
+            forest = false;
+        } else {
+            parented.set(b);
+        }
+        int rootA = root(a);
+        int rootB = root(b);
+        if (rootA == rootB) {
+            cyclic = true;
+        } else {
+            roots[rootB] = rootA;
+        }
+    }
+
+    private int root(int node) {
+        while (roots[node] != node) {
+            roots[node] = roots[roots[node]];
+            node = roots[node];
+        }
+        return node;
+    }
+
+    private boolean addPair(long pair) {
+        // Nodes are distinct, so the packed pair is never zero, which
+        // marks an empty slot
+        int mask = pairs.length - 1;
+        int slot = (int) (mixPair(pair) & mask);
+        for (long existing; (existing = pairs[slot]) != 0; slot = (slot + 1) & mask) {
+            if (existing == pair) {
+                return false;
+            }
+        }
+        pairs[slot] = pair;
+        if (++pairCount * 2 > pairs.length) {
+            long[] old = pairs;
+            pairs = new long[old.length * 2];
+            mask = pairs.length - 1;
+            for (long p : old) {
+                if (p != 0) {
+                    int s = (int) (mixPair(p) & mask);
+                    while (pairs[s] != 0) {
+                        s = (s + 1) & mask;
+                    }
+                    pairs[s] = p;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long mixPair(long pair) {
+        pair *= 0x9E3779B97F4A7C15L;
+        return pair ^ (pair >>> 32);
+    }
+
+    EdgeList toEdgeList(String[] names) {
+        return new EdgeList(names, Arrays.copyOf(sources, edgeCount),
+                Arrays.copyOf(targets, edgeCount), edgeCount, forest && !cyclic, cyclic,
+                duplicates, selfEdges);
+    }
+}
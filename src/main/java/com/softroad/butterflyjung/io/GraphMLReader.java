@@ -0,0 +1,131 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the nodes and edges of GraphML files with a StAX pull parser, passing
+ * each to a {@link GraphSink} as its element is reached, so that memory use
+ * depends on the graph being built and not on the size of the file - no
+ * DOM is created, and the text of <code>&lt;data&gt;</code> elements, which
+ * is usually most of a large export, is never even turned into strings.
+ * <p>
+ * Only <code>&lt;node id&gt;</code> and <code>&lt;edge source target&gt;</code>
+ * are used; keys, data, ports and hyperedges are skipped, and nodes of
+ * nested graphs are read as nodes of the one graph. Edges are passed from
+ * source to target whatever the graph's <code>edgedefault</code>. DTDs and
+ * external entities are not processed.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class GraphMLReader {
+
+    private final XMLInputFactory factory;
+
+    public GraphMLReader() {
+        factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+
+    /**
+     * Read a GraphML file.
+     *
+     * @param file The file
+     * @param sink Receives nodes and edges
+     * @throws IOException if the file cannot be read, is not well-formed, or
+     * has a node or edge without the required attributes
+     */
+    public void read(Path file, GraphSink sink) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            read(in, sink);
+        }
+    }
+
+    /**
+     * Read GraphML from a stream, which is not closed; its encoding is
+     * taken from the XML declaration.
+     *
+     * @param in The stream
+     * @param sink Receives nodes and edges
+     * @throws IOException if reading fails, the XML is not well-formed, or a
+     * node or edge lacks the required attributes
+     */
+    public void read(InputStream in, GraphSink sink) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case "node":
+                        sink.node(attribute(reader, "id"));
+                        break;
+                    case "edge":
+                        sink.edge(attribute(reader, "source"), attribute(reader, "target"));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    // Does not close the underlying stream, so nothing to do
+                }
+            }
+        }
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) throws IOException {
+        String result = reader.getAttributeValue(null, name);
+        if (result == null) {
+            Location loc = reader.getLocation();
+            throw new IOException("<" + reader.getLocalName() + "> with no " + name
+                    + " attribute at line " + loc.getLineNumber() + ", column "
+                    + loc.getColumnNumber());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import edu.uci.ics.jung.graph.Graph;
+
+/**
+ * Receives the nodes and edges of a graph as a reader encounters them, so
+ * that a file can be loaded without holding anything but the graph being
+ * built. Nodes named by an edge need not have been passed to
+ * <code>node()</code> first.
+ *
+ * @author Tim Boudreau
+ */
+public interface GraphSink {
+
+    /**
+     * A node was declared.
+     *
+     * @param name The node's name
+     */
+    void node(String name);
+
+    /**
+     * An edge was read.
+     *
+     * @param source The name of the node the edge starts from
+     * @param target The name of the node it goes to
+     */
+    void edge(String source, String target);
+
+    /**
+     * Create a sink which adds to a JUNG graph, naming edges by the order
+     * they were read in, as {@link EdgeList} does. Whether repeated edges
+     * and self-edges are kept is up to the graph.
+     *
+     * @param graph The graph
+     * @return A sink
+     */
+    static GraphSink of(Graph<String, String> graph) {
+        return new GraphSink() {
+            private int edges;
+
+            @Override
+            public void node(String name) {
+                if (!graph.containsVertex(name)) {
+                    graph.addVertex(name);
+                }
+            }
+
+            @Override
+            public void edge(String source, String target) {
+                graph.addEdge(Integer.toString(edges++), source, target);
+            }
+        };
+    }
+}
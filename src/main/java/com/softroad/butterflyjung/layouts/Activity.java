@@ -0,0 +1,150 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+
+import java.util.BitSet;
+
+/**
+ * Tracks which nodes of a ForceDirected are still moving, the way physics
+ * engines put resting bodies to sleep: a node whose displacement over a tick
+ * stays under a threshold for some number of consecutive ticks goes to
+ * sleep, and is no longer moved by anything until it is woken - either
+ * because a neighbor moved by several times the threshold, or because its
+ * position was set from outside, as when the user drags it.
+ * <p>
+ * A sleeping node still pushes awake nodes away from it; it is only skipped
+ * as the node being moved.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class Activity {
+
+    /**
+     * A node which moves by more than this multiple of the sleep threshold
+     * in one tick wakes its neighbors.
+     */
+    static final double WAKE_MULTIPLE = 4;
+    private final Bits[] neighbors;
+    private final double[] lastX;
+    private final double[] lastY;
+    private final int[] calmTicks;
+    private final BitSet awake;
+    private final double threshold;
+    private final int ticks;
+
+    Activity(Bits[] neighbors, double[] xs, double[] ys, double threshold, int ticks) {
+        this.neighbors = neighbors;
+        this.threshold = threshold;
+        this.ticks = ticks;
+        int size = neighbors.length;
+        lastX = xs.clone();
+        lastY = ys.clone();
+        calmTicks = new int[size];
+        awake = new BitSet(size);
+        awake.set(0, size);
+    }
+
+    boolean isAwake(int node) {
+        return awake.get(node);
+    }
+
+    BitSet awake() {
+        return awake;
+    }
+
+    int awakeCount() {
+        return awake.cardinality();
+    }
+
+    /**
+     * Wake a node whose position was changed from outside, and its
+     * neighbors, which will need to follow it.
+     */
+    void wake(int node, double[] xs, double[] ys) {
+        wakeOne(node, xs, ys);
+        Bits nb = neighbors[node];
+        for (int j = nb.nextSetBit(0); j >= 0; j = nb.nextSetBit(j + 1)) {
+            wakeOne(j, xs, ys);
+        }
+    }
+
+    void wake(BitSet nodes, double[] xs, double[] ys) {
+        for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+            wakeOne(i, xs, ys);
+        }
+    }
+
+    private void wakeOne(int node, double[] xs, double[] ys) {
+        awake.set(node);
+        calmTicks[node] = 0;
+        lastX[node] = xs[node];
+        lastY[node] = ys[node];
+    }
+
+    /**
+     * Update activity after a tick, touching only the nodes which were awake
+     * for it.
+     *
+     * @return true if any node went to sleep or woke up
+     */
+    boolean update(double[] xs, double[] ys) {
+        boolean changed = false;
+        BitSet woken = null;
+        double wakeDistance = threshold * WAKE_MULTIPLE;
+        for (int i = awake.nextSetBit(0); i >= 0; i = awake.nextSetBit(i + 1)) {
+            double moved = Math.max(Math.abs(xs[i] - lastX[i]), Math.abs(ys[i] - lastY[i]));
+            lastX[i] = xs[i];
+            lastY[i] = ys[i];
+            if (moved < threshold) {
+                if (++calmTicks[i] >= ticks) {
+                    awake.clear(i);
+                    changed = true;
+                }
+                continue;
+            }
+            calmTicks[i] = 0;
+            if (moved > wakeDistance) {
+                Bits nb = neighbors[i];
+                for (int j = nb.nextSetBit(0); j >= 0; j = nb.nextSetBit(j + 1)) {
+                    if (!awake.get(j)) {
+                        if (woken == null) {
+                            woken = new BitSet(neighbors.length);
+                        }
+                        woken.set(j);
+                    }
+                }
+            }
+        }
+        if (woken != null) {
+            wake(woken, xs, ys);
+            changed = true;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,88 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.IntGraph;
+
+/**
+ * Undirected adjacency of an IntGraph in compressed sparse row form, for
+ * algorithms which walk neighbor lists many times and should not pay for
+ * bit-set iteration on each visit.
+ *
+ * @author Tim Boudreau
+ */
+final class Adjacency {
+
+    private final int[] offsets;
+    private final int[] targets;
+
+    Adjacency(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    static Adjacency of(IntGraph graph) {
+        int size = graph.size();
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] = offsets[i] + graph.neighbors(i).cardinality();
+        }
+        int[] targets = new int[offsets[size]];
+        for (int i = 0; i < size; i++) {
+            Bits nb = graph.neighbors(i);
+            int cursor = offsets[i];
+            for (int bit = nb.nextSetBit(0); bit >= 0; bit = nb.nextSetBit(bit + 1)) {
+                targets[cursor++] = bit;
+            }
+        }
+        return new Adjacency(offsets, targets);
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    int start(int node) {
+        return offsets[node];
+    }
+
+    int end(int node) {
+        return offsets[node + 1];
+    }
+
+    int target(int index) {
+        return targets[index];
+    }
+
+    int edgeEndpoints() {
+        return targets.length;
+    }
+}
@@ -36,9 +36,9 @@ class Attraction implements Force {
 
     private static final double threshold = 0.001;
     private final Circle circle;
-    private final double radius;
-    private final double relatedness;
-    private final double minRel;
+    private double radius;
+    private double relatedness;
+    private double minRel;
 
     Attraction(double x, double y, double radius, double relatedness, double minRel) {
         circle = new Circle(x, y);
@@ -46,8 +46,21 @@ class Attraction implements Force {
         this.relatedness = relatedness;
         this.minRel = minRel;
     }
-    Strength repulsion = Strength.INVERSE_SQUARE.negate();
-    Strength attraction = Strength.INVERSE_SQUARE.multiply(0.01);
+
+    /**
+     * Reuse this instance for another pair of nodes.
+     */
+    Attraction retarget(double x, double y, double radius, double relatedness, double minRel) {
+        circle.setCenter(x, y);
+        this.radius = radius;
+        this.relatedness = relatedness;
+        this.minRel = minRel;
+        return this;
+    }
+    private static final Strength REPULSION = Strength.INVERSE_SQUARE.negate().compile();
+    private static final Strength ATTRACTION = Strength.INVERSE_SQUARE.multiply(0.01).compile();
+    Strength repulsion = REPULSION;
+    Strength attraction = ATTRACTION;
 
     @Override
     public void accept(double a, double b, DoubleBiConsumer transformed) {
@@ -72,7 +85,7 @@ class Attraction implements Force {
             double diff = -Math.abs(dist - radius);
             //                double strength = s.computeStrength(a1, b1, a, b, diff) * 0.1 * relatedness;
             //                double strength = s.computeStrength(a1, b1, a, b, diff) * 0.01 * relatedness;
-            double strength = s.multiply(relatedness + (relatedness * .025)).computeStrength(a1, b1, a, b, diff);
+            double strength = (relatedness + (relatedness * .025)) * s.computeStrength(a1, b1, a, b, diff);
             //                System.out.println("str " + strength);
             if (relatedness > 0 && relatedness > minRel && strength >= 0.01) {
                 circle.positionOf(ang, dist + (strength * diff), transformed);
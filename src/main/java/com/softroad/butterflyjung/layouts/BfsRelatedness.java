@@ -0,0 +1,207 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Computes how related each pair of nodes is from a breadth-first search out
+ * to a maximum depth from every node. The score for a pair at distance
+ * <i>d</i> connected by <i>k</i> shortest paths is <i>k / d</i> - for trees
+ * this is the same <code>1/depth</code> weighting the exhaustive path
+ * enumeration used to produce, at a cost of O(n * reachable edges) rather
+ * than exponential time. Pairs further apart than the depth cap are
+ * unrelated.
+ * <p>
+ * Sources are split into one contiguous chunk per worker of a fork-join
+ * pool, or searched in turn on the calling thread if there is none, and
+ * each worker reuses a single set of frontier bit sets and counters for all
+ * of its sources.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class BfsRelatedness {
+
+    private final Adjacency adjacency;
+    private final int maxDepth;
+    private final ForkJoinPool pool;
+
+    BfsRelatedness(Adjacency adjacency, int maxDepth) {
+        this(adjacency, maxDepth, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param adjacency The graph
+     * @param maxDepth The depth cap
+     * @param pool The pool to search in, or null to search on the calling
+     * thread
+     */
+    BfsRelatedness(Adjacency adjacency, int maxDepth, ForkJoinPool pool) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1: " + maxDepth);
+        }
+        this.adjacency = adjacency;
+        this.maxDepth = maxDepth;
+        this.pool = pool;
+    }
+
+    interface RowConsumer {
+
+        /**
+         * Receives the related nodes for one source. The arrays are reused
+         * for the next row, so implementations must copy what they need.
+         * May be called concurrently for different sources.
+         *
+         * @param source The source node
+         * @param targets The related nodes, in the order they were reached
+         * @param scores The score for each related node
+         * @param count The number of valid entries in the arrays
+         */
+        void row(int source, int[] targets, double[] scores, int count);
+    }
+
+    void compute(RowConsumer consumer) {
+        compute(null, consumer);
+    }
+
+    /**
+     * Compute rows for only some sources.
+     *
+     * @param sources The sources, or null for all nodes
+     * @param consumer The consumer
+     */
+    void compute(int[] sources, RowConsumer consumer) {
+        int size = adjacency.size();
+        int count = sources == null ? size : sources.length;
+        int workers = pool == null ? 1
+                : Math.max(1, Math.min(count / 64, pool.getParallelism()));
+        int chunk = (count + workers - 1) / workers;
+        IntConsumer worker = w -> {
+            Workspace ws = new Workspace(size);
+            int end = Math.min(count, (w + 1) * chunk);
+            for (int n = w * chunk; n < end; n++) {
+                ws.search(sources == null ? n : sources[n], consumer);
+            }
+        };
+        if (workers == 1) {
+            worker.accept(0);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            int index = w;
+            tasks.add(ForkJoinTask.adapt(() -> worker.accept(index)));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    private final class Workspace {
+
+        private final BitSet seen;
+        private final BitSet next;
+        private final double[] pathCounts;
+        private int[] frontier;
+        private int[] nextFrontier;
+        private int[] targets = new int[16];
+        private double[] scores = new double[16];
+
+        Workspace(int size) {
+            seen = new BitSet(size);
+            next = new BitSet(size);
+            pathCounts = new double[size];
+            frontier = new int[16];
+            nextFrontier = new int[16];
+        }
+
+        void search(int source, RowConsumer consumer) {
+            int found = 0;
+            int frontierSize = 1;
+            frontier[0] = source;
+            seen.set(source);
+            pathCounts[source] = 1;
+            for (int depth = 1; depth <= maxDepth && frontierSize > 0; depth++) {
+                int nextSize = 0;
+                for (int f = 0; f < frontierSize; f++) {
+                    int node = frontier[f];
+                    double paths = pathCounts[node];
+                    for (int e = adjacency.start(node), end = adjacency.end(node); e < end; e++) {
+                        int nb = adjacency.target(e);
+                        if (seen.get(nb)) {
+                            continue;
+                        }
+                        if (!next.get(nb)) {
+                            next.set(nb);
+                            if (nextSize == nextFrontier.length) {
+                                nextFrontier = Arrays.copyOf(nextFrontier, nextSize * 2);
+                            }
+                            nextFrontier[nextSize++] = nb;
+                        }
+                        pathCounts[nb] += paths;
+                    }
+                }
+                if (found + nextSize > targets.length) {
+                    int newSize = Math.max(targets.length * 2, found + nextSize);
+                    targets = Arrays.copyOf(targets, newSize);
+                    scores = Arrays.copyOf(scores, newSize);
+                }
+                for (int n = 0; n < nextSize; n++) {
+                    int node = nextFrontier[n];
+                    next.clear(node);
+                    seen.set(node);
+                    targets[found] = node;
+                    scores[found++] = pathCounts[node] / depth;
+                }
+                int[] swap = frontier;
+                frontier = nextFrontier;
+                nextFrontier = swap;
+                frontierSize = nextSize;
+            }
+            consumer.row(source, targets, scores, found);
+            // Reset only what this search touched
+            seen.clear(source);
+            pathCounts[source] = 0;
+            for (int i = 0; i < found; i++) {
+                seen.clear(targets[i]);
+                pathCounts[targets[i]] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.util.Arrays;
+
+/**
+ * Tracks how far nodes move each tick, and adapts each node's temperature -
+ * the fraction of each computed movement which is applied to it. A node
+ * which reverses direction from one tick to the next is oscillating, and is
+ * cooled; one which keeps going the same way is making progress, and warms
+ * back up. Nodes which are untangling themselves move at full speed, and
+ * jittering ones settle.
+ * <p>
+ * The layout counts as converged once the 90th percentile of displacement
+ * has stayed under a tolerance for several consecutive ticks, or once it has
+ * stopped shrinking over a long window - with this force model the total
+ * displacement energy plateaus well before the layout stops improving, so it
+ * is not a usable signal, but typical displacement keeps falling for as long
+ * as the layout is still getting better.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class Convergence {
+
+    static final double COOLING = 0.8;
+    static final double WARMING = 1.05;
+    static final double MIN_TEMPERATURE = 0.05;
+    /**
+     * Displacement too small to be anything but floating point error.
+     */
+    static final double JITTER = 1e-9;
+    static final int CONVERGED_TICKS = 5;
+    /**
+     * The number of ticks over which the smoothed 90th percentile of
+     * displacement must fall by at least MIN_PROGRESS for the layout to
+     * count as still improving.
+     */
+    static final int WINDOW = 300;
+    static final double MIN_PROGRESS = 0.05;
+    static final double SMOOTHING = 0.1;
+    private final double[] lastX;
+    private final double[] lastY;
+    private final double[] lastDx;
+    private final double[] lastDy;
+    private final double[] temperatures;
+    private double[] moved = new double[16];
+    private final double[] history = new double[WINDOW];
+    private double smoothedP90 = -1;
+    private double temperature = 1;
+    private int stableTicks;
+    private int windowStart;
+    private ConvergenceStats stats;
+
+    Convergence(double[] xs, double[] ys) {
+        lastX = xs.clone();
+        lastY = ys.clone();
+        lastDx = new double[xs.length];
+        lastDy = new double[xs.length];
+        temperatures = new double[xs.length];
+        Arrays.fill(temperatures, 1);
+    }
+
+    /**
+     * The mean temperature across all nodes.
+     */
+    double temperature() {
+        return temperature;
+    }
+
+    double temperature(int node) {
+        return temperatures[node];
+    }
+
+    ConvergenceStats stats() {
+        return stats;
+    }
+
+    boolean converged() {
+        return stats != null && stats.isConverged();
+    }
+
+    /**
+     * A node was moved from outside; restart the schedule, and do not count
+     * the move as displacement.
+     */
+    void moved(int node, double x, double y) {
+        lastX[node] = x;
+        lastY[node] = y;
+        temperatures[node] = 1;
+        lastDx[node] = 0;
+        lastDy[node] = 0;
+        smoothedP90 = -1;
+        stableTicks = 0;
+        windowStart = stats == null ? 0 : stats.getStep();
+        if (stats != null && stats.isConverged()) {
+            stats = new ConvergenceStats(stats.getStep(), stats.getEnergy(),
+                    stats.getMedianDisplacement(), stats.getNinetiethPercentileDisplacement(),
+                    stats.getMaxDisplacement(), temperature, false);
+        }
+    }
+
+    /**
+     * The layout's positions were replaced wholesale, as when restoring a
+     * snapshot; measure the next tick's displacement from them without
+     * disturbing the schedule.
+     */
+    void rebase(double[] xs, double[] ys) {
+        System.arraycopy(xs, 0, lastX, 0, lastX.length);
+        System.arraycopy(ys, 0, lastY, 0, lastY.length);
+    }
+
+    /**
+     * Update after a tick.
+     *
+     * @param tick The tick number
+     * @param xs The new x coordinates
+     * @param ys The new y coordinates
+     * @param cooling Whether to adjust the temperature
+     * @param tolerance The displacement under which a node is considered
+     * still
+     * @param asleep Whether every node is asleep, which means converged
+     * regardless
+     */
+    ConvergenceStats update(int tick, double[] xs, double[] ys, boolean cooling,
+            double tolerance, boolean asleep) {
+        int size = lastX.length;
+        // Only nonzero displacements are collected and sorted; with most
+        // nodes asleep that is far fewer than the node count
+        int count = 0;
+        double energy = 0;
+        double totalTemperature = 0;
+        for (int i = 0; i < size; i++) {
+            double dx = xs[i] - lastX[i];
+            double dy = ys[i] - lastY[i];
+            if (dx != 0 || dy != 0) {
+                double d2 = dx * dx + dy * dy;
+                energy += d2;
+                if (count == moved.length) {
+                    moved = Arrays.copyOf(moved, count * 2);
+                }
+                moved[count++] = Math.sqrt(d2);
+                lastX[i] = xs[i];
+                lastY[i] = ys[i];
+            }
+            if (cooling) {
+                // A node which reversed direction is oscillating; one which
+                // kept going is making progress. Movement down at the level
+                // of rounding error is standing still, not a direction
+                if (dx * lastDx[i] + dy * lastDy[i] < 0
+                        && dx * dx + dy * dy > JITTER * JITTER
+                        && lastDx[i] * lastDx[i] + lastDy[i] * lastDy[i] > JITTER * JITTER) {
+                    temperatures[i] = Math.max(MIN_TEMPERATURE, temperatures[i] * COOLING);
+                } else {
+                    temperatures[i] = Math.min(1, temperatures[i] * WARMING);
+                }
+            }
+            lastDx[i] = dx;
+            lastDy[i] = dy;
+            totalTemperature += temperatures[i];
+        }
+        temperature = size == 0 ? 1 : totalTemperature / size;
+        Arrays.sort(moved, 0, count);
+        int still = size - count;
+        double median = percentile(0.5, size, still, count);
+        double p90 = percentile(0.9, size, still, count);
+        double max = count == 0 ? 0 : moved[count - 1];
+        // Once typical movement has stopped shrinking, what remains is drift
+        // which does not improve anything
+        smoothedP90 = smoothedP90 < 0 ? p90 : smoothedP90 + SMOOTHING * (p90 - smoothedP90);
+        int slot = tick % WINDOW;
+        double windowAgo = history[slot];
+        history[slot] = smoothedP90;
+        boolean stalled = tick - windowStart > WINDOW && smoothedP90 > windowAgo * (1 - MIN_PROGRESS);
+        if (p90 < tolerance) {
+            stableTicks++;
+        } else {
+            stableTicks = 0;
+        }
+        boolean converged = asleep || stalled || stableTicks >= CONVERGED_TICKS;
+        return stats = new ConvergenceStats(tick, energy, median, p90, max, temperature, converged);
+    }
+
+    private double percentile(double fraction, int size, int still, int count) {
+        if (size == 0) {
+            return 0;
+        }
+        int index = Math.min(size - 1, (int) (fraction * size));
+        return index < still ? 0 : moved[index - still];
+    }
+}
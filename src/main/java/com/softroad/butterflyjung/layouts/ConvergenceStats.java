@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+/**
+ * Statistics about how much one step of an iterative layout moved things.
+ *
+ * @author Tim Boudreau
+ */
+public final class ConvergenceStats {
+
+    private final int step;
+    private final double energy;
+    private final double medianDisplacement;
+    private final double ninetiethPercentileDisplacement;
+    private final double maxDisplacement;
+    private final double temperature;
+    private final boolean converged;
+
+    public ConvergenceStats(int step, double energy, double medianDisplacement,
+            double ninetiethPercentileDisplacement, double maxDisplacement,
+            double temperature, boolean converged) {
+        this.step = step;
+        this.energy = energy;
+        this.medianDisplacement = medianDisplacement;
+        this.ninetiethPercentileDisplacement = ninetiethPercentileDisplacement;
+        this.maxDisplacement = maxDisplacement;
+        this.temperature = temperature;
+        this.converged = converged;
+    }
+
+    /**
+     * The number of steps performed, including this one.
+     *
+     * @return The step count
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * The energy of the system for this step - the sum of the squares of the
+     * distance each node moved.
+     *
+     * @return The energy
+     */
+    public double getEnergy() {
+        return energy;
+    }
+
+    public double getMedianDisplacement() {
+        return medianDisplacement;
+    }
+
+    public double getNinetiethPercentileDisplacement() {
+        return ninetiethPercentileDisplacement;
+    }
+
+    public double getMaxDisplacement() {
+        return maxDisplacement;
+    }
+
+    /**
+     * The fraction of each computed movement which was applied in this
+     * step, between zero and one.
+     *
+     * @return The temperature
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    @Override
+    public String toString() {
+        return "step " + step + " energy " + energy + " median " + medianDisplacement
+                + " p90 " + ninetiethPercentileDisplacement + " max " + maxDisplacement
+                + " temperature " + temperature + (converged ? " converged" : "");
+    }
+}
@@ -44,7 +44,7 @@ import java.awt.*;
     private int ticks = 0;
 
     DampingFieldForce(Force delegate) {
-        this(Strength.INVERSE_SQUARE.squareroot(), delegate);
+        this(Strength.INVERSE_SQUARE.squareroot().compile(), delegate);
     }
 
     DampingFieldForce(Strength strength, Force delegate) {
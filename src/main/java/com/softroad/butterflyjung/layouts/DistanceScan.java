@@ -0,0 +1,103 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+/**
+ * Finds the nodes within some distance of a point by brute force, over the
+ * parallel position arrays of a ForceDirected. The default implementation
+ * uses the incubating Vector API, and is used if the
+ * <code>jdk.incubator.vector</code> module is present (the JVM must be
+ * started with <code>--add-modules jdk.incubator.vector</code>); otherwise a
+ * plain loop is used.
+ *
+ * @author Tim Boudreau
+ */
+abstract class DistanceScan {
+
+    private static final String VECTOR_IMPL
+            = "com.softroad.butterflyjung.layouts.VectorDistanceScan";
+    private static DistanceScan instance;
+
+    /**
+     * Get the best available implementation.
+     *
+     * @return A scan
+     */
+    static synchronized DistanceScan get() {
+        if (instance == null) {
+            try {
+                instance = (DistanceScan) Class.forName(VECTOR_IMPL)
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // No incubator module
+                instance = new Scalar();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Whether this implementation uses SIMD instructions.
+     *
+     * @return true if vectorized
+     */
+    abstract boolean isVectorized();
+
+    /**
+     * Collect, in ascending order, the indices between <code>from</code>
+     * (inclusive) and <code>to</code> (exclusive) whose positions are less
+     * than <code>radius</code> from px,py.
+     *
+     * @param out The array to write indices into, which must have room for
+     * <code>to - from</code> of them
+     * @return The number of indices written
+     */
+    abstract int scan(double[] xs, double[] ys, int from, int to, double px,
+            double py, double radius, int[] out);
+
+    static final class Scalar extends DistanceScan {
+
+        @Override
+        boolean isVectorized() {
+            return false;
+        }
+
+        @Override
+        int scan(double[] xs, double[] ys, int from, int to, double px, double py,
+                double radius, int[] out) {
+            double radiusSquared = radius * radius;
+            int count = 0;
+            for (int j = from; j < to; j++) {
+                double dx = xs[j] - px;
+                double dy = ys[j] - py;
+                if (dx * dx + dy * dy < radiusSquared) {
+                    out[count++] = j;
+                }
+            }
+            return count;
+        }
+    }
+}
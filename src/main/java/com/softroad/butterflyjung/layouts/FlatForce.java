@@ -0,0 +1,170 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.function.DoubleBiConsumer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Force composed with <code>and()</code> and <code>or()</code>, flattened
+ * into an array of stages. Each stage passes the points it produces to the
+ * next through a sink allocated once, when the force is compiled, rather than
+ * through a capturing lambda created on every call; <code>Force.NONE</code>
+ * stages, which pass points through unchanged, are dropped, and leaf forces
+ * which are never composed are returned as-is.
+ *
+ * @author Tim Boudreau
+ */
+final class FlatForce implements Force {
+
+    private final Force[] stages;
+    private final Sink[] sinks;
+    private DoubleBiConsumer out;
+
+    private FlatForce(Force[] stages) {
+        this.stages = stages;
+        sinks = new Sink[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            sinks[i] = new Sink(i + 1);
+        }
+    }
+
+    static Force compile(Force force) {
+        if (force instanceof FlatForce || force instanceof OrStage) {
+            return force;
+        }
+        List<Force> stages = new ArrayList<>();
+        flatten(force, stages);
+        switch (stages.size()) {
+            case 0:
+                return Force.NONE;
+            case 1:
+                return stages.get(0);
+            default:
+                return new FlatForce(stages.toArray(new Force[stages.size()]));
+        }
+    }
+
+    private static void flatten(Force force, List<Force> into) {
+        if (force == Force.NONE) {
+            return;
+        }
+        if (force instanceof Force.And) {
+            Force.And and = (Force.And) force;
+            flatten(and.first(), into);
+            flatten(and.second(), into);
+        } else if (force instanceof Force.Or) {
+            Force.Or or = (Force.Or) force;
+            into.add(new OrStage(compile(or.first()), compile(or.second())));
+        } else if (force instanceof FlatForce) {
+            for (Force stage : ((FlatForce) force).stages) {
+                into.add(stage);
+            }
+        } else {
+            into.add(force);
+        }
+    }
+
+    @Override
+    public void accept(double a, double b, DoubleBiConsumer transformed) {
+        DoubleBiConsumer oldOut = out;
+        out = transformed;
+        try {
+            stages[0].accept(a, b, sinks[0]);
+        } finally {
+            out = oldOut;
+        }
+    }
+
+    @Override
+    public Force compile() {
+        return this;
+    }
+
+    private final class Sink implements DoubleBiConsumer {
+
+        private final int next;
+
+        Sink(int next) {
+            this.next = next;
+        }
+
+        @Override
+        public void accept(double a, double b) {
+            if (next == stages.length) {
+                out.accept(a, b);
+            } else {
+                stages[next].accept(a, b, sinks[next]);
+            }
+        }
+    }
+
+    /**
+     * The flattened form of Force.Or, which remembers the point it was
+     * passed so it can fall back to its second force.
+     */
+    static final class OrStage implements Force, DoubleBiConsumer {
+
+        private final Force first;
+        private final Force second;
+        private double a;
+        private double b;
+        private DoubleBiConsumer out;
+
+        OrStage(Force first, Force second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void accept(double a, double b, DoubleBiConsumer transformed) {
+            double oldA = this.a;
+            double oldB = this.b;
+            DoubleBiConsumer oldOut = out;
+            this.a = a;
+            this.b = b;
+            out = transformed;
+            try {
+                first.accept(a, b, this);
+            } finally {
+                this.a = oldA;
+                this.b = oldB;
+                out = oldOut;
+            }
+        }
+
+        @Override
+        public void accept(double a1, double b1) {
+            if (Force.Or.unmoved(a, b, a1, b1)) {
+                second.accept(a, b, out);
+            } else {
+                out.accept(a1, b1);
+            }
+        }
+    }
+}
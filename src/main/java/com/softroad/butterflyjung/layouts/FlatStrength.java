@@ -0,0 +1,302 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Strength composed with <code>multiply()</code>, <code>negate()</code>,
+ * <code>bound()</code>, <code>internal()</code> and friends, normalized into a
+ * single base function plus flat arrays of operations, so evaluating it is one
+ * monomorphic call and a short loop rather than a chain of interface calls.
+ * <p>
+ * The conditions (bound, internal, external) are hoisted and tested first,
+ * outermost first; the first which fails yields zero, with only the
+ * operations composed <i>outside</i> it applied, exactly as the composed form
+ * would. Negation is folded into adjacent multipliers, and operations on a
+ * constant with no conditions are evaluated once up front. Strengths
+ * implemented elsewhere are kept as an opaque base function.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class FlatStrength implements Strength {
+
+    private static final int BASE_INVERSE_SQUARE = 0;
+    private static final int BASE_LINEAR = 1;
+    private static final int BASE_CONSTANT = 2;
+    private static final int BASE_LOG = 3;
+    private static final int BASE_OPAQUE = 4;
+
+    private static final int OP_MULTIPLY = 0;
+    private static final int OP_LOG = 1;
+    private static final int OP_CBRT = 2;
+    private static final int OP_SIN = 3;
+    private static final int OP_DIVIDED_INTO = 4;
+
+    private static final int GUARD_BOUND = 0;
+    private static final int GUARD_INTERNAL = 1;
+    private static final int GUARD_EXTERNAL = 2;
+
+    private final int base;
+    private final double baseArgument;
+    private final Strength opaque;
+    // Innermost first
+    private final int[] ops;
+    private final double[] opArguments;
+    // Outermost first, with the number of ops applied outside each
+    private final int[] guards;
+    private final double[] guardArguments;
+    private final int[] opsOutsideGuard;
+
+    private FlatStrength(int base, double baseArgument, Strength opaque, int[] ops,
+            double[] opArguments, int[] guards, double[] guardArguments, int[] opsOutsideGuard) {
+        this.base = base;
+        this.baseArgument = baseArgument;
+        this.opaque = opaque;
+        this.ops = ops;
+        this.opArguments = opArguments;
+        this.guards = guards;
+        this.guardArguments = guardArguments;
+        this.opsOutsideGuard = opsOutsideGuard;
+    }
+
+    static FlatStrength compile(Strength strength) {
+        if (strength instanceof FlatStrength) {
+            return (FlatStrength) strength;
+        }
+        // Walk from the outermost wrapper inward, collecting operations
+        // outermost first
+        List<Integer> opList = new ArrayList<>();
+        List<Double> opArgList = new ArrayList<>();
+        List<Integer> guardList = new ArrayList<>();
+        List<Double> guardArgList = new ArrayList<>();
+        List<Integer> outsideList = new ArrayList<>();
+        Strength s = strength;
+        for (;;) {
+            if (s instanceof Strength.Multiplier) {
+                Strength.Multiplier m = (Strength.Multiplier) s;
+                opList.add(OP_MULTIPLY);
+                opArgList.add(m.multiplyBy());
+                s = m.original();
+            } else if (s instanceof Strength.Derived) {
+                Strength.Derived d = (Strength.Derived) s;
+                switch (d.op()) {
+                    case BOUND:
+                    case INTERNAL:
+                    case EXTERNAL:
+                        guardList.add(d.op() == Strength.Derived.Op.BOUND ? GUARD_BOUND
+                                : d.op() == Strength.Derived.Op.INTERNAL ? GUARD_INTERNAL
+                                : GUARD_EXTERNAL);
+                        guardArgList.add(d.argument());
+                        outsideList.add(opList.size());
+                        break;
+                    case NEGATE:
+                        opList.add(OP_MULTIPLY);
+                        opArgList.add(-1D);
+                        break;
+                    case LOG:
+                        opList.add(OP_LOG);
+                        opArgList.add(0D);
+                        break;
+                    case CBRT:
+                        opList.add(OP_CBRT);
+                        opArgList.add(0D);
+                        break;
+                    case SIN:
+                        opList.add(OP_SIN);
+                        opArgList.add(0D);
+                        break;
+                    case DIVIDED_INTO:
+                        opList.add(OP_DIVIDED_INTO);
+                        opArgList.add(d.argument());
+                        break;
+                    default:
+                        throw new AssertionError(d.op());
+                }
+                s = d.source();
+            } else if (s instanceof FlatStrength && guardList.isEmpty() && opList.isEmpty()) {
+                return (FlatStrength) s;
+            } else {
+                break;
+            }
+        }
+        int base;
+        double baseArgument = 0;
+        Strength opaque = null;
+        if (s instanceof Strength.InverseSquareLaw) {
+            base = BASE_INVERSE_SQUARE;
+            baseArgument = ((Strength.InverseSquareLaw) s).multiplier();
+        } else if (s instanceof Strength.Linear) {
+            base = BASE_LINEAR;
+        } else if (s instanceof Strength.Fixed) {
+            base = BASE_CONSTANT;
+            baseArgument = ((Strength.Fixed) s).value();
+        } else if (s instanceof Strength.LogDistance) {
+            base = BASE_LOG;
+        } else {
+            base = BASE_OPAQUE;
+            opaque = s;
+        }
+        // Reverse the operations to innermost first, folding each run of
+        // multiplications by -1 into the multiplier next to it - negation
+        // is exact, so the result is unchanged. Runs may not cross the
+        // position of a guard.
+        int count = opList.size();
+        int[] ops = new int[count];
+        double[] opArgs = new double[count];
+        int[] newIndexOfBoundary = new int[count + 1];
+        int n = 0;
+        boolean pendingNegate = false;
+        for (int i = count - 1; i >= 0; i--) {
+            // Position i + 1 (counting from the outside) is a boundary if some
+            // guard sits outside exactly i + 1 ops
+            if (isBoundary(outsideList, i + 1) && pendingNegate) {
+                ops[n] = OP_MULTIPLY;
+                opArgs[n++] = -1D;
+                pendingNegate = false;
+            }
+            newIndexOfBoundary[i + 1] = n;
+            int op = opList.get(i);
+            double arg = opArgList.get(i);
+            if (op == OP_MULTIPLY && arg == -1D) {
+                pendingNegate = !pendingNegate;
+                continue;
+            }
+            if (pendingNegate && op == OP_MULTIPLY) {
+                arg = -arg;
+                pendingNegate = false;
+            } else if (pendingNegate) {
+                ops[n] = OP_MULTIPLY;
+                opArgs[n++] = -1D;
+                pendingNegate = false;
+            }
+            ops[n] = op;
+            opArgs[n++] = arg;
+        }
+        if (pendingNegate) {
+            ops[n] = OP_MULTIPLY;
+            opArgs[n++] = -1D;
+        }
+        newIndexOfBoundary[0] = n;
+        int[] guards = new int[guardList.size()];
+        double[] guardArgs = new double[guards.length];
+        int[] outside = new int[guards.length];
+        for (int i = 0; i < guards.length; i++) {
+            guards[i] = guardList.get(i);
+            guardArgs[i] = guardArgList.get(i);
+            outside[i] = n - newIndexOfBoundary[outsideList.get(i)];
+        }
+        ops = Arrays.copyOf(ops, n);
+        opArgs = Arrays.copyOf(opArgs, n);
+        if (base == BASE_CONSTANT && guards.length == 0) {
+            double value = apply(baseArgument, ops, opArgs, 0);
+            return new FlatStrength(BASE_CONSTANT, value, null, new int[0],
+                    new double[0], guards, guardArgs, outside);
+        }
+        return new FlatStrength(base, baseArgument, opaque, ops, opArgs, guards, guardArgs, outside);
+    }
+
+    private static boolean isBoundary(List<Integer> outside, int position) {
+        for (int i = 0; i < outside.size(); i++) {
+            if (outside.get(i) == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
+        for (int g = 0; g < guards.length; g++) {
+            boolean passes;
+            switch (guards[g]) {
+                case GUARD_BOUND:
+                    passes = !(distance > guardArguments[g]);
+                    break;
+                case GUARD_INTERNAL:
+                    passes = Strength.Derived.distanceToCenter(centerX, centerY, x, y) < distance;
+                    break;
+                default:
+                    passes = Strength.Derived.distanceToCenter(centerX, centerY, x, y) >= distance;
+                    break;
+            }
+            if (!passes) {
+                return apply(0, ops, opArguments, ops.length - opsOutsideGuard[g]);
+            }
+        }
+        double value;
+        switch (base) {
+            case BASE_INVERSE_SQUARE:
+                double d = Math.max(distance, 1) * baseArgument;
+                value = 1D / (d * d);
+                break;
+            case BASE_LINEAR:
+                value = 1D / Math.max(distance, 1);
+                break;
+            case BASE_CONSTANT:
+                value = baseArgument;
+                break;
+            case BASE_LOG:
+                value = Math.log(distance);
+                break;
+            default:
+                value = opaque.computeStrength(centerX, centerY, x, y, distance);
+                break;
+        }
+        return apply(value, ops, opArguments, 0);
+    }
+
+    private static double apply(double value, int[] ops, double[] args, int from) {
+        for (int i = from; i < ops.length; i++) {
+            switch (ops[i]) {
+                case OP_MULTIPLY:
+                    value = args[i] * value;
+                    break;
+                case OP_LOG:
+                    value = Math.log(value);
+                    break;
+                case OP_CBRT:
+                    value = Math.cbrt(value);
+                    break;
+                case OP_SIN:
+                    value = Math.sin(value);
+                    break;
+                default:
+                    value = args[i] / value;
+                    break;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Strength compile() {
+        return this;
+    }
+}
@@ -40,28 +40,94 @@ import com.mastfrog.function.DoubleBiConsumer;
     void accept(double a, double b, DoubleBiConsumer transformed);
 
     default Force and(Force f) {
-        return (a, b, xf) -> {
-            accept(a, b, (a1, b1) -> {
-                f.accept(a1, b1, xf);
-            });
-        };
+        return new And(this, f);
     }
 
     default Force or(Force f) {
-        return (a, b, xf) -> {
-            accept(a, b, (a1, b1) -> {
-                if (a == a1 && b == b1) {
-                    f.accept(a, b, xf);
+        return new Or(this, f);
+    }
+
+    /**
+     * Flatten this force and whatever it is composed from with
+     * <code>and()</code> and <code>or()</code> into a single evaluator. The
+     * result keeps per-evaluation state, so, like most forces, it should not
+     * be shared between threads.
+     *
+     * @return A force
+     */
+    default Force compile() {
+        return FlatForce.compile(this);
+    }
+
+    /**
+     * Applies one force, then another to each point the first produces.
+     */
+    public static final class And implements Force {
+
+        private final Force first;
+        private final Force second;
+
+        And(Force first, Force second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        Force first() {
+            return first;
+        }
+
+        Force second() {
+            return second;
+        }
+
+        @Override
+        public void accept(double a, double b, DoubleBiConsumer xf) {
+            first.accept(a, b, (a1, b1) -> {
+                second.accept(a1, b1, xf);
+            });
+        }
+    }
+
+    /**
+     * Applies one force, falling back to another applied to the original
+     * point if the first did not move it (by much).
+     */
+    public static final class Or implements Force {
+
+        private final Force first;
+        private final Force second;
+
+        Or(Force first, Force second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        Force first() {
+            return first;
+        }
+
+        Force second() {
+            return second;
+        }
+
+        static boolean unmoved(double a, double b, double a1, double b1) {
+            if (a == a1 && b == b1) {
+                return true;
+            }
+            double deltaA = Math.abs(a1 - 1);
+            double deltaB = Math.abs(b1 - b);
+            return deltaA <= 0.1 && deltaB <= 0.1;
+        }
+
+        @Override
+        public void accept(double a, double b, DoubleBiConsumer xf) {
+            first.accept(a, b, (a1, b1) -> {
+                if (unmoved(a, b, a1, b1)) {
+                    second.accept(a, b, xf);
                 } else {
-                    double deltaA = Math.abs(a1 - 1);
-                    double deltaB = Math.abs(b1 - b);
-                    if (deltaA <= 0.1 && deltaB <= 0.1) {
-                        f.accept(a, b, xf);
-                    } else {
-                        xf.accept(a1, b1);
-                    }
+                    xf.accept(a1, b1);
                 }
             });
-        };
+        }
     }
 }
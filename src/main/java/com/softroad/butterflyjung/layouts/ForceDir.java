@@ -29,18 +29,27 @@ import com.google.common.base.Function;
 import com.mastfrog.abstractions.Wrapper;
 import com.mastfrog.abstractions.list.IndexedResolvable;
 import com.mastfrog.graph.IntGraph;
-import com.mastfrog.graph.IntGraphBuilder;
 import com.mastfrog.graph.ObjectGraph;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.algorithms.util.IterativeContext;
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.ObservableGraph;
+import edu.uci.ics.jung.graph.event.GraphEventListener;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * An experimental force-directed graph which works well for some
@@ -49,26 +58,116 @@ import java.util.Set;
  * input graph was created from one using the adapter project, it
  * will be detected with zero-overhead; else the graph may be copied
  * to use it.
+ * <p>
+ * If the graph is an ObservableGraph, or is replaced by calling
+ * <code>setGraph()</code>, structural changes are applied incrementally on
+ * the next step: nodes which survive keep their positions, new ones start
+ * next to their neighbors, and for a while only the neighborhood of the
+ * change is laid out again.
+ * </p>
+ * <p>
+ * The ForceDirected it wraps is created when the layout is first used, so
+ * that settings made before then - multilevel or multi-start
+ * initialization, the pool - apply to the initial layout.
+ * </p>
+ * <p>
+ * Like the ForceDirected it wraps, an instance must be used by one thread at
+ * a time; separate instances share no mutable state and may be stepped
+ * concurrently. Structural change notifications may arrive on any thread,
+ * and are applied by whichever thread next uses the layout.
+ * </p>
  *
  * @author Tim Boudreau
  */
-public class ForceDir<V, E> implements Layout<V, E>, IterativeContext {
+public class ForceDir<V, E> implements Layout<V, E>, IterativeContext, ConvergingLayout {
 
-    private final Graph<V, E> graph;
+    private Graph<V, E> graph;
     private final Set<V> locked = new HashSet<>();
     private final ObjectGraph<V> delegate;
+    private final GraphEventListener<V, E> listener = evt -> structureChanged = true;
+    private volatile boolean structureChanged;
     private ForceDirected fd;
     private IndexedResolvable<? extends V> ir;
     private IntGraph ig;
+    private ForceDirected.RepulsionMode repulsionMode;
+    private ForceDirected.TickMode tickMode = ForceDirected.TickMode.SEQUENTIAL;
+    private boolean multilevel;
+    private int starts = 1;
+    private boolean sleeping;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
 
     public ForceDir(Graph<V, E> graph, ObjectGraph<V> delegate) {
+        this(graph, delegate, null);
+    }
+
+    private ForceDir(Graph<V, E> graph, ObjectGraph<V> delegate, GraphFile file) {
         this.graph = graph;
         this.delegate = delegate;
         delegate.toIntGraph((ir, ig) -> {
             this.ir = ir;
             this.ig = ig;
         });
-        fd = new ForceDirected(ig, 40000, 40000);
+        if (file != null) {
+            fd = file.toForceDirected(ig);
+        }
+        listenTo(graph);
+    }
+
+    /**
+     * Create a layout of a graph saved with {@link #save(Path)}, starting
+     * from the saved positions and relatedness, for a JUNG graph whose
+     * vertices are the saved node names.
+     *
+     * @param <E> The edge type
+     * @param graph The graph
+     * @param file The saved graph
+     * @return A layout
+     * @throws IllegalArgumentException if the graph's vertices are not the
+     * saved nodes
+     */
+    public static <E> ForceDir<String, E> open(Graph<String, E> graph, GraphFile file) {
+        List<String> names = new ArrayList<>(file.names());
+        if (graph.getVertexCount() != names.size()) {
+            throw new IllegalArgumentException("Graph has " + graph.getVertexCount()
+                    + " vertices but the file has " + names.size() + " nodes");
+        }
+        for (String name : names) {
+            if (!graph.containsVertex(name)) {
+                throw new IllegalArgumentException("Graph has no vertex " + name);
+            }
+        }
+        return new ForceDir<>(graph, file.toIntGraph().toObjectGraph(names), file);
+    }
+
+    /**
+     * Save the graph and the current state of the layout, so it can be
+     * reopened without being laid out again. Vertices are saved as the
+     * strings returned by their toString() methods.
+     *
+     * @param file The file
+     * @throws IOException if writing fails
+     */
+    public void save(Path file) throws IOException {
+        ForceDirected fd = current();
+        List<V> names = new ArrayList<>(ir.size());
+        for (int i = 0; i < ir.size(); i++) {
+            names.add(ir.forIndex(i));
+        }
+        GraphFile.write(file, names, fd);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void listenTo(Graph<V, E> graph) {
+        if (graph instanceof ObservableGraph<?, ?>) {
+            ((ObservableGraph<V, E>) graph).addGraphEventListener(listener);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stopListeningTo(Graph<V, E> graph) {
+        if (graph instanceof ObservableGraph<?, ?>) {
+            ((ObservableGraph<V, E>) graph).removeGraphEventListener(listener);
+        }
     }
 
     public ForceDir(Graph<V, E> graph) {
@@ -80,23 +179,260 @@ public class ForceDir<V, E> implements Layout<V, E>, IterativeContext {
         if (og != null) {
             return og;
         }
+        // Sized by vertex count rather than built edge by edge, so that
+        // vertices with no edges still get an index
         List<V> all = new ArrayList<>(graph.getVertices());
-        IntGraphBuilder ib = IntGraph.builder();
+        Map<V, Integer> indices = new HashMap<>(all.size() * 2);
+        BitSet[] children = new BitSet[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            indices.put(all.get(i), i);
+            // Left to grow as edges are added - sizing each one for every
+            // vertex would take quadratic memory
+            children[i] = new BitSet();
+        }
         for (int i = 0; i < all.size(); i++) {
             V v = all.get(i);
             for (E edge : graph.getOutEdges(v)) {
                 V v1 = graph.getDest(edge);
                 if (v != v1) {
-                    ib.addEdge(i, all.indexOf(v1));
+                    children[i].set(indices.get(v1));
                 }
             }
         }
-        return ib.build().toObjectGraph(all);
+        return IntGraph.create(children).toObjectGraph(all);
+    }
+
+    /**
+     * Rebuild the IntGraph from the current state of the graph and warm-start
+     * a new ForceDirected for it from the current one.
+     */
+    private void applyStructureChange() {
+        structureChanged = false;
+        List<V> all = new ArrayList<>(graph.getVertices());
+        Map<V, Integer> previous = new HashMap<>(ir.size() * 2);
+        for (int i = 0; i < ir.size(); i++) {
+            previous.put(ir.forIndex(i), i);
+        }
+        Map<V, Integer> current = new HashMap<>(all.size() * 2);
+        BitSet[] children = new BitSet[all.size()];
+        int[] previousIndices = new int[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            V v = all.get(i);
+            current.put(v, i);
+            children[i] = new BitSet();
+            previousIndices[i] = previous.getOrDefault(v, -1);
+        }
+        for (int i = 0; i < all.size(); i++) {
+            V v = all.get(i);
+            for (E edge : graph.getOutEdges(v)) {
+                V v1 = graph.getDest(edge);
+                if (v != v1) {
+                    children[i].set(current.get(v1));
+                }
+            }
+        }
+        IntGraph newGraph = IntGraph.create(children);
+        if (fd != null) {
+            fd = fd.warmStart(newGraph, previousIndices);
+        }
+        newGraph.toObjectGraph(all).toIntGraph((ir, ig) -> {
+            this.ir = ir;
+            this.ig = ig;
+        });
+    }
+
+    ForceDirected current() {
+        if (structureChanged) {
+            applyStructureChange();
+        }
+        if (fd == null) {
+            fd = newForceDirected();
+        }
+        return fd;
+    }
+
+    private ForceDirected newForceDirected() {
+        ForceDirected result;
+        if (multilevel) {
+            MultilevelLayout ml = new MultilevelLayout(ig, 40000, 40000, null);
+            ml.setPool(pool);
+            ml.setTickMode(tickMode);
+            ml.setRepulsionMode(repulsionMode);
+            result = ml.layout();
+        } else if (starts > 1) {
+            MultiStart ms = new MultiStart(ig, 40000, 40000, ThreadLocalRandom.current().nextLong());
+            ms.setStarts(starts);
+            ms.setPool(pool);
+            ms.setConfigurer(candidate -> {
+                if (repulsionMode != null) {
+                    candidate.setRepulsionMode(repulsionMode);
+                }
+                candidate.setSleepingEnabled(sleeping);
+            });
+            result = ms.layout();
+        } else {
+            result = new ForceDirected(ig, 40000, 40000, null,
+                    ForceDirected.DEFAULT_RELATEDNESS_DEPTH,
+                    ForceDirected.RelatednessStorage.SPARSE, pool);
+        }
+        if (repulsionMode != null) {
+            // Otherwise leave what multilevel layout chose for the size of
+            // the graph, or the default
+            result.setRepulsionMode(repulsionMode);
+        }
+        result.setTickMode(tickMode);
+        result.setSleepingEnabled(sleeping);
+        result.setPool(pool);
+        return result;
+    }
+
+    /**
+     * Get the way repulsion between distant nodes is computed, if it has
+     * been set; if not, it is exact, except that multilevel layout uses
+     * Barnes-Hut for levels of more than a few thousand nodes.
+     *
+     * @return The mode, or null if not set
+     */
+    public ForceDirected.RepulsionMode getRepulsionMode() {
+        return repulsionMode;
+    }
+
+    /**
+     * Set the way repulsion between distant nodes is computed; for graphs of
+     * more than a few thousand nodes, use BARNES_HUT for interactive frame
+     * rates. Survives calls to <code>reset()</code>.
+     *
+     * @param mode The mode
+     */
+    public void setRepulsionMode(ForceDirected.RepulsionMode mode) {
+        if (fd != null) {
+            fd.setRepulsionMode(mode);
+        }
+        this.repulsionMode = mode;
+    }
+
+    /**
+     * Get how the work of each step is scheduled.
+     *
+     * @return The tick mode
+     */
+    public ForceDirected.TickMode getTickMode() {
+        return tickMode;
+    }
+
+    /**
+     * Set how the work of each step is scheduled - the parallel modes spread
+     * each step across the pool set with <code>setPool()</code>, and are worth using once
+     * graphs have more than a few hundred nodes. Survives calls to
+     * <code>reset()</code>.
+     *
+     * @param mode The tick mode
+     */
+    public void setTickMode(ForceDirected.TickMode mode) {
+        if (fd != null) {
+            fd.setTickMode(mode);
+        }
+        this.tickMode = mode;
+    }
+
+    /**
+     * Determine if the initial layout is computed by coarsening the graph,
+     * laying out the coarsest level and refining back up to the original.
+     *
+     * @return Whether or not multilevel initialization is used
+     */
+    public boolean isMultilevel() {
+        return multilevel;
+    }
+
+    /**
+     * Set whether the initial layout is computed by a
+     * {@link MultilevelLayout} rather than starting from random positions;
+     * initialization takes longer, but large graphs start out untangled and
+     * need far fewer steps to settle. Takes effect on the next call to
+     * <code>reset()</code> or <code>initialize()</code>, or when the layout
+     * is first used.
+     *
+     * @param multilevel Whether or not to use multilevel initialization
+     */
+    public void setMultilevel(boolean multilevel) {
+        this.multilevel = multilevel;
+    }
+
+    /**
+     * Get the number of independently seeded layouts the initial layout is
+     * chosen from.
+     *
+     * @return The number of starts
+     */
+    public int getStarts() {
+        return starts;
+    }
+
+    /**
+     * Set the number of independently seeded layouts to run in parallel
+     * when initializing, keeping only the best, as chosen by a
+     * {@link MultiStart}; 1, the default, means a single random start.
+     * Ignored if multilevel initialization is on. Takes effect on the next
+     * call to <code>reset()</code> or <code>initialize()</code>, or when the
+     * layout is first used.
+     *
+     * @param starts The number of starts, at least 1
+     */
+    public void setStarts(int starts) {
+        if (starts < 1) {
+            throw new IllegalArgumentException("Need at least one start: " + starts);
+        }
+        this.starts = starts;
+    }
+
+    /**
+     * Set the pool relatedness, multiple starts and the parallel tick modes
+     * run in; the default is the common pool. With none, all the work of
+     * the layout is done on the calling thread, and interrupting it stops
+     * <code>layoutWithin()</code>. Takes effect on the next call to
+     * <code>reset()</code> or <code>initialize()</code>, or when the layout
+     * is first used, except for parallel ticks, which use it at once.
+     *
+     * @param pool The pool, or null
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (fd != null) {
+            fd.setPool(pool);
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Determine if nodes which have stopped moving are put to sleep.
+     *
+     * @return Whether or not sleeping is enabled
+     */
+    public boolean isSleepingEnabled() {
+        return sleeping;
+    }
+
+    /**
+     * Set whether nodes which have stopped moving are put to sleep until a
+     * neighbor moves or they are dragged, so that once most of a large graph
+     * has settled, steps only cost as much as the part still moving. Survives
+     * calls to <code>reset()</code>.
+     *
+     * @param sleeping Whether or not to put settled nodes to sleep
+     */
+    public void setSleepingEnabled(boolean sleeping) {
+        if (fd != null) {
+            fd.setSleepingEnabled(sleeping);
+        }
+        this.sleeping = sleeping;
     }
 
     @Override
     public void initialize() {
-        fd = new ForceDirected(ig, 40000, 40000);
+        if (structureChanged) {
+            applyStructureChange();
+        }
+        fd = newForceDirected();
     }
 
     @Override
@@ -105,7 +441,12 @@ public class ForceDir<V, E> implements Layout<V, E>, IterativeContext {
 
     @Override
     public void setGraph(Graph<V, E> graph) {
-        throw new UnsupportedOperationException("Immutable.");
+        if (graph != this.graph) {
+            stopListeningTo(this.graph);
+            this.graph = graph;
+            listenTo(graph);
+            structureChanged = true;
+        }
     }
 
     @Override
@@ -124,7 +465,7 @@ public class ForceDir<V, E> implements Layout<V, E>, IterativeContext {
 
     @Override
     public Dimension getSize() {
-        return fd.currentSize();
+        return current().currentSize();
     }
 
     @Override
@@ -138,26 +479,62 @@ public class ForceDir<V, E> implements Layout<V, E>, IterativeContext {
 
     @Override
     public void setLocation(V v, Point2D location) {
+        ForceDirected fd = current();
         int ix = ir.indexOf(v);
         if (ix >= 0) {
-            fd.setLocation(ix, location.getX(), location.getY());
+            // apply() returns positions relative to the top left of the
+            // bounds, so undo that
+            double offX = fd.minX() <= fd.maxX() ? fd.minX() : 0;
+            double offY = fd.minY() <= fd.maxY() ? fd.minY() : 0;
+            fd.setLocation(ix, location.getX() + offX, location.getY() + offY);
         }
     }
 
     @Override
     public Point2D apply(V f) {
+        ForceDirected fd = current();
         int ix = ir.indexOf(f);
         return new Point2D.Double(fd.xNorm(ix), fd.yNorm(ix));
     }
 
     @Override
     public void step() {
-        fd.iterate();
+        current().iterate();
+    }
+
+    /**
+     * Step the layout for at most the passed amount of time, stopping early
+     * if it converges, and leave it at the lowest-stress positions seen, for
+     * callers which need a finished layout within a latency budget rather
+     * than an animation. Coordinates in the returned snapshot are raw layout
+     * coordinates; <code>apply()</code> returns them shifted to the origin.
+     *
+     * @param budget The time budget
+     * @return The positions and statistics for tuning the budget
+     */
+    public LayoutSnapshot layoutWithin(Duration budget) {
+        if (budget == null || budget.isNegative()) {
+            throw new IllegalArgumentException("Bad budget " + budget);
+        }
+        // The initial layout, if it has not been computed yet, counts
+        // against the budget
+        long deadline = System.nanoTime() + Math.max(1, budget.toNanos());
+        return current().layoutUntil(deadline);
     }
 
     @Override
     public boolean done() {
-        return fd.maxPerturb() <= 12;
+        return current().converged();
+    }
+
+    @Override
+    public boolean isConverged() {
+        return current().converged();
+    }
+
+    @Override
+    public ConvergenceStats getConvergenceStats() {
+        return current().convergenceStats();
     }
 
 }
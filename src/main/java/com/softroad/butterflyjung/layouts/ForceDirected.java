@@ -38,14 +38,35 @@ import com.mastfrog.util.collections.IntSet;
 
 import javax.swing.*;
 import java.awt.*;
+import java.time.Duration;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.IntConsumer;
 
 import static javax.swing.WindowConstants.EXIT_ON_CLOSE;
 
 /**
+ * Force-directed layout of an IntGraph.
+ * <p>
+ * <b>Concurrency:</b> an instance is not thread-safe, and must be confined
+ * to one thread at a time - calls to <code>iterate()</code>, setters and
+ * position accessors must not overlap, though the instance may be handed
+ * from one thread to another with the usual happens-before guarantees (as
+ * the background workers in JungScene do). Instances share no mutable
+ * state with each other - every force, damping field and scratch buffer
+ * belongs to one instance - so any number of them may run concurrently in
+ * one JVM. Relatedness scores shared between instances created by
+ * multi-start are immutable once computed. Computing relatedness and the
+ * parallel tick modes use the configured ForkJoinPool internally, or only
+ * the calling thread if there is none, but still require that ticks of one
+ * instance not overlap.
+ * </p><p>
+ * Given a Random with a fixed seed and a tick mode other than
+ * {@link TickMode#PARALLEL}, the sequence of positions is deterministic. If
+ * no Random is passed, initial positions come from ThreadLocalRandom.
+ * </p>
+ *
  * @author Tim Boudreau
  */
 public class ForceDirected {
@@ -55,13 +76,54 @@ public class ForceDirected {
     double[] forces;
     double[] xs;
     double[] ys;
-    double[][] relatedness;
+    final Relatedness relatedness;
     final Random random;
     final int maxX;
     final int maxY;
     final int size;
     final double minRel;
     final double maxRel;
+    final int relatednessDepth;
+    final RelatednessStorage storage;
+    private BitSet changed;
+    private BitSet movable;
+    private int movableTicks;
+    private int[] activeRows;
+    private Activity activity;
+    private Convergence convergence;
+    private boolean coolingEnabled = true;
+    private double convergenceTolerance = DEFAULT_CONVERGENCE_TOLERANCE;
+    private boolean sleepingEnabled;
+    private double sleepThreshold = DEFAULT_SLEEP_THRESHOLD;
+    private int sleepTicks = DEFAULT_SLEEP_TICKS;
+    /**
+     * The default maximum number of edges between two nodes for them to be
+     * considered related; beyond this depth scores are below the threshold
+     * at which related nodes attract each other anyway.
+     */
+    public static final int DEFAULT_RELATEDNESS_DEPTH = 8;
+
+    /**
+     * How pairwise relatedness scores are stored.
+     */
+    public enum RelatednessStorage {
+        /**
+         * A full n * n matrix of doubles - only sensible for small graphs.
+         */
+        DENSE,
+        /**
+         * Compressed sparse rows of floats, holding only related pairs.
+         */
+        SPARSE,
+        /**
+         * Compressed sparse rows with scores quantized to 16 bits.
+         */
+        SPARSE_16_BIT,
+        /**
+         * Compressed sparse rows with scores quantized to 8 bits.
+         */
+        SPARSE_8_BIT
+    }
 
     public ForceDirected(IntGraph graph) {
         this(graph, 1536, 1024);
@@ -72,6 +134,56 @@ public class ForceDirected {
     }
 
     public ForceDirected(IntGraph graph, int maxX, int maxY, Random random) {
+        this(graph, maxX, maxY, random, DEFAULT_RELATEDNESS_DEPTH);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param graph The graph
+     * @param maxX The width of the initial layout area
+     * @param maxY The height of the initial layout area
+     * @param random Source of randomness for initial positions, or null
+     * @param relatednessDepth The maximum number of edges between two nodes
+     * for them to be considered related at all
+     */
+    public ForceDirected(IntGraph graph, int maxX, int maxY, Random random, int relatednessDepth) {
+        this(graph, maxX, maxY, random, relatednessDepth, RelatednessStorage.SPARSE);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param graph The graph
+     * @param maxX The width of the initial layout area
+     * @param maxY The height of the initial layout area
+     * @param random Source of randomness for initial positions, or null
+     * @param relatednessDepth The maximum number of edges between two nodes
+     * for them to be considered related at all
+     * @param storage How relatedness scores are stored - the dense form needs
+     * 8 * n * n bytes, the sparse forms only store related pairs
+     */
+    public ForceDirected(IntGraph graph, int maxX, int maxY, Random random,
+            int relatednessDepth, RelatednessStorage storage) {
+        this(graph, maxX, maxY, random, relatednessDepth, storage, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param graph The graph
+     * @param maxX The width of the initial layout area
+     * @param maxY The height of the initial layout area
+     * @param random Source of randomness for initial positions, or null
+     * @param relatednessDepth The maximum number of edges between two nodes
+     * for them to be considered related at all
+     * @param storage How relatedness scores are stored
+     * @param pool The pool relatedness is computed and parallel ticks run
+     * in, or null to do everything on the calling thread
+     */
+    public ForceDirected(IntGraph graph, int maxX, int maxY, Random random,
+            int relatednessDepth, RelatednessStorage storage, ForkJoinPool pool) {
+        this.pool = pool;
         this.maxX = maxX;
         this.maxY = maxY;
         this.graph = graph;
@@ -80,16 +192,147 @@ public class ForceDirected {
             random = ThreadLocalRandom.current();
         }
         this.random = random;
+        this.relatednessDepth = relatednessDepth;
+        this.storage = storage;
         neighbors = new Bits[graph.size()];
         forces = new double[graph.size()];
         xs = new double[graph.size()];
         ys = new double[graph.size()];
-        relatedness = new double[graph.size()][graph.size()];
         IntSet cards = initializePositions(maxX, maxY, graph);
-        computeRelatedness();
-        double[] minMax = initializeRelatedness();
-        minRel = minMax[0];
-        maxRel = minMax[1];
+        relatedness = computeRelatedness(relatednessDepth, storage);
+        minRel = minRelatedness(relatedness);
+        maxRel = relatedness.max();
+        computeMaxCardinalities(cards);
+        recomputeBounds();
+    }
+
+    /**
+     * Create a new instance from a saved graph, with relatedness and
+     * positions from the file when it has them, rather than computed and
+     * randomized.
+     */
+    ForceDirected(IntGraph graph, int maxX, int maxY, int relatednessDepth,
+            RelatednessStorage storage, Relatedness relatedness, double[] xs, double[] ys) {
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.graph = graph;
+        this.size = graph.size();
+        this.random = ThreadLocalRandom.current();
+        this.relatednessDepth = relatednessDepth;
+        this.storage = storage;
+        neighbors = new Bits[size];
+        forces = new double[size];
+        IntSet cards;
+        if (xs == null) {
+            this.xs = new double[size];
+            this.ys = new double[size];
+            cards = initializePositions(maxX, maxY, graph);
+        } else {
+            this.xs = xs;
+            this.ys = ys;
+            cards = IntSet.create(size);
+            for (int i = 0; i < size; i++) {
+                neighbors[i] = graph.neighbors(i);
+                cards.add(neighbors[i].cardinality());
+            }
+        }
+        this.relatedness = relatedness == null
+                ? computeRelatedness(relatednessDepth, storage) : relatedness;
+        minRel = minRelatedness(this.relatedness);
+        maxRel = this.relatedness.max();
+        computeMaxCardinalities(cards);
+        recomputeBounds();
+    }
+
+    /**
+     * Create a new instance for an edited version of the graph of an
+     * existing one, keeping the positions of nodes that survived the edit,
+     * placing new ones near their neighbors, and recomputing relatedness
+     * only for rows the edit can have changed.
+     */
+    private ForceDirected(ForceDirected previous, IntGraph graph, int[] previousIndices) {
+        this.maxX = previous.maxX;
+        this.maxY = previous.maxY;
+        this.graph = graph;
+        this.size = graph.size();
+        this.random = previous.random;
+        this.relatednessDepth = previous.relatednessDepth;
+        this.storage = previous.storage;
+        neighbors = new Bits[size];
+        forces = new double[size];
+        xs = new double[size];
+        ys = new double[size];
+        IntSet cards = IntSet.create(size);
+        for (int i = 0; i < size; i++) {
+            neighbors[i] = graph.neighbors(i);
+            cards.add(neighbors[i].cardinality());
+        }
+        WarmStart warm = new WarmStart(previous, graph, previousIndices);
+        warm.positions(xs, ys);
+        relatedness = warm.relatedness(relatednessDepth, storage);
+        minRel = minRelatedness(relatedness);
+        maxRel = relatedness.max();
+        computeMaxCardinalities(cards);
+        changed = warm.changed();
+        copySettings(previous);
+        recomputeBounds();
+    }
+
+    /**
+     * Create a new instance for the same graph as an existing one, sharing
+     * its relatedness scores, which are never modified once computed, but
+     * with initial positions from a different source of randomness.
+     */
+    private ForceDirected(ForceDirected template, Random random) {
+        this.maxX = template.maxX;
+        this.maxY = template.maxY;
+        this.graph = template.graph;
+        this.size = template.size;
+        this.random = random;
+        this.relatednessDepth = template.relatednessDepth;
+        this.storage = template.storage;
+        neighbors = new Bits[size];
+        forces = new double[size];
+        xs = new double[size];
+        ys = new double[size];
+        initializePositions(maxX, maxY, graph);
+        relatedness = template.relatedness;
+        minRel = template.minRel;
+        maxRel = template.maxRel;
+        maxCardinalities = template.maxCardinalities;
+        copySettings(template);
+        recomputeBounds();
+    }
+
+    /**
+     * Create an instance for the same graph and with the same settings, but
+     * initial positions drawn from the passed Random, without recomputing
+     * relatedness.
+     *
+     * @param random The source of randomness
+     * @return A new instance
+     */
+    ForceDirected reseeded(Random random) {
+        return new ForceDirected(this, random);
+    }
+
+    private void copySettings(ForceDirected previous) {
+        repulsionMode = previous.repulsionMode;
+        tickMode = previous.tickMode;
+        pool = previous.pool;
+        forceEvaluation = previous.forceEvaluation;
+        neighborScan = previous.neighborScan;
+        sleepingEnabled = previous.sleepingEnabled;
+        sleepThreshold = previous.sleepThreshold;
+        sleepTicks = previous.sleepTicks;
+        coolingEnabled = previous.coolingEnabled;
+        convergenceTolerance = previous.convergenceTolerance;
+        if (sleepingEnabled) {
+            activity = new Activity(neighbors, xs, ys, sleepThreshold, sleepTicks);
+        }
+    }
+
+    private void computeMaxCardinalities(IntSet cards) {
         int c = cards.size();
         int sz = Math.max(2, c / 3);
         Iterator<Integer> it = cards.iterator();
@@ -100,7 +343,6 @@ public class ForceDirected {
             }
         }
 //        System.out.println("min relation " + minRel + " max " + maxRel);
-        System.out.println("MAX CARDS " + maxCardinalities);
     }
 
     private IntSet initializePositions(int maxX1, int maxY1, IntGraph graph1) {
@@ -116,57 +358,349 @@ public class ForceDirected {
         return cards;
     }
 
-    private double[] initializeRelatedness() {
-        double maxRel = Double.MIN_VALUE;
-        double minRel = Double.MAX_VALUE;
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (i != j) {
-                    System.out.println("Related " + i + "," + j + "\t" + relatedness[i][j]);
-                    minRel = Math.min(minRel, relatedness[i][j]);
-                    maxRel = Math.max(maxRel, relatedness[i][j]);
-                }
-            }
+    IntSet maxCardinalities = IntSet.create(100);
+
+    /**
+     * The number of edges from a changed node within which nodes are free to
+     * move during the local relayout that follows a warm start.
+     */
+    public static final int WARM_START_HOPS = 3;
+    /**
+     * The number of ticks of local relayout that follow a warm start, after
+     * which every node is free to move again.
+     */
+    public static final int WARM_START_TICKS = 60;
+
+    /**
+     * Lay out an edited version of this instance's graph, starting from this
+     * instance's positions rather than from scratch. Nodes which are in both
+     * graphs keep their positions; new nodes start at the centroid of their
+     * already-placed neighbors; only relatedness rows within the relatedness
+     * depth of a node whose edges changed are recomputed. For the first
+     * {@link #WARM_START_TICKS} ticks, only nodes within
+     * {@link #WARM_START_HOPS} edges of a change move, so the rest of the
+     * layout stays where the user last saw it.
+     * <p>
+     * Settings are copied from this instance, which is not modified.
+     * </p>
+     *
+     * @param graph The edited graph
+     * @param previousIndices For each node of the new graph, its index in
+     * this instance's graph, or -1 if it is new
+     * @return A new instance for the passed graph
+     */
+    public ForceDirected warmStart(IntGraph graph, int[] previousIndices) {
+        return warmStart(graph, previousIndices, WARM_START_HOPS, WARM_START_TICKS);
+    }
+
+    ForceDirected warmStart(IntGraph graph, int[] previousIndices, int hops, int ticks) {
+        if (previousIndices.length != graph.size()) {
+            throw new IllegalArgumentException("Index map has " + previousIndices.length
+                    + " entries for " + graph.size() + " nodes");
+        }
+        ForceDirected result = new ForceDirected(this, graph, previousIndices);
+        if (ticks > 0) {
+            result.restrictMovement(WarmStart.within(Adjacency.of(graph), result.changed, hops), ticks);
         }
-        return new double[]{minRel, maxRel};
+        return result;
     }
 
-    IntSet maxCardinalities = IntSet.create(100);
+    /**
+     * The nodes of a warm-started instance whose edges differ from the
+     * instance it was created from, or null if it was not warm-started.
+     */
+    BitSet changed() {
+        return changed;
+    }
+
+    /**
+     * Only allow the passed nodes to move for a number of ticks; any pair
+     * whose force would move a node outside the set is skipped, and in the
+     * sequential modes only rows which can move a node in the set are
+     * visited at all.
+     *
+     * @param movable The set of nodes which may move, or null for all
+     * @param ticks The number of ticks after which the restriction is lifted
+     */
+    void restrictMovement(BitSet movable, int ticks) {
+        this.movable = movable;
+        this.movableTicks = ticks;
+        this.activeRows = null;
+        if (movable != null && activity != null) {
+            activity.wake(movable, xs, ys);
+        }
+    }
+
+    boolean isMovable(int node) {
+        return (movable == null || movable.get(node))
+                && (activity == null || activity.isAwake(node));
+    }
+
+    /**
+     * The default distance a node must move by in a tick to count as
+     * active.
+     */
+    public static final double DEFAULT_SLEEP_THRESHOLD = 2;
+    /**
+     * The default number of consecutive inactive ticks after which a node
+     * goes to sleep.
+     */
+    public static final int DEFAULT_SLEEP_TICKS = 10;
+
+    public boolean sleepingEnabled() {
+        return sleepingEnabled;
+    }
+
+    /**
+     * Set whether nodes which have stopped moving are put to sleep and
+     * skipped until a neighbor moves significantly or they are moved by
+     * <code>setLocation()</code>. Once most of a large graph has settled,
+     * this makes ticks cost time proportional to the number of nodes still
+     * moving rather than to the size of the graph.
+     *
+     * @param enabled Whether to put settled nodes to sleep
+     */
+    public void setSleepingEnabled(boolean enabled) {
+        this.sleepingEnabled = enabled;
+        if (!enabled) {
+            activity = null;
+        } else if (activity == null) {
+            activity = new Activity(neighbors, xs, ys, sleepThreshold, sleepTicks);
+        }
+        activeRows = null;
+    }
+
+    public double sleepThreshold() {
+        return sleepThreshold;
+    }
+
+    /**
+     * Set the distance a node must move by in a tick to count as active;
+     * nodes moving more than a few times this wake their neighbors.
+     *
+     * @param threshold A distance, greater than zero
+     */
+    public void setSleepThreshold(double threshold) {
+        if (!(threshold > 0) || Double.isInfinite(threshold)) {
+            throw new IllegalArgumentException("Bad threshold " + threshold);
+        }
+        this.sleepThreshold = threshold;
+        resetActivity();
+    }
+
+    public int sleepTicks() {
+        return sleepTicks;
+    }
+
+    /**
+     * Set the number of consecutive inactive ticks after which a node goes
+     * to sleep.
+     *
+     * @param ticks The number of ticks, at least 1
+     */
+    public void setSleepTicks(int ticks) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("Ticks must be at least 1: " + ticks);
+        }
+        this.sleepTicks = ticks;
+        resetActivity();
+    }
+
+    private void resetActivity() {
+        if (activity != null) {
+            activity = new Activity(neighbors, xs, ys, sleepThreshold, sleepTicks);
+            activeRows = null;
+        }
+    }
+
+    /**
+     * The number of nodes which are not asleep - all of them if sleeping is
+     * not enabled.
+     *
+     * @return A count
+     */
+    public int awakeCount() {
+        return activity == null ? size : activity.awakeCount();
+    }
+
+    /**
+     * The default 90th percentile of per-tick displacement under which the
+     * layout is considered to have converged.
+     */
+    public static final double DEFAULT_CONVERGENCE_TOLERANCE = 1;
+
+    public boolean coolingEnabled() {
+        return coolingEnabled;
+    }
+
+    /**
+     * Set whether each node's movement is scaled by a temperature of its
+     * own, which cools when the node reverses direction from one tick to the
+     * next - a sign it is oscillating - and warms back up while it keeps
+     * moving the same way, rather than always applying the full computed
+     * movement, which can leave nodes oscillating forever.
+     *
+     * @param enabled Whether to cool oscillating nodes
+     */
+    public void setCoolingEnabled(boolean enabled) {
+        this.coolingEnabled = enabled;
+    }
+
+    public double convergenceTolerance() {
+        return convergenceTolerance;
+    }
 
-    static void sequential(int count, IntConsumer c) {
-        for (int i = 0; i < count; i++) {
-            c.accept(i);
+    /**
+     * Set the 90th percentile of per-tick displacement under which the layout
+     * is considered converged, once it has stayed there for a few ticks.
+     *
+     * @param tolerance A distance, non-negative
+     */
+    public void setConvergenceTolerance(double tolerance) {
+        if (tolerance < 0 || Double.isNaN(tolerance) || Double.isInfinite(tolerance)) {
+            throw new IllegalArgumentException("Bad tolerance " + tolerance);
         }
+        this.convergenceTolerance = tolerance;
     }
 
-    private void computeRelatedness() {
-        sequential(graph.size(), a -> {
-            sequential(graph.size(), b -> {
-                if (a != b) {
-                    List<IP> p1 = undirectedPathsBetween(a, b);
-                    for (IP ip : p1) {
-                        int sz = ip.size();
-                        double val = sz - 1;
-                        double c = curve(val);
-                        relatedness[a][b] += c;
+    /**
+     * The mean across all nodes of the fraction of each computed movement
+     * currently being applied.
+     *
+     * @return A number between zero and one
+     */
+    public double temperature() {
+        return convergence == null ? 1 : convergence.temperature();
+    }
+
+    double temperature(int node) {
+        return convergence == null ? 1 : convergence.temperature(node);
+    }
+
+    /**
+     * Determine if further ticks are no longer moving nodes by more than the
+     * convergence tolerance, or every node is asleep.
+     *
+     * @return Whether the layout has converged
+     */
+    public boolean converged() {
+        return convergence != null && convergence.converged();
+    }
+
+    /**
+     * Statistics for the most recent tick.
+     *
+     * @return The statistics, or null if there have been no ticks yet
+     */
+    public ConvergenceStats convergenceStats() {
+        return convergence == null ? null : convergence.stats();
+    }
+
+    /**
+     * The nodes whose rows can move a movable node - the movable nodes and
+     * the nodes which pull them - or null if movement is unrestricted.
+     */
+    private int[] activeRows() {
+        if (movable == null && activity == null) {
+            return null;
+        }
+        if (activeRows == null) {
+            BitSet moving;
+            if (activity == null) {
+                moving = movable;
+            } else {
+                moving = (BitSet) activity.awake().clone();
+                if (movable != null) {
+                    moving.and(movable);
+                }
+            }
+            BitSet rows = (BitSet) moving.clone();
+            for (int j = moving.nextSetBit(0); j >= 0; j = moving.nextSetBit(j + 1)) {
+                int jcard = neighbors[j].cardinality();
+                if (jcard == 0) {
+                    // Singletons are pushed by everything
+                    rows.set(0, size);
+                    break;
+                }
+                for (int i = neighbors[j].nextSetBit(0); i >= 0; i = neighbors[j].nextSetBit(i + 1)) {
+                    if (isPulledToward(i, j, jcard)) {
+                        rows.set(i);
                     }
                 }
-            });
-        });
+            }
+            activeRows = rows.stream().toArray();
+        }
+        return activeRows;
     }
 
-    int size() {
-        return size;
+    /**
+     * Relatedness of nodes is the number of shortest paths between them
+     * divided by their distance, out to the passed depth.
+     */
+    private Relatedness computeRelatedness(int depth, RelatednessStorage storage) {
+        Relatedness.Builder builder = Relatedness.builder(size, storage);
+        new BfsRelatedness(Adjacency.of(graph), depth, pool).compute(builder);
+        return builder.build();
     }
 
-    static double CURVE_FACTOR = 1D;
+    /**
+     * The relatedness that pairs of nodes must be within three times of to
+     * repel each other. The path enumeration relatedness used to come from
+     * scored every pair in a connected graph, so its minimum was one over
+     * the graph's diameter for trees; with the depth cap, pairs further
+     * apart read as unrelated, and the minimum would drop to zero - so far
+     * fewer pairs would repel - for any graph wider than the cap. For a
+     * connected graph, the minimum comes from its estimated diameter
+     * instead; a disconnected one has unrelated pairs either way.
+     */
+    private double minRelatedness(Relatedness rel) {
+        double min = rel.min();
+        if (min > 0 || size < 2) {
+            return min;
+        }
+        int diameter = estimateDiameter(Adjacency.of(graph));
+        return diameter > 0 ? 1D / diameter : min;
+    }
 
-    private double curve(double depth) {
-        if (depth == 0) {
-            return 1;
+    /**
+     * Estimate the diameter of a graph with a double sweep - the distance to
+     * the node furthest from the node furthest from node 0 - which is exact
+     * for trees and a lower bound otherwise.
+     *
+     * @param adj The graph
+     * @return The estimate, or -1 if the graph is not connected
+     */
+    static int estimateDiameter(Adjacency adj) {
+        int[] hops = new int[adj.size()];
+        int[] queue = new int[adj.size()];
+        int far = furthestFrom(adj, 0, hops, queue);
+        if (far < 0) {
+            return -1;
         }
-        return 1D / depth;
-//        return CURVE_FACTOR / (depth * 3D);
+        return hops[furthestFrom(adj, far, hops, queue)];
+    }
+
+    private static int furthestFrom(Adjacency adj, int source, int[] hops, int[] queue) {
+        Arrays.fill(hops, -1);
+        hops[source] = 0;
+        queue[0] = source;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = adj.start(node); e < adj.end(node); e++) {
+                int next = adj.target(e);
+                if (hops[next] < 0) {
+                    hops[next] = hops[node] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return tail == adj.size() ? queue[tail - 1] : -1;
+    }
+
+    int size() {
+        return size;
     }
 
     void setPosition(int index, double x, double y) {
@@ -203,6 +737,10 @@ public class ForceDirected {
             circle = new Circle(cx, cy);
         }
 
+        void setCenter(double cx, double cy) {
+            circle.setCenter(cx, cy);
+        }
+
         static double adjAngle(double a, double by) {
             a += by;
             if (a < 0) {
@@ -235,101 +773,712 @@ public class ForceDirected {
     }
 
     double ticks;
+    private long deadline;
+    private boolean hasDeadline;
+
+    /**
+     * How the repulsion between nodes which are not near each other is
+     * computed on each tick.
+     */
+    public enum RepulsionMode {
+        /**
+         * Compute the forces between every ordered pair of nodes on each tick,
+         * which is O(n^2) in the number of nodes.
+         */
+        EXACT,
+        /**
+         * Build a quadtree over the node positions on each tick and use it to
+         * find the pairs within the repulsion horizon, which is O(n log n).
+         * Those pairs, and the leaf and singleton nodes a node pulls, are
+         * computed exactly as in EXACT mode, which has no repulsion beyond
+         * the horizon either; the long-range attraction to related nodes is
+         * limited to the MAX_RELATED_PARTNERS most related ones, so on
+         * graphs with many hubs the result is close to but not the same as
+         * EXACT.
+         */
+        BARNES_HUT
+    }
+
+    /**
+     * Distance beyond which the short-range repulsion forces between two
+     * nodes have no effect.
+     */
+    static final double REPULSION_HORIZON = 80;
+    /**
+     * Distance beyond which nodes of maximal cardinality stop pushing each
+     * other apart.
+     */
+    static final double HUB_REPULSION_HORIZON = 500;
+    /**
+     * The number of related nodes of much higher cardinality which a node is
+     * attracted to from any distance in BARNES_HUT mode; beyond this, only
+     * the most related ones are kept.
+     */
+    static final int MAX_RELATED_PARTNERS = 16;
+
+    /**
+     * How the work of a tick is scheduled.
+     */
+    public enum TickMode {
+        /**
+         * Move nodes in place on the calling thread, so each pair sees the
+         * positions as already updated by the pairs before it.
+         */
+        SEQUENTIAL,
+        /**
+         * Compute all forces against a snapshot of the positions taken at the
+         * start of the tick, spreading the nodes across a ForkJoinPool and
+         * swapping in the new positions at the end. Damping state is kept
+         * per worker thread, so results can vary from run to run with
+         * thread scheduling.
+         */
+        PARALLEL,
+        /**
+         * Like PARALLEL, but damping state is kept per fixed-size chunk of
+         * nodes, so a given starting layout always produces the same result
+         * regardless of the number of threads or how they are scheduled.
+         */
+        PARALLEL_DETERMINISTIC
+    }
+
+    /**
+     * How the built-in forces between pairs of nodes are evaluated.
+     */
+    public enum ForceEvaluation {
+        /**
+         * Evaluate chains of Force and Strength objects, composed and
+         * compiled once and pointed at each pair in turn; slow, but easy to
+         * experiment with.
+         */
+        FORCE_OBJECTS,
+        /**
+         * Evaluate the same forces from primitive parameters with no
+         * per-pair allocation.
+         */
+        KERNEL
+    }
+
+    /**
+     * How EXACT mode, when forces are evaluated with the kernel, finds the
+     * pairs of nodes close enough together to affect each other. Pairs that
+     * are neither close nor related are no-ops, so all settings produce the
+     * same layout; they differ only in speed. This only prunes pairs: the
+     * scan for nearby nodes may use SIMD instructions, but the forces of the
+     * pairs it finds are computed one pair at a time by the kernel, exactly
+     * as with NONE.
+     */
+    public enum NeighborScan {
+        /**
+         * Evaluate every ordered pair.
+         */
+        NONE,
+        /**
+         * Scan the distance from each node to every other, using SIMD
+         * instructions if the <code>jdk.incubator.vector</code> module is
+         * available, and only evaluate the pairs within the interaction
+         * horizon.
+         */
+        DOUBLE
+    }
+
+    private ForceEvaluation forceEvaluation = ForceEvaluation.KERNEL;
+    private NeighborScan neighborScan = NeighborScan.DOUBLE;
+    private RowScanner rowScanner;
+    private ForceKernel kernel;
+    private PairForces pairForces;
+    private final ForceKernel.Damping kernelDamping = new ForceKernel.Damping();
+    private final double[] kernelPosition = new double[2];
+    private TickMode tickMode = TickMode.SEQUENTIAL;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private ParallelTick parallelTick;
+    private RepulsionMode repulsionMode = RepulsionMode.EXACT;
+    private QuadTree tree;
+    private int[][] longRangePartners;
+    private int[][] barnesHutPartners;
+    private int[] visited;
+    private int visitStamp;
+    private final BarnesHutVisitor barnesHutVisitor = new BarnesHutVisitor();
+
+    public RepulsionMode repulsionMode() {
+        return repulsionMode;
+    }
+
+    public void setRepulsionMode(RepulsionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode");
+        }
+        this.repulsionMode = mode;
+    }
+
+    public ForceEvaluation forceEvaluation() {
+        return forceEvaluation;
+    }
 
-    void iterate() {
+    public void setForceEvaluation(ForceEvaluation evaluation) {
+        if (evaluation == null) {
+            throw new IllegalArgumentException("Null evaluation");
+        }
+        this.forceEvaluation = evaluation;
+    }
+
+    /**
+     * The kernel, if forces are being evaluated with it, else null.
+     */
+    ForceKernel kernel() {
+        if (forceEvaluation != ForceEvaluation.KERNEL) {
+            return null;
+        }
+        if (kernel == null) {
+            kernel = new ForceKernel(this);
+        }
+        return kernel;
+    }
+
+    /**
+     * The area within which movement of pulled nodes is currently being
+     * damped, for debugging.
+     */
+    Shape dampingField() {
+        return forceEvaluation == ForceEvaluation.KERNEL
+                ? kernelDamping.circle() : damping.circle();
+    }
+
+    public NeighborScan neighborScan() {
+        return neighborScan;
+    }
+
+    public void setNeighborScan(NeighborScan scan) {
+        if (scan == null) {
+            throw new IllegalArgumentException("Null scan");
+        }
+        this.neighborScan = scan;
+    }
+
+    public TickMode tickMode() {
+        return tickMode;
+    }
+
+    public void setTickMode(TickMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode");
+        }
+        this.tickMode = mode;
+    }
+
+    /**
+     * Set the pool parallel ticks run in; the default is the common pool.
+     * With none, the parallel tick modes compute the same positions, but
+     * one chunk of nodes after another on the calling thread.
+     *
+     * @param pool A pool, or null
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * The pool parallel work runs in.
+     *
+     * @return The pool, or null if it runs on the calling thread
+     */
+    ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Run one tick.
+     *
+     * @return false if a deadline set by <code>layoutUntil()</code> passed
+     * partway through, in which case some rows were not computed, and the
+     * tick does not count toward convergence
+     */
+    boolean iterate() {
         resetStats();
         ticks++;
-//        BitSet done = new BitSet(size * size);
+        if (convergence == null) {
+            convergence = new Convergence(xs, ys);
+        }
+        if (tickMode != TickMode.SEQUENTIAL) {
+            if (parallelTick == null) {
+                parallelTick = new ParallelTick(this);
+            }
+            parallelTick.tick(pool, tickMode == TickMode.PARALLEL_DETERMINISTIC);
+        } else if (repulsionMode == RepulsionMode.BARNES_HUT) {
+            iterateBarnesHut();
+        } else if (neighborScan != NeighborScan.NONE && kernel() != null) {
+            iterateScanned(kernel());
+        } else {
+            int[] rows = activeRows();
+            int rowCount = rows == null ? size : rows.length;
+            for (int r = 0; r < rowCount && !pastDeadline(); r++) {
+                int i = rows == null ? r : rows[r];
+                for (int j = 0; j < size; j++) {
+                    if (i != j) {
+                        applyPair(i, j);
+                    }
+                }
+            }
+        }
+        if (pastDeadline()) {
+            return false;
+        }
+        applyEdgeForces();
+        if (tickMode == TickMode.SEQUENTIAL) {
+            // Only nodes which moved went through updatingX() and
+            // updatingY(); with some asleep or held still, the bounds must
+            // still cover every node or the normalized positions of the
+            // still ones shift from tick to tick
+            recomputeBounds();
+        }
+        if (activity != null && activity.update(xs, ys)) {
+            activeRows = null;
+        }
+        if (movable != null && --movableTicks <= 0) {
+            restrictMovement(null, 0);
+        }
+        convergence.update((int) ticks, xs, ys, coolingEnabled, convergenceTolerance,
+                activity != null && activity.awakeCount() == 0);
+        return true;
+    }
+
+    /**
+     * The number of ticks between measurements of stress by
+     * <code>layoutUntil()</code>.
+     */
+    static final int SNAPSHOT_INTERVAL = 10;
+
+    /**
+     * Run ticks for at most the passed amount of time, or until the layout
+     * converges, and leave the layout at the positions with the lowest
+     * stress seen along the way.
+     *
+     * @param budget The time budget
+     * @return The positions and statistics about the run
+     */
+    public LayoutSnapshot layoutWithin(Duration budget) {
+        if (budget == null || budget.isNegative()) {
+            throw new IllegalArgumentException("Bad budget " + budget);
+        }
+        return layoutUntil(System.nanoTime() + Math.max(1, budget.toNanos()));
+    }
+
+    /**
+     * Run ticks until <code>System.nanoTime()</code> reaches the passed
+     * deadline, or the layout converges, and leave the layout at the
+     * positions with the lowest stress seen along the way.
+     * <p/>
+     * Stress (see <code>LayoutMetrics.stress()</code>) is measured from a
+     * fixed sample of nodes at the start, every SNAPSHOT_INTERVAL ticks, and
+     * after the last tick to complete, which wins ties - so the result is
+     * never worse than the last tick. Displacement is no use for this: it
+     * levels off long before the layout stops improving.
+     * <p/>
+     * The deadline is checked between rows, not just between ticks, so
+     * the overrun is bounded by the cost of computing a single node's
+     * movement plus one measurement of stress; a tick cut short by the
+     * deadline is discarded. Interrupting the calling thread stops it the
+     * same way, and leaves the thread's interrupt status set.
+     *
+     * @param deadline A value of <code>System.nanoTime()</code>
+     * @return The positions and statistics about the run
+     */
+    public LayoutSnapshot layoutUntil(long deadline) {
+        long start = System.nanoTime();
+        Adjacency adj = Adjacency.of(graph);
+        int[] sources = LayoutMetrics.sampleSources(size, MultiStart.STRESS_SOURCES,
+                new Random(size));
+        double[] bestXs = xs.clone();
+        double[] bestYs = ys.clone();
+        double[] lastXs = xs.clone();
+        double[] lastYs = ys.clone();
+        double bestStress = LayoutMetrics.stress(adj, xs, ys, sources);
+        double finalStress = bestStress;
+        int completed = 0;
+        int bestTick = 0;
+        int measuredTick = 0;
+        boolean interrupted = false;
+        this.deadline = deadline;
+        hasDeadline = true;
+        try {
+            while (!converged() && !pastDeadline()) {
+                if (!iterate()) {
+                    interrupted = true;
+                    break;
+                }
+                completed++;
+                System.arraycopy(xs, 0, lastXs, 0, size);
+                System.arraycopy(ys, 0, lastYs, 0, size);
+                if (completed % SNAPSHOT_INTERVAL == 0) {
+                    measuredTick = completed;
+                    finalStress = LayoutMetrics.stress(adj, lastXs, lastYs, sources);
+                    if (finalStress <= bestStress) {
+                        bestStress = finalStress;
+                        bestTick = completed;
+                        System.arraycopy(lastXs, 0, bestXs, 0, size);
+                        System.arraycopy(lastYs, 0, bestYs, 0, size);
+                    }
+                }
+            }
+        } finally {
+            hasDeadline = false;
+        }
+        if (measuredTick != completed) {
+            finalStress = LayoutMetrics.stress(adj, lastXs, lastYs, sources);
+            if (finalStress <= bestStress) {
+                bestStress = finalStress;
+                bestTick = completed;
+                System.arraycopy(lastXs, 0, bestXs, 0, size);
+                System.arraycopy(lastYs, 0, bestYs, 0, size);
+            }
+        }
+        if (interrupted || bestTick != completed) {
+            System.arraycopy(bestXs, 0, xs, 0, size);
+            System.arraycopy(bestYs, 0, ys, 0, size);
+            if (convergence != null) {
+                convergence.rebase(xs, ys);
+            }
+            recomputeBounds();
+        }
+        return new LayoutSnapshot(bestXs, bestYs, completed, bestTick, bestStress,
+                finalStress, converged(), System.nanoTime() - start);
+    }
+
+    boolean pastDeadline() {
+        return hasDeadline && (System.nanoTime() - deadline >= 0
+                || Thread.currentThread().isInterrupted());
+    }
+
+    private void recomputeBounds() {
+        currMinX = currMinY = Double.MAX_VALUE;
+        currMaxX = currMaxY = Double.MIN_VALUE;
         for (int i = 0; i < size; i++) {
-            int ix = i;
-            for (int j = 0; j < size; j++) {
-                if (i == j) {
+            currMinX = Math.min(currMinX, xs[i]);
+            currMaxX = Math.max(currMaxX, xs[i]);
+            currMinY = Math.min(currMinY, ys[i]);
+            currMaxY = Math.max(currMaxY, ys[i]);
+        }
+    }
+
+    private void iterateBarnesHut() {
+        if (tree == null) {
+            tree = new QuadTree();
+            visited = new int[size];
+        }
+        int[][] partners = barnesHutPartners();
+        tree.build(xs, ys, size);
+        int[] rows = activeRows();
+        int rowCount = rows == null ? size : rows.length;
+        for (int r = 0; r < rowCount && !pastDeadline(); r++) {
+            int i = rows == null ? r : rows[r];
+            if (++visitStamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                visitStamp = 1;
+            }
+            visited[i] = visitStamp;
+            barnesHutVisitor.node = i;
+            double horizon = maxCardinalities.contains(neighbors[i].cardinality())
+                    ? HUB_REPULSION_HORIZON : REPULSION_HORIZON;
+            tree.visit(xs[i], ys[i], horizon, barnesHutVisitor);
+            for (int j : partners[i]) {
+                if (visited[j] != visitStamp) {
+                    visited[j] = visitStamp;
+                    applyPair(i, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Exact mode, visiting only the pairs which can have an effect.
+     */
+    private void iterateScanned(ForceKernel k) {
+        int[][] partners = longRangePartners();
+        if (rowScanner == null) {
+            rowScanner = new RowScanner(size);
+        }
+        int[] rows = activeRows();
+        int rowCount = rows == null ? size : rows.length;
+        for (int r = 0; r < rowCount && !pastDeadline(); r++) {
+            int i = rows == null ? r : rows[r];
+            double horizon = k.isHub(i) ? HUB_REPULSION_HORIZON : REPULSION_HORIZON;
+            rowScanner.start(xs[i], ys[i], horizon, xs, ys, partners[i], null);
+            for (int j = rowScanner.next(); j >= 0; j = rowScanner.next()) {
+                if (j == i) {
                     continue;
                 }
-                int jx = j;
-                double rel = relatedness[ix][jx];
-                Force force = Force.NONE;
-                int icard = neighbors[i].cardinality();
-                int jcard = neighbors[j].cardinality();
-                if (jcard == 1 && neighbors[j].get(i)) {
-//                    parent must actuall be it
-                    force = new Attraction(xs[i], ys[i], 60, 1, 0);
-                } else if (jcard == 2 && graph.parents(jx).cardinality() == 1
-                        && graph.parents(jx).get(ix)) {
-                    force = new Attraction(xs[i], ys[i], 60, 1, 0);
+                applyPair(k, i, j);
+                rowScanner.moved(xs[i], ys[i]);
+            }
+        }
+    }
+
+    /**
+     * Nodes whose interaction with a given node does not drop off with
+     * distance, and so must be computed exactly regardless of where they are:
+     * leaves and singletons pulled toward or pushed by it, and related nodes
+     * it is attracted to.
+     */
+    int[][] longRangePartners() {
+        if (longRangePartners == null) {
+            longRangePartners = computeLongRangePartners(Integer.MAX_VALUE);
+        }
+        return longRangePartners;
+    }
+
+    /**
+     * Like <code>longRangePartners()</code>, but with at most
+     * MAX_RELATED_PARTNERS related nodes per node, so a node's row stays
+     * cheap however many hubs it is related to.
+     */
+    int[][] barnesHutPartners() {
+        if (barnesHutPartners == null) {
+            barnesHutPartners = computeLongRangePartners(MAX_RELATED_PARTNERS);
+        }
+        return barnesHutPartners;
+    }
+
+    private int[][] computeLongRangePartners(int maxRelated) {
+        int[][] result = new int[size][];
+        int[] cards = new int[size];
+        int singletonCount = 0;
+        for (int i = 0; i < size; i++) {
+            cards[i] = neighbors[i].cardinality();
+            if (cards[i] == 0) {
+                singletonCount++;
+            }
+        }
+        int[] singletons = new int[singletonCount];
+        for (int i = 0, s = 0; i < size; i++) {
+            if (cards[i] == 0) {
+                singletons[s++] = i;
+            }
+        }
+        // If unrelated pairs attract each other, every pair is long-range
+        boolean allRelated = relatedness.unrelated() > 0.1;
+        int[] marks = new int[size];
+        int[] scratch = new int[16];
+        int[] related = new int[Math.min(maxRelated, 64)];
+        double[] scores = new double[related.length];
+        for (int i = 0; i < size; i++) {
+            int count = 0;
+            int mark = i + 1;
+            marks[i] = mark;
+            for (int j = neighbors[i].nextSetBit(0); j >= 0; j = neighbors[i].nextSetBit(j + 1)) {
+                if (marks[j] != mark && isPulledToward(i, j, cards[j])) {
+                    marks[j] = mark;
+                    scratch = append(scratch, count++, j);
                 }
-                if (jcard == 0) {
-                    Circle circle = new Circle(maxX / 2, maxY / 2);
-                    double[] pos = new double[2];
-                    circle.positionOf((i * j) % 360, maxX, pos);
-//                    System.out.println("SINGLE " + j + " to " + pos[0] + "," + pos[1]);
-                    force = new SimpleForce(pos[0], pos[1], Strength.NO_DROPOFF.negate());
+            }
+            for (int j : singletons) {
+                if (marks[j] != mark) {
+                    marks[j] = mark;
+                    scratch = append(scratch, count++, j);
                 }
-                if (force != Force.NONE) {
-                    force = damping.setDelegate(force);
-                    force.accept(xs[j], ys[j], (a, b) -> {
-                        if (!Double.isInfinite(a) && !Double.isNaN(a)) {
-                            xs[jx] = updatingX(ix, a);
-                        }
-                        if (!Double.isInfinite(b) && !Double.isNaN(b)) {
-                            ys[jx] = updatingY(ix, b);
-                        }
-                    });
+            }
+            int rowLength = allRelated ? size : relatedness.rowLength(i);
+            int relatedCount = 0;
+            for (int n = 0; n < rowLength; n++) {
+                int j = allRelated ? n : relatedness.column(i, n);
+                if (marks[j] == mark || cards[i] >= cards[j] || (cards[j] - cards[i]) <= 3) {
                     continue;
                 }
-                if (maxCardinalities.contains(jcard) && maxCardinalities.contains(icard)) {
-//                    Circle circle = new Circle(maxX / 2, maxY / 2);
-//                    double[] pos = new double[2];
-//                    circle.positionOf((i * j) % 360, maxX, pos);
-//                    force = new SimpleForce(pos[0], pos[1], Strength.NO_DROPOFF);
+                double rel = relatedness.get(i, j);
+                if (rel <= 0.1) {
+                    continue;
                 }
-                if (icard < jcard && (jcard - icard) > 3) {
-                    if (rel > 0.1) {
-//                        double horizon = 60;
-                        double horizon = Math.max(60D, 10D * (icard + 1D));
-
-                        force = force.and(new Attraction(xs[j], ys[j], horizon, rel, minRel));
-                        if (neighbors[j].intersects(neighbors[i])) {
-                            force = force.and(new RotationalForce(xs[j], ys[j],
-                                    Strength.INVERSE_SQUARE.negate(), 360));
-                        }
+                marks[j] = mark;
+                if (relatedCount < maxRelated) {
+                    if (relatedCount == related.length) {
+                        related = Arrays.copyOf(related, Math.min(maxRelated, related.length * 2));
+                        scores = Arrays.copyOf(scores, related.length);
                     }
+                    related[relatedCount] = j;
+                    scores[relatedCount++] = rel;
                 } else {
-                    if (rel <= minRel * 3) {
-                        force = new Repul(xs[j], ys[j], 80).and(force);
+                    // Full - replace the least related, if this is more
+                    int least = 0;
+                    for (int m = 1; m < relatedCount; m++) {
+                        if (scores[m] < scores[least]) {
+                            least = m;
+                        }
+                    }
+                    if (rel > scores[least]) {
+                        related[least] = j;
+                        scores[least] = rel;
                     }
                 }
-                if (icard > 4 && jcard > 4 && rel < 0.175) {
-//                    force = force.and(new Repul(xs[j], ys[j], 50));
+            }
+            for (int n = 0; n < relatedCount; n++) {
+                scratch = append(scratch, count++, related[n]);
+            }
+            result[i] = Arrays.copyOf(scratch, count);
+            Arrays.sort(result[i]);
+        }
+        return result;
+    }
+
+    private static int[] append(int[] arr, int index, int value) {
+        if (index == arr.length) {
+            arr = Arrays.copyOf(arr, arr.length * 2);
+        }
+        arr[index] = value;
+        return arr;
+    }
+
+    private boolean isPulledToward(int i, int j, int jcard) {
+        return (jcard == 1 && neighbors[j].get(i))
+                || (jcard == 2 && graph.parents(j).cardinality() == 1
+                && graph.parents(j).get(i));
+    }
+
+    private final class BarnesHutVisitor implements QuadTree.Visitor {
+
+        int node;
+
+        @Override
+        public void near(int other) {
+            if (visited[other] != visitStamp) {
+                visited[other] = visitStamp;
+                applyPair(node, other);
+            }
+        }
+    }
+
+    private void applyPair(int i, int j) {
+        ForceKernel k = kernel();
+        if (k != null) {
+            applyPair(k, i, j);
+            return;
+        }
+        if (pairForces == null) {
+            pairForces = new PairForces();
+        }
+        Force pull = pullForce(pairForces, i, j, xs[i], ys[i]);
+        if (pull != null) {
+            if (!isMovable(j)) {
+                return;
+            }
+            damping.setDelegate(pull).accept(xs[j], ys[j], (a, b) -> {
+                if (!Double.isInfinite(a) && !Double.isNaN(a)) {
+                    xs[j] = updatingX(j, a);
                 }
-                if (maxCardinalities.contains(icard) && maxCardinalities.contains(jcard)) {
-                    // High cardinality nodes should push each other apart hard
-//                    force = new Repul(xs[j], ys[j], 500).or(force);
-                    force = new SimpleForce(xs[j], ys[j],
-                            Strength.LINEAR.multiply(rel > 1 ? rel * 4 : 4 * (1D / rel))
-                                    .negate()
-                                    .bound(500))
-                            //                                                        .and(new RotationalForce(ys[j], xs[j], Strength.fixed(50), 400))
-                            .and(force);
-                } else {
-                    force = new Repul(xs[j], ys[j], 25).or(force);
+                if (!Double.isInfinite(b) && !Double.isNaN(b)) {
+                    ys[j] = updatingY(j, b);
                 }
-//                done.set(i * j);
-
-//                Force repel = new SimpleForce(xs[j], ys[j],
-//                        Strength.LINEAR.cuberoot().bound(500).external());
-//                force = damping.setDelegate(force);
-                force.accept(xs[i], ys[i], (a, b) -> {
-                    if (!Double.isInfinite(a) && !Double.isNaN(a)) {
-                        xs[ix] = updatingX(ix, a);
-                    }
-                    if (!Double.isInfinite(b) && !Double.isNaN(b)) {
-                        ys[ix] = updatingY(ix, b);
-                    }
-                });
+            });
+            return;
+        }
+        if (!isMovable(i)) {
+            return;
+        }
+        pushForce(pairForces, i, j, xs[j], ys[j]).accept(xs[i], ys[i], (a, b) -> {
+            if (!Double.isInfinite(a) && !Double.isNaN(a)) {
+                xs[i] = updatingX(i, a);
+            }
+            if (!Double.isInfinite(b) && !Double.isNaN(b)) {
+                ys[i] = updatingY(i, b);
             }
+        });
+    }
+
+    private void applyPair(ForceKernel k, int i, int j) {
+        double[] pos = kernelPosition;
+        if (k.pulls(i, j)) {
+            if (!isMovable(j)) {
+                return;
+            }
+            pos[0] = xs[j];
+            pos[1] = ys[j];
+            k.pull(i, j, xs[i], ys[i], kernelDamping, pos);
+            if (!Double.isInfinite(pos[0]) && !Double.isNaN(pos[0])) {
+                xs[j] = updatingX(j, pos[0]);
+            }
+            if (!Double.isInfinite(pos[1]) && !Double.isNaN(pos[1])) {
+                ys[j] = updatingY(j, pos[1]);
+            }
+            return;
+        }
+        if (!isMovable(i)) {
+            return;
+        }
+        pos[0] = xs[i];
+        pos[1] = ys[i];
+        k.push(i, j, xs[j], ys[j], pos);
+        if (!Double.isInfinite(pos[0]) && !Double.isNaN(pos[0])) {
+            xs[i] = updatingX(i, pos[0]);
+        }
+        if (!Double.isInfinite(pos[1]) && !Double.isNaN(pos[1])) {
+            ys[i] = updatingY(i, pos[1]);
         }
-        applyEdgeForces();
+    }
+
+    static final Strength PUSH_OUT = Strength.NO_DROPOFF.negate().compile();
+    static final Strength TWIST = Strength.INVERSE_SQUARE.negate().compile();
+
+    /**
+     * Whether, for the pair i,j, it is j that is moved (pulled toward i, or
+     * pushed out if it is a singleton) rather than i.
+     */
+    boolean pulls(int i, int j) {
+        int jcard = neighbors[j].cardinality();
+        return jcard == 0 || isPulledToward(i, j, jcard);
+    }
+
+    /**
+     * The force which moves j for the pair i,j, with i located at ix,iy, or
+     * null if it is i that is moved.
+     */
+    Force pullForce(PairForces forces, int i, int j, double ix, double iy) {
+        int jcard = neighbors[j].cardinality();
+        Force force = null;
+        if (isPulledToward(i, j, jcard)) {
+//                    parent must actuall be it
+            force = forces.parent.retarget(ix, iy, 60, 1, 0);
+        }
+        if (jcard == 0) {
+            Circle circle = forces.center;
+            circle.setCenter(maxX / 2, maxY / 2);
+            double[] pos = forces.position;
+            circle.positionOf((i * j) % 360, maxX, pos);
+            forces.singleton.setCenter(pos[0], pos[1]);
+            force = forces.singleton;
+        }
+        return force;
+    }
+
+    /**
+     * The force which moves i for the pair i,j, with j located at jx,jy;
+     * only meaningful when <code>pulls(i, j)</code> is false.
+     */
+    Force pushForce(PairForces forces, int i, int j, double jx, double jy) {
+        double rel = relatedness.get(i, j);
+        int inner = PairForces.NO_FORCE;
+        int icard = neighbors[i].cardinality();
+        int jcard = neighbors[j].cardinality();
+        if (icard < jcard && (jcard - icard) > 3) {
+            if (rel > 0.1) {
+                double horizon = Math.max(60D, 10D * (icard + 1D));
+                forces.attraction.retarget(jx, jy, horizon, rel, minRel);
+                inner = PairForces.ATTRACT;
+                if (neighbors[j].intersects(neighbors[i])) {
+                    forces.twist.setCenter(jx, jy);
+                    inner = PairForces.ATTRACT_AND_TWIST;
+                }
+            }
+        } else {
+            if (rel <= minRel * 3) {
+                forces.repulsion.setCenter(jx, jy);
+                inner = PairForces.REPEL;
+            }
+        }
+        if (maxCardinalities.contains(icard) && maxCardinalities.contains(jcard)) {
+            // High cardinality nodes should push each other apart hard
+            forces.hub.setCenter(jx, jy);
+            forces.hubStrength.multiplier = rel > 1 ? rel * 4 : 4 * (1D / rel);
+            return forces.push(inner, true);
+        }
+        forces.nearby.setCenter(jx, jy);
+        return forces.push(inner, false);
     }
 
     double currMinX = Double.MAX_VALUE;
@@ -368,7 +1517,15 @@ public class ForceDirected {
         return maxPerturb;
     }
 
+    /**
+     * Record a node's new x coordinate, scaling the movement down by the
+     * temperature.
+     */
     double updatingX(int ix, double newVal) {
+        double temperature = convergence == null ? 1 : convergence.temperature(ix);
+        if (temperature < 1) {
+            newVal = xs[ix] + (newVal - xs[ix]) * temperature;
+        }
         double diff = Math.abs(newVal - xs[ix]);
         maxPerturb = Math.max(maxPerturb, diff);
         currMinX = Math.min(currMinX, newVal);
@@ -377,6 +1534,10 @@ public class ForceDirected {
     }
 
     double updatingY(int ix, double newVal) {
+        double temperature = convergence == null ? 1 : convergence.temperature(ix);
+        if (temperature < 1) {
+            newVal = ys[ix] + (newVal - ys[ix]) * temperature;
+        }
         double diff = Math.abs(newVal - ys[ix]);
         maxPerturb = Math.max(maxPerturb, diff);
         currMinY = Math.min(currMinY, newVal);
@@ -387,6 +1548,7 @@ public class ForceDirected {
     void resetStats() {
         currMinX = currMinY = Double.MAX_VALUE;
         currMaxX = currMaxY = Double.MIN_VALUE;
+        maxPerturb = 0;
     }
 
     Dimension currentSize() {
@@ -408,6 +1570,19 @@ public class ForceDirected {
     public void setLocation(int ix, double x, double y) {
         xs[ix] = x;
         ys[ix] = y;
+        // Widen but never shrink the bounds, so that positions set one after
+        // another relative to them, before any tick, stay where they were put
+        currMinX = Math.min(currMinX, x);
+        currMaxX = Math.max(currMaxX, x);
+        currMinY = Math.min(currMinY, y);
+        currMaxY = Math.max(currMaxY, y);
+        if (activity != null) {
+            activity.wake(ix, xs, ys);
+            activeRows = null;
+        }
+        if (convergence != null) {
+            convergence.moved(ix, x, y);
+        }
     }
 
     public double x(int ix) {
@@ -418,7 +1593,7 @@ public class ForceDirected {
         return ys[ix];
     }
 
-    static final DampingFieldForce damping = new DampingFieldForce(Force.NONE);
+    private final DampingFieldForce damping = new DampingFieldForce(Force.NONE);
 
     static double[] intersection(double x1, double y1, double x2, double y2,
                                  double x3, double y3, double x4, double y4) {
@@ -617,15 +1792,18 @@ public class ForceDirected {
         });
     }
 
-    static IntSet itest = IntSet.create(4);
-
     static boolean anyEqual(int... ints) {
-        itest.clear();
-        itest.addAll(ints);
-        return itest.size() != ints.length;
+        for (int i = 0; i < ints.length; i++) {
+            for (int j = i + 1; j < ints.length; j++) {
+                if (ints[i] == ints[j]) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    static int THRESH = 360;
+    static final int THRESH = 360;
 
     static double restrict(double d) {
         if (true) {
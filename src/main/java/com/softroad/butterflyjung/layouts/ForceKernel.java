@@ -0,0 +1,326 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+
+/**
+ * Evaluates the built-in forces of a ForceDirected - the same Attraction,
+ * Repul, SimpleForce, RotationalForce and DampingFieldForce combinations
+ * that <code>pullForce()</code> and <code>pushForce()</code> compose - directly
+ * from primitive parameters, without allocating anything per pair. The
+ * angle-based Circle geometry of the Force classes is replaced by the
+ * equivalent unit-vector arithmetic, so results agree with the Force path up
+ * to floating point rounding.
+ * <p>
+ * Positions are passed in and out through a two-element array owned by the
+ * caller; node degrees, hub membership and which node (if any) pulls each
+ * leaf toward itself are precomputed into arrays, so the per-pair path never
+ * touches a Bits or IntSet except in the rare case of related nodes with
+ * common neighbors.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ForceKernel {
+
+    // Attraction's threshold for being "at" the target radius
+    private static final double AT_RADIUS = 0.001;
+    // DampingFieldForce's default strength, INVERSE_SQUARE.squareroot(),
+    // evaluated at its fixed distance of 25
+    private static final double DAMPED_FRACTION = Math.cbrt(1D / (25D * 25D));
+    // Repul rotates by two degrees as it pushes
+    private static final double REPUL_COS = Math.cos(Math.toRadians(2));
+    private static final double REPUL_SIN = Math.sin(Math.toRadians(2));
+    private static final int NONE = -1;
+    private final int[] degree;
+    private final boolean[] hub;
+    private final int[] puller;
+    private final Bits[] neighbors;
+    private final Relatedness relatedness;
+    private final double minRel;
+    private final double singletonCenterX;
+    private final double singletonCenterY;
+    // Offsets from the singleton center for angles -359 to 359, the range
+    // of (i * j) % 360
+    private final double[] singletonX = new double[719];
+    private final double[] singletonY = new double[719];
+
+    ForceKernel(ForceDirected fd) {
+        int size = fd.size;
+        degree = new int[size];
+        hub = new boolean[size];
+        puller = new int[size];
+        neighbors = fd.neighbors;
+        relatedness = fd.relatedness;
+        minRel = fd.minRel;
+        for (int i = 0; i < size; i++) {
+            degree[i] = neighbors[i].cardinality();
+            hub[i] = fd.maxCardinalities.contains(degree[i]);
+        }
+        for (int j = 0; j < size; j++) {
+            puller[j] = NONE;
+            if (degree[j] == 1) {
+                puller[j] = neighbors[j].nextSetBit(0);
+            } else if (degree[j] == 2) {
+                Bits parents = fd.graph.parents(j);
+                if (parents.cardinality() == 1) {
+                    puller[j] = parents.nextSetBit(0);
+                }
+            }
+        }
+        // Same arithmetic as Circle.positionOf() with the Circle used for
+        // singletons in pullForce()
+        singletonCenterX = fd.maxX / 2;
+        singletonCenterY = fd.maxY / 2;
+        for (int angle = -359; angle <= 359; angle++) {
+            double rad = Math.toRadians(angle - 90D);
+            singletonX[angle + 359] = fd.maxX * Math.cos(rad) + singletonCenterX;
+            singletonY[angle + 359] = fd.maxX * Math.sin(rad) + singletonCenterY;
+        }
+    }
+
+    int degree(int node) {
+        return degree[node];
+    }
+
+    boolean isHub(int node) {
+        return hub[node];
+    }
+
+    /**
+     * Whether, for the pair i,j, it is j that is moved.
+     */
+    boolean pulls(int i, int j) {
+        return degree[j] == 0 || puller[j] == i;
+    }
+
+    /**
+     * Apply the damped force which moves j for the pair i,j, where i is at
+     * ix,iy; only meaningful if <code>pulls(i, j)</code>.
+     *
+     * @param pos On entry, the position of j; on exit, its new position
+     */
+    void pull(int i, int j, double ix, double iy, Damping damping, double[] pos) {
+        double a = pos[0];
+        double b = pos[1];
+        switch (damping.ticks++) {
+            case 0:
+                damping.centerX = a;
+                damping.centerY = b;
+                pullUndamped(i, j, ix, iy, pos);
+                return;
+            case 1:
+                damping.radius = distance(damping.centerX, damping.centerY, a, b);
+                damping.centerX += (a - damping.centerX) / 2D;
+                damping.centerY += (b - damping.centerY) / 2D;
+                pullUndamped(i, j, ix, iy, pos);
+                return;
+            default:
+                double dist = distance(damping.centerX, damping.centerY, a, b);
+                if (dist <= damping.radius) {
+                    pullUndamped(i, j, ix, iy, pos);
+                    pos[0] = a + (pos[0] - a) * DAMPED_FRACTION;
+                    pos[1] = b + (pos[1] - b) * DAMPED_FRACTION;
+                    damping.radius = Math.max(20, damping.radius * 0.9825);
+                    damping.centerX = a + (damping.centerX - a) * 0.5;
+                    damping.centerY = b + (damping.centerY - b) * 0.5;
+                    return;
+                }
+                if (dist > 0) {
+                    damping.centerX += (a - damping.centerX) / 2D;
+                    damping.centerY += (b - damping.centerY) / 2D;
+                    damping.radius = Math.max(20, Math.max(damping.radius * 1.1, dist * 0.75));
+                }
+                pullUndamped(i, j, ix, iy, pos);
+        }
+    }
+
+    private void pullUndamped(int i, int j, double ix, double iy, double[] pos) {
+        if (degree[j] == 0) {
+            int angle = ((i * j) % 360) + 359;
+            // SimpleForce with NO_DROPOFF.negate()
+            simpleForce(singletonX[angle], singletonY[angle], -1, pos);
+        } else {
+            attract(ix, iy, 60, 1, 0, pos);
+        }
+    }
+
+    /**
+     * Apply the force which moves i for the pair i,j, where j is at jx,jy;
+     * only meaningful if <code>pulls(i, j)</code> is false.
+     *
+     * @param pos On entry, the position of i; on exit, its new position
+     */
+    void push(int i, int j, double jx, double jy, double[] pos) {
+        double rel = relatedness.get(i, j);
+        if (hub[i] && hub[j]) {
+            double dist = distance(jx, jy, pos[0], pos[1]);
+            if (dist <= ForceDirected.HUB_REPULSION_HORIZON) {
+                // LINEAR.multiply(m).negate() - for unrelated hubs this is
+                // infinite, and the non-finite result is discarded as it
+                // always has been
+                double m = rel > 1 ? rel * 4 : 4 * (1D / rel);
+                simpleForce(jx, jy, (m * (1D / Math.max(dist, 1))) * -1, pos);
+            }
+            pushInner(i, j, jx, jy, rel, pos);
+            return;
+        }
+        // Repul(jx, jy, 25).or(inner), including the comparison against 1
+        // rather than a that Force.or() makes
+        double a = pos[0];
+        double b = pos[1];
+        if (distance(jx, jy, a, b) < 25) {
+            repel(jx, jy, 25, pos);
+            double a1 = pos[0];
+            double b1 = pos[1];
+            boolean unchanged = a == a1 && b == b1;
+            if (!unchanged && !(Math.abs(a1 - 1) <= 0.1 && Math.abs(b1 - b) <= 0.1)) {
+                return;
+            }
+            pos[0] = a;
+            pos[1] = b;
+        }
+        pushInner(i, j, jx, jy, rel, pos);
+    }
+
+    private void pushInner(int i, int j, double jx, double jy, double rel, double[] pos) {
+        int icard = degree[i];
+        int jcard = degree[j];
+        if (icard < jcard && (jcard - icard) > 3) {
+            if (rel > 0.1) {
+                double horizon = Math.max(60D, 10D * (icard + 1D));
+                attract(jx, jy, horizon, rel, minRel, pos);
+                if (neighbors[j].intersects(neighbors[i])) {
+                    rotate(jx, jy, 360, pos);
+                }
+            }
+        } else if (rel <= minRel * 3) {
+            repel(jx, jy, ForceDirected.REPULSION_HORIZON, pos);
+        }
+    }
+
+    /**
+     * Attraction - moves a point beyond the radius part of the way toward it;
+     * the inverse-square repulsion Attraction computes within the radius is
+     * always negative and so never passes its strength check.
+     */
+    private static void attract(double cx, double cy, double radius, double rel, double minRel, double[] pos) {
+        double dx = pos[0] - cx;
+        double dy = pos[1] - cy;
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (Math.abs(dist - radius) < AT_RADIUS || dist < radius) {
+            return;
+        }
+        double strength = (rel + (rel * .025)) * 0.01;
+        if (rel > 0 && rel > minRel && strength >= 0.01) {
+            double newDist = dist + (strength * -Math.abs(dist - radius));
+            pos[0] = cx + (dx / dist) * newDist;
+            pos[1] = cy + (dy / dist) * newDist;
+        }
+    }
+
+    /**
+     * Repul - pushes a point within the threshold one unit further out,
+     * turning it two degrees clockwise.
+     */
+    private static void repel(double cx, double cy, double threshold, double[] pos) {
+        double dx = pos[0] - cx;
+        double dy = pos[1] - cy;
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (dist < threshold) {
+            double ux = dist == 0 ? 0 : dx / dist;
+            double uy = dist == 0 ? -1 : dy / dist;
+            double newDist = dist + 1D;
+            pos[0] = cx + (ux * REPUL_COS - uy * REPUL_SIN) * newDist;
+            pos[1] = cy + (uy * REPUL_COS + ux * REPUL_SIN) * newDist;
+        }
+    }
+
+    /**
+     * RotationalForce with INVERSE_SQUARE.negate() - turns a point within the
+     * threshold counter-clockwise by the inverse square of its distance, in
+     * degrees.
+     */
+    private static void rotate(double cx, double cy, double threshold, double[] pos) {
+        double dx = pos[0] - cx;
+        double dy = pos[1] - cy;
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (dist < threshold) {
+            double d = Math.max(dist, 1);
+            double rad = Math.toRadians((1D / (d * d)) * -1);
+            double cos = Math.cos(rad);
+            double sin = Math.sin(rad);
+            pos[0] = cx + (dx * cos - dy * sin);
+            pos[1] = cy + (dy * cos + dx * sin);
+        }
+    }
+
+    /**
+     * SimpleForce - moves a point six times the strength toward the center,
+     * or away from it if the strength is negative.
+     */
+    private static void simpleForce(double cx, double cy, double strength, double[] pos) {
+        if (strength == 0D) {
+            return;
+        }
+        double dx = pos[0] - cx;
+        double dy = pos[1] - cy;
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        double ux = dist == 0 ? 0 : dx / dist;
+        double uy = dist == 0 ? -1 : dy / dist;
+        double newDist = dist - (strength * 6);
+        pos[0] = cx + ux * newDist;
+        pos[1] = cy + uy * newDist;
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * The state of a DampingFieldForce, as primitives - a circle which tracks
+     * the recent positions of whatever it damps, within which movement is
+     * scaled down.
+     */
+    static final class Damping {
+
+        double centerX;
+        double centerY;
+        double radius;
+        int ticks;
+
+        Shape circle() {
+            return new Ellipse2D.Double(centerX - radius, centerY - radius,
+                    radius * 2, radius * 2);
+        }
+    }
+}
@@ -0,0 +1,745 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.IntGraph;
+import com.mastfrog.graph.ObjectGraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A versioned binary file holding a graph as used by {@link ForceDirected}
+ * and {@link ForceDir} - node names, adjacency in compressed sparse row
+ * form mirroring an IntGraph's children and parents, and optionally the
+ * relatedness rows and node positions of a layout - so that a session can
+ * reopen a large graph and its layout without parsing text, running the
+ * relatedness search or laying it out again.
+ * <p>
+ * The file is memory-mapped when opened, and the accessors here are views
+ * of the mapping rather than copies: opening a file costs the same whatever
+ * its size, and pages are read as they are touched. Relatedness rows are
+ * used in place by the ForceDirected created by {@link #toForceDirected()};
+ * only the positions, which the layout modifies, and the IntGraph, which is
+ * made of bit sets, are copied onto the heap.
+ * </p>
+ * <pre>
+ * header   := magic:int version:int flags:int nodes:int edges:int
+ *             maxX:int maxY:int depth:int storage:int reserved:int
+ *             minRelatedness:double maxRelatedness:double
+ *             (offset:long length:long)*11
+ * sections := nameOffsets:int[nodes + 1] names:utf8
+ *             childOffsets:int[nodes + 1] children:int[edges]
+ *             parentOffsets:int[nodes + 1] parents:int[edges]
+ *             relatednessOffsets:int[nodes + 1] columns:int[] scores:float[]
+ *             xs:double[nodes] ys:double[nodes]
+ * </pre>
+ * All numbers are little-endian, and each section starts on an eight byte
+ * boundary; the relatedness sections are empty unless the relatedness flag
+ * is set, and the position sections unless the positions flag is.
+ *
+ * @author Tim Boudreau
+ */
+public final class GraphFile {
+
+    static final int MAGIC = 0x46474A42; // "BJGF" as little-endian bytes
+    static final int VERSION = 1;
+    static final int HAS_RELATEDNESS = 1;
+    static final int HAS_POSITIONS = 2;
+    private static final int NAME_OFFSETS = 0;
+    private static final int NAMES = 1;
+    private static final int CHILD_OFFSETS = 2;
+    private static final int CHILDREN = 3;
+    private static final int PARENT_OFFSETS = 4;
+    private static final int PARENTS = 5;
+    private static final int RELATEDNESS_OFFSETS = 6;
+    private static final int RELATEDNESS_COLUMNS = 7;
+    private static final int RELATEDNESS_SCORES = 8;
+    private static final int XS = 9;
+    private static final int YS = 10;
+    private static final int SECTIONS = 11;
+    static final int HEADER_LENGTH = 56 + SECTIONS * 16;
+    private final int size;
+    private final int edgeCount;
+    private final int flags;
+    private final int maxX;
+    private final int maxY;
+    private final int relatednessDepth;
+    private final ForceDirected.RelatednessStorage storage;
+    private final double minRelatedness;
+    private final double maxRelatedness;
+    private final IntBuffer nameOffsets;
+    private final ByteBuffer names;
+    private final IntBuffer childOffsets;
+    private final IntBuffer children;
+    private final IntBuffer parentOffsets;
+    private final IntBuffer parents;
+    private final IntBuffer relatednessOffsets;
+    private final IntBuffer relatednessColumns;
+    private final ByteBuffer relatednessScores;
+    private final DoubleBuffer xs;
+    private final DoubleBuffer ys;
+
+    private GraphFile(FileChannel channel, Path file) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_LENGTH) {
+            throw new IOException(file + " is too short to be a graph file");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a graph file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+        flags = header.getInt();
+        size = header.getInt();
+        edgeCount = header.getInt();
+        maxX = header.getInt();
+        maxY = header.getInt();
+        relatednessDepth = header.getInt();
+        int storageOrdinal = header.getInt();
+        header.getInt();
+        minRelatedness = header.getDouble();
+        maxRelatedness = header.getDouble();
+        ForceDirected.RelatednessStorage[] storages = ForceDirected.RelatednessStorage.values();
+        if (size < 0 || edgeCount < 0 || storageOrdinal < 0 || storageOrdinal >= storages.length) {
+            throw new IOException(file + " has a corrupt header");
+        }
+        storage = storages[storageOrdinal];
+        ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            long offset = header.getLong();
+            long len = header.getLong();
+            if (offset < HEADER_LENGTH || len < 0 || len > Integer.MAX_VALUE
+                    || offset + len > length) {
+                throw new IOException(file + " section " + i + " at " + offset
+                        + " length " + len + " is outside the file's " + length + " bytes");
+            }
+            sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, len)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        nameOffsets = ints(sections[NAME_OFFSETS], size + 1, file);
+        names = sections[NAMES];
+        childOffsets = ints(sections[CHILD_OFFSETS], size + 1, file);
+        children = ints(sections[CHILDREN], edgeCount, file);
+        parentOffsets = ints(sections[PARENT_OFFSETS], size + 1, file);
+        parents = ints(sections[PARENTS], edgeCount, file);
+        if ((flags & HAS_RELATEDNESS) != 0) {
+            relatednessOffsets = ints(sections[RELATEDNESS_OFFSETS], size + 1, file);
+            int count = relatednessOffsets.get(size);
+            relatednessColumns = ints(sections[RELATEDNESS_COLUMNS], count, file);
+            relatednessScores = sections[RELATEDNESS_SCORES];
+            if (relatednessScores.remaining() != 4L * count) {
+                throw new IOException(file + " has " + relatednessScores.remaining()
+                        + " bytes of relatedness scores for " + count + " columns");
+            }
+        } else {
+            relatednessOffsets = null;
+            relatednessColumns = null;
+            relatednessScores = null;
+        }
+        if ((flags & HAS_POSITIONS) != 0) {
+            xs = doubles(sections[XS], size, file);
+            ys = doubles(sections[YS], size, file);
+        } else {
+            xs = null;
+            ys = null;
+        }
+    }
+
+    private static IntBuffer ints(ByteBuffer section, int count, Path file) throws IOException {
+        if (section.remaining() != 4L * count) {
+            throw new IOException(file + " has a section of " + section.remaining()
+                    + " bytes where " + count + " ints were expected");
+        }
+        return section.asIntBuffer();
+    }
+
+    private static DoubleBuffer doubles(ByteBuffer section, int count, Path file) throws IOException {
+        if (section.remaining() != 8L * count) {
+            throw new IOException(file + " has a section of " + section.remaining()
+                    + " bytes where " + count + " doubles were expected");
+        }
+        return section.asDoubleBuffer();
+    }
+
+    /**
+     * Memory-map a graph file. The mapping outlives the file being closed,
+     * and is released when the returned object is garbage collected.
+     *
+     * @param file The file
+     * @return A graph file
+     * @throws IOException if the file cannot be read or is not a graph
+     * file of a version this class understands
+     */
+    public static GraphFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new GraphFile(channel, file);
+        }
+    }
+
+    /**
+     * Save a graph and the current state of a layout of it - positions and
+     * relatedness.
+     *
+     * @param file The file, which is replaced if it exists
+     * @param names The node names, indexed as in the layout's graph; they
+     * are stored as the strings returned by their toString() methods
+     * @param layout The layout
+     * @throws IOException if writing fails
+     */
+    public static void write(Path file, List<?> names, ForceDirected layout) throws IOException {
+        new Writer(names, layout.graph, layout.maxX, layout.maxY)
+                .relatedness(layout.relatedness, layout.relatednessDepth, layout.storage)
+                .positions(layout.xs, layout.ys)
+                .write(file);
+    }
+
+    /**
+     * Save a graph with no layout.
+     *
+     * @param file The file, which is replaced if it exists
+     * @param names The node names, indexed as in the graph; they are stored
+     * as the strings returned by their toString() methods
+     * @param graph The graph
+     * @throws IOException if writing fails
+     */
+    public static void write(Path file, List<?> names, IntGraph graph) throws IOException {
+        new Writer(names, graph, 1536, 1024).write(file);
+    }
+
+    /**
+     * The number of nodes.
+     *
+     * @return The node count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of edges, from parent to child.
+     *
+     * @return The edge count
+     */
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public String name(int node) {
+        int start = nameOffsets.get(node);
+        int end = nameOffsets.get(node + 1);
+        byte[] bytes = new byte[end - start];
+        names.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The node names, as a list which decodes each name when it is asked
+     * for.
+     *
+     * @return An unmodifiable list
+     */
+    public List<String> names() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException(index + " of " + size);
+                }
+                return name(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public int childCount(int node) {
+        return childOffsets.get(node + 1) - childOffsets.get(node);
+    }
+
+    public int child(int node, int n) {
+        return children.get(childOffsets.get(node) + n);
+    }
+
+    public int parentCount(int node) {
+        return parentOffsets.get(node + 1) - parentOffsets.get(node);
+    }
+
+    public int parent(int node, int n) {
+        return parents.get(parentOffsets.get(node) + n);
+    }
+
+    public boolean hasRelatedness() {
+        return relatednessOffsets != null;
+    }
+
+    public boolean hasPositions() {
+        return xs != null;
+    }
+
+    /**
+     * The saved x coordinate of a node.
+     *
+     * @param node The node
+     * @return The coordinate
+     * @throws IllegalStateException if the file has no positions
+     */
+    public double x(int node) {
+        checkPositions();
+        return xs.get(node);
+    }
+
+    /**
+     * The saved y coordinate of a node.
+     *
+     * @param node The node
+     * @return The coordinate
+     * @throws IllegalStateException if the file has no positions
+     */
+    public double y(int node) {
+        checkPositions();
+        return ys.get(node);
+    }
+
+    /**
+     * A read-only view of the saved x coordinates.
+     *
+     * @return A buffer
+     * @throws IllegalStateException if the file has no positions
+     */
+    public DoubleBuffer xs() {
+        checkPositions();
+        return xs.asReadOnlyBuffer();
+    }
+
+    /**
+     * A read-only view of the saved y coordinates.
+     *
+     * @return A buffer
+     * @throws IllegalStateException if the file has no positions
+     */
+    public DoubleBuffer ys() {
+        checkPositions();
+        return ys.asReadOnlyBuffer();
+    }
+
+    private void checkPositions() {
+        if (xs == null) {
+            throw new IllegalStateException("No positions saved");
+        }
+    }
+
+    /**
+     * Create an IntGraph - this is the one part of opening a file which
+     * costs time in proportion to its size, since IntGraph is made of bit
+     * sets.
+     *
+     * @return A graph
+     */
+    public IntGraph toIntGraph() {
+        return IntGraph.create(bitSets(parentOffsets, parents), bitSets(childOffsets, children));
+    }
+
+    private BitSet[] bitSets(IntBuffer offsets, IntBuffer targets) {
+        BitSet[] result = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            BitSet set = new BitSet();
+            for (int j = offsets.get(i); j < offsets.get(i + 1); j++) {
+                set.set(targets.get(j));
+            }
+            result[i] = set;
+        }
+        return result;
+    }
+
+    /**
+     * Create an ObjectGraph over the node names.
+     *
+     * @return A graph
+     */
+    public ObjectGraph<String> toObjectGraph() {
+        return toIntGraph().toObjectGraph(names());
+    }
+
+    /**
+     * Create a ForceDirected for the saved graph, using the saved
+     * relatedness rows in place and starting from the saved positions; a
+     * file with no relatedness has it computed, and one with no positions
+     * starts from random ones, as a new layout would.
+     *
+     * @return A layout
+     */
+    public ForceDirected toForceDirected() {
+        return toForceDirected(toIntGraph());
+    }
+
+    ForceDirected toForceDirected(IntGraph graph) {
+        if (graph.size() != size) {
+            throw new IllegalArgumentException("Graph has " + graph.size()
+                    + " nodes but the file has " + size);
+        }
+        Relatedness rel = null;
+        if (relatednessOffsets != null) {
+            rel = new Relatedness.Mapped(relatednessOffsets, relatednessColumns,
+                    relatednessScores.asFloatBuffer(), minRelatedness, maxRelatedness);
+        }
+        double[] x = null;
+        double[] y = null;
+        if (xs != null) {
+            x = new double[size];
+            y = new double[size];
+            xs.get(0, x);
+            ys.get(0, y);
+        }
+        return new ForceDirected(graph, maxX, maxY, relatednessDepth, storage, rel, x, y);
+    }
+
+    @Override
+    public String toString() {
+        return "GraphFile(" + size + " nodes, " + edgeCount + " edges"
+                + (hasRelatedness() ? ", relatedness" : "")
+                + (hasPositions() ? ", positions" : "") + ")";
+    }
+
+    /**
+     * Streams the sections out through one small buffer, so saving a large
+     * graph does not need a second copy of it on the heap - names are
+     * measured in one pass and encoded one at a time as they are written in
+     * a second.
+     */
+    private static final class Writer {
+
+        private final List<?> names;
+        private final IntGraph graph;
+        private final int size;
+        private final int maxX;
+        private final int maxY;
+        private Relatedness relatedness;
+        private int relatednessDepth = ForceDirected.DEFAULT_RELATEDNESS_DEPTH;
+        private ForceDirected.RelatednessStorage storage = ForceDirected.RelatednessStorage.SPARSE;
+        private double[] xs;
+        private double[] ys;
+        private final long[] sections = new long[SECTIONS * 2];
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private FileChannel channel;
+
+        Writer(List<?> names, IntGraph graph, int maxX, int maxY) {
+            if (names.size() != graph.size()) {
+                throw new IllegalArgumentException(names.size() + " names for "
+                        + graph.size() + " nodes");
+            }
+            this.names = names;
+            this.graph = graph;
+            this.size = graph.size();
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        Writer relatedness(Relatedness relatedness, int depth, ForceDirected.RelatednessStorage storage) {
+            this.relatedness = relatedness;
+            this.relatednessDepth = depth;
+            this.storage = storage;
+            return this;
+        }
+
+        Writer positions(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+            return this;
+        }
+
+        void write(Path file) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel = ch;
+                ch.position(HEADER_LENGTH);
+                int edges = writeSections();
+                writeHeader(edges);
+                ch.force(false);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            } finally {
+                channel = null;
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int writeSections() throws IOException {
+            begin(NAME_OFFSETS);
+            long offset = 0;
+            putInt(0);
+            for (int i = 0; i < size; i++) {
+                offset += utf8Length(String.valueOf(names.get(i)));
+                putInt(checkedInt(offset, "names"));
+            }
+            end(NAME_OFFSETS);
+            begin(NAMES);
+            long written = 0;
+            for (int i = 0; i < size; i++) {
+                byte[] name = String.valueOf(names.get(i)).getBytes(StandardCharsets.UTF_8);
+                putBytes(name);
+                written += name.length;
+            }
+            if (written != offset) {
+                throw new IOException("Names changed while being saved");
+            }
+            end(NAMES);
+            int edges = writeAdjacency(CHILD_OFFSETS, CHILDREN, true);
+            writeAdjacency(PARENT_OFFSETS, PARENTS, false);
+            if (relatedness != null) {
+                writeRelatedness();
+            } else {
+                empty(RELATEDNESS_OFFSETS);
+                empty(RELATEDNESS_COLUMNS);
+                empty(RELATEDNESS_SCORES);
+            }
+            if (xs != null) {
+                begin(XS);
+                for (int i = 0; i < size; i++) {
+                    putDouble(xs[i]);
+                }
+                end(XS);
+                begin(YS);
+                for (int i = 0; i < size; i++) {
+                    putDouble(ys[i]);
+                }
+                end(YS);
+            } else {
+                empty(XS);
+                empty(YS);
+            }
+            return edges;
+        }
+
+        private int writeAdjacency(int offsetsSection, int targetsSection, boolean children)
+                throws IOException {
+            begin(offsetsSection);
+            long offset = 0;
+            putInt(0);
+            for (int i = 0; i < size; i++) {
+                offset += edges(i, children).cardinality();
+                putInt(checkedInt(offset, "edges"));
+            }
+            end(offsetsSection);
+            begin(targetsSection);
+            for (int i = 0; i < size; i++) {
+                Bits bits = edges(i, children);
+                for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                    putInt(bit);
+                }
+            }
+            end(targetsSection);
+            return (int) offset;
+        }
+
+        private Bits edges(int node, boolean children) {
+            return children ? graph.children(node) : graph.parents(node);
+        }
+
+        private void writeRelatedness() throws IOException {
+            // Only related pairs are stored, whatever the storage in memory,
+            // so a dense matrix is written as sparse rows
+            begin(RELATEDNESS_OFFSETS);
+            long offset = 0;
+            putInt(0);
+            for (int i = 0; i < size; i++) {
+                offset += storedInRow(i);
+                putInt(checkedInt(offset, "relatedness scores"));
+            }
+            end(RELATEDNESS_OFFSETS);
+            begin(RELATEDNESS_COLUMNS);
+            for (int i = 0; i < size; i++) {
+                int len = relatedness.rowLength(i);
+                for (int j = 0; j < len; j++) {
+                    if (stored(i, j)) {
+                        putInt(relatedness.column(i, j));
+                    }
+                }
+            }
+            end(RELATEDNESS_COLUMNS);
+            begin(RELATEDNESS_SCORES);
+            for (int i = 0; i < size; i++) {
+                int len = relatedness.rowLength(i);
+                for (int j = 0; j < len; j++) {
+                    if (stored(i, j)) {
+                        putFloat((float) relatedness.value(i, j));
+                    }
+                }
+            }
+            end(RELATEDNESS_SCORES);
+        }
+
+        private int storedInRow(int row) {
+            int result = 0;
+            int len = relatedness.rowLength(row);
+            for (int j = 0; j < len; j++) {
+                if (stored(row, j)) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        private boolean stored(int row, int n) {
+            return relatedness.column(row, n) != row
+                    && relatedness.value(row, n) != relatedness.unrelated();
+        }
+
+        private void writeHeader(int edges) throws IOException {
+            buffer.clear();
+            buffer.putInt(MAGIC).putInt(VERSION)
+                    .putInt((relatedness == null ? 0 : HAS_RELATEDNESS) | (xs == null ? 0 : HAS_POSITIONS))
+                    .putInt(size).putInt(edges).putInt(maxX).putInt(maxY)
+                    .putInt(relatednessDepth).putInt(storage.ordinal()).putInt(0)
+                    .putDouble(relatedness == null ? 0 : relatedness.min())
+                    .putDouble(relatedness == null ? 0 : relatedness.max());
+            for (long val : sections) {
+                buffer.putLong(val);
+            }
+            buffer.flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        /**
+         * The length of a string encoded as by
+         * <code>getBytes(StandardCharsets.UTF_8)</code>, which replaces
+         * unpaired surrogates with a single '?'.
+         */
+        static int utf8Length(String s) {
+            int result = 0;
+            for (int i = 0, len = s.length(); i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    result++;
+                } else if (c < 0x800) {
+                    result += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    result += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    result++;
+                } else {
+                    result += 3;
+                }
+            }
+            return result;
+        }
+
+        private static int checkedInt(long value, String what) throws IOException {
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Too many " + what + " for the file format: " + value);
+            }
+            return (int) value;
+        }
+
+        private void begin(int section) throws IOException {
+            flush();
+            long position = channel.position();
+            long aligned = (position + 7) & ~7L;
+            if (aligned != position) {
+                buffer.put(new byte[(int) (aligned - position)]);
+                flush();
+            }
+            sections[section * 2] = aligned;
+        }
+
+        private void end(int section) throws IOException {
+            flush();
+            sections[section * 2 + 1] = channel.position() - sections[section * 2];
+        }
+
+        private void empty(int section) throws IOException {
+            begin(section);
+            end(section);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length) {
+                ensure(1);
+                int count = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, count);
+                written += count;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
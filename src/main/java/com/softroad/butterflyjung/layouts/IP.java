@@ -35,7 +35,7 @@ import java.util.function.IntConsumer;
  */
 final class IP implements Comparable<IP>, Iterable<Integer> {
 
-    private static int DEFAULT_SIZE = 12;
+    private static final int DEFAULT_SIZE = 12;
     private int[] items;
     private int size;
 
@@ -0,0 +1,210 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Measures of layout quality which do not depend on the force model, for
+ * comparing layouts of the same graph.
+ *
+ * @author Tim Boudreau
+ */
+public final class LayoutMetrics {
+
+    private LayoutMetrics() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Count the pairs of edges which cross, not counting edges which share
+     * an endpoint. Edges are swept in order of their leftmost x coordinate,
+     * so only pairs whose horizontal extents overlap are tested.
+     *
+     * @param graph The graph
+     * @param xs The x coordinates
+     * @param ys The y coordinates
+     * @return The number of crossings
+     */
+    public static long crossings(IntGraph graph, double[] xs, double[] ys) {
+        Adjacency adj = Adjacency.of(graph);
+        int count = adj.edgeEndpoints() / 2;
+        int[] from = new int[count];
+        int[] to = new int[count];
+        double[] minXs = new double[count];
+        int edges = 0;
+        for (int i = 0; i < adj.size(); i++) {
+            for (int e = adj.start(i); e < adj.end(i); e++) {
+                int j = adj.target(e);
+                if (j > i) {
+                    from[edges] = i;
+                    to[edges] = j;
+                    minXs[edges] = Math.min(xs[i], xs[j]);
+                    edges++;
+                }
+            }
+        }
+        Integer[] order = new Integer[edges];
+        for (int i = 0; i < edges; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(minXs[a], minXs[b]));
+        int[] active = new int[16];
+        int activeCount = 0;
+        long result = 0;
+        for (int o = 0; o < edges; o++) {
+            int e = order[o];
+            int a = from[e];
+            int b = to[e];
+            double left = minXs[e];
+            double minY = Math.min(ys[a], ys[b]);
+            double maxY = Math.max(ys[a], ys[b]);
+            int kept = 0;
+            for (int k = 0; k < activeCount; k++) {
+                int f = active[k];
+                int c = from[f];
+                int d = to[f];
+                if (Math.max(xs[c], xs[d]) < left) {
+                    // Entirely left of this and every later edge
+                    continue;
+                }
+                active[kept++] = f;
+                if (a == c || a == d || b == c || b == d
+                        || Math.max(ys[c], ys[d]) < minY || Math.min(ys[c], ys[d]) > maxY) {
+                    continue;
+                }
+                if (Line2D.linesIntersect(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c], xs[d], ys[d])) {
+                    result++;
+                }
+            }
+            activeCount = kept;
+            if (activeCount == active.length) {
+                active = Arrays.copyOf(active, active.length * 2);
+            }
+            active[activeCount++] = e;
+        }
+        return result;
+    }
+
+    /**
+     * Compute the normalized stress of a layout with respect to shortest
+     * path distances from a sample of source nodes: the mean over reachable
+     * pairs of ((s * distance - hops) / hops)<sup>2</sup>, where s is the
+     * scale factor which minimizes it, so the result does not depend on how
+     * spread out the layout is. Lower is better; zero means on-screen
+     * distances are exactly proportional to graph distances.
+     *
+     * @param graph The graph
+     * @param xs The x coordinates
+     * @param ys The y coordinates
+     * @param sources The nodes to measure from
+     * @return The stress, or zero if no pair is reachable
+     */
+    public static double stress(IntGraph graph, double[] xs, double[] ys, int[] sources) {
+        return stress(Adjacency.of(graph), xs, ys, sources);
+    }
+
+    static double stress(Adjacency adj, double[] xs, double[] ys, int[] sources) {
+        int size = adj.size();
+        int[] hops = new int[size];
+        int[] queue = new int[size];
+        // With weights of 1 / hops^2, the optimal scale is
+        // sum(dist / hops) / sum(dist^2 / hops^2)
+        double sumDistOverHops = 0;
+        double sumDistSqOverHopsSq = 0;
+        long pairs = 0;
+        int[] pairHops = new int[16];
+        double[] pairDist = new double[16];
+        for (int source : sources) {
+            Arrays.fill(hops, -1);
+            hops[source] = 0;
+            queue[0] = source;
+            int head = 0;
+            int tail = 1;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int e = adj.start(node); e < adj.end(node); e++) {
+                    int next = adj.target(e);
+                    if (hops[next] < 0) {
+                        hops[next] = hops[node] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            for (int q = 1; q < tail; q++) {
+                int node = queue[q];
+                double dist = Math.hypot(xs[node] - xs[source], ys[node] - ys[source]);
+                double h = hops[node];
+                sumDistOverHops += dist / h;
+                sumDistSqOverHopsSq += (dist * dist) / (h * h);
+                if (pairs == pairHops.length) {
+                    pairHops = Arrays.copyOf(pairHops, pairHops.length * 2);
+                    pairDist = Arrays.copyOf(pairDist, pairDist.length * 2);
+                }
+                pairHops[(int) pairs] = hops[node];
+                pairDist[(int) pairs] = dist;
+                pairs++;
+            }
+        }
+        if (pairs == 0 || sumDistSqOverHopsSq == 0) {
+            return 0;
+        }
+        double scale = sumDistOverHops / sumDistSqOverHopsSq;
+        double total = 0;
+        for (int p = 0; p < pairs; p++) {
+            double rel = (scale * pairDist[p] - pairHops[p]) / pairHops[p];
+            total += rel * rel;
+        }
+        return total / pairs;
+    }
+
+    /**
+     * Pick distinct nodes to measure stress from.
+     *
+     * @param size The number of nodes
+     * @param count The number to pick; all nodes are used if there are not
+     * more than this
+     * @param random The source of randomness
+     * @return An array of node indices, sorted
+     */
+    public static int[] sampleSources(int size, int count, Random random) {
+        if (count >= size) {
+            int[] all = new int[size];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        BitSet picked = new BitSet(size);
+        while (picked.cardinality() < count) {
+            picked.set(random.nextInt(size));
+        }
+        return picked.stream().toArray();
+    }
+}
@@ -0,0 +1,141 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * The result of a time-bounded layout: the positions of the lowest-stress
+ * tick measured before the deadline, and figures for tuning the time budget.
+ *
+ * @author Tim Boudreau
+ * @see ForceDirected#layoutWithin(Duration)
+ */
+public final class LayoutSnapshot {
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int ticks;
+    private final int bestTick;
+    private final double stress;
+    private final double finalStress;
+    private final boolean converged;
+    private final long elapsedNanos;
+
+    LayoutSnapshot(double[] xs, double[] ys, int ticks, int bestTick,
+            double stress, double finalStress, boolean converged, long elapsedNanos) {
+        this.xs = xs;
+        this.ys = ys;
+        this.ticks = ticks;
+        this.bestTick = bestTick;
+        this.stress = stress;
+        this.finalStress = finalStress;
+        this.converged = converged;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public double x(int ix) {
+        return xs[ix];
+    }
+
+    public double y(int ix) {
+        return ys[ix];
+    }
+
+    public double[] xs() {
+        return Arrays.copyOf(xs, xs.length);
+    }
+
+    public double[] ys() {
+        return Arrays.copyOf(ys, ys.length);
+    }
+
+    /**
+     * The number of ticks which ran to completion before the deadline.
+     *
+     * @return A tick count
+     */
+    public int ticks() {
+        return ticks;
+    }
+
+    /**
+     * The tick these positions are the result of, counting from one; zero
+     * means no tick measured improved on the positions the layout started
+     * with.
+     *
+     * @return A tick number
+     */
+    public int bestTick() {
+        return bestTick;
+    }
+
+    /**
+     * The stress, as computed by <code>LayoutMetrics.stress()</code> from a
+     * sample of nodes, of these positions.
+     *
+     * @return The stress
+     */
+    public double stress() {
+        return stress;
+    }
+
+    /**
+     * The stress of the last tick which ran to completion, or of the
+     * starting positions if none did.
+     *
+     * @return The stress
+     */
+    public double finalStress() {
+        return finalStress;
+    }
+
+    /**
+     * Whether the layout converged before the deadline.
+     *
+     * @return true if converged
+     */
+    public boolean converged() {
+        return converged;
+    }
+
+    public Duration elapsed() {
+        return Duration.ofNanos(elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutSnapshot(" + xs.length + " nodes, ticks=" + ticks
+                + ", bestTick=" + bestTick + ", stress=" + stress
+                + ", finalStress=" + finalStress + ", converged=" + converged
+                + ", elapsed=" + elapsed().toMillis() + "ms)";
+    }
+}
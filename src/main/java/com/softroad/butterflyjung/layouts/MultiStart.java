@@ -0,0 +1,335 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Runs several independently seeded layouts of the same graph in parallel
+ * and keeps the best one, since the outcome of ForceDirected depends heavily
+ * on its random initial placement and some starts produce tangles that take
+ * thousands of ticks to undo.
+ * <p/>
+ * Selection is by successive halving: every start runs a short round of
+ * ticks, the starts are scored by stress and edge crossings, the worse half
+ * is dropped, and the rest run another round, until one remains. That
+ * winner is returned for the caller to keep ticking. Relatedness is computed
+ * once and shared by all starts, and the rounds run on a ForkJoinPool, one
+ * start per task, so on a machine with as many cores as starts the whole
+ * selection costs about as much wall-clock time as running one start for
+ * the screening ticks of every round.
+ * <p/>
+ * Results are deterministic for a given seed.
+ *
+ * @author Tim Boudreau
+ */
+public final class MultiStart {
+
+    /**
+     * The default number of independently seeded starts.
+     */
+    public static final int DEFAULT_STARTS = 8;
+    /**
+     * The default number of ticks each surviving start runs per round.
+     */
+    public static final int DEFAULT_ROUND_TICKS = 60;
+    /**
+     * The number of nodes stress is measured from.
+     */
+    static final int STRESS_SOURCES = 32;
+    private final IntGraph graph;
+    private final int maxX;
+    private final int maxY;
+    private final long seed;
+    private int starts = DEFAULT_STARTS;
+    private int roundTicks = DEFAULT_ROUND_TICKS;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private Consumer<? super ForceDirected> configurer;
+    private List<Score> scores = Collections.emptyList();
+
+    public MultiStart(IntGraph graph, long seed) {
+        this(graph, 1536, 1024, seed);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param graph The graph
+     * @param maxX The width of the initial layout area
+     * @param maxY The height of the initial layout area
+     * @param seed Seed from which the seed of each start is derived
+     */
+    public MultiStart(IntGraph graph, int maxX, int maxY, long seed) {
+        this.graph = graph;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.seed = seed;
+    }
+
+    public int starts() {
+        return starts;
+    }
+
+    public void setStarts(int starts) {
+        if (starts < 1) {
+            throw new IllegalArgumentException("Need at least one start: " + starts);
+        }
+        this.starts = starts;
+    }
+
+    public int roundTicks() {
+        return roundTicks;
+    }
+
+    /**
+     * Set the number of ticks every surviving start runs before the starts
+     * are scored and the worse half dropped.
+     *
+     * @param ticks The number of ticks, at least 1
+     */
+    public void setRoundTicks(int ticks) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("Ticks must be at least 1: " + ticks);
+        }
+        this.roundTicks = ticks;
+    }
+
+    /**
+     * Set the pool starts and the computation of relatedness run in; the
+     * default is the common pool. With none, starts run one after another
+     * on the calling thread, and stop early if it is interrupted.
+     *
+     * @param pool The pool, or null
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set code to configure each start - repulsion mode, sleeping and so
+     * forth - before it runs. Starts use the sequential tick mode unless
+     * configured otherwise, since they already run in parallel with each
+     * other.
+     *
+     * @param configurer A configurer, or null
+     */
+    public void setConfigurer(Consumer<? super ForceDirected> configurer) {
+        this.configurer = configurer;
+    }
+
+    /**
+     * Scores from the last call to <code>layout()</code>, best first; each
+     * start's score is from the last round it took part in.
+     *
+     * @return The scores
+     */
+    public List<Score> scores() {
+        return scores;
+    }
+
+    /**
+     * Run the starts and return the winner, which has run one round of
+     * ticks for each halving.
+     *
+     * @return The best layout
+     */
+    public ForceDirected layout() {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long firstSeed = seeds.nextLong();
+        ForceDirected template = new ForceDirected(graph, maxX, maxY, new Random(firstSeed),
+                ForceDirected.DEFAULT_RELATEDNESS_DEPTH, ForceDirected.RelatednessStorage.SPARSE, pool);
+        if (configurer != null) {
+            configurer.accept(template);
+        }
+        List<Start> alive = new ArrayList<>(starts);
+        alive.add(new Start(0, firstSeed, template));
+        for (int i = 1; i < starts; i++) {
+            long s = seeds.nextLong();
+            alive.add(new Start(i, s, template.reseeded(new Random(s))));
+        }
+        int[] sources = LayoutMetrics.sampleSources(graph.size(), STRESS_SOURCES,
+                new Random(seed));
+        Adjacency adj = Adjacency.of(graph);
+        List<Score> all = new ArrayList<>(starts);
+        int round = 0;
+        do {
+            round++;
+            runRound(alive, adj, sources);
+            double bestStress = Double.MAX_VALUE;
+            long bestCrossings = Long.MAX_VALUE;
+            for (Start s : alive) {
+                bestStress = Math.min(bestStress, s.stress);
+                bestCrossings = Math.min(bestCrossings, s.crossings);
+            }
+            for (Start s : alive) {
+                // Each metric relative to the best, so neither dominates
+                s.score = (bestStress == 0 ? 1 : s.stress / bestStress)
+                        + (s.crossings + 1D) / (bestCrossings + 1D);
+            }
+            alive.sort(Comparator.comparingDouble((Start s) -> s.score)
+                    .thenComparingInt(s -> s.index));
+            int keep = alive.size() == 1 ? 1 : (alive.size() + 1) / 2;
+            for (int i = alive.size() - 1; i >= keep; i--) {
+                all.add(alive.remove(i).toScore(round));
+            }
+        } while (alive.size() > 1);
+        Start winner = alive.get(0);
+        all.add(winner.toScore(round));
+        Collections.reverse(all);
+        scores = Collections.unmodifiableList(all);
+        return winner.layout;
+    }
+
+    private void runRound(List<Start> alive, Adjacency adj, int[] sources) {
+        if (pool == null) {
+            for (Start s : alive) {
+                s.run(roundTicks, adj, sources);
+            }
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(alive.size());
+        for (Start s : alive) {
+            tasks.add(ForkJoinTask.adapt(() -> s.run(roundTicks, adj, sources)));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    private static final class Start {
+
+        private final int index;
+        private final long seed;
+        private final ForceDirected layout;
+        private int ticks;
+        private double stress;
+        private long crossings;
+        private double score;
+
+        Start(int index, long seed, ForceDirected layout) {
+            this.index = index;
+            this.seed = seed;
+            this.layout = layout;
+        }
+
+        void run(int count, Adjacency adj, int[] sources) {
+            for (int i = 0; i < count && !layout.converged()
+                    && !Thread.currentThread().isInterrupted(); i++) {
+                layout.iterate();
+                ticks++;
+            }
+            stress = LayoutMetrics.stress(adj, layout.xs, layout.ys, sources);
+            crossings = LayoutMetrics.crossings(layout.graph, layout.xs, layout.ys);
+        }
+
+        Score toScore(int rounds) {
+            return new Score(seed, rounds, ticks, stress, crossings, score);
+        }
+    }
+
+    /**
+     * How one start fared.
+     */
+    public static final class Score {
+
+        private final long seed;
+        private final int rounds;
+        private final int ticks;
+        private final double stress;
+        private final long crossings;
+        private final double score;
+
+        Score(long seed, int rounds, int ticks, double stress, long crossings, double score) {
+            this.seed = seed;
+            this.rounds = rounds;
+            this.ticks = ticks;
+            this.stress = stress;
+            this.crossings = crossings;
+            this.score = score;
+        }
+
+        /**
+         * The seed of the Random the start's initial positions came from.
+         *
+         * @return The seed
+         */
+        public long seed() {
+            return seed;
+        }
+
+        /**
+         * The number of rounds the start took part in.
+         *
+         * @return The number of rounds
+         */
+        public int rounds() {
+            return rounds;
+        }
+
+        public int ticks() {
+            return ticks;
+        }
+
+        public double stress() {
+            return stress;
+        }
+
+        public long crossings() {
+            return crossings;
+        }
+
+        /**
+         * The combined score in the last round, relative to the best start
+         * of that round; lower is better, and 2 is the best possible.
+         *
+         * @return The score
+         */
+        public double score() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return "Score(seed=" + seed + ", rounds=" + rounds + ", ticks=" + ticks
+                    + ", stress=" + stress + ", crossings=" + crossings
+                    + ", score=" + score + ")";
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.IntGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Multilevel layout in the style of FM<sup>3</sup>: the graph is repeatedly
+ * coarsened by collapsing matched pairs of neighbors (and merging nodes whose
+ * neighbors are all taken into a neighbor's group, as in solar-system
+ * merging) until it is small; that level is laid out from random positions,
+ * and then each finer level starts from its coarser level's positions,
+ * spread out a little, and only needs a few ticks of the usual force model to
+ * settle. Since every level is roughly half the size of the one below it,
+ * total work stays close to that of the refinement of the finest level,
+ * which begins from an already untangled layout.
+ *
+ * @author Tim Boudreau
+ */
+public final class MultilevelLayout {
+
+    /**
+     * Coarsening stops once a level has at most this many nodes.
+     */
+    public static final int DEFAULT_COARSEST_SIZE = 48;
+    /**
+     * Ticks used to lay out the coarsest level from random positions.
+     */
+    public static final int DEFAULT_COARSEST_ITERATIONS = 200;
+    /**
+     * Ticks used to refine each finer level.
+     */
+    public static final int DEFAULT_REFINEMENT_ITERATIONS = 40;
+    /**
+     * Levels with more nodes than this use Barnes-Hut repulsion unless a
+     * repulsion mode is set explicitly.
+     */
+    static final int BARNES_HUT_THRESHOLD = 2000;
+    /**
+     * Coarsening gives up when a level shrinks by less than this fraction,
+     * which happens with stars and other graphs with few matchable edges.
+     */
+    private static final double MIN_REDUCTION = 0.1;
+    private final IntGraph graph;
+    private final int maxX;
+    private final int maxY;
+    private final Random random;
+    private int relatednessDepth = ForceDirected.DEFAULT_RELATEDNESS_DEPTH;
+    private int coarsestSize = DEFAULT_COARSEST_SIZE;
+    private int coarsestIterations = DEFAULT_COARSEST_ITERATIONS;
+    private int refinementIterations = DEFAULT_REFINEMENT_ITERATIONS;
+    private ForceDirected.TickMode tickMode = ForceDirected.TickMode.SEQUENTIAL;
+    private ForceDirected.RepulsionMode repulsionMode;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private List<Level> levels;
+
+    public MultilevelLayout(IntGraph graph) {
+        this(graph, 1536, 1024, null);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param graph The graph
+     * @param maxX The width of the initial layout area of the coarsest level
+     * @param maxY The height of the initial layout area of the coarsest level
+     * @param random Source of randomness for initial positions, or null
+     */
+    public MultilevelLayout(IntGraph graph, int maxX, int maxY, Random random) {
+        this.graph = graph;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.random = random == null ? ThreadLocalRandom.current() : random;
+    }
+
+    public int coarsestSize() {
+        return coarsestSize;
+    }
+
+    /**
+     * Set the size at or below which coarsening stops.
+     *
+     * @param size The size, at least 2
+     */
+    public void setCoarsestSize(int size) {
+        if (size < 2) {
+            throw new IllegalArgumentException("Coarsest size must be at least 2: " + size);
+        }
+        this.coarsestSize = size;
+        this.levels = null;
+    }
+
+    public int coarsestIterations() {
+        return coarsestIterations;
+    }
+
+    public void setCoarsestIterations(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Negative iterations " + iterations);
+        }
+        this.coarsestIterations = iterations;
+    }
+
+    public int refinementIterations() {
+        return refinementIterations;
+    }
+
+    public void setRefinementIterations(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Negative iterations " + iterations);
+        }
+        this.refinementIterations = iterations;
+    }
+
+    public int relatednessDepth() {
+        return relatednessDepth;
+    }
+
+    public void setRelatednessDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+        }
+        this.relatednessDepth = depth;
+    }
+
+    public ForceDirected.TickMode tickMode() {
+        return tickMode;
+    }
+
+    public void setTickMode(ForceDirected.TickMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode");
+        }
+        this.tickMode = mode;
+    }
+
+    /**
+     * Get the repulsion mode used for every level, or null if it is chosen
+     * per level by size.
+     *
+     * @return The mode or null
+     */
+    public ForceDirected.RepulsionMode repulsionMode() {
+        return repulsionMode;
+    }
+
+    /**
+     * Set the repulsion mode used for every level; if null (the default),
+     * levels larger than a couple of thousand nodes use Barnes-Hut and
+     * smaller ones are exact.
+     *
+     * @param mode The mode or null
+     */
+    public void setRepulsionMode(ForceDirected.RepulsionMode mode) {
+        this.repulsionMode = mode;
+    }
+
+    /**
+     * Set the pool each level's relatedness is computed and parallel ticks
+     * run in; the default is the common pool. With none, everything runs on
+     * the calling thread, and refinement stops early if it is interrupted.
+     *
+     * @param pool The pool, or null
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * The number of levels, including the original graph.
+     *
+     * @return The level count
+     */
+    public int levels() {
+        return hierarchy().size();
+    }
+
+    /**
+     * Coarsen, lay out the coarsest level and refine back up to the original
+     * graph.
+     *
+     * @return A ForceDirected for the original graph, whose positions are
+     * the result; it may be iterated further
+     */
+    public ForceDirected layout() {
+        List<Level> all = hierarchy();
+        ForceDirected coarser = null;
+        for (int i = all.size() - 1; i >= 0; i--) {
+            Level level = all.get(i);
+            ForceDirected fd = newForceDirected(level.graph);
+            int ticks = refinementIterations;
+            if (coarser == null) {
+                ticks = coarsestIterations;
+            } else {
+                interpolate(coarser, fd, level.parents);
+            }
+            for (int j = 0; j < ticks && !Thread.currentThread().isInterrupted(); j++) {
+                fd.iterate();
+            }
+            coarser = fd;
+        }
+        return coarser;
+    }
+
+    private ForceDirected newForceDirected(IntGraph g) {
+        ForceDirected result = new ForceDirected(g, maxX, maxY, random, relatednessDepth,
+                ForceDirected.RelatednessStorage.SPARSE, pool);
+        result.setTickMode(tickMode);
+        if (repulsionMode != null) {
+            result.setRepulsionMode(repulsionMode);
+        } else if (g.size() > BARNES_HUT_THRESHOLD) {
+            result.setRepulsionMode(ForceDirected.RepulsionMode.BARNES_HUT);
+        }
+        return result;
+    }
+
+    /**
+     * Place each node of a finer level at its coarse node's position,
+     * scaled out from the centroid by the square root of the growth in node
+     * count so density stays about the same, and jittered so the members of
+     * a merged group do not start on top of each other.
+     */
+    private void interpolate(ForceDirected coarse, ForceDirected fine, int[] parents) {
+        int coarseSize = coarse.size();
+        double cx = 0;
+        double cy = 0;
+        for (int i = 0; i < coarseSize; i++) {
+            cx += coarse.x(i);
+            cy += coarse.y(i);
+        }
+        cx /= coarseSize;
+        cy /= coarseSize;
+        double scale = Math.sqrt((double) fine.size() / coarseSize);
+        double spread = typicalEdgeLength(coarse) / 4;
+        for (int i = 0; i < parents.length; i++) {
+            int p = parents[i];
+            double x = cx + (coarse.x(p) - cx) * scale;
+            double y = cy + (coarse.y(p) - cy) * scale;
+            fine.setLocation(i, x + jitter(spread), y + jitter(spread));
+        }
+    }
+
+    private double jitter(double spread) {
+        return (random.nextDouble() * 2 - 1) * spread;
+    }
+
+    private static double typicalEdgeLength(ForceDirected fd) {
+        double total = 0;
+        int count = 0;
+        for (int i = 0; i < fd.size(); i++) {
+            Bits kids = fd.graph.children(i);
+            for (int j = kids.nextSetBit(0); j >= 0; j = kids.nextSetBit(j + 1)) {
+                total += Math.hypot(fd.x(i) - fd.x(j), fd.y(i) - fd.y(j));
+                count++;
+            }
+        }
+        return count == 0 ? 1 : total / count;
+    }
+
+    private List<Level> hierarchy() {
+        if (levels == null) {
+            levels = coarsen(graph, coarsestSize);
+        }
+        return levels;
+    }
+
+    /**
+     * One level of the hierarchy.
+     */
+    static final class Level {
+
+        final IntGraph graph;
+        /**
+         * The node in the next coarser level each node of this one was
+         * collapsed into; null for the coarsest level.
+         */
+        int[] parents;
+
+        Level(IntGraph graph) {
+            this.graph = graph;
+        }
+    }
+
+    static List<Level> coarsen(IntGraph graph, int coarsestSize) {
+        List<Level> result = new ArrayList<>();
+        Level level = new Level(graph);
+        result.add(level);
+        while (level.graph.size() > coarsestSize) {
+            int[] parents = new int[level.graph.size()];
+            int count = match(Adjacency.of(level.graph), parents);
+            if (count > level.graph.size() * (1 - MIN_REDUCTION)) {
+                break;
+            }
+            level.parents = parents;
+            level = new Level(collapse(level.graph, parents, count));
+            result.add(level);
+        }
+        return result;
+    }
+
+    /**
+     * Assign each node a group, visiting nodes in order of increasing degree
+     * and pairing each unmatched node with its unmatched neighbor of least
+     * degree - pairing leaves first keeps hubs from swallowing everything.
+     * A node all of whose neighbors are already matched joins the group of
+     * its least-connected neighbor instead of staying alone, which is what
+     * lets stars and other hub-heavy graphs coarsen at all.
+     *
+     * @return The number of groups
+     */
+    static int match(Adjacency adj, int[] parents) {
+        int size = adj.size();
+        Arrays.fill(parents, -1);
+        // Degree in the high bits and node in the low, so a primitive sort
+        // orders by degree, ties by node
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) adj.degree(i) << 32) | i;
+        }
+        Arrays.sort(order);
+        int groups = 0;
+        for (long entry : order) {
+            int i = (int) entry;
+            if (parents[i] >= 0) {
+                continue;
+            }
+            int bestFree = -1;
+            int bestTaken = -1;
+            for (int e = adj.start(i); e < adj.end(i); e++) {
+                int j = adj.target(e);
+                if (parents[j] < 0) {
+                    if (bestFree < 0 || adj.degree(j) < adj.degree(bestFree)) {
+                        bestFree = j;
+                    }
+                } else if (bestTaken < 0 || adj.degree(j) < adj.degree(bestTaken)) {
+                    bestTaken = j;
+                }
+            }
+            if (bestFree >= 0) {
+                parents[i] = parents[bestFree] = groups++;
+            } else if (bestTaken >= 0) {
+                parents[i] = parents[bestTaken];
+            } else {
+                parents[i] = groups++;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Build the graph of groups, keeping edge direction and dropping edges
+     * within a group.
+     */
+    static IntGraph collapse(IntGraph graph, int[] parents, int count) {
+        BitSet[] children = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            // Most groups have a few neighbors; sizing every set for all
+            // of them would be quadratic
+            children[i] = new BitSet();
+        }
+        for (int i = 0; i < parents.length; i++) {
+            Bits kids = graph.children(i);
+            int pi = parents[i];
+            for (int j = kids.nextSetBit(0); j >= 0; j = kids.nextSetBit(j + 1)) {
+                int pj = parents[j];
+                if (pi != pj) {
+                    children[pi].set(pj);
+                }
+            }
+        }
+        return IntGraph.create(children);
+    }
+}
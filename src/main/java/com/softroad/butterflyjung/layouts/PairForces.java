@@ -0,0 +1,110 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.geometry.Circle;
+
+import static com.softroad.butterflyjung.layouts.ForceDirected.HUB_REPULSION_HORIZON;
+import static com.softroad.butterflyjung.layouts.ForceDirected.PUSH_OUT;
+import static com.softroad.butterflyjung.layouts.ForceDirected.REPULSION_HORIZON;
+import static com.softroad.butterflyjung.layouts.ForceDirected.TWIST;
+
+/**
+ * The forces pullForce() and pushForce() apply to a pair of nodes. A pair
+ * gets one of a handful of shapes of chain, so each shape is composed and
+ * compiled once, over leaf forces which are pointed at the pair being
+ * computed rather than allocated for it.
+ * <p>
+ * Not thread-safe - each thread computing pairs needs its own instance, and
+ * a force it returns is only valid until the next call.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class PairForces {
+
+    static final int NO_FORCE = 0;
+    static final int ATTRACT = 1;
+    static final int ATTRACT_AND_TWIST = 2;
+    static final int REPEL = 3;
+
+    final Attraction attraction = new Attraction(0, 0, 0, 0, 0);
+    final RotationalForce twist = new RotationalForce(0, 0, TWIST, 360);
+    final ForceDirected.Repul repulsion = new ForceDirected.Repul(0, 0, REPULSION_HORIZON);
+    final ForceDirected.Repul nearby = new ForceDirected.Repul(0, 0, 25);
+    final HubStrength hubStrength = new HubStrength();
+    final SimpleForce hub = new SimpleForce(0, 0, hubStrength);
+    final Attraction parent = new Attraction(0, 0, 60, 1, 0);
+    final SimpleForce singleton = new SimpleForce(0, 0, PUSH_OUT);
+    final Circle center = new Circle(0, 0);
+    final double[] position = new double[2];
+    private final Force[] hubChains = new Force[4];
+    private final Force[] chains = new Force[4];
+
+    PairForces() {
+        Force[] inner = {
+            Force.NONE,
+            attraction,
+            attraction.and(twist),
+            repulsion.and(Force.NONE)
+        };
+        for (int i = 0; i < inner.length; i++) {
+            hubChains[i] = hub.and(inner[i]).compile();
+            chains[i] = nearby.or(inner[i]).compile();
+        }
+    }
+
+    /**
+     * Get the compiled chain for a pair, once its leaves have been pointed
+     * at it.
+     *
+     * @param inner One of NO_FORCE, ATTRACT, ATTRACT_AND_TWIST or REPEL
+     * @param hubs Whether both nodes are hubs, which push each other apart
+     * over a long distance
+     * @return A force
+     */
+    Force push(int inner, boolean hubs) {
+        return hubs ? hubChains[inner] : chains[inner];
+    }
+
+    /**
+     * Computes what
+     * <code>Strength.LINEAR.multiply(multiplier).negate().bound(HUB_REPULSION_HORIZON)</code>
+     * does, with a multiplier that can be changed for each pair.
+     */
+    static final class HubStrength implements Strength {
+
+        double multiplier;
+
+        @Override
+        public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
+            if (distance > HUB_REPULSION_HORIZON) {
+                return 0;
+            }
+            return (multiplier * LINEAR.computeStrength(centerX, centerY, x, y, distance)) * -1;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.function.DoubleBiConsumer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a tick of a ForceDirected across a ForkJoinPool. Unlike the sequential
+ * tick, which moves nodes in place so that later pairs see the effect of
+ * earlier ones, every force here is computed against a snapshot of the
+ * positions at the start of the tick, and each node's new position is
+ * accumulated into a second buffer which is swapped in when the tick is done.
+ * <p>
+ * Work is divided by the node being moved: for each pair i,j the sequential
+ * tick moves <i>either</i> i or j, so the row for a node r applies the force
+ * of every pair which would move r - pairs q,r where q pulls r toward it, and
+ * pairs r,q where it does not. Rows are grouped into fixed-size chunks;
+ * layout statistics are gathered per chunk and reduced once all chunks have
+ * run, rather than updated globally.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ParallelTick {
+
+    static final int CHUNK_SIZE = 64;
+    private static final int STATS = 5;
+    private final ForceDirected fd;
+    private final int chunkCount;
+    private final double[] chunkStats;
+    private final DampingFieldForce[] chunkDamping;
+    private final ForceKernel.Damping[] chunkKernelDamping;
+    private final ThreadLocal<Worker> workers;
+    private final QuadTree tree = new QuadTree();
+    private double[] nextXs;
+    private double[] nextYs;
+    private int[][] pullers;
+    private int[][] partners;
+    private boolean deterministic;
+    private boolean barnesHut;
+    private ForceKernel kernel;
+    private boolean scanned;
+
+    ParallelTick(ForceDirected fd) {
+        this.fd = fd;
+        chunkCount = (fd.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunkStats = new double[chunkCount * STATS];
+        chunkDamping = new DampingFieldForce[chunkCount];
+        chunkKernelDamping = new ForceKernel.Damping[chunkCount];
+        nextXs = new double[fd.size];
+        nextYs = new double[fd.size];
+        workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    /**
+     * Run one tick.
+     *
+     * @param pool The pool to run in, or null to run the chunks one after
+     * another on the calling thread
+     * @param deterministic If true, the damping applied to pulled nodes is
+     * tracked per chunk, so the result depends only on the positions and not
+     * on which threads ran which chunks; if false it is tracked per worker
+     * thread, as the sequential tick does for its single thread
+     */
+    void tick(ForkJoinPool pool, boolean deterministic) {
+        this.deterministic = deterministic;
+        kernel = fd.kernel();
+        barnesHut = fd.repulsionMode() == ForceDirected.RepulsionMode.BARNES_HUT;
+        scanned = !barnesHut && kernel != null
+                && fd.neighborScan() != ForceDirected.NeighborScan.NONE;
+        if (barnesHut || scanned) {
+            // Computed lazily; do it before any worker needs them
+            partners = barnesHut ? fd.barnesHutPartners() : fd.longRangePartners();
+            pullers();
+        }
+        if (barnesHut) {
+            tree.build(fd.xs, fd.ys, fd.size);
+        }
+        if (pool == null) {
+            for (int c = 0; c < chunkCount; c++) {
+                runChunk(c);
+            }
+        } else {
+            pool.invoke(new Chunks(0, chunkCount));
+        }
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = Double.MIN_VALUE;
+        double maxY = Double.MIN_VALUE;
+        double maxPerturb = fd.maxPerturb;
+        for (int c = 0; c < chunkCount; c++) {
+            int base = c * STATS;
+            minX = Math.min(minX, chunkStats[base]);
+            maxX = Math.max(maxX, chunkStats[base + 1]);
+            minY = Math.min(minY, chunkStats[base + 2]);
+            maxY = Math.max(maxY, chunkStats[base + 3]);
+            maxPerturb = Math.max(maxPerturb, chunkStats[base + 4]);
+        }
+        fd.currMinX = minX;
+        fd.currMaxX = maxX;
+        fd.currMinY = minY;
+        fd.currMaxY = maxY;
+        fd.maxPerturb = maxPerturb;
+        double[] oldXs = fd.xs;
+        double[] oldYs = fd.ys;
+        fd.xs = nextXs;
+        fd.ys = nextYs;
+        nextXs = oldXs;
+        nextYs = oldYs;
+    }
+
+    private void runChunk(int chunk) {
+        Worker w = workers.get();
+        if (!deterministic) {
+            w.startChunk(w.damping, w.kernelDamping);
+        } else if (kernel != null) {
+            if (chunkKernelDamping[chunk] == null) {
+                chunkKernelDamping[chunk] = new ForceKernel.Damping();
+            }
+            w.startChunk(null, chunkKernelDamping[chunk]);
+        } else {
+            if (chunkDamping[chunk] == null) {
+                chunkDamping[chunk] = new DampingFieldForce(Force.NONE);
+            }
+            w.startChunk(chunkDamping[chunk], null);
+        }
+        int end = Math.min(fd.size, (chunk + 1) * CHUNK_SIZE);
+        for (int r = chunk * CHUNK_SIZE; r < end; r++) {
+            w.row(r);
+            nextXs[r] = w.px;
+            nextYs[r] = w.py;
+        }
+        int base = chunk * STATS;
+        chunkStats[base] = w.minX;
+        chunkStats[base + 1] = w.maxX;
+        chunkStats[base + 2] = w.minY;
+        chunkStats[base + 3] = w.maxY;
+        chunkStats[base + 4] = w.maxPerturb;
+    }
+
+    /**
+     * The nodes which pull a given node toward themselves - computed once,
+     * only needed in Barnes-Hut or scanned mode, where a node's row does not
+     * visit every other node. Singletons, which are pushed by every node, get
+     * null.
+     */
+    private int[][] pullers() {
+        if (pullers == null) {
+            int[][] result = new int[fd.size][];
+            int[] scratch = new int[8];
+            for (int r = 0; r < fd.size; r++) {
+                if (fd.neighbors[r].cardinality() == 0) {
+                    continue;
+                }
+                int count = 0;
+                for (int q = fd.neighbors[r].nextSetBit(0); q >= 0; q = fd.neighbors[r].nextSetBit(q + 1)) {
+                    if (q != r && fd.pulls(q, r)) {
+                        if (count == scratch.length) {
+                            scratch = Arrays.copyOf(scratch, count * 2);
+                        }
+                        scratch[count++] = q;
+                    }
+                }
+                result[r] = Arrays.copyOf(scratch, count);
+            }
+            pullers = result;
+        }
+        return pullers;
+    }
+
+    private final class Chunks extends RecursiveAction {
+
+        private final int start;
+        private final int end;
+
+        Chunks(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                runChunk(start);
+            } else if (end > start) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Chunks(start, mid), new Chunks(mid, end));
+            }
+        }
+    }
+
+    /**
+     * Per-thread scratch state for computing rows.
+     */
+    private final class Worker implements QuadTree.Visitor {
+
+        final DampingFieldForce damping = new DampingFieldForce(Force.NONE);
+        final ForceKernel.Damping kernelDamping = new ForceKernel.Damping();
+        final DoubleBiConsumer sink = this::moveTo;
+        final double[] pos = new double[2];
+        PairForces forces;
+        DampingFieldForce chunkDamping;
+        ForceKernel.Damping chunkKernelDamping;
+        int[] stack = QuadTree.newStack();
+        RowScanner scanner;
+        int[] visited;
+        int visitStamp;
+        int row;
+        double px;
+        double py;
+        double minX;
+        double maxX;
+        double minY;
+        double maxY;
+        double maxPerturb;
+        double temperature;
+
+        void startChunk(DampingFieldForce damping, ForceKernel.Damping kernelDamping) {
+            chunkDamping = damping;
+            chunkKernelDamping = kernelDamping;
+            minX = minY = Double.MAX_VALUE;
+            maxX = maxY = Double.MIN_VALUE;
+            maxPerturb = 0;
+        }
+
+        void row(int r) {
+            row = r;
+            temperature = fd.temperature(r);
+            px = fd.xs[r];
+            py = fd.ys[r];
+            if (!fd.isMovable(r) || fd.pastDeadline()) {
+                // Keeps its position, but still counts toward the bounds
+            } else if (barnesHut) {
+                barnesHutRow(r);
+            } else if (scanned && pullers[r] != null) {
+                scannedRow(r);
+            } else {
+                for (int q = 0; q < fd.size; q++) {
+                    if (q != r) {
+                        pair(q);
+                    }
+                }
+            }
+            minX = Math.min(minX, px);
+            maxX = Math.max(maxX, px);
+            minY = Math.min(minY, py);
+            maxY = Math.max(maxY, py);
+        }
+
+        private void scannedRow(int r) {
+            if (scanner == null) {
+                scanner = new RowScanner(fd.size);
+            }
+            double horizon = kernel.isHub(r)
+                    ? ForceDirected.HUB_REPULSION_HORIZON : ForceDirected.REPULSION_HORIZON;
+            scanner.start(px, py, horizon, fd.xs, fd.ys, partners[r], pullers[r]);
+            for (int q = scanner.next(); q >= 0; q = scanner.next()) {
+                if (q != r) {
+                    pair(q);
+                    scanner.moved(px, py);
+                }
+            }
+        }
+
+        private void barnesHutRow(int r) {
+            if (visited == null) {
+                visited = new int[fd.size];
+            }
+            if (++visitStamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                visitStamp = 1;
+            }
+            visited[r] = visitStamp;
+            double horizon = fd.maxCardinalities.contains(fd.neighbors[r].cardinality())
+                    ? ForceDirected.HUB_REPULSION_HORIZON : ForceDirected.REPULSION_HORIZON;
+            stack = tree.visit(px, py, horizon, this, stack);
+            for (int q : partners[r]) {
+                near(q);
+            }
+            int[] pulledBy = pullers[r];
+            if (pulledBy == null) {
+                for (int q = 0; q < fd.size; q++) {
+                    near(q);
+                }
+            } else {
+                for (int q : pulledBy) {
+                    near(q);
+                }
+            }
+        }
+
+        private void pair(int q) {
+            double qx = fd.xs[q];
+            double qy = fd.ys[q];
+            if (kernel != null) {
+                if (kernel.pulls(q, row)) {
+                    pos[0] = px;
+                    pos[1] = py;
+                    kernel.pull(q, row, qx, qy, chunkKernelDamping, pos);
+                    moveTo(pos[0], pos[1]);
+                }
+                if (!kernel.pulls(row, q)) {
+                    pos[0] = px;
+                    pos[1] = py;
+                    kernel.push(row, q, qx, qy, pos);
+                    moveTo(pos[0], pos[1]);
+                }
+                return;
+            }
+            if (forces == null) {
+                forces = new PairForces();
+            }
+            Force pull = fd.pullForce(forces, q, row, qx, qy);
+            if (pull != null) {
+                chunkDamping.setDelegate(pull).accept(px, py, sink);
+            }
+            if (!fd.pulls(row, q)) {
+                fd.pushForce(forces, row, q, qx, qy).accept(px, py, sink);
+            }
+        }
+
+        private void moveTo(double x, double y) {
+            if (temperature < 1) {
+                x = px + (x - px) * temperature;
+                y = py + (y - py) * temperature;
+            }
+            if (!Double.isInfinite(x) && !Double.isNaN(x)) {
+                maxPerturb = Math.max(maxPerturb, Math.abs(x - px));
+                px = x;
+            }
+            if (!Double.isInfinite(y) && !Double.isNaN(y)) {
+                maxPerturb = Math.max(maxPerturb, Math.abs(y - py));
+                py = y;
+            }
+        }
+
+        @Override
+        public void near(int node) {
+            if (visited[node] != visitStamp) {
+                visited[node] = visitStamp;
+                pair(node);
+            }
+        }
+    }
+}
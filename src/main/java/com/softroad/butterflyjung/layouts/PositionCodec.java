@@ -0,0 +1,555 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+/**
+ * A compact binary encoding for streams of node positions, such as the
+ * successive ticks of a {@link ForceDirected}, for shipping an animating
+ * layout to a remote client. Shipping every node's x and y as doubles
+ * costs 16 bytes per node per frame; this typically needs one or two bytes
+ * per node in a keyframe and, once the layout settles, a small fraction of
+ * that in the frames between.
+ * <p>
+ * Positions are quantized to a fixed grid relative to the layout's minimum
+ * x and y at the most recent keyframe. A keyframe holds every node's grid
+ * position; the frames between it and the next keyframe hold only the nodes
+ * whose position has changed by at least a threshold since it was last
+ * encoded, as differences from their keyframe positions, so the decoded
+ * positions are never off by more than the threshold, less half a grid
+ * unit.
+ * Integers are written as variable-length zigzag varints, so small numbers
+ * take one byte whatever their sign. A keyframe is written every
+ * <i>n</i> frames, whenever it would be smaller than the delta frame, and
+ * on request - say, when a new client subscribes.
+ * </p><p>
+ * Neither side allocates anything per frame: the encoder writes into a
+ * buffer sized for the worst case when it is created, and the decoder
+ * updates coordinate arrays in place.
+ * </p>
+ * <pre>
+ * frame    := kind:byte frame:varint (keyframe | delta)
+ * keyframe := originX:double originY:double quantum:double count:varint
+ *             (x:zigzag y:zigzag)*count
+ * delta    := keyframe:varint count:varint (gap:varint dx:zigzag dy:zigzag)*count
+ * </pre>
+ * where <code>gap</code> is the number of unchanged nodes skipped since the
+ * previous changed one, and doubles are 8 bytes big-endian.
+ *
+ * @author Tim Boudreau
+ */
+public final class PositionCodec {
+
+    static final byte KEYFRAME = 0;
+    static final byte DELTA = 1;
+    public static final double DEFAULT_QUANTUM = 0.5;
+    public static final int DEFAULT_THRESHOLD = 2;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 30;
+    private static final int MAX_VARINT = 5;
+
+    private PositionCodec() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Create an encoder with the default grid, threshold and keyframe
+     * interval.
+     *
+     * @param size The number of nodes
+     * @return An encoder
+     */
+    public static Encoder encoder(int size) {
+        return new Encoder(size, DEFAULT_QUANTUM, DEFAULT_THRESHOLD, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a decoder.
+     *
+     * @param size The number of nodes
+     * @return A decoder
+     */
+    public static Decoder decoder(int size) {
+        return new Decoder(size);
+    }
+
+    /**
+     * The largest number of bytes a frame for the passed number of nodes
+     * can take.
+     *
+     * @param size The number of nodes
+     * @return The number of bytes
+     */
+    public static int maxFrameLength(int size) {
+        int header = 1 + MAX_VARINT;
+        int keyframe = header + 24 + MAX_VARINT + size * 2 * MAX_VARINT;
+        int delta = header + 2 * MAX_VARINT + size * 3 * MAX_VARINT;
+        return Math.max(keyframe, delta);
+    }
+
+    /**
+     * Encodes successive frames of positions into a reusable buffer.
+     */
+    public static final class Encoder {
+
+        private final int size;
+        private final double quantum;
+        private final int threshold;
+        private final int keyframeInterval;
+        private final int[] keyX;
+        private final int[] keyY;
+        private final int[] sentX;
+        private final int[] sentY;
+        private final int[] currentX;
+        private final int[] currentY;
+        private final byte[] buffer;
+        private int length;
+        private int frame = -1;
+        private int keyframe = -1;
+        private boolean keyframeRequested = true;
+        private double originX;
+        private double originY;
+        private long totalBytes;
+        private int keyframes;
+
+        /**
+         * Create an encoder.
+         *
+         * @param size The number of nodes
+         * @param quantum The size of a grid unit, in layout coordinates
+         * @param threshold The number of grid units a node must move by,
+         * on either axis, to be included in a delta frame; 1 means any
+         * visible movement
+         * @param keyframeInterval The maximum number of frames from one
+         * keyframe to the next
+         */
+        public Encoder(int size, double quantum, int threshold, int keyframeInterval) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Negative size " + size);
+            }
+            if (!(quantum > 0) || Double.isInfinite(quantum)) {
+                throw new IllegalArgumentException("Bad quantum " + quantum);
+            }
+            if (threshold < 1) {
+                throw new IllegalArgumentException("Threshold must be at least 1: " + threshold);
+            }
+            if (keyframeInterval < 1) {
+                throw new IllegalArgumentException("Keyframe interval must be at least 1: "
+                        + keyframeInterval);
+            }
+            this.size = size;
+            this.quantum = quantum;
+            this.threshold = threshold;
+            this.keyframeInterval = keyframeInterval;
+            keyX = new int[size];
+            keyY = new int[size];
+            sentX = new int[size];
+            sentY = new int[size];
+            currentX = new int[size];
+            currentY = new int[size];
+            buffer = new byte[maxFrameLength(size)];
+        }
+
+        /**
+         * Make the next frame a keyframe, as when a new decoder starts
+         * listening.
+         */
+        public void requestKeyframe() {
+            keyframeRequested = true;
+        }
+
+        /**
+         * Encode the current positions of a layout.
+         *
+         * @param layout A layout with the number of nodes this encoder was
+         * created for
+         * @return The number of bytes of {@link #buffer()} the frame
+         * occupies
+         */
+        public int encode(ForceDirected layout) {
+            if (layout.size() != size) {
+                throw new IllegalArgumentException("Layout has " + layout.size()
+                        + " nodes, not " + size);
+            }
+            boolean bounded = layout.minX() <= layout.maxX();
+            return encode(layout.xs, layout.ys, bounded ? layout.minX() : 0,
+                    bounded ? layout.minY() : 0);
+        }
+
+        /**
+         * Encode a frame of positions.
+         *
+         * @param xs The x coordinates
+         * @param ys The y coordinates
+         * @param minX The origin of the grid, if this frame turns out to be
+         * a keyframe - usually the minimum x coordinate
+         * @param minY The origin of the grid on the y axis
+         * @return The number of bytes of {@link #buffer()} the frame
+         * occupies
+         */
+        public int encode(double[] xs, double[] ys, double minX, double minY) {
+            if (xs.length < size || ys.length < size) {
+                throw new IllegalArgumentException("Need " + size + " coordinates, got "
+                        + xs.length + " and " + ys.length);
+            }
+            frame++;
+            if (keyframeRequested || frame - keyframe >= keyframeInterval) {
+                return keyframe(xs, ys, minX, minY);
+            }
+            // Work out the size of both kinds of frame, and write whichever
+            // is smaller; once most nodes have drifted far from the
+            // keyframe, starting over is cheaper
+            int changed = 0;
+            long deltaBytes = 0;
+            long keyframeBytes = 24;
+            int last = -1;
+            for (int i = 0; i < size; i++) {
+                int qx = quantize(xs[i], originX);
+                int qy = quantize(ys[i], originY);
+                currentX[i] = qx;
+                currentY[i] = qy;
+                keyframeBytes += varintLength(zigzag(quantize(xs[i], minX)))
+                        + varintLength(zigzag(quantize(ys[i], minY)));
+                if (Math.abs(qx - sentX[i]) >= threshold || Math.abs(qy - sentY[i]) >= threshold) {
+                    changed++;
+                    deltaBytes += varintLength(i - last - 1) + varintLength(zigzag(qx - keyX[i]))
+                            + varintLength(zigzag(qy - keyY[i]));
+                    last = i;
+                }
+            }
+            if (deltaBytes >= keyframeBytes) {
+                return keyframe(xs, ys, minX, minY);
+            }
+            length = 0;
+            buffer[length++] = DELTA;
+            writeVarint(frame);
+            writeVarint(keyframe);
+            writeVarint(changed);
+            last = -1;
+            for (int i = 0; i < size; i++) {
+                int qx = currentX[i];
+                int qy = currentY[i];
+                if (Math.abs(qx - sentX[i]) >= threshold || Math.abs(qy - sentY[i]) >= threshold) {
+                    writeVarint(i - last - 1);
+                    writeVarint(zigzag(qx - keyX[i]));
+                    writeVarint(zigzag(qy - keyY[i]));
+                    sentX[i] = qx;
+                    sentY[i] = qy;
+                    last = i;
+                }
+            }
+            totalBytes += length;
+            return length;
+        }
+
+        private int keyframe(double[] xs, double[] ys, double minX, double minY) {
+            keyframeRequested = false;
+            keyframe = frame;
+            keyframes++;
+            originX = Double.isFinite(minX) ? minX : 0;
+            originY = Double.isFinite(minY) ? minY : 0;
+            length = 0;
+            buffer[length++] = KEYFRAME;
+            writeVarint(frame);
+            writeDouble(originX);
+            writeDouble(originY);
+            writeDouble(quantum);
+            writeVarint(size);
+            for (int i = 0; i < size; i++) {
+                int qx = quantize(xs[i], originX);
+                int qy = quantize(ys[i], originY);
+                keyX[i] = sentX[i] = qx;
+                keyY[i] = sentY[i] = qy;
+                writeVarint(zigzag(qx));
+                writeVarint(zigzag(qy));
+            }
+            totalBytes += length;
+            return length;
+        }
+
+        private int quantize(double value, double origin) {
+            double q = Math.rint((value - origin) / quantum);
+            if (q != q) {
+                return 0;
+            }
+            return (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, q));
+        }
+
+        private static int varintLength(int value) {
+            return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * The buffer the most recent frame was written to, which is reused
+         * for the next one.
+         *
+         * @return The buffer
+         */
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * The length of the most recent frame.
+         *
+         * @return The number of bytes
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * The number of frames encoded so far.
+         *
+         * @return The frame count
+         */
+        public int frames() {
+            return frame + 1;
+        }
+
+        /**
+         * The number of those frames which were keyframes.
+         *
+         * @return The keyframe count
+         */
+        public int keyframes() {
+            return keyframes;
+        }
+
+        /**
+         * The total size of all frames encoded so far.
+         *
+         * @return The number of bytes
+         */
+        public long totalBytes() {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Decodes frames written by an {@link Encoder} into coordinate arrays.
+     */
+    public static final class Decoder {
+
+        private final int size;
+        private final int[] keyX;
+        private final int[] keyY;
+        private final double[] xs;
+        private final double[] ys;
+        private int keyframe = -1;
+        private int frame = -1;
+        private double originX;
+        private double originY;
+        private double quantum = 1;
+        private byte[] data;
+        private int position;
+        private int end;
+
+        public Decoder(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Negative size " + size);
+            }
+            this.size = size;
+            keyX = new int[size];
+            keyY = new int[size];
+            xs = new double[size];
+            ys = new double[size];
+        }
+
+        /**
+         * Apply a frame. A delta frame can only be applied on top of the
+         * keyframe it was encoded against; if that keyframe was never seen
+         * - the decoder joined late, or frames were lost - nothing is
+         * changed, and the caller should ask the encoder for a keyframe.
+         *
+         * @param bytes The buffer
+         * @param offset The start of the frame
+         * @param length The length of the frame
+         * @return true if the frame was applied
+         * @throws IllegalArgumentException if the frame is malformed
+         */
+        public boolean decode(byte[] bytes, int offset, int length) {
+            data = bytes;
+            position = offset;
+            end = offset + length;
+            try {
+                byte kind = readByte();
+                int number = readVarint();
+                switch (kind) {
+                    case KEYFRAME:
+                        readKeyframe();
+                        keyframe = number;
+                        break;
+                    case DELTA:
+                        if (readVarint() != keyframe || keyframe < 0) {
+                            return false;
+                        }
+                        readDelta();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown frame kind " + kind);
+                }
+                frame = number;
+                return true;
+            } finally {
+                data = null;
+            }
+        }
+
+        private void readKeyframe() {
+            double ox = readDouble();
+            double oy = readDouble();
+            double q = readDouble();
+            int count = readVarint();
+            if (count != size) {
+                throw new IllegalArgumentException("Keyframe has " + count
+                        + " nodes, not " + size);
+            }
+            if (!(q > 0)) {
+                throw new IllegalArgumentException("Bad quantum " + q);
+            }
+            originX = ox;
+            originY = oy;
+            quantum = q;
+            for (int i = 0; i < size; i++) {
+                int qx = unzigzag(readVarint());
+                int qy = unzigzag(readVarint());
+                keyX[i] = qx;
+                keyY[i] = qy;
+                xs[i] = originX + qx * quantum;
+                ys[i] = originY + qy * quantum;
+            }
+        }
+
+        private void readDelta() {
+            int count = readVarint();
+            int ix = -1;
+            for (int i = 0; i < count; i++) {
+                ix += readVarint() + 1;
+                if (ix >= size) {
+                    throw new IllegalArgumentException("Node index " + ix
+                            + " out of range in frame of " + size);
+                }
+                xs[ix] = originX + (keyX[ix] + unzigzag(readVarint())) * quantum;
+                ys[ix] = originY + (keyY[ix] + unzigzag(readVarint())) * quantum;
+            }
+        }
+
+        private byte readByte() {
+            if (position >= end) {
+                throw new IllegalArgumentException("Truncated frame");
+            }
+            return data[position++];
+        }
+
+        private int readVarint() {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (readByte() & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        /**
+         * The number of the most recently applied frame, or -1.
+         *
+         * @return The frame number
+         */
+        public int frame() {
+            return frame;
+        }
+
+        /**
+         * Whether a keyframe has been applied, so delta frames can be.
+         *
+         * @return true if a keyframe has been seen
+         */
+        public boolean hasKeyframe() {
+            return keyframe >= 0;
+        }
+
+        public double x(int ix) {
+            return xs[ix];
+        }
+
+        public double y(int ix) {
+            return ys[ix];
+        }
+
+        /**
+         * The decoded x coordinates, which are updated in place by each
+         * frame.
+         *
+         * @return The array
+         */
+        public double[] xs() {
+            return xs;
+        }
+
+        /**
+         * The decoded y coordinates, which are updated in place by each
+         * frame.
+         *
+         * @return The array
+         */
+        public double[] ys() {
+            return ys;
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,264 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.util.Arrays;
+
+/**
+ * A point-region quadtree over the parallel position arrays of a
+ * ForceDirected, used to find the nodes within the repulsion horizon of each
+ * node without testing every pair.
+ * All storage is in flat primitive arrays which are reused across calls to
+ * <code>build()</code>, so rebuilding it every tick does not allocate once it
+ * has grown to the size of the graph.
+ *
+ * @author Tim Boudreau
+ */
+final class QuadTree {
+
+    private static final int LEAF_CAPACITY = 8;
+    private static final int MAX_DEPTH = 24;
+    private static final int NONE = -1;
+    // Four child slots per cell, NONE for absent children; a cell with no
+    // children is a leaf whose points are chained through next[]
+    private int[] children = new int[0];
+    private double[] minX = new double[0];
+    private double[] minY = new double[0];
+    private double[] extent = new double[0];
+    private int[] mass = new int[0];
+    private int[] head = new int[0];
+    private boolean[] leaf = new boolean[0];
+    private int[] next = new int[0];
+    private int[] stack = newStack();
+    private int cellCount;
+    private double[] xs;
+    private double[] ys;
+
+    interface Visitor {
+
+        /**
+         * Called for a node close enough to the point being visited that the
+         * interaction must be computed.
+         *
+         * @param node The node index
+         */
+        void near(int node);
+    }
+
+    static int[] newStack() {
+        return new int[64];
+    }
+
+    int cellCount() {
+        return cellCount;
+    }
+
+    void build(double[] xs, double[] ys, int size) {
+        this.xs = xs;
+        this.ys = ys;
+        cellCount = 0;
+        if (next.length < size) {
+            next = new int[size];
+        }
+        double loX = Double.MAX_VALUE;
+        double loY = Double.MAX_VALUE;
+        double hiX = -Double.MAX_VALUE;
+        double hiY = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            if (Double.isFinite(x) && Double.isFinite(y)) {
+                loX = Math.min(loX, x);
+                loY = Math.min(loY, y);
+                hiX = Math.max(hiX, x);
+                hiY = Math.max(hiY, y);
+            }
+        }
+        if (loX > hiX) {
+            // No finite points at all
+            newCell(0, 0, 1);
+            return;
+        }
+        // Square root cell, padded slightly so points on the max edge
+        // fall inside it
+        double ext = Math.max(hiX - loX, hiY - loY) + 1;
+        newCell(loX, loY, ext);
+        for (int i = 0; i < size; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            if (Double.isFinite(x) && Double.isFinite(y)) {
+                insert(0, 0, i, x, y);
+            }
+        }
+    }
+
+    private void insert(int cell, int depth, int point, double x, double y) {
+        for (;;) {
+            mass[cell]++;
+            if (leaf[cell]) {
+                next[point] = head[cell];
+                head[cell] = point;
+                if (mass[cell] > LEAF_CAPACITY && depth < MAX_DEPTH) {
+                    split(cell, depth);
+                }
+                return;
+            }
+            cell = childFor(cell, x, y);
+            depth++;
+        }
+    }
+
+    private void split(int cell, int depth) {
+        int pt = head[cell];
+        head[cell] = NONE;
+        leaf[cell] = false;
+        while (pt != NONE) {
+            int nxt = next[pt];
+            double x = xs[pt];
+            double y = ys[pt];
+            insert(childFor(cell, x, y), depth + 1, pt, x, y);
+            pt = nxt;
+        }
+    }
+
+    private int childFor(int cell, double x, double y) {
+        double half = extent[cell] / 2D;
+        int quadrant = 0;
+        double cx = minX[cell];
+        double cy = minY[cell];
+        if (x >= cx + half) {
+            quadrant |= 1;
+            cx += half;
+        }
+        if (y >= cy + half) {
+            quadrant |= 2;
+            cy += half;
+        }
+        int slot = cell * 4 + quadrant;
+        int child = children[slot];
+        if (child == NONE) {
+            child = newCell(cx, cy, half);
+            // newCell may have reallocated the array
+            children[slot] = child;
+        }
+        return child;
+    }
+
+    private int newCell(double x, double y, double ext) {
+        int ix = cellCount++;
+        if (ix >= mass.length) {
+            grow(Math.max(64, mass.length * 2));
+        }
+        minX[ix] = x;
+        minY[ix] = y;
+        extent[ix] = ext;
+        mass[ix] = 0;
+        head[ix] = NONE;
+        leaf[ix] = true;
+        Arrays.fill(children, ix * 4, ix * 4 + 4, NONE);
+        return ix;
+    }
+
+    private void grow(int cells) {
+        children = Arrays.copyOf(children, cells * 4);
+        minX = Arrays.copyOf(minX, cells);
+        minY = Arrays.copyOf(minY, cells);
+        extent = Arrays.copyOf(extent, cells);
+        mass = Arrays.copyOf(mass, cells);
+        head = Arrays.copyOf(head, cells);
+        leaf = Arrays.copyOf(leaf, cells);
+    }
+
+    /**
+     * Visit the tree from the point of view of a node at px,py. Nodes within
+     * <code>horizon</code> are passed individually to the visitor's
+     * <code>near()</code> method (including the node at px,py itself, if it is
+     * in the tree); cells which lie entirely beyond the horizon are not
+     * opened.
+     *
+     * @param px The x coordinate
+     * @param py The y coordinate
+     * @param horizon The distance within which nodes interact
+     * @param visitor The visitor
+     */
+    void visit(double px, double py, double horizon, Visitor visitor) {
+        stack = visit(px, py, horizon, visitor, stack);
+    }
+
+    /**
+     * Visit the tree using the passed traversal stack rather than the one
+     * owned by the tree. Visiting does not modify the tree, so any number of
+     * threads may visit it concurrently, each with its own stack, as long as
+     * nothing rebuilds it meanwhile.
+     *
+     * @param px The x coordinate
+     * @param py The y coordinate
+     * @param horizon The distance within which nodes interact
+     * @param visitor The visitor
+     * @param stack A stack array, which may be grown
+     * @return The stack array, to pass to the next call
+     */
+    int[] visit(double px, double py, double horizon, Visitor visitor, int[] stack) {
+        if (cellCount == 0) {
+            return stack;
+        }
+        double horizonSquared = horizon * horizon;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            if (mass[cell] == 0) {
+                continue;
+            }
+            double ext = extent[cell];
+            double boxDx = Math.max(0, Math.max(minX[cell] - px, px - (minX[cell] + ext)));
+            double boxDy = Math.max(0, Math.max(minY[cell] - py, py - (minY[cell] + ext)));
+            if (boxDx * boxDx + boxDy * boxDy > horizonSquared) {
+                continue;
+            }
+            if (leaf[cell]) {
+                for (int pt = head[cell]; pt != NONE; pt = next[pt]) {
+                    double dx = xs[pt] - px;
+                    double dy = ys[pt] - py;
+                    if (dx * dx + dy * dy <= horizonSquared) {
+                        visitor.near(pt);
+                    }
+                }
+                continue;
+            }
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            for (int q = 0; q < 4; q++) {
+                int child = children[cell * 4 + q];
+                if (child != NONE) {
+                    stack[top++] = child;
+                }
+            }
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,475 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for the pairwise relatedness scores of a ForceDirected. Only
+ * related pairs are stored in the sparse forms; everything else reads as the
+ * constant <code>unrelated()</code>.
+ *
+ * @author Tim Boudreau
+ */
+interface Relatedness {
+
+    double get(int a, int b);
+
+    /**
+     * The value returned for pairs with no stored score.
+     *
+     * @return The fallback value
+     */
+    double unrelated();
+
+    /**
+     * The number of stored scores in a row.
+     *
+     * @param row The row
+     * @return The count
+     */
+    int rowLength(int row);
+
+    /**
+     * The column of the nth stored score in a row.
+     *
+     * @param row The row
+     * @param n The index within the row
+     * @return A node index
+     */
+    int column(int row, int n);
+
+    /**
+     * The nth stored score in a row.
+     *
+     * @param row The row
+     * @param n The index within the row
+     * @return The score
+     */
+    double value(int row, int n);
+
+    /**
+     * The minimum relatedness of any pair of distinct nodes, including
+     * unrelated ones.
+     *
+     * @return The minimum
+     */
+    double min();
+
+    /**
+     * The maximum relatedness of any pair of distinct nodes, including
+     * unrelated ones.
+     *
+     * @return The maximum
+     */
+    double max();
+
+    /**
+     * Approximate heap used by the scores.
+     *
+     * @return A number of bytes
+     */
+    long bytes();
+
+    static Builder builder(int size, ForceDirected.RelatednessStorage storage) {
+        return new Builder(size, storage);
+    }
+
+    /**
+     * Collects rows, possibly from several threads at once, and compacts them
+     * into the requested storage.
+     */
+    final class Builder implements BfsRelatedness.RowConsumer {
+
+        private final int size;
+        private final ForceDirected.RelatednessStorage storage;
+        private final int[][] columns;
+        private final float[][] values;
+        private final double[][] dense;
+
+        Builder(int size, ForceDirected.RelatednessStorage storage) {
+            this.size = size;
+            this.storage = storage;
+            if (storage == ForceDirected.RelatednessStorage.DENSE) {
+                dense = new double[size][size];
+                columns = null;
+                values = null;
+            } else {
+                dense = null;
+                columns = new int[size][];
+                values = new float[size][];
+            }
+        }
+
+        @Override
+        public void row(int source, int[] targets, double[] scores, int count) {
+            if (dense != null) {
+                double[] row = dense[source];
+                for (int i = 0; i < count; i++) {
+                    row[targets[i]] = scores[i];
+                }
+                return;
+            }
+            // Sort by column, packing the float bits alongside so one
+            // primitive sort does it
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((long) targets[i] << 32)
+                        | (Float.floatToRawIntBits((float) scores[i]) & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed);
+            int[] cols = new int[count];
+            float[] vals = new float[count];
+            for (int i = 0; i < count; i++) {
+                cols[i] = (int) (packed[i] >>> 32);
+                vals[i] = Float.intBitsToFloat((int) packed[i]);
+            }
+            columns[source] = cols;
+            values[source] = vals;
+        }
+
+        Relatedness build() {
+            if (dense != null) {
+                return new Dense(dense);
+            }
+            int[] offsets = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] = offsets[i] + (columns[i] == null ? 0 : columns[i].length);
+            }
+            int total = offsets[size];
+            int[] cols = new int[total];
+            float[] vals = new float[total];
+            float max = 0;
+            boolean anyUnrelated = false;
+            float minStored = Float.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                int[] c = columns[i];
+                if (c == null) {
+                    anyUnrelated |= size > 1;
+                    continue;
+                }
+                anyUnrelated |= c.length < size - 1;
+                System.arraycopy(c, 0, cols, offsets[i], c.length);
+                System.arraycopy(values[i], 0, vals, offsets[i], c.length);
+                for (float v : values[i]) {
+                    max = Math.max(max, v);
+                    minStored = Math.min(minStored, v);
+                }
+                columns[i] = null;
+                values[i] = null;
+            }
+            double min = anyUnrelated || total == 0 ? 0 : minStored;
+            switch (storage) {
+                case SPARSE_16_BIT:
+                    return new Quantized16(offsets, cols, vals, min, max);
+                case SPARSE_8_BIT:
+                    return new Quantized8(offsets, cols, vals, min, max);
+                default:
+                    return new Floats(offsets, cols, vals, min, max);
+            }
+        }
+    }
+
+    /**
+     * The original n * n matrix, for small graphs.
+     */
+    final class Dense implements Relatedness {
+
+        private final double[][] matrix;
+        private final double min;
+        private final double max;
+
+        Dense(double[][] matrix) {
+            this.matrix = matrix;
+            double mn = Double.MAX_VALUE;
+            double mx = Double.MIN_VALUE;
+            for (int i = 0; i < matrix.length; i++) {
+                for (int j = 0; j < matrix.length; j++) {
+                    if (i != j) {
+                        mn = Math.min(mn, matrix[i][j]);
+                        mx = Math.max(mx, matrix[i][j]);
+                    }
+                }
+            }
+            this.min = mn;
+            this.max = mx;
+        }
+
+        @Override
+        public double get(int a, int b) {
+            return matrix[a][b];
+        }
+
+        @Override
+        public double unrelated() {
+            return 0;
+        }
+
+        @Override
+        public int rowLength(int row) {
+            return matrix.length;
+        }
+
+        @Override
+        public int column(int row, int n) {
+            return n;
+        }
+
+        @Override
+        public double value(int row, int n) {
+            return matrix[row][n];
+        }
+
+        @Override
+        public double min() {
+            return min;
+        }
+
+        @Override
+        public double max() {
+            return max;
+        }
+
+        @Override
+        public long bytes() {
+            return 8L * matrix.length * matrix.length;
+        }
+    }
+
+    /**
+     * Compressed sparse rows, with columns sorted within each row so lookups
+     * are a binary search.
+     */
+    abstract class Sparse implements Relatedness {
+
+        final int[] offsets;
+        final int[] columns;
+        private final double min;
+        private final double max;
+
+        Sparse(int[] offsets, int[] columns, double min, double max) {
+            this.offsets = offsets;
+            this.columns = columns;
+            this.min = min;
+            this.max = max;
+        }
+
+        abstract double valueAt(int index);
+
+        @Override
+        public final double get(int a, int b) {
+            int ix = Arrays.binarySearch(columns, offsets[a], offsets[a + 1], b);
+            return ix < 0 ? unrelated() : valueAt(ix);
+        }
+
+        @Override
+        public double unrelated() {
+            return 0;
+        }
+
+        @Override
+        public final int rowLength(int row) {
+            return offsets[row + 1] - offsets[row];
+        }
+
+        @Override
+        public final int column(int row, int n) {
+            return columns[offsets[row] + n];
+        }
+
+        @Override
+        public final double value(int row, int n) {
+            return valueAt(offsets[row] + n);
+        }
+
+        @Override
+        public final double min() {
+            return min;
+        }
+
+        @Override
+        public final double max() {
+            return max;
+        }
+
+        long indexBytes() {
+            return 4L * (offsets.length + columns.length);
+        }
+    }
+
+    final class Floats extends Sparse {
+
+        private final float[] values;
+
+        Floats(int[] offsets, int[] columns, float[] values, double min, double max) {
+            super(offsets, columns, min, max);
+            this.values = values;
+        }
+
+        @Override
+        double valueAt(int index) {
+            return values[index];
+        }
+
+        @Override
+        public long bytes() {
+            return indexBytes() + 4L * values.length;
+        }
+    }
+
+    /**
+     * Scores quantized to 65536 levels between zero and the maximum score.
+     */
+    final class Quantized16 extends Sparse {
+
+        private final short[] values;
+        private final double scale;
+
+        Quantized16(int[] offsets, int[] columns, float[] raw, double min, double max) {
+            super(offsets, columns, min, max);
+            scale = max <= 0 ? 1 : max / 0xFFFF;
+            values = new short[raw.length];
+            for (int i = 0; i < raw.length; i++) {
+                values[i] = (short) Math.round(raw[i] / scale);
+            }
+        }
+
+        @Override
+        double valueAt(int index) {
+            return (values[index] & 0xFFFF) * scale;
+        }
+
+        @Override
+        public long bytes() {
+            return indexBytes() + 2L * values.length;
+        }
+    }
+
+    /**
+     * Scores quantized to 256 levels between zero and the maximum score.
+     */
+    final class Quantized8 extends Sparse {
+
+        private final byte[] values;
+        private final double scale;
+
+        Quantized8(int[] offsets, int[] columns, float[] raw, double min, double max) {
+            super(offsets, columns, min, max);
+            scale = max <= 0 ? 1 : max / 0xFF;
+            values = new byte[raw.length];
+            for (int i = 0; i < raw.length; i++) {
+                values[i] = (byte) Math.round(raw[i] / scale);
+            }
+        }
+
+        @Override
+        double valueAt(int index) {
+            return (values[index] & 0xFF) * scale;
+        }
+
+        @Override
+        public long bytes() {
+            return indexBytes() + values.length;
+        }
+    }
+
+    /**
+     * Compressed sparse rows of floats read in place from a memory-mapped
+     * {@link GraphFile}, so reopening a saved layout neither recomputes nor
+     * copies them. They take no heap.
+     */
+    final class Mapped implements Relatedness {
+
+        private final IntBuffer offsets;
+        private final IntBuffer columns;
+        private final FloatBuffer values;
+        private final double min;
+        private final double max;
+
+        Mapped(IntBuffer offsets, IntBuffer columns, FloatBuffer values, double min, double max) {
+            this.offsets = offsets;
+            this.columns = columns;
+            this.values = values;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double get(int a, int b) {
+            int lo = offsets.get(a);
+            int hi = offsets.get(a + 1) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int col = columns.get(mid);
+                if (col < b) {
+                    lo = mid + 1;
+                } else if (col > b) {
+                    hi = mid - 1;
+                } else {
+                    return values.get(mid);
+                }
+            }
+            return unrelated();
+        }
+
+        @Override
+        public double unrelated() {
+            return 0;
+        }
+
+        @Override
+        public int rowLength(int row) {
+            return offsets.get(row + 1) - offsets.get(row);
+        }
+
+        @Override
+        public int column(int row, int n) {
+            return columns.get(offsets.get(row) + n);
+        }
+
+        @Override
+        public double value(int row, int n) {
+            return values.get(offsets.get(row) + n);
+        }
+
+        @Override
+        public double min() {
+            return min;
+        }
+
+        @Override
+        public double max() {
+            return max;
+        }
+
+        @Override
+        public long bytes() {
+            return 0;
+        }
+    }
+}
@@ -44,6 +44,10 @@ class RotationalForce implements Force {
         this.threshold = threshold;
     }
 
+    void setCenter(double x, double y) {
+        circle.setCenter(x, y);
+    }
+
     @Override
     public void accept(double a, double b, DoubleBiConsumer transformed) {
         double dist = circle.distanceToCenter(a, b);
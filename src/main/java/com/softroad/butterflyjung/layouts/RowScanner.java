@@ -0,0 +1,149 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+/**
+ * Walks, in ascending order, the nodes which can affect one node in an
+ * exact-mode tick: those the DistanceScan finds within its interaction
+ * horizon, merged with up to two sorted lists of nodes whose influence does
+ * not depend on distance (leaves, singletons, related nodes). Every other
+ * pair is a no-op in ForceKernel, so skipping them gives the same result as
+ * visiting every pair.
+ * <p>
+ * The node moves as the pairs it is part of are applied, so the scan uses a
+ * margin beyond the horizon, and the remainder of the row is rescanned from
+ * the node's new position if it drifts more than half the margin from where
+ * the last scan was done.
+ * </p>
+ * Not thread-safe; use one per thread.
+ *
+ * @author Tim Boudreau
+ */
+final class RowScanner {
+
+    static final double MARGIN = 16;
+    private final DistanceScan scan = DistanceScan.get();
+    private final int[] found;
+    private int foundCount;
+    private int foundCursor;
+    private int[] first;
+    private int firstCursor;
+    private int[] second;
+    private int secondCursor;
+    private double[] xs;
+    private double[] ys;
+    private final int size;
+    private double horizon;
+    private double originX;
+    private double originY;
+    private int last;
+
+    RowScanner(int size) {
+        this.size = size;
+        found = new int[size];
+    }
+
+    /**
+     * Start a row.
+     *
+     * @param x The node's x coordinate
+     * @param y The node's y coordinate
+     * @param horizon The distance beyond which nothing but the passed
+     * lists can affect it
+     * @param xs The x coordinates to scan
+     * @param ys The y coordinates to scan
+     * @param first A sorted list of nodes to include regardless of
+     * distance, or null
+     * @param second Another, or null
+     */
+    void start(double x, double y, double horizon, double[] xs, double[] ys,
+            int[] first, int[] second) {
+        this.xs = xs;
+        this.ys = ys;
+        this.horizon = horizon;
+        this.first = first;
+        this.second = second;
+        firstCursor = 0;
+        secondCursor = 0;
+        last = -1;
+        rescan(x, y, 0);
+    }
+
+    private void rescan(double x, double y, int from) {
+        originX = x;
+        originY = y;
+        foundCursor = 0;
+        foundCount = scan.scan(xs, ys, from, size, x, y, horizon + MARGIN, found);
+    }
+
+    /**
+     * Get the next node, or -1 if the row is finished.
+     *
+     * @return A node index
+     */
+    int next() {
+        int result = Integer.MAX_VALUE;
+        if (foundCursor < foundCount) {
+            result = found[foundCursor];
+        }
+        if (first != null && firstCursor < first.length) {
+            result = Math.min(result, first[firstCursor]);
+        }
+        if (second != null && secondCursor < second.length) {
+            result = Math.min(result, second[secondCursor]);
+        }
+        if (result == Integer.MAX_VALUE) {
+            return -1;
+        }
+        if (foundCursor < foundCount && found[foundCursor] == result) {
+            foundCursor++;
+        }
+        if (first != null && firstCursor < first.length && first[firstCursor] == result) {
+            firstCursor++;
+        }
+        if (second != null && secondCursor < second.length && second[secondCursor] == result) {
+            secondCursor++;
+        }
+        last = result;
+        return result;
+    }
+
+    /**
+     * Report the node's position after applying a pair; rescans the rest of
+     * the row if it has drifted too far.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     */
+    void moved(double x, double y) {
+        double dx = x - originX;
+        double dy = y - originY;
+        double limit = MARGIN / 2;
+        if (dx * dx + dy * dy >= limit * limit || Double.isNaN(dx) || Double.isNaN(dy)) {
+            rescan(x, y, last + 1);
+        }
+    }
+}
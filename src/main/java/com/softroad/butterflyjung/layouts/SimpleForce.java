@@ -48,6 +48,10 @@ class SimpleForce implements Force {
         this.strength = strength;
     }
 
+    void setCenter(double x, double y) {
+        circle.setCenter(x, y);
+    }
+
     @Override
     public void accept(double a, double b, DoubleBiConsumer transformed) {
         double angle = circle.angleOf(a, b);
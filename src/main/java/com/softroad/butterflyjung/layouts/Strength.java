@@ -25,8 +25,6 @@
  */
 package com.softroad.butterflyjung.layouts;
 
-import com.mastfrog.geometry.Circle;
-
 import static java.lang.Math.log;
 
 /**
@@ -53,69 +51,54 @@ interface Strength {
     }
 
     default Strength logarithmic() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return Math.log(this.computeStrength(centerX, centerY, x, y, distance));
-        };
+        return new Derived(this, Derived.Op.LOG, 0);
     }
 
     default Strength cuberoot() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return Math.cbrt(this.computeStrength(centerX, centerY, x, y, distance));
-        };
+        return new Derived(this, Derived.Op.CBRT, 0);
     }
 
     default Strength squareroot() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return Math.cbrt(this.computeStrength(centerX, centerY, x, y, distance));
-        };
+        // Has always computed a cube root; DampingFieldForce is tuned to it
+        return new Derived(this, Derived.Op.CBRT, 0);
     }
 
     default Strength sin() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return Math.sin(this.computeStrength(centerX, centerY, x, y, distance));
-        };
+        return new Derived(this, Derived.Op.SIN, 0);
     }
 
     default Strength cos() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return Math.sin(this.computeStrength(centerX, centerY, x, y, distance));
-        };
+        // Has always computed a sine
+        return new Derived(this, Derived.Op.SIN, 0);
     }
 
     static Strength fixed(double val) {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return val;
-        };
+        return new Fixed(val);
     }
 
     default Strength internal() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            if (new Circle(centerX, centerY).distanceToCenter(x, y) < distance) {
-                return Strength.this.computeStrength(centerX, centerY, x, y, distance);
-            } else {
-                return 0;
-            }
-        };
+        return new Derived(this, Derived.Op.INTERNAL, 0);
     }
 
     default Strength external() {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            if (new Circle(centerX, centerY).distanceToCenter(x, y) >= distance) {
-                return Strength.this.computeStrength(centerX, centerY, x, y, distance);
-            } else {
-                return 0;
-            }
-        };
+        return new Derived(this, Derived.Op.EXTERNAL, 0);
     }
 
-    static Strength LOG = (double centerX, double centerY, double x, double y, double distance) -> {
-        return log(distance);
-    };
+    static Strength LOG = new LogDistance();
 
     default Strength dividedInto(double d) {
-        return (double centerX, double centerY, double x, double y, double distance) -> {
-            return d / Strength.this.computeStrength(centerX, centerY, x, y, distance);
-        };
+        return new Derived(this, Derived.Op.DIVIDED_INTO, d);
+    }
+
+    /**
+     * Normalize this strength and whatever it is composed from into a
+     * single flat evaluator, which computes the same values without a chain
+     * of interface calls.
+     *
+     * @return A strength
+     */
+    default Strength compile() {
+        return FlatStrength.compile(this);
     }
 
     public static class Multiplier implements Strength {
@@ -128,29 +111,27 @@ interface Strength {
             this.multiplyBy = multiplyBy;
         }
 
+        Strength original() {
+            return orig;
+        }
+
+        double multiplyBy() {
+            return multiplyBy;
+        }
+
         @Override
         public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
             return multiplyBy * orig.computeStrength(centerX, centerY, x, y, distance);
         }
     }
-    public static final Strength NO_DROPOFF = new Strength() {
-        @Override
-        public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
-            return 1D;
-        }
-    };
+    public static final Strength NO_DROPOFF = new Fixed(1D);
 
     public static Strength inverseSquareScaled(double multiplier) {
         return new InverseSquareLaw(multiplier);
     }
 
     public static Strength negate(final Strength strength) {
-        return new Strength() {
-            @Override
-            public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
-                return strength.computeStrength(centerX, centerY, x, y, distance) * -1;
-            }
-        };
+        return new Derived(strength, Derived.Op.NEGATE, 0);
     }
 
     public static class Linear implements Strength {
@@ -173,6 +154,10 @@ interface Strength {
             this(1D);
         }
 
+        double multiplier() {
+            return multiplier;
+        }
+
         @Override
         public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
             distance = Math.max(distance, 1);
@@ -183,15 +168,143 @@ interface Strength {
     }
 
     public static Strength bounded(final Strength strength, final double maxDistance) {
-        return new Strength() {
-            @Override
-            public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
-                if (distance > maxDistance) {
-                    return 0;
-                }
-                return strength.computeStrength(centerX, centerY, x, y, distance);
-            }
-        };
+        return new Derived(strength, Derived.Op.BOUND, maxDistance);
+    }
+
+    /**
+     * A strength which is the same regardless of its arguments.
+     */
+    public static final class Fixed implements Strength {
+
+        private final double value;
+
+        Fixed(double value) {
+            this.value = value;
+        }
+
+        double value() {
+            return value;
+        }
+
+        @Override
+        public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
+            return value;
+        }
     }
 
+    /**
+     * The natural log of the distance.
+     */
+    public static final class LogDistance implements Strength {
+
+        @Override
+        public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
+            return log(distance);
+        }
+    }
+
+    /**
+     * A strength derived from another by applying a function to its result,
+     * or by only computing it under some condition and returning zero
+     * otherwise.
+     */
+    public static final class Derived implements Strength {
+
+        enum Op {
+            /**
+             * Multiply by -1.
+             */
+            NEGATE,
+            LOG,
+            CBRT,
+            SIN,
+            /**
+             * Divide the argument by the value.
+             */
+            DIVIDED_INTO,
+            /**
+             * Zero if the distance is greater than the argument.
+             */
+            BOUND,
+            /**
+             * Zero unless the point is closer to the center than the
+             * distance.
+             */
+            INTERNAL,
+            /**
+             * Zero if the point is closer to the center than the distance.
+             */
+            EXTERNAL;
+
+            boolean isGuard() {
+                return this == BOUND || this == INTERNAL || this == EXTERNAL;
+            }
+        }
+
+        private final Strength source;
+        private final Op op;
+        private final double argument;
+
+        Derived(Strength source, Op op, double argument) {
+            this.source = source;
+            this.op = op;
+            this.argument = argument;
+        }
+
+        Strength source() {
+            return source;
+        }
+
+        Op op() {
+            return op;
+        }
+
+        double argument() {
+            return argument;
+        }
+
+        static double distanceToCenter(double centerX, double centerY, double x, double y) {
+            double dx = x - centerX;
+            double dy = y - centerY;
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+
+        @Override
+        public double computeStrength(double centerX, double centerY, double x, double y, double distance) {
+            switch (op) {
+                case BOUND:
+                    if (distance > argument) {
+                        return 0;
+                    }
+                    break;
+                case INTERNAL:
+                    if (!(distanceToCenter(centerX, centerY, x, y) < distance)) {
+                        return 0;
+                    }
+                    break;
+                case EXTERNAL:
+                    if (!(distanceToCenter(centerX, centerY, x, y) >= distance)) {
+                        return 0;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            double value = source.computeStrength(centerX, centerY, x, y, distance);
+            switch (op) {
+                case NEGATE:
+                    return value * -1;
+                case LOG:
+                    return Math.log(value);
+                case CBRT:
+                    return Math.cbrt(value);
+                case SIN:
+                    return Math.sin(value);
+                case DIVIDED_INTO:
+                    return argument / value;
+                default:
+                    return value;
+            }
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DistanceScan using the widest vectors the hardware supports - four doubles
+ * per instruction with AVX2. Only loaded reflectively, by
+ * <code>DistanceScan.get()</code>, so that nothing else links against the
+ * incubator module, and compiled separately for the same reason.
+ *
+ * @author Tim Boudreau
+ */
+final class VectorDistanceScan extends DistanceScan {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    int scan(double[] xs, double[] ys, int from, int to, double px, double py,
+            double radius, int[] out) {
+        double radiusSquared = radius * radius;
+        int count = 0;
+        int j = from;
+        int upper = from + DOUBLES.loopBound(to - from);
+        for (; j < upper; j += DOUBLES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(DOUBLES, xs, j).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(DOUBLES, ys, j).sub(py);
+            long hits = dx.mul(dx).add(dy.mul(dy))
+                    .compare(VectorOperators.LT, radiusSquared).toLong();
+            while (hits != 0) {
+                out[count++] = j + Long.numberOfTrailingZeros(hits);
+                hits &= hits - 1;
+            }
+        }
+        for (; j < to; j++) {
+            double dx = xs[j] - px;
+            double dy = ys[j] - py;
+            if (dx * dx + dy * dy < radiusSquared) {
+                out[count++] = j;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,250 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.IntGraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Carries what can be kept over from a ForceDirected to one for an edited
+ * version of its graph: positions of surviving nodes, and relatedness rows
+ * which the edit cannot have changed.
+ * <p>
+ * A node's relatedness row only depends on the paths of at most the
+ * relatedness depth leading out from it, so rows need recomputing only for
+ * nodes within that depth of a node whose edges changed, in either the old
+ * or the new graph; everything else is copied with its columns renumbered.
+ * Quantized storage re-quantizes copied rows against the new range, so
+ * copied scores may differ from the originals in their last bit.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class WarmStart {
+
+    /**
+     * How far from the centroid of its neighbors a new node is placed, so
+     * that several new leaves of one node do not start on top of each other.
+     */
+    private static final double NEW_NODE_SPREAD = 30;
+    private final ForceDirected previous;
+    private final IntGraph graph;
+    private final int[] previousIndices;
+    private final int[] currentIndices;
+    private final BitSet changed;
+
+    WarmStart(ForceDirected previous, IntGraph graph, int[] previousIndices) {
+        this.previous = previous;
+        this.graph = graph;
+        this.previousIndices = previousIndices;
+        currentIndices = new int[previous.size];
+        Arrays.fill(currentIndices, -1);
+        for (int i = 0; i < previousIndices.length; i++) {
+            int p = previousIndices[i];
+            if (p >= 0) {
+                if (p >= previous.size || currentIndices[p] >= 0) {
+                    throw new IllegalArgumentException("Bad or duplicate previous index "
+                            + p + " for " + i);
+                }
+                currentIndices[p] = i;
+            }
+        }
+        changed = findChanged();
+    }
+
+    /**
+     * The nodes of the new graph which are new, or whose parents or children
+     * differ from those they had in the old one.
+     */
+    BitSet changed() {
+        return changed;
+    }
+
+    private BitSet findChanged() {
+        BitSet result = new BitSet(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            int p = previousIndices[i];
+            if (p < 0 || !sameEdges(graph.children(i), previous.graph.children(p))
+                    || !sameEdges(graph.parents(i), previous.graph.parents(p))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private boolean sameEdges(Bits current, Bits old) {
+        if (current.cardinality() != old.cardinality()) {
+            return false;
+        }
+        for (int j = current.nextSetBit(0); j >= 0; j = current.nextSetBit(j + 1)) {
+            int p = previousIndices[j];
+            if (p < 0 || !old.get(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the positions of surviving nodes, and place new ones at the
+     * centroid of their placed neighbors - repeatedly, so chains of new nodes
+     * grow outward from the existing layout. New nodes with no path to an old
+     * one are scattered within the old layout's bounds.
+     */
+    void positions(double[] xs, double[] ys) {
+        int size = graph.size();
+        BitSet placed = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            int p = previousIndices[i];
+            if (p >= 0) {
+                xs[i] = previous.xs[p];
+                ys[i] = previous.ys[p];
+                placed.set(i);
+            }
+        }
+        BitSet pending = new BitSet(size);
+        pending.set(0, size);
+        pending.andNot(placed);
+        boolean progress = true;
+        while (progress && !pending.isEmpty()) {
+            progress = false;
+            for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+                Bits nb = graph.neighbors(i);
+                double x = 0;
+                double y = 0;
+                int count = 0;
+                for (int j = nb.nextSetBit(0); j >= 0; j = nb.nextSetBit(j + 1)) {
+                    if (placed.get(j)) {
+                        x += xs[j];
+                        y += ys[j];
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    xs[i] = x / count + jitter();
+                    ys[i] = y / count + jitter();
+                    placed.set(i);
+                    pending.clear(i);
+                    progress = true;
+                }
+            }
+        }
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int p = 0; p < previous.size; p++) {
+            minX = Math.min(minX, previous.xs[p]);
+            maxX = Math.max(maxX, previous.xs[p]);
+            minY = Math.min(minY, previous.ys[p]);
+            maxY = Math.max(maxY, previous.ys[p]);
+        }
+        if (previous.size == 0) {
+            minX = minY = 0;
+            maxX = previous.maxX;
+            maxY = previous.maxY;
+        }
+        for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+            xs[i] = minX + previous.random.nextDouble() * (maxX - minX);
+            ys[i] = minY + previous.random.nextDouble() * (maxY - minY);
+        }
+    }
+
+    private double jitter() {
+        return (previous.random.nextDouble() * 2 - 1) * NEW_NODE_SPREAD;
+    }
+
+    Relatedness relatedness(int depth, ForceDirected.RelatednessStorage storage) {
+        Adjacency adjacency = Adjacency.of(graph);
+        BitSet stale = within(adjacency, changed, depth);
+        BitSet oldChanged = new BitSet(previous.size);
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            if (previousIndices[i] >= 0) {
+                oldChanged.set(previousIndices[i]);
+            }
+        }
+        BitSet oldStale = within(Adjacency.of(previous.graph), oldChanged, depth);
+        for (int p = oldStale.nextSetBit(0); p >= 0; p = oldStale.nextSetBit(p + 1)) {
+            if (currentIndices[p] >= 0) {
+                stale.set(currentIndices[p]);
+            }
+        }
+        Relatedness.Builder builder = Relatedness.builder(graph.size(), storage);
+        new BfsRelatedness(adjacency, depth, previous.pool())
+                .compute(stale.stream().toArray(), builder);
+        Relatedness old = previous.relatedness;
+        int[] targets = new int[16];
+        double[] scores = new double[16];
+        for (int i = stale.nextClearBit(0); i < graph.size(); i = stale.nextClearBit(i + 1)) {
+            int p = previousIndices[i];
+            int length = old.rowLength(p);
+            if (length > targets.length) {
+                targets = new int[length];
+                scores = new double[length];
+            }
+            int count = 0;
+            for (int n = 0; n < length; n++) {
+                int column = currentIndices[old.column(p, n)];
+                double score = old.value(p, n);
+                if (column >= 0 && score != old.unrelated()) {
+                    targets[count] = column;
+                    scores[count++] = score;
+                }
+            }
+            builder.row(i, targets, scores, count);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The nodes within some number of edges of any of a set of nodes.
+     */
+    static BitSet within(Adjacency adjacency, BitSet seeds, int hops) {
+        BitSet result = (BitSet) seeds.clone();
+        int[] frontier = seeds.stream().toArray();
+        int[] next = new int[Math.max(16, frontier.length)];
+        for (int depth = 0; depth < hops && frontier.length > 0; depth++) {
+            int count = 0;
+            for (int node : frontier) {
+                for (int e = adjacency.start(node); e < adjacency.end(node); e++) {
+                    int nb = adjacency.target(e);
+                    if (!result.get(nb)) {
+                        result.set(nb);
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = nb;
+                    }
+                }
+            }
+            frontier = Arrays.copyOf(next, count);
+        }
+        return result;
+    }
+}
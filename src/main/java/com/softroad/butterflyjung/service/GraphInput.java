@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import com.softroad.butterflyjung.io.EdgeList;
+import com.softroad.butterflyjung.io.EdgeListLoader;
+import edu.uci.ics.jung.graph.DelegateForest;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Forest;
+import edu.uci.ics.jung.graph.Graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A graph submitted to the service, with node ids as vertices. Self-edges
+ * and duplicate edges are dropped, as the demo's file loader does.
+ *
+ * @author Tim Boudreau
+ */
+final class GraphInput {
+
+    /**
+     * Node ids are written to the binary format with writeUTF(), which
+     * cannot write more than 64K.
+     */
+    static final int MAX_ID_LENGTH = 1024;
+    private final Graph<String, String> graph = new DirectedSparseGraph<>();
+    private final Set<String> pairs = new HashSet<>();
+    private final int maxNodes;
+    private Forest<String, String> forest;
+
+    private GraphInput(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Build a graph from a node list and edges given as pairs of node ids.
+     * Nodes mentioned only in edges are added implicitly.
+     *
+     * @param nodes The nodes, which may be null
+     * @param edges The edges, each a list of two node ids
+     * @param maxNodes The largest graph accepted
+     * @return A graph
+     * @throws IllegalArgumentException if the input is malformed or too
+     * large
+     */
+    static GraphInput of(List<String> nodes, List<List<String>> edges, int maxNodes) {
+        GraphInput result = new GraphInput(maxNodes);
+        if (nodes != null) {
+            for (String node : nodes) {
+                result.addNode(node);
+            }
+        }
+        if (edges != null) {
+            for (List<String> edge : edges) {
+                if (edge == null || edge.size() != 2) {
+                    throw new IllegalArgumentException("Edges must be pairs of node ids: " + edge);
+                }
+                result.addEdge(edge.get(0), edge.get(1));
+            }
+        }
+        return result.check();
+    }
+
+    /**
+     * Parse an edge list in the format the demo application reads - one
+     * edge per line, as two whitespace-separated node ids, which may be
+     * quoted if they contain spaces. Lines starting with # are comments.
+     *
+     * @param edgeList The UTF-8 bytes of the edge list
+     * @param maxNodes The largest graph accepted
+     * @return A graph
+     * @throws IllegalArgumentException if the graph is too large
+     */
+    static GraphInput parse(byte[] edgeList, int maxNodes) {
+        EdgeList edges = new EdgeListLoader().maxNodes(maxNodes).load(ByteBuffer.wrap(edgeList));
+        GraphInput result = new GraphInput(maxNodes);
+        for (int i = 0; i < edges.size(); i++) {
+            result.addNode(edges.name(i));
+        }
+        for (int i = 0; i < edges.edgeCount(); i++) {
+            result.addEdge(edges.name(edges.source(i)), edges.name(edges.target(i)));
+        }
+        return result.check();
+    }
+
+    private GraphInput check() {
+        if (graph.getVertexCount() == 0) {
+            throw new IllegalArgumentException("Graph is empty");
+        }
+        return this;
+    }
+
+    private void addNode(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Empty node id");
+        }
+        if (id.length() > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Node id longer than " + MAX_ID_LENGTH
+                    + " characters: " + id.substring(0, 40) + "...");
+        }
+        if (!graph.containsVertex(id)) {
+            if (graph.getVertexCount() >= maxNodes) {
+                throw new IllegalArgumentException("Graph has more than " + maxNodes + " nodes");
+            }
+            graph.addVertex(id);
+        }
+    }
+
+    private void addEdge(String a, String b) {
+        addNode(a);
+        addNode(b);
+        if (a.equals(b)) {
+            return;
+        }
+        String key = a.compareTo(b) < 0 ? a + "::" + b : b + "::" + a;
+        if (pairs.add(key)) {
+            graph.addEdge(Integer.toString(graph.getEdgeCount()), a, b);
+        }
+    }
+
+    Graph<String, String> graph() {
+        return graph;
+    }
+
+    /**
+     * Determine if the graph has no directed cycles.
+     *
+     * @return true if it is acyclic
+     */
+    boolean isAcyclic() {
+        Map<String, Integer> inDegrees = new HashMap<>();
+        ArrayDeque<String> ready = new ArrayDeque<>();
+        for (String v : graph.getVertices()) {
+            int in = graph.getInEdges(v).size();
+            inDegrees.put(v, in);
+            if (in == 0) {
+                ready.add(v);
+            }
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            String v = ready.poll();
+            visited++;
+            for (String child : graph.getSuccessors(v)) {
+                if (inDegrees.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        return visited == graph.getVertexCount();
+    }
+
+    /**
+     * Get a spanning forest of the graph, for the tree layouts. Each tree is
+     * grown breadth-first, ignoring edge direction, from the first node
+     * without incoming edges which is not already in a tree, so acyclic
+     * graphs keep their natural roots.
+     *
+     * @return A forest
+     */
+    Forest<String, String> forest() {
+        if (forest == null) {
+            forest = spanningForest();
+        }
+        return forest;
+    }
+
+    private Forest<String, String> spanningForest() {
+        Forest<String, String> result = new DelegateForest<>();
+        List<String> roots = new ArrayList<>();
+        List<String> rest = new ArrayList<>();
+        for (String v : graph.getVertices()) {
+            (graph.getInEdges(v).isEmpty() ? roots : rest).add(v);
+        }
+        roots.addAll(rest);
+        Set<String> seen = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        for (String root : roots) {
+            if (!seen.add(root)) {
+                continue;
+            }
+            result.addVertex(root);
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                String v = queue.poll();
+                for (String edge : graph.getIncidentEdges(v)) {
+                    String other = graph.getOpposite(v, edge);
+                    if (seen.add(other)) {
+                        result.addEdge(edge, v, other);
+                        queue.add(other);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
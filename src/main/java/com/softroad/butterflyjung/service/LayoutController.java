@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HTTP endpoints for the layout service. A graph can be posted either as a
+ * JSON {@link LayoutRequest} or as a plain text edge list with the layout
+ * options as query parameters; positions come back as JSON, or in the
+ * binary form written by {@link LayoutResult#writeBinary} if the client
+ * accepts <code>application/octet-stream</code>. Posting to
+ * <code>/layout/stream</code> instead streams frames as server-sent events
+ * while the layout runs; see {@link LayoutStream}.
+ *
+ * @author Tim Boudreau
+ */
+@RestController
+@RequestMapping("/layout")
+public class LayoutController {
+
+    private final LayoutEngine engine;
+
+    public LayoutController(LayoutEngine engine) {
+        this.engine = engine;
+    }
+
+    @GetMapping(path = "/types", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<String> types() {
+        List<String> result = new ArrayList<>();
+        for (LayoutType type : LayoutType.values()) {
+            result.add(type.id());
+        }
+        return result;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public LayoutResult layout(@RequestBody LayoutRequest request)
+            throws TimeoutException, InterruptedException {
+        return engine.layout(request);
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_OCTET_STREAM_VALUE, LayoutResult.BINARY_CONTENT_TYPE})
+    public ResponseEntity<byte[]> layoutBinary(@RequestBody LayoutRequest request)
+            throws TimeoutException, InterruptedException, IOException {
+        return binary(engine.layout(request));
+    }
+
+    @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public LayoutResult layoutEdgeList(@RequestBody byte[] edgeList,
+            @RequestParam(name = "layout", required = false) String layout,
+            @RequestParam(name = "width", required = false) Integer width,
+            @RequestParam(name = "height", required = false) Integer height,
+            @RequestParam(name = "budget", required = false) Long budgetMillis)
+            throws TimeoutException, InterruptedException {
+        return engine.layout(edgeList, layout, width, height, budgetMillis);
+    }
+
+    @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE,
+            produces = {MediaType.APPLICATION_OCTET_STREAM_VALUE, LayoutResult.BINARY_CONTENT_TYPE})
+    public ResponseEntity<byte[]> layoutEdgeListBinary(@RequestBody byte[] edgeList,
+            @RequestParam(name = "layout", required = false) String layout,
+            @RequestParam(name = "width", required = false) Integer width,
+            @RequestParam(name = "height", required = false) Integer height,
+            @RequestParam(name = "budget", required = false) Long budgetMillis)
+            throws IOException, TimeoutException, InterruptedException {
+        return binary(engine.layout(edgeList, layout, width, height, budgetMillis));
+    }
+
+    @PostMapping(path = "/stream", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestBody LayoutRequest request,
+            @RequestParam(name = "fps", required = false) Integer framesPerSecond) {
+        return engine.stream(request, framesPerSecond);
+    }
+
+    @PostMapping(path = "/stream", consumes = MediaType.TEXT_PLAIN_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEdgeList(@RequestBody byte[] edgeList,
+            @RequestParam(name = "layout", required = false) String layout,
+            @RequestParam(name = "width", required = false) Integer width,
+            @RequestParam(name = "height", required = false) Integer height,
+            @RequestParam(name = "budget", required = false) Long budgetMillis,
+            @RequestParam(name = "fps", required = false) Integer framesPerSecond) {
+        return engine.stream(edgeList, layout, width, height,
+                budgetMillis, framesPerSecond);
+    }
+
+    private static ResponseEntity<byte[]> binary(LayoutResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + result.getNodeCount() * 24);
+        result.writeBinary(out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(out.toByteArray());
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import com.softroad.butterflyjung.layouts.ForceDir;
+import com.softroad.butterflyjung.layouts.LayoutSnapshot;
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs layouts for the service as jobs on a {@link LayoutJobScheduler},
+ * which decides when they run and turns them away with a
+ * {@link LayoutRejectedException} when it is too busy. Each layout
+ * runs until it finishes or its time budget runs out - ForceDir layouts
+ * through {@link ForceDir#layoutWithin(Duration)}, which keeps the best
+ * positions seen, and other iterative layouts by stepping them until the
+ * deadline. The positions are then scaled to fit the requested size.
+ * <p/>
+ * Every request is timed, tagged with the layout and its outcome
+ * (<code>ok</code>, <code>invalid</code>, <code>rejected</code>,
+ * <code>timeout</code> or <code>error</code>), under <code>butterfly.layout.requests</code>;
+ * streamed layouts likewise under <code>butterfly.layout.streams</code>, with
+ * the outcomes <code>converged</code>, <code>budget</code>,
+ * <code>cancelled</code>, <code>rejected</code> or <code>error</code>.
+ *
+ * @author Tim Boudreau
+ */
+@Service
+public class LayoutEngine {
+
+    private static final Logger LOG = Logger.getLogger(LayoutEngine.class.getName());
+    public static final int DEFAULT_WIDTH = 1024;
+    public static final int DEFAULT_HEIGHT = 768;
+    public static final int MAX_FRAMES_PER_SECOND = 60;
+    private static final int MAX_DIMENSION = 1 << 16;
+    private final LayoutServiceProperties properties;
+    private final MeterRegistry registry;
+    private final LayoutJobScheduler scheduler;
+    private final DistributionSummary nodes;
+    private final DistributionSummary steps;
+    private final Counter framesSent;
+    private final Counter framesDropped;
+
+    public LayoutEngine(LayoutServiceProperties properties, LayoutJobScheduler scheduler,
+            MeterRegistry registry) {
+        this.properties = properties;
+        this.scheduler = scheduler;
+        this.registry = registry;
+        framesSent = Counter.builder("butterfly.layout.stream.frames")
+                .tag("outcome", "sent").register(registry);
+        framesDropped = Counter.builder("butterfly.layout.stream.frames")
+                .tag("outcome", "dropped").register(registry);
+        nodes = DistributionSummary.builder("butterfly.layout.nodes")
+                .description("Nodes per layout request").register(registry);
+        steps = DistributionSummary.builder("butterfly.layout.steps")
+                .description("Steps performed per iterative layout").register(registry);
+    }
+
+    /**
+     * Lay out a graph document.
+     *
+     * @param request The request
+     * @return The positions
+     * @throws IllegalArgumentException if the request is malformed, names
+     * an unknown layout or the graph is too large
+     * @throws RejectedExecutionException if too many layouts are queued
+     * @throws TimeoutException if the layout could not be run within its
+     * budget plus the queue timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LayoutResult layout(LayoutRequest request) throws TimeoutException, InterruptedException {
+        LayoutType type = LayoutType.forId(request.getLayout());
+        GraphInput input = GraphInput.of(request.getNodes(), request.getEdges(),
+                properties.getMaxNodes());
+        return run(type, input, request.getWidth(), request.getHeight(),
+                request.getBudgetMillis());
+    }
+
+    /**
+     * Lay out a graph given as a text edge list, one edge per line as two
+     * whitespace-separated (optionally quoted) node ids.
+     *
+     * @param edgeList The UTF-8 bytes of the edge list
+     * @param layout The layout id, or null for the default
+     * @param width The width, or null for the default
+     * @param height The height, or null for the default
+     * @param budgetMillis The time budget, or null for the default
+     * @return The positions
+     * @throws TimeoutException if the layout could not be run within its
+     * budget plus the queue timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LayoutResult layout(byte[] edgeList, String layout, Integer width, Integer height,
+            Long budgetMillis) throws TimeoutException, InterruptedException {
+        LayoutType type = LayoutType.forId(layout);
+        GraphInput input = GraphInput.parse(edgeList, properties.getMaxNodes());
+        return run(type, input, width, height, budgetMillis);
+    }
+
+    /**
+     * Stream a layout of a graph document to the client as it runs.
+     *
+     * @param request The request
+     * @param framesPerSecond The maximum frame rate, or null for the
+     * default
+     * @return An event stream, which will be completed when the layout
+     * finishes
+     * @throws IllegalArgumentException if the request is malformed, names
+     * an unknown layout or the graph is too large
+     * @throws RejectedExecutionException if too many layouts are queued
+     * @see LayoutStream
+     */
+    public SseEmitter stream(LayoutRequest request, Integer framesPerSecond) {
+        LayoutType type = LayoutType.forId(request.getLayout());
+        GraphInput input = GraphInput.of(request.getNodes(), request.getEdges(),
+                properties.getMaxNodes());
+        return stream(type, input, request.getWidth(), request.getHeight(),
+                request.getBudgetMillis(), framesPerSecond);
+    }
+
+    /**
+     * Stream a layout of a graph given as a text edge list to the client
+     * as it runs.
+     *
+     * @param edgeList The UTF-8 bytes of the edge list
+     * @param layout The layout id, or null for the default
+     * @param width The width, or null for the default
+     * @param height The height, or null for the default
+     * @param budgetMillis The time budget, or null for the default
+     * @param framesPerSecond The maximum frame rate, or null for the
+     * default
+     * @return An event stream, which will be completed when the layout
+     * finishes
+     */
+    public SseEmitter stream(byte[] edgeList, String layout, Integer width, Integer height,
+            Long budgetMillis, Integer framesPerSecond) {
+        LayoutType type = LayoutType.forId(layout);
+        GraphInput input = GraphInput.parse(edgeList, properties.getMaxNodes());
+        return stream(type, input, width, height, budgetMillis, framesPerSecond);
+    }
+
+    private SseEmitter stream(LayoutType type, GraphInput input, Integer width, Integer height,
+            Long budgetMillis, Integer framesPerSecond) {
+        Dimension size = new Dimension(dimension(width, DEFAULT_WIDTH), dimension(height, DEFAULT_HEIGHT));
+        Duration budget = budget(budgetMillis);
+        int fps = framesPerSecond == null ? properties.getFramesPerSecond() : framesPerSecond;
+        if (fps < 1 || fps > MAX_FRAMES_PER_SECOND) {
+            throw new IllegalArgumentException("Frames per second out of range: " + fps);
+        }
+        nodes.record(input.graph().getVertexCount());
+        long start = System.nanoTime();
+        // If it is still waiting for a thread when this runs out, the
+        // stream is abandoned, as a blocking request would be
+        SseEmitter emitter = new SseEmitter(budget.plus(properties.getQueueTimeout()).toMillis());
+        // Sending blocks on the client, so it is done off the layout threads
+        LayoutStream stream = new LayoutStream(type, input, size, budget, fps, emitter,
+                scheduler.blockingExecutor(), framesSent, framesDropped,
+                outcome -> record("butterfly.layout.streams", type, outcome, start));
+        try {
+            scheduler.submit(input.graph().getVertexCount(), input.graph().getEdgeCount(),
+                    () -> {
+                        stream.run();
+                        return null;
+                    });
+        } catch (RejectedExecutionException ex) {
+            record("butterfly.layout.streams", type, "rejected", start);
+            throw ex;
+        } catch (IllegalArgumentException ex) {
+            // Too large ever to be admitted
+            record("butterfly.layout.streams", type, "invalid", start);
+            throw ex;
+        }
+        return emitter;
+    }
+
+    private LayoutResult run(LayoutType type, GraphInput input, Integer width, Integer height,
+            Long budgetMillis) throws TimeoutException, InterruptedException {
+        Dimension size = new Dimension(dimension(width, DEFAULT_WIDTH), dimension(height, DEFAULT_HEIGHT));
+        Duration budget = budget(budgetMillis);
+        nodes.record(input.graph().getVertexCount());
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Future<LayoutResult> future;
+            try {
+                future = scheduler.submit(input.graph().getVertexCount(),
+                        input.graph().getEdgeCount(), () -> compute(type, input, size, budget));
+            } catch (RejectedExecutionException ex) {
+                outcome = "rejected";
+                throw ex;
+            } catch (IllegalArgumentException ex) {
+                // Too large ever to be admitted
+                outcome = "invalid";
+                throw ex;
+            }
+            try {
+                LayoutResult result = future.get(budget.plus(properties.getQueueTimeout()).toNanos(),
+                        TimeUnit.NANOSECONDS);
+                outcome = "ok";
+                return result;
+            } catch (TimeoutException ex) {
+                outcome = "timeout";
+                future.cancel(true);
+                throw ex;
+            } catch (InterruptedException ex) {
+                future.cancel(true);
+                throw ex;
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IllegalArgumentException) {
+                    outcome = "invalid";
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        } finally {
+            record("butterfly.layout.requests", type, outcome, start);
+        }
+    }
+
+    private void record(String timer, LayoutType type, String outcome, long start) {
+        Timer.builder(timer)
+                .tag("layout", type.id())
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private LayoutResult compute(LayoutType type, GraphInput input, Dimension size,
+            Duration budget) {
+        long start = System.nanoTime();
+        Layout<String, String> layout = type.create(input);
+        int performed = 0;
+        boolean converged = true;
+        if (layout instanceof ForceDir<?, ?>) {
+            // ForceDir does its initial work - relatedness, multilevel or
+            // multi-start layout - inside layoutWithin(), which counts it
+            // against the budget; count the time create() took too
+            Duration remaining = budget.minusNanos(System.nanoTime() - start);
+            LayoutSnapshot snapshot = ((ForceDir<String, String>) layout).layoutWithin(
+                    remaining.toMillis() < 1 ? Duration.ofMillis(1) : remaining);
+            performed = snapshot.ticks();
+            converged = snapshot.converged();
+        } else {
+            type.size(layout, size);
+            if (layout instanceof IterativeContext) {
+                IterativeContext ctx = (IterativeContext) layout;
+                long deadline = start + budget.toNanos();
+                while (!(converged = ctx.done()) && System.nanoTime() < deadline
+                        && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        ctx.step();
+                    } catch (RuntimeException ex) {
+                        // e.g. IllegalArgumentException: Unexpected mathematical result in FRLayout:calcPositions
+                        // Some layouts are buggy.
+                        LOG.log(Level.FINE, null, ex);
+                    }
+                    performed++;
+                }
+            }
+        }
+        if (layout instanceof IterativeContext) {
+            steps.record(performed);
+        }
+        List<LayoutResult.NodePosition> positions = fit(input, layout, size);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new LayoutResult(type.id(), size.width, size.height,
+                input.graph().getEdgeCount(), performed, converged, !converged,
+                elapsed, positions);
+    }
+
+    /**
+     * Scale and center positions to fit the requested size, preserving
+     * the aspect ratio; layouts disagree about what coordinate space they
+     * produce, and ForceDir ignores the size altogether.
+     */
+    static List<LayoutResult.NodePosition> fit(GraphInput input,
+            Layout<String, String> layout, Dimension size) {
+        List<String> ids = new ArrayList<>(input.graph().getVertices());
+        double[] xs = new double[ids.size()];
+        double[] ys = new double[ids.size()];
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            Point2D p = layout.apply(ids.get(i));
+            xs[i] = p == null || !Double.isFinite(p.getX()) ? 0 : p.getX();
+            ys[i] = p == null || !Double.isFinite(p.getY()) ? 0 : p.getY();
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double w = maxX - minX;
+        double h = maxY - minY;
+        double scale = Math.min(w == 0 ? Double.MAX_VALUE : size.width / w,
+                h == 0 ? Double.MAX_VALUE : size.height / h);
+        if (scale == Double.MAX_VALUE) {
+            scale = 1;
+        }
+        double offX = (size.width - w * scale) / 2;
+        double offY = (size.height - h * scale) / 2;
+        List<LayoutResult.NodePosition> result = new ArrayList<>(xs.length);
+        for (int i = 0; i < xs.length; i++) {
+            result.add(new LayoutResult.NodePosition(ids.get(i),
+                    offX + (xs[i] - minX) * scale, offY + (ys[i] - minY) * scale));
+        }
+        return result;
+    }
+
+    private static int dimension(Integer value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value < 1 || value > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Dimension out of range: " + value);
+        }
+        return value;
+    }
+
+    private Duration budget(Long millis) {
+        if (millis == null) {
+            return properties.getDefaultBudget();
+        }
+        if (millis < 1) {
+            throw new IllegalArgumentException("Budget must be positive: " + millis);
+        }
+        Duration result = Duration.ofMillis(millis);
+        return result.compareTo(properties.getMaxBudget()) > 0 ? properties.getMaxBudget() : result;
+    }
+}
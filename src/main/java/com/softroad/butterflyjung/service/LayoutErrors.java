@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Maps the ways a layout request can fail onto HTTP statuses: bad input is
+ * a 400, a full queue a 503 the client may retry, and a layout which could
+ * not be run in time a 504.
+ *
+ * @author Tim Boudreau
+ */
+@RestControllerAdvice(assignableTypes = LayoutController.class)
+public class LayoutErrors {
+
+    @ExceptionHandler({IllegalArgumentException.class, IOException.class})
+    public ResponseEntity<Map<String, Object>> badRequest(Exception ex) {
+        return error(HttpStatus.BAD_REQUEST, ex);
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, Object>> busy(RejectedExecutionException ex) {
+        long seconds = 1;
+        if (ex instanceof LayoutRejectedException) {
+            Duration retryAfter = ((LayoutRejectedException) ex).getRetryAfter();
+            seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", Long.toString(seconds))
+                .body(body(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage() == null
+                        ? "Too many layouts queued" : ex.getMessage()));
+    }
+
+    @ExceptionHandler(TimeoutException.class)
+    public ResponseEntity<Map<String, Object>> timeout(TimeoutException ex) {
+        return error(HttpStatus.GATEWAY_TIMEOUT, ex);
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, Exception ex) {
+        return ResponseEntity.status(status).body(body(status, ex.getMessage()));
+    }
+
+    private static Map<String, Object> body(HttpStatus status, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", status.value());
+        result.put("error", status.getReasonPhrase());
+        result.put("message", message == null ? "" : message);
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+/**
+ * One frame of a streamed layout: the position of every node after some
+ * number of steps, in the order of the node ids sent when the stream
+ * opened, so ids are not repeated in every frame.
+ *
+ * @author Tim Boudreau
+ */
+public final class LayoutFrame {
+
+    private final int step;
+    private final int dropped;
+    private final float[] x;
+    private final float[] y;
+
+    LayoutFrame(int step, int dropped, float[] x, float[] y) {
+        this.step = step;
+        this.dropped = dropped;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * The number of steps the layout had performed when this frame was
+     * taken.
+     *
+     * @return The step
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * The number of frames dropped so far because the client could not
+     * keep up.
+     *
+     * @return The dropped frame count
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    public float[] getX() {
+        return x;
+    }
+
+    public float[] getY() {
+        return y;
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admits, queues and runs layout jobs on a fixed pool of threads, so that
+ * bursts of requests for graphs of very different sizes neither exhaust
+ * memory nor let one big graph starve small interactive requests.
+ * <p/>
+ * Each job's cost is estimated from its size as nodes&sup2; + edges, which
+ * is what one step of exact repulsion costs. Jobs for graphs of up to
+ * <code>interactive-nodes</code> nodes go in the {@link Lane#INTERACTIVE
+ * interactive} lane, the rest in the {@link Lane#BULK bulk} lane. Threads
+ * always take interactive jobs first, and at most
+ * <code>bulk-threads</code> of them, and never all of them, run bulk jobs
+ * at once, so there is always one free for interactive work within one
+ * interactive job's time. Each lane's queue holds at most
+ * <code>queue-capacity</code> jobs; the bulk lane is further limited by the
+ * total cost of the bulk jobs admitted and not yet finished. A job which
+ * does not fit is rejected with a {@link LayoutRejectedException} saying
+ * when to retry, estimated from how long recent jobs in its lane took;
+ * one which could never fit is an IllegalArgumentException.
+ * <p/>
+ * Cancelling a job's future removes it from the queue, or interrupts it if
+ * it is running.
+ * <p/>
+ * The layout threads only compute. Threads which spend their time blocked
+ * on clients, such as the ones sending streamed frames, come from
+ * {@link #blockingExecutor()}, which uses virtual threads when the JVM has
+ * them; the project targets Java 17, so it cannot depend on them.
+ *
+ * @author Tim Boudreau
+ */
+@Component
+public class LayoutJobScheduler {
+
+    private static final Logger LOG = Logger.getLogger(LayoutJobScheduler.class.getName());
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The queue a job waits in, decided by its size.
+     */
+    public enum Lane {
+        INTERACTIVE, BULK;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Job<?>> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Job<?>> bulk = new ArrayDeque<>();
+    private final int[] running = new int[Lane.values().length];
+    private final double[] averageRunNanos = new double[Lane.values().length];
+    private final int threads;
+    private final int bulkThreads;
+    private final int queueCapacity;
+    private final int interactiveNodes;
+    private final long maxBulkCost;
+    private final Thread[] workers;
+    private final ExecutorService blocking;
+    private final MeterRegistry registry;
+    private final Timer[] waitTimes = new Timer[Lane.values().length];
+    private final Timer[] runTimes = new Timer[Lane.values().length];
+    private long bulkCost;
+    private boolean shutdown;
+
+    public LayoutJobScheduler(LayoutServiceProperties properties, MeterRegistry registry) {
+        this.registry = registry;
+        threads = properties.getThreads();
+        if (threads < 2) {
+            throw new IllegalArgumentException("Need at least 2 threads: " + threads);
+        }
+        bulkThreads = properties.getBulkThreads() > 0
+                ? Math.min(threads - 1, properties.getBulkThreads())
+                : threads - 1;
+        queueCapacity = properties.getQueueCapacity();
+        interactiveNodes = properties.getInteractiveNodes();
+        maxBulkCost = properties.getMaxBulkCost();
+        for (Lane lane : Lane.values()) {
+            waitTimes[lane.ordinal()] = Timer.builder("butterfly.layout.jobs.wait")
+                    .tag("lane", lane.tag())
+                    .description("Time layout jobs spend queued").register(registry);
+            runTimes[lane.ordinal()] = Timer.builder("butterfly.layout.jobs.run")
+                    .tag("lane", lane.tag())
+                    .description("Time spent running layout jobs").register(registry);
+            Gauge.builder("butterfly.layout.jobs.queued", this, s -> s.queued(lane))
+                    .tag("lane", lane.tag())
+                    .description("Layout jobs waiting for a thread").register(registry);
+            Gauge.builder("butterfly.layout.jobs.running", this, s -> s.running(lane))
+                    .tag("lane", lane.tag())
+                    .description("Layout jobs being run").register(registry);
+        }
+        Gauge.builder("butterfly.layout.jobs.bulk.cost", this, LayoutJobScheduler::bulkCost)
+                .description("Estimated cost of admitted bulk jobs").register(registry);
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "layout-job-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        blocking = newBlockingExecutor("layout-io-");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            for (Job<?> job : interactive) {
+                job.future.cancel(false);
+            }
+            for (Job<?> job : bulk) {
+                job.future.cancel(false);
+            }
+            lock.notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        blocking.shutdownNow();
+    }
+
+    /**
+     * The estimated cost of laying out a graph.
+     *
+     * @param nodes The node count
+     * @param edges The edge count
+     * @return The cost
+     */
+    public static long cost(int nodes, int edges) {
+        return (long) nodes * nodes + edges;
+    }
+
+    /**
+     * Get the lane a graph of the passed size runs in.
+     *
+     * @param nodes The node count
+     * @return The lane
+     */
+    public Lane laneFor(int nodes) {
+        return nodes <= interactiveNodes ? Lane.INTERACTIVE : Lane.BULK;
+    }
+
+    /**
+     * Submit a job.
+     *
+     * @param <T> The result type
+     * @param nodes The number of nodes in the graph
+     * @param edges The number of edges in the graph
+     * @param work The job, which should give up promptly if interrupted
+     * @return A future for the result; cancelling it cancels the job
+     * @throws LayoutRejectedException if the job's lane is full
+     * @throws IllegalArgumentException if the graph is too large to ever
+     * be admitted
+     */
+    public <T> CompletableFuture<T> submit(int nodes, int edges, Callable<T> work) {
+        Lane lane = laneFor(nodes);
+        long cost = cost(nodes, edges);
+        if (lane == Lane.BULK && cost > maxBulkCost) {
+            throw new IllegalArgumentException("Graph of " + nodes + " nodes and " + edges
+                    + " edges is too large to lay out");
+        }
+        Job<T> job = new Job<>(lane, cost, work);
+        synchronized (lock) {
+            if (shutdown) {
+                throw new LayoutRejectedException("Shutting down", lane, Duration.ZERO);
+            }
+            ArrayDeque<Job<?>> queue = queue(lane);
+            if (queue.size() >= queueCapacity) {
+                throw reject(lane, "queue", "Too many " + lane.tag() + " layouts queued");
+            }
+            if (lane == Lane.BULK && bulkCost + cost > maxBulkCost) {
+                throw reject(lane, "cost", "Too many large layouts in progress");
+            }
+            if (lane == Lane.BULK) {
+                bulkCost += cost;
+            }
+            queue.add(job);
+            lock.notifyAll();
+        }
+        job.future.whenComplete((result, thrown) -> {
+            if (job.future.isCancelled()) {
+                cancelled(job);
+            }
+        });
+        return job.future;
+    }
+
+    private LayoutRejectedException reject(Lane lane, String reason, String message) {
+        Counter.builder("butterfly.layout.jobs.rejected")
+                .tag("lane", lane.tag())
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+        return new LayoutRejectedException(message, lane, retryAfter(lane));
+    }
+
+    /**
+     * Estimate how long it will be before a job in the passed lane would be
+     * accepted: roughly the time for the jobs ahead of it to run.
+     */
+    private Duration retryAfter(Lane lane) {
+        int slots = lane == Lane.BULK ? bulkThreads : threads;
+        double ahead = queue(lane).size() + running[lane.ordinal()];
+        long nanos = (long) (averageRunNanos[lane.ordinal()] * ahead / slots);
+        return Duration.ofNanos(Math.max(TimeUnit.SECONDS.toNanos(1), nanos));
+    }
+
+    private void cancelled(Job<?> job) {
+        synchronized (lock) {
+            if (!job.started && queue(job.lane).remove(job)) {
+                finished(job);
+            }
+        }
+        job.interrupt();
+    }
+
+    private void finished(Job<?> job) {
+        if (job.lane == Lane.BULK) {
+            bulkCost -= job.cost;
+        }
+    }
+
+    /**
+     * An executor for work which mostly blocks, such as writing to slow
+     * clients; such work should not tie up a layout thread.
+     *
+     * @return An executor
+     */
+    public ExecutorService blockingExecutor() {
+        return blocking;
+    }
+
+    private static ExecutorService newBlockingExecutor(String prefix) {
+        try {
+            // Java 21+
+            return (ExecutorService) MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable ex) {
+            AtomicInteger ids = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, prefix + ids.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    int queued(Lane lane) {
+        synchronized (lock) {
+            return queue(lane).size();
+        }
+    }
+
+    int running(Lane lane) {
+        synchronized (lock) {
+            return running[lane.ordinal()];
+        }
+    }
+
+    long bulkCost() {
+        synchronized (lock) {
+            return bulkCost;
+        }
+    }
+
+    private ArrayDeque<Job<?>> queue(Lane lane) {
+        return lane == Lane.INTERACTIVE ? interactive : bulk;
+    }
+
+    private Job<?> next() {
+        Job<?> job = interactive.poll();
+        if (job == null && running[Lane.BULK.ordinal()] < bulkThreads) {
+            job = bulk.poll();
+        }
+        if (job != null) {
+            job.started = true;
+            running[job.lane.ordinal()]++;
+        }
+        return job;
+    }
+
+    private void work() {
+        for (;;) {
+            Job<?> job;
+            synchronized (lock) {
+                while ((job = next()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        if (shutdown) {
+                            return;
+                        }
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            waitTimes[job.lane.ordinal()].record(start - job.submitted, TimeUnit.NANOSECONDS);
+            try {
+                job.run();
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                runTimes[job.lane.ordinal()].record(elapsed, TimeUnit.NANOSECONDS);
+                synchronized (lock) {
+                    int ix = job.lane.ordinal();
+                    running[ix]--;
+                    averageRunNanos[ix] = averageRunNanos[ix] == 0 ? elapsed
+                            : averageRunNanos[ix] + SMOOTHING * (elapsed - averageRunNanos[ix]);
+                    finished(job);
+                    // A bulk slot may have opened up
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final class Job<T> {
+
+        private final Lane lane;
+        private final long cost;
+        private final Callable<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+        private boolean started;
+        private Thread thread;
+
+        Job(Lane lane, long cost, Callable<T> work) {
+            this.lane = lane;
+            this.cost = cost;
+            this.work = work;
+        }
+
+        void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                future.complete(work.call());
+            } catch (Throwable ex) {
+                if (!(ex instanceof InterruptedException)) {
+                    LOG.log(Level.FINE, "Layout job failed", ex);
+                }
+                future.completeExceptionally(ex);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Do not let a late cancel interrupt the next job
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when the layout service is too busy to accept a job; carries an
+ * estimate of when it is worth trying again.
+ *
+ * @author Tim Boudreau
+ */
+public class LayoutRejectedException extends RejectedExecutionException {
+
+    private final LayoutJobScheduler.Lane lane;
+    private final Duration retryAfter;
+
+    public LayoutRejectedException(String message, LayoutJobScheduler.Lane lane,
+            Duration retryAfter) {
+        super(message);
+        this.lane = lane;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * The lane the job would have run in.
+     *
+     * @return The lane
+     */
+    public LayoutJobScheduler.Lane getLane() {
+        return lane;
+    }
+
+    /**
+     * How long the caller should wait before retrying.
+     *
+     * @return The delay
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
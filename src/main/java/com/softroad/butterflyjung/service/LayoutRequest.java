@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import java.util.List;
+
+/**
+ * A graph document to lay out: the nodes, the edges as pairs of node ids,
+ * and how to lay it out. Everything but the edges (or, for a graph with no
+ * edges, the nodes) is optional.
+ *
+ * @author Tim Boudreau
+ */
+public class LayoutRequest {
+
+    private String layout;
+    private List<String> nodes;
+    private List<List<String>> edges;
+    private Integer width;
+    private Integer height;
+    private Long budgetMillis;
+
+    /**
+     * The layout id, as listed by {@link LayoutType#id()}; ForceDir if
+     * unset.
+     *
+     * @return The layout id
+     */
+    public String getLayout() {
+        return layout;
+    }
+
+    public void setLayout(String layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Nodes to include, which need only be listed if they have no edges.
+     *
+     * @return The node ids
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(List<String> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * The edges, each a two-element list of source and target node ids.
+     *
+     * @return The edges
+     */
+    public List<List<String>> getEdges() {
+        return edges;
+    }
+
+    public void setEdges(List<List<String>> edges) {
+        this.edges = edges;
+    }
+
+    /**
+     * The width the positions are scaled to fit.
+     *
+     * @return The width
+     */
+    public Integer getWidth() {
+        return width;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    /**
+     * The height the positions are scaled to fit.
+     *
+     * @return The height
+     */
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    /**
+     * How long the layout may run, in milliseconds.
+     *
+     * @return The budget
+     */
+    public Long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public void setBudgetMillis(Long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node positions computed by the service, with enough statistics to tune
+ * time budgets.
+ *
+ * @author Tim Boudreau
+ */
+public final class LayoutResult {
+
+    /**
+     * The first four bytes of the binary encoding, "BJL1".
+     */
+    public static final int BINARY_MAGIC = 0x424A4C31;
+    public static final String BINARY_CONTENT_TYPE = "application/vnd.butterfly-jung.positions";
+    private final String layout;
+    private final int width;
+    private final int height;
+    private final int edgeCount;
+    private final int steps;
+    private final boolean converged;
+    private final boolean budgetExhausted;
+    private final long elapsedMillis;
+    private final List<NodePosition> nodes;
+
+    LayoutResult(String layout, int width, int height, int edgeCount, int steps,
+            boolean converged, boolean budgetExhausted, long elapsedMillis,
+            List<NodePosition> nodes) {
+        this.layout = layout;
+        this.width = width;
+        this.height = height;
+        this.edgeCount = edgeCount;
+        this.steps = steps;
+        this.converged = converged;
+        this.budgetExhausted = budgetExhausted;
+        this.elapsedMillis = elapsedMillis;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public String getLayout() {
+        return layout;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * The number of steps performed, for iterative layouts; zero for ones
+     * which compute positions in one pass.
+     *
+     * @return The step count
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Whether the layout finished on its own, rather than being stopped.
+     *
+     * @return true if converged
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * Whether the layout was stopped because its time budget ran out.
+     *
+     * @return true if the budget was exhausted
+     */
+    public boolean isBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    /**
+     * The time spent computing the layout, not counting time spent waiting
+     * for a thread.
+     *
+     * @return The elapsed time
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public List<NodePosition> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Write the positions in a compact binary form: the magic number, the
+     * node count, the step count and a flags byte (1 = converged, 2 = budget
+     * exhausted), then for each node its id as written by writeUTF() and its
+     * x and y as floats. Everything is big-endian.
+     *
+     * @param out The stream, which is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(nodes.size());
+        data.writeInt(steps);
+        data.writeByte((converged ? 1 : 0) | (budgetExhausted ? 2 : 0));
+        for (NodePosition node : nodes) {
+            data.writeUTF(node.getId());
+            data.writeFloat((float) node.getX());
+            data.writeFloat((float) node.getY());
+        }
+        data.flush();
+    }
+
+    @Override
+    public String toString() {
+        return layout + " " + nodes.size() + " nodes, " + edgeCount + " edges, "
+                + steps + " steps in " + elapsedMillis + "ms"
+                + (converged ? ", converged" : "")
+                + (budgetExhausted ? ", budget exhausted" : "");
+    }
+
+    /**
+     * The position of one node.
+     */
+    public static final class NodePosition {
+
+        private final String id;
+        private final double x;
+        private final double y;
+
+        NodePosition(String id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Limits for the layout service, bound from <code>butterfly.layout.*</code>.
+ *
+ * @author Tim Boudreau
+ */
+@ConfigurationProperties("butterfly.layout")
+public class LayoutServiceProperties {
+
+    private int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private int queueCapacity = 16;
+    private Duration defaultBudget = Duration.ofSeconds(2);
+    private Duration maxBudget = Duration.ofSeconds(30);
+    private Duration queueTimeout = Duration.ofSeconds(10);
+    private int maxNodes = 20000;
+    private int framesPerSecond = 20;
+    private int interactiveNodes = 2000;
+    private int bulkThreads;
+    private long maxBulkCost = 2_000_000_000L;
+
+    /**
+     * The number of layouts which may run at the same time; at least two,
+     * so that one is always left for interactive work.
+     *
+     * @return The thread count
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 2) {
+            throw new IllegalArgumentException("Threads must be at least 2: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * The number of layouts in each lane of the job scheduler which may
+     * wait for a thread before further requests are turned away.
+     *
+     * @return The capacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Negative queue capacity: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * The time budget for requests which do not specify one.
+     *
+     * @return The budget
+     */
+    public Duration getDefaultBudget() {
+        return defaultBudget;
+    }
+
+    public void setDefaultBudget(Duration defaultBudget) {
+        this.defaultBudget = positive(defaultBudget, "Default budget");
+    }
+
+    /**
+     * The largest time budget a request may ask for; larger ones are
+     * clamped to it.
+     *
+     * @return The budget
+     */
+    public Duration getMaxBudget() {
+        return maxBudget;
+    }
+
+    public void setMaxBudget(Duration maxBudget) {
+        this.maxBudget = positive(maxBudget, "Max budget");
+    }
+
+    /**
+     * How long a request may wait for a thread, over and above its budget,
+     * before it is abandoned.
+     *
+     * @return The timeout
+     */
+    public Duration getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public void setQueueTimeout(Duration queueTimeout) {
+        if (queueTimeout == null || queueTimeout.isNegative()) {
+            throw new IllegalArgumentException("Bad queue timeout: " + queueTimeout);
+        }
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * The largest graph, in nodes, the service will lay out.
+     *
+     * @return The node count
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public void setMaxNodes(int maxNodes) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Max nodes must be at least 1: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * The frame rate for streamed layouts which do not specify one.
+     *
+     * @return The frames per second
+     */
+    public int getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    public void setFramesPerSecond(int framesPerSecond) {
+        if (framesPerSecond < 1 || framesPerSecond > LayoutEngine.MAX_FRAMES_PER_SECOND) {
+            throw new IllegalArgumentException("Frames per second out of range: " + framesPerSecond);
+        }
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * The largest graph, in nodes, whose layout counts as interactive;
+     * interactive layouts are run ahead of larger ones, and are never
+     * stuck behind them.
+     *
+     * @return The node count
+     */
+    public int getInteractiveNodes() {
+        return interactiveNodes;
+    }
+
+    public void setInteractiveNodes(int interactiveNodes) {
+        if (interactiveNodes < 0) {
+            throw new IllegalArgumentException("Negative interactive nodes: " + interactiveNodes);
+        }
+        this.interactiveNodes = interactiveNodes;
+    }
+
+    /**
+     * The number of threads which may run layouts of larger graphs at the
+     * same time; 0, the default, means all but one, and it is never more
+     * than that.
+     *
+     * @return The thread count
+     */
+    public int getBulkThreads() {
+        return bulkThreads;
+    }
+
+    public void setBulkThreads(int bulkThreads) {
+        if (bulkThreads < 0) {
+            throw new IllegalArgumentException("Negative bulk threads: " + bulkThreads);
+        }
+        this.bulkThreads = bulkThreads;
+    }
+
+    /**
+     * The total estimated cost, as nodes&sup2; + edges, of the layouts of
+     * larger graphs which may be queued or running at once; this bounds
+     * the memory and CPU they can take.
+     *
+     * @return The cost
+     */
+    public long getMaxBulkCost() {
+        return maxBulkCost;
+    }
+
+    public void setMaxBulkCost(long maxBulkCost) {
+        if (maxBulkCost < 1) {
+            throw new IllegalArgumentException("Max bulk cost must be positive: " + maxBulkCost);
+        }
+        this.maxBulkCost = maxBulkCost;
+    }
+
+    private static Duration positive(Duration d, String what) {
+        if (d == null || d.isZero() || d.isNegative()) {
+            throw new IllegalArgumentException(what + " must be positive: " + d);
+        }
+        return d;
+    }
+}
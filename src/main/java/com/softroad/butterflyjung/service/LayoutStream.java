@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
+import io.micrometer.core.instrument.Counter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Steps a layout on one of the engine's threads and pushes its positions
+ * to a client as server-sent events, as JungScene animates a layout
+ * locally. The stream opens with a <code>nodes</code> event listing the
+ * node ids, followed by <code>frame</code> events with the positions in
+ * that order, at most at the requested rate, and closes with a
+ * <code>done</code> event carrying the final {@link LayoutResult} once
+ * the layout converges or its budget runs out.
+ * <p/>
+ * Sending happens on a separate thread, so a slow client never slows the
+ * layout down. As with LayoutWorker, each frame replaces any frame which
+ * has not been sent yet, and at most one send task is queued at a time, so
+ * a client which falls behind just sees fewer frames; the final event is
+ * never dropped. If the client goes away the layout is abandoned.
+ *
+ * @author Tim Boudreau
+ */
+final class LayoutStream implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(LayoutStream.class.getName());
+    private final LayoutType type;
+    private final GraphInput input;
+    private final Dimension size;
+    private final Duration budget;
+    private final long frameNanos;
+    private final SseEmitter emitter;
+    private final Executor sender;
+    private final Counter sent;
+    private final Counter dropped;
+    private final Consumer<String> onFinish;
+    private final List<String> ids;
+    private final AtomicReference<Object> pending = new AtomicReference<>();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private boolean idsSent;
+    private int droppedFrames;
+
+    /**
+     * Create a stream; it does nothing until run.
+     *
+     * @param type The layout
+     * @param input The graph
+     * @param size The size positions are scaled to fit
+     * @param budget How long the layout may run
+     * @param framesPerSecond The maximum frame rate
+     * @param emitter The event stream to the client
+     * @param sender Runs the task which sends events
+     * @param sent Counts frames sent
+     * @param dropped Counts frames superseded before they could be sent
+     * @param onFinish Called with the outcome when the layout stops
+     */
+    LayoutStream(LayoutType type, GraphInput input, Dimension size, Duration budget,
+            int framesPerSecond, SseEmitter emitter, Executor sender, Counter sent,
+            Counter dropped, Consumer<String> onFinish) {
+        this.type = type;
+        this.input = input;
+        this.size = size;
+        this.budget = budget;
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+        this.emitter = emitter;
+        this.sender = sender;
+        this.sent = sent;
+        this.dropped = dropped;
+        this.onFinish = onFinish;
+        this.ids = new ArrayList<>(input.graph().getVertices());
+        emitter.onCompletion(this::cancel);
+        emitter.onTimeout(this::cancel);
+        emitter.onError(ex -> cancel());
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            // Timed out waiting for a thread
+            onFinish.accept("cancelled");
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + budget.toNanos();
+        String outcome = "error";
+        try {
+            Layout<String, String> layout = type.create(input);
+            if (!type.isForceDir()) {
+                type.size(layout, size);
+            }
+            IterativeContext ctx = layout instanceof IterativeContext
+                    ? (IterativeContext) layout : null;
+            int steps = 0;
+            boolean converged = ctx == null;
+            long nextFrame = start;
+            while (ctx != null && !cancelled && !(converged = ctx.done())
+                    && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                try {
+                    ctx.step();
+                } catch (RuntimeException ex) {
+                    // Some layouts are buggy; see LayoutWorker
+                    LOG.log(Level.FINE, null, ex);
+                }
+                steps++;
+                long now = System.nanoTime();
+                if (now >= nextFrame) {
+                    offer(frame(steps, layout));
+                    nextFrame = now + frameNanos;
+                }
+            }
+            if (cancelled) {
+                outcome = "cancelled";
+                return;
+            }
+            List<LayoutResult.NodePosition> positions = LayoutEngine.fit(input, layout, size);
+            offer(new LayoutResult(type.id(), size.width, size.height,
+                    input.graph().getEdgeCount(), steps, converged, !converged,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), positions));
+            outcome = converged ? "converged" : "budget";
+        } catch (RuntimeException ex) {
+            pending.set(null);
+            LOG.log(Level.WARNING, "Streaming " + type.id() + " layout failed", ex);
+            emitter.completeWithError(ex);
+        } finally {
+            onFinish.accept(outcome);
+        }
+    }
+
+    private LayoutFrame frame(int steps, Layout<String, String> layout) {
+        List<LayoutResult.NodePosition> positions = LayoutEngine.fit(input, layout, size);
+        float[] xs = new float[positions.size()];
+        float[] ys = new float[positions.size()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = (float) positions.get(i).getX();
+            ys[i] = (float) positions.get(i).getY();
+        }
+        return new LayoutFrame(steps, droppedFrames, xs, ys);
+    }
+
+    private void offer(Object frameOrResult) {
+        if (pending.getAndSet(frameOrResult) != null) {
+            droppedFrames++;
+            dropped.increment();
+        }
+        if (sending.compareAndSet(false, true)) {
+            sender.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (;;) {
+                Object next = pending.getAndSet(null);
+                if (next == null) {
+                    sending.set(false);
+                    // Something may have been offered after we looked, by a
+                    // thread which saw sending still set
+                    if (pending.get() == null || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (!idsSent) {
+                    emitter.send(SseEmitter.event().name("nodes").data(ids));
+                    idsSent = true;
+                }
+                if (next instanceof LayoutResult) {
+                    emitter.send(SseEmitter.event().name("done").data(next));
+                    emitter.complete();
+                    return;
+                }
+                LayoutFrame frame = (LayoutFrame) next;
+                emitter.send(SseEmitter.event().name("frame")
+                        .id(Integer.toString(frame.getStep())).data(frame));
+                sent.increment();
+            }
+        } catch (IOException | IllegalStateException ex) {
+            // The client went away
+            LOG.log(Level.FINE, null, ex);
+            cancel();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import com.softroad.butterflyjung.layouts.ForceDir;
+import edu.uci.ics.jung.algorithms.layout.BalloonLayout;
+import edu.uci.ics.jung.algorithms.layout.CircleLayout;
+import edu.uci.ics.jung.algorithms.layout.DAGLayout;
+import edu.uci.ics.jung.algorithms.layout.FRLayout;
+import edu.uci.ics.jung.algorithms.layout.FRLayout2;
+import edu.uci.ics.jung.algorithms.layout.ISOMLayout;
+import edu.uci.ics.jung.algorithms.layout.KKLayout;
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.algorithms.layout.RadialTreeLayout;
+import edu.uci.ics.jung.algorithms.layout.SpringLayout;
+import edu.uci.ics.jung.algorithms.layout.SpringLayout2;
+import edu.uci.ics.jung.algorithms.layout.TreeLayout;
+
+import java.awt.Dimension;
+import java.util.Locale;
+
+/**
+ * The layouts the service can run, by the id clients pass to select one.
+ *
+ * @author Tim Boudreau
+ */
+public enum LayoutType {
+
+    FORCE_DIR("forcedir") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return forceDir(input);
+        }
+    },
+    FORCE_DIR_MULTILEVEL("forcedir-multilevel") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            ForceDir<String, String> result = forceDir(input);
+            result.setMultilevel(true);
+            return result;
+        }
+    },
+    FORCE_DIR_MULTISTART("forcedir-multistart") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            ForceDir<String, String> result = forceDir(input);
+            result.setStarts(4);
+            return result;
+        }
+    },
+    KK("kk") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new KKLayout<>(input.graph());
+        }
+    },
+    FR("fr") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new FRLayout<>(input.graph());
+        }
+    },
+    FR2("fr2") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new FRLayout2<>(input.graph());
+        }
+    },
+    SPRING("spring") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new SpringLayout<>(input.graph());
+        }
+    },
+    SPRING2("spring2") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new SpringLayout2<>(input.graph());
+        }
+    },
+    ISOM("isom") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new ISOMLayout<>(input.graph());
+        }
+    },
+    CIRCLE("circle") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new CircleLayout<>(input.graph());
+        }
+    },
+    DAG("dag") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            if (!input.isAcyclic()) {
+                throw new IllegalArgumentException("DAG layout requires an acyclic graph");
+            }
+            return new DAGLayout<>(input.graph());
+        }
+
+        @Override
+        void size(Layout<String, String> layout, Dimension size) {
+            // DAGLayout computes node levels in initialize(), and
+            // setSize() needs them
+            layout.initialize();
+            layout.setSize(size);
+        }
+    },
+    TREE("tree") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new TreeLayout<>(input.forest(), 70, 70);
+        }
+
+        @Override
+        void size(Layout<String, String> layout, Dimension size) {
+            // TreeLayout sizes itself and throws if asked to do otherwise;
+            // the result is scaled to fit afterwards anyway
+        }
+    },
+    BALLOON("balloon") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new BalloonLayout<>(input.forest());
+        }
+    },
+    RADIAL_TREE("radial-tree") {
+        @Override
+        Layout<String, String> create(GraphInput input) {
+            return new RadialTreeLayout<>(input.forest());
+        }
+    };
+
+    private final String id;
+
+    LayoutType(String id) {
+        this.id = id;
+    }
+
+    /**
+     * The id clients use to request this layout.
+     *
+     * @return The id
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Whether this layout is built on ForceDir, and so can be run with
+     * {@link ForceDir#layoutWithin(java.time.Duration)}, which keeps the
+     * best positions seen, rather than stepped until the budget runs out.
+     *
+     * @return true for ForceDir layouts
+     */
+    public boolean isForceDir() {
+        return this == FORCE_DIR || this == FORCE_DIR_MULTILEVEL || this == FORCE_DIR_MULTISTART;
+    }
+
+    abstract Layout<String, String> create(GraphInput input);
+
+    /**
+     * ForceDir layouts do all their work on the job's own thread rather than
+     * in the common pool, so the scheduler's limit on concurrent layouts
+     * holds, and cancelling a job stops it.
+     */
+    private static ForceDir<String, String> forceDir(GraphInput input) {
+        ForceDir<String, String> result = new ForceDir<>(input.graph());
+        result.setPool(null);
+        return result;
+    }
+
+    void size(Layout<String, String> layout, Dimension size) {
+        layout.setSize(size);
+    }
+
+    /**
+     * Find a layout type by its id or constant name, ignoring case.
+     *
+     * @param id The id
+     * @return The layout type
+     * @throws IllegalArgumentException if there is no such layout
+     */
+    public static LayoutType forId(String id) {
+        if (id == null || id.isEmpty()) {
+            return FORCE_DIR;
+        }
+        for (LayoutType type : values()) {
+            if (type.id.equalsIgnoreCase(id) || type.name().equalsIgnoreCase(id)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown layout '" + id.toLowerCase(Locale.ROOT)
+                + "'; expected one of " + ids());
+    }
+
+    private static String ids() {
+        StringBuilder sb = new StringBuilder();
+        for (LayoutType type : values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(type.id);
+        }
+        return sb.toString();
+    }
+}
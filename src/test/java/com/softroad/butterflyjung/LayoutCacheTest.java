@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import com.softroad.butterflyjung.layouts.ForceDir;
+import edu.uci.ics.jung.algorithms.layout.CircleLayout;
+import edu.uci.ics.jung.algorithms.layout.KKLayout;
+import edu.uci.ics.jung.algorithms.layout.SpringLayout;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import edu.uci.ics.jung.graph.util.Pair;
+import org.junit.jupiter.api.Test;
+import org.netbeans.api.visual.widget.LayerWidget;
+import org.netbeans.api.visual.widget.Widget;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the layout cache finds graphs however they were built, survives
+ * being reopened from disk, warm-starts edited graphs from their ancestors,
+ * stays within its bounds, and puts a scene's nodes back where they were.
+ */
+class LayoutCacheTest {
+
+    private static final String LAYOUT = "test-layout";
+
+    @Test
+    void exactHitsSurviveReopening() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("LayoutCacheTest");
+        try {
+            Graph<String, String> graph = graph(200, 1, false);
+            Map<String, Point2D> positions = positions(graph, 1);
+            LayoutCache first = new LayoutCache(dir);
+            first.put(graph, LAYOUT, positions);
+            first.flush();
+
+            // The same graph, built in the opposite order, in a new session
+            LayoutCache cache = new LayoutCache(dir);
+            LayoutCache.Hit<String> hit = cache.find(graph(200, 1, true), LAYOUT);
+            assertNotNull(hit, "Miss");
+            assertTrue(hit.isExact());
+            assertEquals(1, hit.getSimilarity(), 0);
+            assertEquals(positions, hit.getPositions());
+            assertNull(cache.find(graph, "other-layout"), "Hit for a different layout");
+            assertNull(cache.find(graph(200, 2, false), LAYOUT), "Hit for an unrelated graph");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    void editedGraphsWarmStart() throws IOException {
+        LayoutCache cache = new LayoutCache();
+        Graph<String, String> graph = graph(200, 3, false);
+        Map<String, Point2D> positions = positions(graph, 3);
+        cache.put(graph, LAYOUT, positions);
+
+        Graph<String, String> edited = graph(200, 3, false);
+        edited.addEdge("new-1", "n5", "added");
+        edited.addEdge("new-2", "n17", "added");
+        edited.addEdge("new-3", "n17", "n150");
+        edited.removeEdge(edited.getEdges().iterator().next());
+        LayoutCache.Hit<String> hit = cache.find(edited, LAYOUT);
+        assertNotNull(hit, "No warm start");
+        assertFalse(hit.isExact());
+        assertTrue(hit.getSimilarity() >= LayoutCache.DEFAULT_MIN_SIMILARITY, "" + hit.getSimilarity());
+        assertEquals(edited.getVertexCount(), hit.getPositions().size());
+        for (String n : graph.getVertices()) {
+            assertEquals(positions.get(n), hit.getPositions().get(n), n);
+        }
+        Point2D a = positions.get("n5");
+        Point2D b = positions.get("n17");
+        Point2D added = hit.getPositions().get("added");
+        assertEquals((a.getX() + b.getX()) / 2, added.getX(), 1e-9);
+        assertEquals((a.getY() + b.getY()) / 2, added.getY(), 1e-9);
+
+        // Nothing in common
+        assertNull(cache.find(graph(200, 4, false), LAYOUT));
+    }
+
+    @Test
+    void staysWithinBounds() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("LayoutCacheTest");
+        try {
+            LayoutCache probe = new LayoutCache(dir);
+            probe.put(graph(100, 10, false), LAYOUT, positions(graph(100, 10, false), 10));
+            probe.flush();
+            long entryBytes = probe.getDiskBytesUsed();
+            probe.clear();
+            probe.flush();
+            assertEquals(0, probe.getDiskBytesUsed());
+
+            LayoutCache cache = new LayoutCache(dir, 1, entryBytes * 3 + entryBytes / 2, 1);
+            for (int i = 0; i < 5; i++) {
+                Graph<String, String> g = graph(100, 10 + i, false);
+                cache.put(g, LAYOUT, positions(g, i));
+            }
+            cache.flush();
+            assertTrue(cache.getDiskBytesUsed() <= entryBytes * 3 + entryBytes / 2,
+                    cache.getDiskBytesUsed() + " bytes");
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(3, files.count());
+            }
+            LayoutCache reopened = new LayoutCache(dir, 1, entryBytes * 3 + entryBytes / 2, 1);
+            assertNull(reopened.find(graph(100, 10, false), LAYOUT), "Oldest not evicted");
+            assertNull(reopened.find(graph(100, 11, false), LAYOUT), "Second oldest not evicted");
+            for (int i = 2; i < 5; i++) {
+                LayoutCache.Hit<String> hit = reopened.find(graph(100, 10 + i, false), LAYOUT);
+                assertNotNull(hit, "Entry " + i + " missing");
+                assertTrue(hit.isExact());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    void exactHitsRestoreSceneLayouts() throws IOException {
+        Graph<String, String> graph = directed(graph(60, 20, false));
+        LayoutCache cache = new LayoutCache();
+        ForceDir<String, String> finished = new ForceDir<>(graph);
+        for (int i = 0; i < 50; i++) {
+            finished.step();
+        }
+        cache.put(graph, finished);
+        Map<String, Point2D> expected = new HashMap<>();
+        for (String n : graph.getVertices()) {
+            expected.put(n, finished.apply(n));
+        }
+
+        // Fresh layouts, which have not been stepped; no view, so this
+        // runs headless
+        TestScene scene = new TestScene(graph, new ForceDir<>(graph));
+        scene.setLayoutCache(cache);
+        scene.sync();
+        for (int i = 0; i < 2; i++) {
+            ForceDir<String, String> fresh = new ForceDir<>(graph);
+            scene.setGraphLayout(fresh, false);
+            assertRestored(scene, fresh, expected);
+        }
+    }
+
+    @Test
+    void descriptionsIncludeSizeAndSettings() {
+        Graph<String, String> graph = graph(20, 30, false);
+        SpringLayout<String, String> spring = new SpringLayout<>(graph);
+        spring.setSize(new Dimension(600, 400));
+        String description = LayoutCache.describe(spring);
+        spring.setSize(new Dimension(800, 400));
+        String resized = LayoutCache.describe(spring);
+        assertNotEquals(description, resized, "Size ignored");
+        spring.setStretch(spring.getStretch() * 2);
+        assertNotEquals(resized, LayoutCache.describe(spring), "Stretch ignored");
+
+        KKLayout<String, String> kk = new KKLayout<>(graph);
+        String gravity = LayoutCache.describe(kk);
+        kk.setAdjustForGravity(!kk.getAdjustForGravity());
+        assertNotEquals(gravity, LayoutCache.describe(kk), "Gravity ignored");
+
+        CircleLayout<String, String> circle = new CircleLayout<>(graph);
+        circle.setSize(new Dimension(600, 400));
+        String radius = LayoutCache.describe(circle);
+        circle.setRadius(circle.getRadius() + 10);
+        assertNotEquals(radius, LayoutCache.describe(circle), "Radius ignored");
+
+        ForceDir<String, String> fd = new ForceDir<>(directed(graph));
+        String flat = LayoutCache.describe(fd);
+        fd.setMultilevel(true);
+        assertNotEquals(flat, LayoutCache.describe(fd), "Multilevel ignored");
+    }
+
+    private static void assertRestored(TestScene scene, ForceDir<String, String> layout,
+            Map<String, Point2D> expected) {
+        for (Map.Entry<String, Point2D> e : expected.entrySet()) {
+            Point2D p = layout.apply(e.getKey());
+            assertEquals(e.getValue().getX(), p.getX(), 1e-6, "x of " + e.getKey());
+            assertEquals(e.getValue().getY(), p.getY(), 1e-6, "y of " + e.getKey());
+            Point widget = scene.findNodeWidget(e.getKey()).getPreferredLocation();
+            assertEquals((int) e.getValue().getX(), widget.x, "widget x of " + e.getKey());
+            assertEquals((int) e.getValue().getY(), widget.y, "widget y of " + e.getKey());
+        }
+        assertNull(layout.getConvergenceStats(), "Layout was stepped");
+    }
+
+    private static Graph<String, String> directed(Graph<String, String> graph) {
+        Graph<String, String> result = new DirectedSparseGraph<>();
+        for (String e : graph.getEdges()) {
+            Pair<String> ends = graph.getEndpoints(e);
+            result.addEdge(e, ends.getFirst(), ends.getSecond());
+        }
+        return result;
+    }
+
+    private static Graph<String, String> graph(int size, long seed, boolean reversed) {
+        Random random = new Random(seed);
+        List<String[]> edges = new ArrayList<>();
+        for (int i = 1; i < size; i++) {
+            edges.add(new String[]{"n" + random.nextInt(i), "n" + i});
+            if (random.nextInt(4) == 0) {
+                int other = random.nextInt(size);
+                if (other != i) {
+                    edges.add(new String[]{"n" + other, "n" + i});
+                }
+            }
+        }
+        if (reversed) {
+            Collections.reverse(edges);
+        }
+        Graph<String, String> result = new UndirectedSparseGraph<>();
+        for (String[] e : edges) {
+            result.addEdge(e[0] + "-" + e[1] + "-" + seed, e[0], e[1]);
+        }
+        return result;
+    }
+
+    private static Map<String, Point2D> positions(Graph<String, String> graph, long seed) {
+        Random random = new Random(seed);
+        List<String> nodes = new ArrayList<>(graph.getVertices());
+        nodes.sort(Comparator.naturalOrder());
+        Map<String, Point2D> result = new HashMap<>();
+        for (String n : nodes) {
+            result.put(n, new Point2D.Double(random.nextDouble() * 1000, random.nextDouble() * 1000));
+        }
+        return result;
+    }
+
+    private static final class TestScene extends JungScene<String, String> {
+
+        private final LayerWidget layer = new LayerWidget(this);
+
+        TestScene(Graph<String, String> graph, ForceDir<String, String> layout) {
+            super(graph, layout);
+            addChild(layer);
+        }
+
+        @Override
+        protected Widget attachNodeWidget(String node) {
+            Widget result = new Widget(this);
+            layer.addChild(result);
+            return result;
+        }
+
+        @Override
+        protected Widget attachEdgeWidget(String edge) {
+            Widget result = new Widget(this);
+            layer.addChild(result);
+            return result;
+        }
+
+        @Override
+        protected void attachEdgeSourceAnchor(String edge, String oldSource, String source) {
+        }
+
+        @Override
+        protected void attachEdgeTargetAnchor(String edge, String oldTarget, String target) {
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+}
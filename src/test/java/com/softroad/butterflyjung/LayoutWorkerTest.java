@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung;
+
+import edu.uci.ics.jung.algorithms.layout.StaticLayout;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that once a layout worker or fast forward has been stopped, nothing
+ * is stepping its layout any more, so the caller can use it.
+ */
+class LayoutWorkerTest {
+
+    @Test
+    void stopWaitsForTheStepInProgress() throws InterruptedException {
+        Graph<String, String> graph = new DirectedSparseGraph<>();
+        graph.addEdge("a-b", "a", "b");
+        graph.addEdge("b-c", "b", "c");
+        SlowLayout layout = new SlowLayout(graph);
+        LayoutWorker<String, String> worker = new LayoutWorker<>(graph, layout,
+                new LayoutAnimationEvaluator(), new LayoutScheduler(), 10,
+                frame -> {
+                }, () -> {
+                });
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!layout.stepping.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(layout.stepping.get(), "Never stepped");
+        worker.stop();
+        assertFalse(layout.stepping.get(), "Still stepping after stop()");
+        int steps = layout.steps.get();
+        Thread.sleep(300);
+        assertEquals(steps, layout.steps.get(), "Stepped after stop()");
+        assertFalse(layout.overlapped.get(), "Steps overlapped");
+    }
+
+    @Test
+    void joinWaitsForCancelledFastForward() throws InterruptedException {
+        Graph<String, String> graph = new DirectedSparseGraph<>();
+        graph.addEdge("a-b", "a", "b");
+        SlowLayout layout = new SlowLayout(graph);
+        FastForward<String, String> ff = new FastForward<>(layout, 1000, 0, null, () -> {
+        });
+        Thread t = new Thread(ff, "fast-forward-test");
+        t.setDaemon(true);
+        t.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!layout.stepping.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(layout.stepping.get(), "Never stepped");
+        ff.future().cancel(false);
+        ff.join();
+        assertFalse(layout.stepping.get(), "Still stepping after join()");
+        int steps = layout.steps.get();
+        Thread.sleep(300);
+        assertEquals(steps, layout.steps.get(), "Stepped after join()");
+    }
+
+    private static final class SlowLayout extends StaticLayout<String, String>
+            implements IterativeContext {
+
+        final AtomicBoolean stepping = new AtomicBoolean();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicInteger steps = new AtomicInteger();
+
+        SlowLayout(Graph<String, String> graph) {
+            super(graph);
+        }
+
+        @Override
+        public void step() {
+            if (stepping.getAndSet(true)) {
+                overlapped.set(true);
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            steps.incrementAndGet();
+            stepping.set(false);
+        }
+
+        @Override
+        public boolean done() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the edge list syntax, the dropping of repeated and self edges, the
+ * forest and cycle flags, and lines which straddle two mappings of a file.
+ */
+class EdgeListLoaderTest {
+
+    @Test
+    void quotedNamesAndComments() {
+        EdgeList edges = load("# a comment\n"
+                + "a b\n"
+                + "  \t\n"
+                + "\"c d\"\t\"e f\"\r\n"
+                + "  # indented comment\n"
+                + "b \"c d\"\n"
+                + "lonely\n"
+                + "b   tail with spaces  \n"
+                + "\"\u00e9t\u00e9\" a");
+        assertEquals(Arrays.asList("a", "b", "c d", "e f", "tail with spaces", "\u00e9t\u00e9"),
+                edges.names());
+        assertEquals(5, edges.edgeCount());
+        assertEdge(edges, 0, "a", "b");
+        assertEdge(edges, 1, "c d", "e f");
+        assertEdge(edges, 2, "b", "c d");
+        assertEdge(edges, 3, "b", "tail with spaces");
+        assertEdge(edges, 4, "\u00e9t\u00e9", "a");
+    }
+
+    @Test
+    void repeatedAndSelfEdgesAreDropped() {
+        EdgeList edges = load("a b\nb a\na b\na a\nb c\nc c\n");
+        assertEquals(2, edges.edgeCount());
+        assertEdge(edges, 0, "a", "b");
+        assertEdge(edges, 1, "b", "c");
+        assertEquals(2, edges.duplicates());
+        assertEquals(2, edges.selfEdges());
+        // The dropped reverse edge does not count as a cycle
+        assertTrue(edges.isForest());
+        assertFalse(edges.hasCycles());
+    }
+
+    @Test
+    void forestsAndCycles() {
+        EdgeList forest = load("a b\na c\nc d\nx y\n");
+        assertTrue(forest.isForest());
+        assertFalse(forest.hasCycles());
+
+        EdgeList cyclic = load("a b\nb c\nc a\n");
+        assertFalse(cyclic.isForest());
+        assertTrue(cyclic.hasCycles());
+
+        // d has two parents, so it is not a forest, though without
+        // direction there is still no cycle
+        EdgeList twoParents = load("a d\nb d\n");
+        assertFalse(twoParents.isForest());
+        assertFalse(twoParents.hasCycles());
+    }
+
+    @Test
+    void linesSpanningMappingsAreRead() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("\"node ").append(i).append("\" node").append(i + 1).append('\n');
+        }
+        // No trailing newline on the last line
+        sb.append("last first");
+        Path file = Files.createTempFile("EdgeListLoaderTest", ".txt");
+        try {
+            Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+            EdgeList expected = load(sb.toString());
+            // Line lengths are around 20 bytes, so windows of these sizes
+            // split lines at every possible offset
+            for (int window = 24; window <= 64; window++) {
+                EdgeList edges = new EdgeListLoader(window).load(file);
+                assertEquals(expected.names(), edges.names(), "window " + window);
+                assertEquals(expected.edgeCount(), edges.edgeCount(), "window " + window);
+                for (int e = 0; e < edges.edgeCount(); e++) {
+                    assertEquals(expected.source(e), edges.source(e), "window " + window);
+                    assertEquals(expected.target(e), edges.target(e), "window " + window);
+                }
+            }
+            assertEquals(402, expected.size());
+            assertThrows(IOException.class, () -> new EdgeListLoader(8).load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static EdgeList load(String text) {
+        return new EdgeListLoader().load(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertEdge(EdgeList edges, int edge, String source, String target) {
+        assertEquals(source, edges.name(edges.source(edge)), "source of " + edge);
+        assertEquals(target, edges.name(edges.target(edge)), "target of " + edge);
+    }
+}
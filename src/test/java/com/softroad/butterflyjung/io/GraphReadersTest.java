@@ -0,0 +1,270 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.io;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads small GraphML and DOT files exercising the syntax each reader has to
+ * cope with, and large synthetic ones, reporting throughput and peak heap.
+ */
+class GraphReadersTest {
+
+    private static final int NODES = 100000;
+
+    @Test
+    void graphML() throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- comment -->\n"
+                + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+                + "  <key id=\"d0\" for=\"node\" attr.name=\"color\" attr.type=\"string\"/>\n"
+                + "  <graph id=\"G\" edgedefault=\"directed\">\n"
+                + "    <node id=\"a\"><data key=\"d0\">green &amp; <b>red</b></data></node>\n"
+                + "    <node id=\"b\"/>\n"
+                + "    <node id=\"c &lt;3\"/>\n"
+                + "    <node id=\"lonely\"/>\n"
+                + "    <edge source=\"a\" target=\"b\"><data key=\"d1\">1.0</data></edge>\n"
+                + "    <edge id=\"e1\" target=\"c &lt;3\" source=\"b\"/>\n"
+                + "    <edge source=\"b\" target=\"a\"/>\n"
+                + "    <node id=\"n\"><graph id=\"inner\" edgedefault=\"undirected\">"
+                + "<node id=\"n::x\"/></graph></node>\n"
+                + "    <edge source=\"n\" target=\"n::x\"/>\n"
+                + "  </graph>\n"
+                + "</graphml>\n";
+        EdgeListBuilder builder = new EdgeListBuilder();
+        new GraphMLReader().read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), builder);
+        EdgeList edges = builder.build();
+        assertEquals(Arrays.asList("a", "b", "c <3", "lonely", "n", "n::x"), edges.names());
+        assertEquals(3, edges.edgeCount());
+        assertEquals(1, edges.duplicates());
+        assertTrue(edges.isForest());
+
+        Graph<String, String> graph = new DirectedSparseGraph<>();
+        new GraphMLReader().read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                GraphSink.of(graph));
+        assertEquals(6, graph.getVertexCount());
+        assertTrue(graph.isSuccessor("b", "c <3"));
+
+        assertThrows(IOException.class, () -> new GraphMLReader().read(new ByteArrayInputStream(
+                "<graphml><graph><edge source=\"a\"/></graph></graphml>".getBytes(StandardCharsets.UTF_8)),
+                new EdgeListBuilder()));
+        assertThrows(IOException.class, () -> new GraphMLReader().read(new ByteArrayInputStream(
+                "<graphml><graph><node id=\"a\"></graph>".getBytes(StandardCharsets.UTF_8)),
+                new EdgeListBuilder()));
+    }
+
+    @Test
+    void dot() throws IOException {
+        String dot = "# preprocessor line\n"
+                + "/* leading\n comment */ strict DiGraph \"my graph\" {\n"
+                + "  graph [rankdir=LR]; node [shape=box, label=<<b>bold</b> &gt; <i>it</i>>]\n"
+                + "  edge [color=\"red\"]\n"
+                + "  rankdir = TB\n"
+                + "  a -> b -> c [label=\"x -> y\", weight=2]\n"
+                + "  \"quoted \\\"name\\\"\" -> a // trailing comment\n"
+                + "  \"joined\" + \" string\" -> -1.5\n"
+                + "  a:port:n -> d:sw\n"
+                + "  lonely;\n"
+                + "  b -> {e f} -> g\n"
+                + "  subgraph cluster_0 { h; i -> j } -> k\n"
+                + "  { l m } -> n\n"
+                + "  <html <b>id</b>> -> a\n"
+                + "  c -> a\n"
+                + "}\n"
+                + "graph second { p -- q }\n";
+        EdgeListBuilder builder = new EdgeListBuilder();
+        new DotReader().read(new StringReader(dot), builder);
+        EdgeList edges = builder.build();
+        assertEquals(Arrays.asList("a", "b", "c", "quoted \"name\"", "joined string", "-1.5", "d",
+                "lonely", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "html <b>id</b>", "p", "q"),
+                edges.names());
+        String[] expected = {
+            "a b", "b c", "quoted \"name\" a", "joined string -1.5", "a d", "b e", "b f",
+            "e g", "f g", "i j", "h k", "i k", "j k", "l n", "m n", "html <b>id</b> a", "c a", "p q"
+        };
+        assertEquals(expected.length, edges.edgeCount());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], edges.name(edges.source(i)) + " " + edges.name(edges.target(i)),
+                    "edge " + i);
+        }
+        assertTrue(edges.hasCycles());
+
+        assertThrows(IOException.class, () -> new DotReader().read(
+                new StringReader("digraph { a -> }"), new EdgeListBuilder()));
+        assertThrows(IOException.class, () -> new DotReader().read(
+                new StringReader("digraph { a -> \"b }"), new EdgeListBuilder()));
+        assertThrows(IOException.class, () -> new DotReader().read(
+                new StringReader("tree { a }"), new EdgeListBuilder()));
+    }
+
+    @Test
+    void largeFiles() throws IOException {
+        Path graphml = Files.createTempFile("GraphReadersTest", ".graphml");
+        Path dot = Files.createTempFile("GraphReadersTest", ".dot");
+        try {
+            int edgeCount = writeGraphML(graphml);
+            assertEquals(edgeCount, writeDot(dot));
+            for (int i = 0; i < 2; i++) {
+                // The first round warms up
+                boolean report = i == 1;
+                EdgeList fromGraphML = measure("GraphML", graphml, report,
+                        builder -> new GraphMLReader().read(graphml, builder));
+                EdgeList fromDot = measure("DOT", dot, report,
+                        builder -> new DotReader().read(dot, builder));
+                assertEquals(NODES, fromGraphML.size());
+                // A node's second parent is sometimes the same as its first
+                assertEquals(edgeCount, fromGraphML.edgeCount() + fromGraphML.duplicates());
+                assertEquals(fromGraphML.names(), fromDot.names());
+                assertEquals(fromGraphML.edgeCount(), fromDot.edgeCount());
+                assertFalse(fromDot.isForest());
+            }
+        } finally {
+            Files.deleteIfExists(graphml);
+            Files.deleteIfExists(dot);
+        }
+    }
+
+    interface Read {
+
+        void read(EdgeListBuilder builder) throws IOException;
+    }
+
+    private static EdgeList measure(String format, Path file, boolean report, Read read) throws IOException {
+        System.gc();
+        long before = heapUsed();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        long start = System.nanoTime();
+        EdgeListBuilder builder = new EdgeListBuilder();
+        read.read(builder);
+        EdgeList result = builder.build();
+        long elapsed = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.gc();
+        long retained = heapUsed() - before;
+        if (report) {
+            double mb = Files.size(file) / (1024D * 1024D);
+            System.out.printf("%s: %.1f MB, %d nodes, %d edges in %d ms (%.0f MB/s), "
+                    + "peak heap %d MB, graph retains %d MB%n", format, mb, result.size(),
+                    result.edgeCount(), elapsed / 1000000, mb / (elapsed / 1e9),
+                    (peak - before) / (1024 * 1024), retained / (1024 * 1024));
+        }
+        return result;
+    }
+
+    private static long heapUsed() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static int writeGraphML(Path file) throws IOException {
+        Random random = new Random(7);
+        int edges = 0;
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+                    + "<key id=\"d0\" for=\"node\" attr.name=\"description\" attr.type=\"string\"/>\n"
+                    + "<graph id=\"G\" edgedefault=\"directed\">\n");
+            for (int i = 0; i < NODES; i++) {
+                out.write("<node id=\"n" + i + "\"><data key=\"d0\">");
+                // Exports usually carry far more attribute data than structure
+                for (int j = 0; j < 4; j++) {
+                    out.write("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + j + ". ");
+                }
+                out.write("</data></node>\n");
+            }
+            for (int i = 1; i < NODES; i++) {
+                edges += graphMLEdge(out, random.nextInt(i), i);
+                if (random.nextInt(2) == 0) {
+                    edges += graphMLEdge(out, random.nextInt(i), i);
+                }
+            }
+            out.write("</graph>\n</graphml>\n");
+        }
+        return edges;
+    }
+
+    private static int graphMLEdge(Writer out, int source, int target) throws IOException {
+        out.write("<edge source=\"n" + source + "\" target=\"n" + target + "\"><data key=\"d1\">"
+                + (source ^ target) + "</data></edge>\n");
+        return 1;
+    }
+
+    private static int writeDot(Path file) throws IOException {
+        // Same graph, same random sequence
+        Random random = new Random(7);
+        int edges = 0;
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("digraph G {\n  node [shape=box];\n");
+            for (int i = 0; i < NODES; i++) {
+                out.write("  n" + i + " [label=\"");
+                for (int j = 0; j < 4; j++) {
+                    out.write("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + j + ". ");
+                }
+                out.write("\"];\n");
+            }
+            for (int i = 1; i < NODES; i++) {
+                out.write("  n" + random.nextInt(i) + " -> n" + i + " [weight=2];\n");
+                edges++;
+                if (random.nextInt(2) == 0) {
+                    out.write("  n" + random.nextInt(i) + " -> n" + i + ";\n");
+                    edges++;
+                }
+            }
+            out.write("}\n");
+        }
+        return edges;
+    }
+}
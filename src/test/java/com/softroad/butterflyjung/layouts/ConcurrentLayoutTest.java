@@ -0,0 +1,144 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs many layouts at once and checks that each produces exactly what it
+ * produces when run alone, which fails if instances share mutable state.
+ */
+class ConcurrentLayoutTest {
+
+    private static final int LAYOUTS = 240;
+    private static final int THREADS = 48;
+    private static final int TICKS = 30;
+
+    @Test
+    void concurrentLayoutsAreIndependentAndDeterministic() throws Exception {
+        List<Job> jobs = new ArrayList<>();
+        IntGraph[] graphs = {ForceDirected.testGraph(), randomGraph(60, 1), randomGraph(90, 2)};
+        ForceDirected.TickMode[] modes = {ForceDirected.TickMode.SEQUENTIAL,
+            ForceDirected.TickMode.PARALLEL_DETERMINISTIC};
+        ForceDirected.RepulsionMode[] repulsions = ForceDirected.RepulsionMode.values();
+        ForceDirected.ForceEvaluation[] evaluations = ForceDirected.ForceEvaluation.values();
+        for (int i = 0; i < LAYOUTS; i++) {
+            int combination = i / graphs.length;
+            jobs.add(new Job(graphs[i % graphs.length], i % 7,
+                    modes[combination % modes.length],
+                    repulsions[(combination / modes.length) % repulsions.length],
+                    evaluations[(combination / (modes.length * repulsions.length)) % evaluations.length]));
+        }
+        // Reference results, one at a time
+        double[][] expected = new double[LAYOUTS][];
+        for (int i = 0; i < LAYOUTS; i++) {
+            expected[i] = jobs.get(i).call();
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<double[]>> results = new ArrayList<>();
+            for (Job job : jobs) {
+                results.add(threads.submit(() -> {
+                    start.await();
+                    return job.call();
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < LAYOUTS; i++) {
+                assertArrayEquals(expected[i], results.get(i).get(2, TimeUnit.MINUTES),
+                        "Layout " + i + " differs when run concurrently: " + jobs.get(i));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void differentSeedsProduceDifferentLayouts() throws Exception {
+        IntGraph graph = randomGraph(40, 3);
+        Job a = new Job(graph, 1, ForceDirected.TickMode.SEQUENTIAL,
+                ForceDirected.RepulsionMode.EXACT, ForceDirected.ForceEvaluation.KERNEL);
+        Job b = new Job(graph, 2, ForceDirected.TickMode.SEQUENTIAL,
+                ForceDirected.RepulsionMode.EXACT, ForceDirected.ForceEvaluation.KERNEL);
+        assertTrue(!Arrays.equals(a.call(), b.call()), "Seed had no effect");
+    }
+
+    private static final class Job {
+
+        private final IntGraph graph;
+        private final long seed;
+        private final ForceDirected.TickMode mode;
+        private final ForceDirected.RepulsionMode repulsion;
+        private final ForceDirected.ForceEvaluation evaluation;
+
+        Job(IntGraph graph, long seed, ForceDirected.TickMode mode,
+                ForceDirected.RepulsionMode repulsion, ForceDirected.ForceEvaluation evaluation) {
+            this.graph = graph;
+            this.seed = seed;
+            this.mode = mode;
+            this.repulsion = repulsion;
+            this.evaluation = evaluation;
+        }
+
+        double[] call() {
+            ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(seed));
+            fd.setTickMode(mode);
+            fd.setRepulsionMode(repulsion);
+            fd.setForceEvaluation(evaluation);
+            for (int i = 0; i < TICKS; i++) {
+                fd.iterate();
+            }
+            double[] result = new double[graph.size() * 2];
+            for (int i = 0; i < graph.size(); i++) {
+                result[i * 2] = fd.x(i);
+                result[i * 2 + 1] = fd.y(i);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return graph.size() + " nodes, seed " + seed + ", " + mode + ", " + repulsion
+                    + ", " + evaluation;
+        }
+    }
+}
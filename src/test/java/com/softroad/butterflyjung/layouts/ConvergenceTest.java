@@ -0,0 +1,179 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that oscillating nodes cool and steady ones warm back up, and each
+ * of the ways a layout can count as converged.
+ */
+class ConvergenceTest {
+
+    private static final double TOLERANCE = 0.5;
+
+    @Test
+    void oscillatingNodesCoolAndSteadyOnesDoNot() {
+        double[] xs = new double[2];
+        double[] ys = new double[2];
+        Convergence convergence = new Convergence(xs, ys);
+        for (int tick = 1; tick <= 6; tick++) {
+            // Node 0 jitters back and forth, node 1 keeps going
+            xs[0] = tick % 2;
+            xs[1] = tick;
+            convergence.update(tick, xs, ys, true, TOLERANCE, false);
+        }
+        // The first tick has no previous direction to reverse
+        assertEquals(Math.pow(Convergence.COOLING, 5), convergence.temperature(0), 1e-12);
+        assertEquals(1, convergence.temperature(1), 1e-12);
+        assertEquals((1 + Math.pow(Convergence.COOLING, 5)) / 2, convergence.temperature(), 1e-12);
+        assertEquals(convergence.temperature(), convergence.stats().getTemperature(), 1e-12);
+    }
+
+    @Test
+    void coolingStopsAtTheMinimumAndWarmsBackUp() {
+        double[] xs = new double[1];
+        double[] ys = new double[1];
+        Convergence convergence = new Convergence(xs, ys);
+        int tick = 0;
+        for (; tick < 100; tick++) {
+            xs[0] = tick % 2;
+            convergence.update(tick, xs, ys, true, TOLERANCE, false);
+        }
+        assertEquals(Convergence.MIN_TEMPERATURE, convergence.temperature(0), 1e-12);
+        double expected = Convergence.MIN_TEMPERATURE;
+        for (int i = 0; i < 100; i++, tick++) {
+            xs[0] += 1;
+            convergence.update(tick, xs, ys, true, TOLERANCE, false);
+            expected = Math.min(1, expected * Convergence.WARMING);
+            assertEquals(expected, convergence.temperature(0), 1e-12);
+        }
+        assertEquals(1, convergence.temperature(0), 1e-12);
+    }
+
+    @Test
+    void temperatureIsLeftAloneWithCoolingOff() {
+        double[] xs = new double[1];
+        double[] ys = new double[1];
+        Convergence convergence = new Convergence(xs, ys);
+        for (int tick = 1; tick <= 20; tick++) {
+            xs[0] = tick % 2;
+            convergence.update(tick, xs, ys, false, TOLERANCE, false);
+        }
+        assertEquals(1, convergence.temperature(0), 1e-12);
+    }
+
+    @Test
+    void displacementStatistics() {
+        double[] xs = new double[10];
+        double[] ys = new double[10];
+        Convergence convergence = new Convergence(xs, ys);
+        // Node i moves i units; node 0 stays still
+        for (int i = 0; i < 10; i++) {
+            ys[i] = i;
+        }
+        ConvergenceStats stats = convergence.update(1, xs, ys, true, TOLERANCE, false);
+        assertEquals(1, stats.getStep());
+        assertEquals(285, stats.getEnergy(), 1e-9);
+        assertEquals(5, stats.getMedianDisplacement(), 1e-12);
+        assertEquals(9, stats.getNinetiethPercentileDisplacement(), 1e-12);
+        assertEquals(9, stats.getMaxDisplacement(), 1e-12);
+        assertFalse(stats.isConverged());
+    }
+
+    @Test
+    void convergesAfterConsecutiveTicksUnderTheTolerance() {
+        double[] xs = new double[3];
+        double[] ys = new double[3];
+        Convergence convergence = new Convergence(xs, ys);
+        int tick = 1;
+        for (int i = 1; i < Convergence.CONVERGED_TICKS; i++) {
+            move(xs, TOLERANCE / 2);
+            assertFalse(convergence.update(tick++, xs, ys, true, TOLERANCE, false).isConverged());
+        }
+        // One big move starts the count again
+        move(xs, TOLERANCE * 2);
+        assertFalse(convergence.update(tick++, xs, ys, true, TOLERANCE, false).isConverged());
+        for (int i = 1; i < Convergence.CONVERGED_TICKS; i++) {
+            move(xs, TOLERANCE / 2);
+            assertFalse(convergence.update(tick++, xs, ys, true, TOLERANCE, false).isConverged());
+        }
+        move(xs, TOLERANCE / 2);
+        assertTrue(convergence.update(tick, xs, ys, true, TOLERANCE, false).isConverged());
+        assertTrue(convergence.converged());
+        // Moving a node from outside starts over
+        convergence.moved(0, 100, 100);
+        assertFalse(convergence.converged());
+    }
+
+    @Test
+    void convergesWhenEverythingIsAsleep() {
+        double[] xs = new double[2];
+        double[] ys = new double[2];
+        Convergence convergence = new Convergence(xs, ys);
+        move(xs, TOLERANCE * 10);
+        assertTrue(convergence.update(1, xs, ys, true, TOLERANCE, true).isConverged());
+    }
+
+    @Test
+    void convergesOnceDisplacementStopsShrinking() {
+        double[] xs = new double[2];
+        double[] ys = new double[2];
+        Convergence convergence = new Convergence(xs, ys);
+        int tick = 1;
+        for (; tick <= Convergence.WINDOW; tick++) {
+            move(xs, 1);
+            assertFalse(convergence.update(tick, xs, ys, true, TOLERANCE, false).isConverged(),
+                    "Converged at " + tick);
+        }
+        move(xs, 1);
+        assertTrue(convergence.update(tick, xs, ys, true, TOLERANCE, false).isConverged());
+    }
+
+    @Test
+    void doesNotConvergeWhileDisplacementKeepsShrinking() {
+        double[] xs = new double[2];
+        double[] ys = new double[2];
+        Convergence convergence = new Convergence(xs, ys);
+        double step = 100;
+        for (int tick = 1; tick <= Convergence.WINDOW * 3; tick++) {
+            move(xs, step);
+            step *= 0.995;
+            assertFalse(convergence.update(tick, xs, ys, true, TOLERANCE, false).isConverged(),
+                    "Converged at " + tick + " moving " + step);
+        }
+    }
+
+    private static void move(double[] xs, double distance) {
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] += distance;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.function.DoubleBiConsumer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.softroad.butterflyjung.layouts.ForceDirected.HUB_REPULSION_HORIZON;
+import static com.softroad.butterflyjung.layouts.ForceDirected.PUSH_OUT;
+import static com.softroad.butterflyjung.layouts.ForceDirected.REPULSION_HORIZON;
+import static com.softroad.butterflyjung.layouts.ForceDirected.TWIST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that compiled strengths and forces, and the reusable chains
+ * ForceDirected evaluates pairs with, compute exactly what the composed
+ * objects they replace do.
+ */
+class ForceCompileTest {
+
+    @Test
+    void compiledStrengthsMatchComposed() {
+        Random random = new Random(6);
+        for (int i = 0; i < 2000; i++) {
+            Strength composed = randomStrength(random, 4);
+            Strength compiled = composed.compile();
+            for (int j = 0; j < 50; j++) {
+                double cx = coordinate(random);
+                double cy = coordinate(random);
+                double x = coordinate(random);
+                double y = coordinate(random);
+                double distance = random.nextInt(4) == 0
+                        ? Math.sqrt((x - cx) * (x - cx) + (y - cy) * (y - cy))
+                        : random.nextDouble() * 600;
+                assertEquals(Double.doubleToLongBits(composed.computeStrength(cx, cy, x, y, distance)),
+                        Double.doubleToLongBits(compiled.computeStrength(cx, cy, x, y, distance)),
+                        "Strength " + i + " at " + cx + "," + cy + " " + x + "," + y + " " + distance);
+            }
+        }
+    }
+
+    @Test
+    void compiledForcesMatchComposed() {
+        Random random = new Random(6);
+        for (int i = 0; i < 2000; i++) {
+            long seed = random.nextLong();
+            // Built twice, since some forces change their own state
+            Force composed = randomForce(new Random(seed), 3);
+            Force compiled = randomForce(new Random(seed), 3).compile();
+            for (int j = 0; j < 30; j++) {
+                double x = coordinate(random);
+                double y = coordinate(random);
+                assertEquals(results(composed, x, y), results(compiled, x, y),
+                        "Force " + i + " at " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void pairForcesMatchComposed() {
+        Random random = new Random(6);
+        PairForces forces = new PairForces();
+        for (int i = 0; i < 20000; i++) {
+            double jx = coordinate(random);
+            double jy = coordinate(random);
+            double rel = random.nextInt(10) == 0 ? 0 : random.nextDouble() * 3;
+            double minRel = random.nextDouble() * 0.2;
+            double horizon = 60 + random.nextInt(100);
+            int inner = random.nextInt(4);
+            boolean hubs = random.nextBoolean();
+
+            Force composed = Force.NONE;
+            switch (inner) {
+                case PairForces.ATTRACT:
+                    composed = composed.and(new Attraction(jx, jy, horizon, rel, minRel));
+                    forces.attraction.retarget(jx, jy, horizon, rel, minRel);
+                    break;
+                case PairForces.ATTRACT_AND_TWIST:
+                    composed = composed.and(new Attraction(jx, jy, horizon, rel, minRel))
+                            .and(new RotationalForce(jx, jy, TWIST, 360));
+                    forces.attraction.retarget(jx, jy, horizon, rel, minRel);
+                    forces.twist.setCenter(jx, jy);
+                    break;
+                case PairForces.REPEL:
+                    composed = new ForceDirected.Repul(jx, jy, REPULSION_HORIZON).and(composed);
+                    forces.repulsion.setCenter(jx, jy);
+                    break;
+                default:
+                    break;
+            }
+            if (hubs) {
+                composed = new SimpleForce(jx, jy,
+                        Strength.LINEAR.multiply(rel > 1 ? rel * 4 : 4 * (1D / rel))
+                                .negate()
+                                .bound(HUB_REPULSION_HORIZON))
+                        .and(composed);
+                forces.hub.setCenter(jx, jy);
+                forces.hubStrength.multiplier = rel > 1 ? rel * 4 : 4 * (1D / rel);
+            } else {
+                composed = new ForceDirected.Repul(jx, jy, 25).or(composed);
+                forces.nearby.setCenter(jx, jy);
+            }
+            double x = jx + random.nextGaussian() * 200;
+            double y = jy + random.nextGaussian() * 200;
+            assertEquals(results(composed, x, y), results(forces.push(inner, hubs), x, y),
+                    "Pair " + i + " inner " + inner + " hubs " + hubs + " rel " + rel);
+        }
+    }
+
+    private static List<Long> results(Force force, double x, double y) {
+        List<Long> result = new ArrayList<>();
+        DoubleBiConsumer collect = (a, b) -> {
+            result.add(Double.doubleToLongBits(a));
+            result.add(Double.doubleToLongBits(b));
+        };
+        force.accept(x, y, collect);
+        return result;
+    }
+
+    private static double coordinate(Random random) {
+        return (random.nextDouble() - 0.5) * 2000;
+    }
+
+    private static Strength randomStrength(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    return Strength.INVERSE_SQUARE;
+                case 1:
+                    return Strength.LINEAR;
+                case 2:
+                    return Strength.NO_DROPOFF;
+                case 3:
+                    return Strength.LOG;
+                case 4:
+                    return Strength.inverseSquareScaled(random.nextDouble() * 4);
+                default:
+                    return Strength.fixed((random.nextDouble() - 0.5) * 10);
+            }
+        }
+        Strength source = randomStrength(random, depth - 1);
+        switch (random.nextInt(11)) {
+            case 0:
+                return source.multiply((random.nextDouble() - 0.5) * 10);
+            case 1:
+                return source.bound(random.nextDouble() * 600);
+            case 2:
+                return source.negate();
+            case 3:
+                return source.logarithmic();
+            case 4:
+                return source.cuberoot();
+            case 5:
+                return source.squareroot();
+            case 6:
+                return source.sin();
+            case 7:
+                return source.cos();
+            case 8:
+                return source.internal();
+            case 9:
+                return source.external();
+            default:
+                return source.dividedInto((random.nextDouble() - 0.5) * 10);
+        }
+    }
+
+    private static Force randomForce(Random random, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            double x = coordinate(random);
+            double y = coordinate(random);
+            switch (random.nextInt(5)) {
+                case 0:
+                    return Force.NONE;
+                case 1:
+                    return new ForceDirected.Repul(x, y, random.nextDouble() * 1000);
+                case 2:
+                    return new RotationalForce(x, y, randomStrength(random, 2), random.nextDouble() * 1000);
+                case 3:
+                    return new Attraction(x, y, random.nextDouble() * 200,
+                            random.nextDouble(), random.nextDouble() * 0.2);
+                default:
+                    return new SimpleForce(x, y, random.nextBoolean()
+                            ? PUSH_OUT : randomStrength(random, 2));
+            }
+        }
+        Force first = randomForce(random, depth - 1);
+        Force second = randomForce(random, depth - 1);
+        return random.nextBoolean() ? first.and(second) : first.or(second);
+    }
+}
@@ -0,0 +1,285 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.Graph;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the bounds that normalized positions are measured from, that the
+ * settings documented as not changing the layout really do not, and how
+ * ForceDir configures what it wraps.
+ */
+class ForceDirectedTest {
+
+    @Test
+    void boundsCoverSleepingNodes() {
+        IntGraph graph = randomGraph(80, 4);
+        ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(4));
+        fd.setSleepingEnabled(true);
+        fd.setSleepThreshold(20);
+        fd.setSleepTicks(3);
+        boolean sawSleeping = false;
+        for (int i = 0; i < 400; i++) {
+            fd.iterate();
+            sawSleeping |= fd.awakeCount() < graph.size();
+            assertBoundsCoverAllNodes(fd, "tick " + i);
+        }
+        assertTrue(sawSleeping, "No node ever went to sleep");
+    }
+
+    @Test
+    void boundsCoverNodesHeldStillAfterWarmStart() {
+        IntGraph graph = randomGraph(200, 5);
+        ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(5));
+        for (int i = 0; i < 20; i++) {
+            fd.iterate();
+        }
+        BitSet[] children = new BitSet[graph.size()];
+        for (int i = 0; i < graph.size(); i++) {
+            children[i] = new BitSet(graph.size());
+            for (int j = graph.children(i).nextSetBit(0); j >= 0; j = graph.children(i).nextSetBit(j + 1)) {
+                children[i].set(j);
+            }
+        }
+        children[3].set(150);
+        int[] indices = new int[graph.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        ForceDirected warm = fd.warmStart(IntGraph.create(children), indices, 1, 30);
+        double[] xs = warm.xs.clone();
+        double[] ys = warm.ys.clone();
+        for (int i = 0; i < 30; i++) {
+            warm.iterate();
+            assertBoundsCoverAllNodes(warm, "tick " + i);
+        }
+        int still = 0;
+        for (int i = 0; i < graph.size(); i++) {
+            if (xs[i] == warm.x(i) && ys[i] == warm.y(i)) {
+                still++;
+            }
+        }
+        assertTrue(still > graph.size() / 2, "Only " + still + " nodes held still");
+    }
+
+    @Test
+    void multilevelForceDirChoosesRepulsionBySize() {
+        Graph<String, String> graph = new DirectedSparseGraph<>();
+        Random random = new Random(6);
+        int size = MultilevelLayout.BARNES_HUT_THRESHOLD + 500;
+        for (int i = 1; i < size; i++) {
+            graph.addEdge("e" + i, "n" + random.nextInt(i), "n" + i);
+        }
+        ForceDir<String, String> layout = new ForceDir<>(graph);
+        assertNull(layout.getRepulsionMode());
+        assertEquals(ForceDirected.RepulsionMode.EXACT, layout.current().repulsionMode());
+        layout.setMultilevel(true);
+        layout.reset();
+        assertEquals(ForceDirected.RepulsionMode.BARNES_HUT, layout.current().repulsionMode());
+        layout.setRepulsionMode(ForceDirected.RepulsionMode.EXACT);
+        layout.reset();
+        assertEquals(ForceDirected.RepulsionMode.EXACT, layout.current().repulsionMode());
+    }
+
+    @Test
+    void parallelDeterministicIsTheSameForAnyPoolSize() {
+        IntGraph graph = randomGraph(300, 7);
+        for (ForceDirected.ForceEvaluation evaluation : ForceDirected.ForceEvaluation.values()) {
+            double[] expected = null;
+            for (int threads : new int[]{0, 1, 2, 5}) {
+                // Without a pool, the chunks run one by one on this thread
+                ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+                try {
+                    ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(7));
+                    fd.setForceEvaluation(evaluation);
+                    fd.setTickMode(ForceDirected.TickMode.PARALLEL_DETERMINISTIC);
+                    fd.setPool(pool);
+                    double[] positions = tick(fd, 20);
+                    if (expected == null) {
+                        expected = positions;
+                    } else {
+                        assertArrayEquals(expected, positions, evaluation + " with " + threads + " threads");
+                    }
+                } finally {
+                    if (pool != null) {
+                        pool.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void kernelMatchesForceObjects() {
+        IntGraph graph = randomGraph(300, 8);
+        for (ForceDirected.TickMode mode : new ForceDirected.TickMode[]{
+            ForceDirected.TickMode.SEQUENTIAL, ForceDirected.TickMode.PARALLEL_DETERMINISTIC}) {
+            double[][] positions = new double[2][];
+            for (ForceDirected.ForceEvaluation evaluation : ForceDirected.ForceEvaluation.values()) {
+                ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(8));
+                fd.setTickMode(mode);
+                fd.setForceEvaluation(evaluation);
+                fd.setNeighborScan(ForceDirected.NeighborScan.NONE);
+                positions[evaluation.ordinal()] = tick(fd, 20);
+            }
+            double worst = 0;
+            for (int i = 0; i < positions[0].length; i++) {
+                worst = Math.max(worst, Math.abs(positions[0][i] - positions[1][i]));
+            }
+            assertTrue(worst < 1e-10, mode + " differs by " + worst);
+        }
+    }
+
+    @Test
+    void neighborScansMatchAllPairs() {
+        IntGraph graph = randomGraph(400, 9);
+        for (ForceDirected.TickMode mode : new ForceDirected.TickMode[]{
+            ForceDirected.TickMode.SEQUENTIAL, ForceDirected.TickMode.PARALLEL_DETERMINISTIC}) {
+            for (boolean sleeping : new boolean[]{false, true}) {
+                double[] expected = null;
+                double[] expectedBounds = null;
+                for (ForceDirected.NeighborScan scan : ForceDirected.NeighborScan.values()) {
+                    ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(9));
+                    fd.setTickMode(mode);
+                    fd.setNeighborScan(scan);
+                    fd.setSleepingEnabled(sleeping);
+                    fd.setSleepThreshold(20);
+                    fd.setSleepTicks(3);
+                    double[] positions = tick(fd, 40);
+                    assertEquals(sleeping, fd.awakeCount() < graph.size(), "sleeping with " + scan);
+                    double[] bounds = {fd.minX(), fd.minY(), fd.maxX(), fd.maxY()};
+                    if (expected == null) {
+                        expected = positions;
+                        expectedBounds = bounds;
+                    } else {
+                        String msg = scan + " " + mode + (sleeping ? " sleeping" : "");
+                        assertArrayEquals(expected, positions, msg);
+                        assertArrayEquals(expectedBounds, bounds, "bounds with " + msg);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void barnesHutMatchesExact() {
+        IntGraph graph = randomGraph(200, 11);
+        for (ForceDirected.TickMode mode : new ForceDirected.TickMode[]{
+            ForceDirected.TickMode.SEQUENTIAL, ForceDirected.TickMode.PARALLEL_DETERMINISTIC}) {
+            double[] start = tick(new ForceDirected(graph, 1536, 1024, new Random(11)), 0);
+            double[][] positions = new double[2][];
+            for (ForceDirected.RepulsionMode repulsion : ForceDirected.RepulsionMode.values()) {
+                ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(11));
+                fd.setTickMode(mode);
+                fd.setRepulsionMode(repulsion);
+                positions[repulsion.ordinal()] = tick(fd, 1);
+            }
+            double moved = 0;
+            double differs = 0;
+            for (int i = 0; i < start.length; i++) {
+                moved += Math.abs(positions[0][i] - start[i]);
+                differs += Math.abs(positions[0][i] - positions[1][i]);
+            }
+            // Pairs are visited in a different order, so positions are not
+            // identical, but no pair is missed or added
+            assertTrue(differs < moved * 0.1, mode + " moved " + moved + " but differs by " + differs);
+        }
+    }
+
+    @Test
+    void layoutWithinIsNoWorseThanTheLastTick() {
+        IntGraph graph = randomGraph(400, 10);
+        int[] sources = LayoutMetrics.sampleSources(graph.size(), MultiStart.STRESS_SOURCES,
+                new Random(graph.size()));
+        for (long budget : new long[]{5, 100, 500}) {
+            ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(10));
+            LayoutSnapshot snapshot = fd.layoutWithin(Duration.ofMillis(budget));
+            assertTrue(snapshot.stress() <= snapshot.finalStress(), snapshot.toString());
+            assertEquals(snapshot.stress(), LayoutMetrics.stress(graph, fd.xs, fd.ys, sources), 0,
+                    "Layout not left at the snapshot's positions");
+            long overrun = snapshot.elapsed().toMillis() - budget;
+            assertTrue(overrun < 50, "Overran a " + budget + "ms budget by " + overrun + "ms");
+        }
+    }
+
+    static void assertBoundsCoverAllNodes(ForceDirected fd, String msg) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        for (int i = 0; i < fd.size; i++) {
+            minX = Math.min(minX, fd.x(i));
+            minY = Math.min(minY, fd.y(i));
+        }
+        assertEquals(minX, fd.minX(), 0, "min x at " + msg);
+        assertEquals(minY, fd.minY(), 0, "min y at " + msg);
+        for (int i = 0; i < fd.size; i++) {
+            assertTrue(fd.xNorm(i) >= 0 && fd.xNorm(i) <= fd.maxX() - fd.minX(),
+                    "x of " + i + " at " + msg + ": " + fd.xNorm(i));
+            assertTrue(fd.yNorm(i) >= 0 && fd.yNorm(i) <= fd.maxY() - fd.minY(),
+                    "y of " + i + " at " + msg + ": " + fd.yNorm(i));
+        }
+    }
+
+    @Test
+    void layoutWithinStopsWhenInterrupted() {
+        ForceDirected fd = new ForceDirected(randomGraph(400, 12), 1536, 1024, new Random(12));
+        fd.setPool(null);
+        fd.setTickMode(ForceDirected.TickMode.PARALLEL_DETERMINISTIC);
+        Thread.currentThread().interrupt();
+        long start = System.nanoTime();
+        LayoutSnapshot snapshot = fd.layoutWithin(Duration.ofSeconds(30));
+        long elapsed = System.nanoTime() - start;
+        assertTrue(Thread.interrupted(), "Interrupt status should be left set");
+        assertEquals(0, snapshot.ticks());
+        assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5), "Took " + elapsed + "ns");
+    }
+
+    static double[] tick(ForceDirected fd, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            fd.iterate();
+        }
+        double[] result = new double[fd.size * 2];
+        for (int i = 0; i < fd.size; i++) {
+            result[i * 2] = fd.x(i);
+            result[i * 2 + 1] = fd.y(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,173 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saves layouts to graph files and checks that what is reopened is the same
+ * graph, relatedness and positions, and reports how long reopening takes
+ * against computing from scratch.
+ */
+class GraphFileTest {
+
+    private static final int NODES = 5000;
+
+    @Test
+    void layoutRoundTrips() throws IOException {
+        IntGraph graph = randomGraph(NODES, 3);
+        List<String> names = names(NODES);
+        long start = System.nanoTime();
+        ForceDirected fd = new ForceDirected(graph, 1536, 1024, new Random(3));
+        long computed = System.nanoTime() - start;
+        for (int i = 0; i < 20; i++) {
+            fd.iterate();
+        }
+        Path file = Files.createTempFile("GraphFileTest", ".bjg");
+        try {
+            start = System.nanoTime();
+            GraphFile.write(file, names, fd);
+            long written = System.nanoTime() - start;
+            start = System.nanoTime();
+            GraphFile saved = GraphFile.open(file);
+            long opened = System.nanoTime() - start;
+            ForceDirected restored = saved.toForceDirected();
+            long total = System.nanoTime() - start;
+            assertTrue(saved.hasRelatedness());
+            assertTrue(saved.hasPositions());
+            assertEquals(NODES, saved.size());
+            assertEquals(names, saved.names());
+            assertSameGraph(graph, saved.toIntGraph());
+            for (int i = 0; i < NODES; i++) {
+                assertEquals(fd.xs[i], saved.x(i), 0, "x of " + i);
+                assertEquals(fd.ys[i], saved.y(i), 0, "y of " + i);
+                assertEquals(fd.xs[i], restored.xs[i], 0, "restored x of " + i);
+                assertEquals(fd.ys[i], restored.ys[i], 0, "restored y of " + i);
+                assertEquals(fd.relatedness.rowLength(i), restored.relatedness.rowLength(i), "row " + i);
+                for (int j = 0; j < fd.relatedness.rowLength(i); j++) {
+                    int col = fd.relatedness.column(i, j);
+                    assertEquals(col, restored.relatedness.column(i, j), "column " + j + " of " + i);
+                    assertEquals(fd.relatedness.value(i, j), restored.relatedness.get(i, col),
+                            0, "relatedness of " + i + " and " + col);
+                }
+            }
+            assertEquals(fd.relatedness.min(), restored.relatedness.min(), 0);
+            assertEquals(fd.relatedness.max(), restored.relatedness.max(), 0);
+            restored.iterate();
+            assertFalse(Double.isNaN(restored.xs[0]), "Restored layout does not run");
+            System.out.printf("%d nodes, %d edges, %d bytes: computed in %d ms, written in %d ms, "
+                    + "mapped in %.2f ms, restored in %d ms%n", NODES, saved.edgeCount(),
+                    Files.size(file), computed / 1000000, written / 1000000, opened / 1000000D,
+                    total / 1000000);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void graphWithoutLayout() throws IOException {
+        IntGraph graph = randomGraph(500, 5);
+        List<String> names = new ArrayList<>(names(500));
+        names.set(7, "n\u00e9\u00f8d \"seven\"");
+        Path file = Files.createTempFile("GraphFileTest", ".bjg");
+        try {
+            GraphFile.write(file, names, graph);
+            GraphFile saved = GraphFile.open(file);
+            assertFalse(saved.hasRelatedness());
+            assertFalse(saved.hasPositions());
+            assertEquals(names, saved.names());
+            assertSameGraph(graph, saved.toIntGraph());
+            assertThrows(IllegalStateException.class, () -> saved.x(0));
+            ForceDirected fd = saved.toForceDirected();
+            fd.iterate();
+            assertEquals(500, fd.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void namesOfEveryEncodedWidthRoundTrip() throws IOException {
+        IntGraph graph = randomGraph(6, 6);
+        List<String> names = new ArrayList<>(Arrays.asList("ascii", "\u00e9", "\u20ac uro",
+                "\ud83d\ude00 smile", "", "lone \ud800 surrogate"));
+        Path file = Files.createTempFile("GraphFileTest", ".bjg");
+        try {
+            GraphFile.write(file, names, graph);
+            // Unpaired surrogates are saved as getBytes() encodes them
+            names.set(5, "lone ? surrogate");
+            assertEquals(names, GraphFile.open(file).names());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("GraphFileTest", ".bjg");
+        try {
+            Files.write(file, new byte[GraphFile.HEADER_LENGTH]);
+            assertThrows(IOException.class, () -> GraphFile.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void assertSameGraph(IntGraph expected, IntGraph got) {
+        assertEquals(expected.size(), got.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.children(i).cardinality(), got.children(i).cardinality(), "children of " + i);
+            assertEquals(expected.parents(i).cardinality(), got.parents(i).cardinality(), "parents of " + i);
+            for (int bit = expected.children(i).nextSetBit(0); bit >= 0;
+                    bit = expected.children(i).nextSetBit(bit + 1)) {
+                assertTrue(got.children(i).get(bit), i + " -> " + bit);
+            }
+        }
+    }
+
+    private static List<String> names(int size) {
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add("node-" + i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the sweep in LayoutMetrics.crossings() against testing every pair
+ * of edges.
+ */
+class LayoutMetricsTest {
+
+    @Test
+    void crossingsMatchBruteForce() {
+        for (long seed = 1; seed <= 10; seed++) {
+            IntGraph graph = randomGraph(120, seed);
+            Random random = new Random(seed);
+            double[] xs = new double[graph.size()];
+            double[] ys = new double[graph.size()];
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = random.nextDouble() * 1000;
+                ys[i] = random.nextDouble() * 1000;
+            }
+            assertEquals(bruteForceCrossings(graph, xs, ys), LayoutMetrics.crossings(graph, xs, ys),
+                    "seed " + seed);
+        }
+    }
+
+    @Test
+    void crossingsMatchBruteForceOnAGrid() {
+        // Few distinct coordinates, so there are vertical edges, edges
+        // sharing a left end and endpoints lying on other edges
+        for (long seed = 1; seed <= 10; seed++) {
+            IntGraph graph = randomGraph(60, seed);
+            Random random = new Random(seed);
+            double[] xs = new double[graph.size()];
+            double[] ys = new double[graph.size()];
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = random.nextInt(6);
+                ys[i] = random.nextInt(6);
+            }
+            assertEquals(bruteForceCrossings(graph, xs, ys), LayoutMetrics.crossings(graph, xs, ys),
+                    "seed " + seed);
+        }
+    }
+
+    private static long bruteForceCrossings(IntGraph graph, double[] xs, double[] ys) {
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < graph.size(); i++) {
+            for (int j = graph.children(i).nextSetBit(0); j >= 0; j = graph.children(i).nextSetBit(j + 1)) {
+                // Count an edge present in both directions once
+                if (i < j || !graph.children(j).get(i)) {
+                    edges.add(new int[]{i, j});
+                }
+            }
+        }
+        long result = 0;
+        for (int e = 0; e < edges.size(); e++) {
+            int a = edges.get(e)[0];
+            int b = edges.get(e)[1];
+            for (int f = e + 1; f < edges.size(); f++) {
+                int c = edges.get(f)[0];
+                int d = edges.get(f)[1];
+                if (a == c || a == d || b == c || b == d) {
+                    continue;
+                }
+                // linesIntersect() calls two zero-length segments anywhere
+                // on the same line intersecting, so check the extents first
+                if (Math.max(xs[a], xs[b]) < Math.min(xs[c], xs[d])
+                        || Math.max(xs[c], xs[d]) < Math.min(xs[a], xs[b])
+                        || Math.max(ys[a], ys[b]) < Math.min(ys[c], ys[d])
+                        || Math.max(ys[c], ys[d]) < Math.min(ys[a], ys[b])) {
+                    continue;
+                }
+                if (Line2D.linesIntersect(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c], xs[d], ys[d])) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+}
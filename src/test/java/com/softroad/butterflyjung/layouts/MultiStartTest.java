@@ -0,0 +1,105 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that multi-start selection is repeatable, returns the start it
+ * scored best and stops running the ones it drops.
+ */
+class MultiStartTest {
+
+    private static final int ROUND_TICKS = 10;
+
+    @Test
+    void sameSeedPicksTheSameLayout() {
+        IntGraph graph = randomGraph(80, 4);
+        ForceDirected first = multiStart(graph, 5, ForkJoinPool.commonPool()).layout();
+        MultiStart again = multiStart(graph, 5, null);
+        ForceDirected second = again.layout();
+        assertArrayEquals(first.xs, second.xs);
+        assertArrayEquals(first.ys, second.ys);
+        MultiStart third = multiStart(graph, 5, ForkJoinPool.commonPool());
+        third.layout();
+        assertEquals(again.scores().toString(), third.scores().toString());
+    }
+
+    @Test
+    void bestStartSurvives() {
+        IntGraph graph = randomGraph(80, 9);
+        MultiStart ms = multiStart(graph, 6, ForkJoinPool.commonPool());
+        ForceDirected winner = ms.layout();
+        List<MultiStart.Score> scores = ms.scores();
+        assertEquals(6, scores.size());
+        MultiStart.Score best = scores.get(0);
+        int[] sources = LayoutMetrics.sampleSources(graph.size(), MultiStart.STRESS_SOURCES,
+                new Random(42));
+        assertEquals(best.stress(), LayoutMetrics.stress(graph, winner.xs, winner.ys, sources), 0);
+        assertEquals(best.crossings(), LayoutMetrics.crossings(graph, winner.xs, winner.ys));
+        // The runner-up ran in the final round alongside the winner
+        MultiStart.Score runnerUp = scores.get(1);
+        assertEquals(best.rounds(), runnerUp.rounds());
+        assertTrue(best.score() <= runnerUp.score(), best + " vs " + runnerUp);
+        for (MultiStart.Score s : scores.subList(2, scores.size())) {
+            assertTrue(s.rounds() < best.rounds(), s.toString());
+        }
+    }
+
+    @Test
+    void droppedStartsStopRunning() {
+        MultiStart ms = multiStart(randomGraph(80, 2), 5, ForkJoinPool.commonPool());
+        ms.layout();
+        // 5 starts halve to 3, then 2, then 1
+        int[] expectedRounds = {3, 3, 2, 1, 1};
+        List<MultiStart.Score> scores = ms.scores();
+        for (int i = 0; i < scores.size(); i++) {
+            MultiStart.Score s = scores.get(i);
+            int rounds = expectedRounds[i];
+            assertEquals(rounds, s.rounds(), s.toString());
+            assertTrue(s.ticks() <= rounds * ROUND_TICKS, s.toString());
+        }
+        assertTrue(scores.get(0).ticks() > scores.get(4).ticks(), scores.toString());
+    }
+
+    private static MultiStart multiStart(IntGraph graph, int starts, ForkJoinPool pool) {
+        MultiStart ms = new MultiStart(graph, 42);
+        ms.setStarts(starts);
+        ms.setRoundTicks(ROUND_TICKS);
+        ms.setPool(pool);
+        return ms;
+    }
+}
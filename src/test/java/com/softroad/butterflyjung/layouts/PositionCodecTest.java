@@ -0,0 +1,159 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round-trips a running layout through the position codec, and reports
+ * what it costs per frame.
+ */
+class PositionCodecTest {
+
+    private static final int NODES = 2000;
+    private static final int TICKS = 300;
+
+    @Test
+    void decodedPositionsStayWithinThreshold() {
+        ForceDirected fd = new ForceDirected(randomGraph(NODES, 1), 1536, 1024, new Random(1));
+        PositionCodec.Encoder encoder = PositionCodec.encoder(NODES);
+        PositionCodec.Decoder decoder = PositionCodec.decoder(NODES);
+        double tolerance = (PositionCodec.DEFAULT_THRESHOLD - 0.5) * PositionCodec.DEFAULT_QUANTUM + 1e-9;
+        long deltaBytes = 0;
+        int deltas = 0;
+        long laterBytes = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            fd.iterate();
+            int keyframes = encoder.keyframes();
+            int length = encoder.encode(fd);
+            if (encoder.keyframes() == keyframes) {
+                deltaBytes += length;
+                deltas++;
+            }
+            if (tick >= TICKS / 2) {
+                laterBytes += length;
+            }
+            assertTrue(decoder.decode(encoder.buffer(), 0, length), "Frame " + tick + " refused");
+            assertEquals(tick, decoder.frame());
+            for (int i = 0; i < NODES; i++) {
+                assertEquals(fd.xs[i], decoder.x(i), tolerance, "x of " + i + " at tick " + tick);
+                assertEquals(fd.ys[i], decoder.y(i), tolerance, "y of " + i + " at tick " + tick);
+            }
+        }
+        double raw = NODES * 16;
+        double perFrame = (double) encoder.totalBytes() / encoder.frames();
+        System.out.printf("%d nodes, %d frames, %d keyframes: %.0f bytes/frame average "
+                + "(%.2f bytes/node, %.1fx smaller than raw doubles), %.0f bytes/delta frame, "
+                + "%.0f bytes/frame over the last %d ticks%n",
+                NODES, encoder.frames(), encoder.keyframes(), perFrame, perFrame / NODES,
+                raw / perFrame, deltas == 0 ? 0 : (double) deltaBytes / deltas,
+                (double) laterBytes / (TICKS - TICKS / 2), TICKS - TICKS / 2);
+        assertTrue(perFrame * 4 < raw, "Frames average " + perFrame + " bytes for " + NODES + " nodes");
+    }
+
+    @Test
+    void deltaNeedsItsKeyframe() {
+        int size = 50;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        Random random = new Random(2);
+        for (int i = 0; i < size; i++) {
+            xs[i] = random.nextDouble() * 1000;
+            ys[i] = random.nextDouble() * 1000;
+        }
+        PositionCodec.Encoder encoder = new PositionCodec.Encoder(size, 1, 1, 100);
+        encoder.encode(xs, ys, 0, 0);
+        xs[7] += 25;
+        int length = encoder.encode(xs, ys, 0, 0);
+        assertEquals(1, encoder.keyframes());
+        PositionCodec.Decoder late = PositionCodec.decoder(size);
+        assertFalse(late.decode(encoder.buffer(), 0, length), "Delta applied without keyframe");
+        assertFalse(late.hasKeyframe());
+
+        encoder.requestKeyframe();
+        length = encoder.encode(xs, ys, 0, 0);
+        assertEquals(2, encoder.keyframes());
+        assertTrue(late.decode(encoder.buffer(), 0, length));
+        xs[3] -= 40;
+        length = encoder.encode(xs, ys, 0, 0);
+        assertTrue(late.decode(encoder.buffer(), 0, length));
+        for (int i = 0; i < size; i++) {
+            assertEquals(xs[i], late.x(i), 0.5 + 1e-9);
+            assertEquals(ys[i], late.y(i), 0.5 + 1e-9);
+        }
+    }
+
+    @Test
+    void framesDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        int size = 5000;
+        double[][] xs = new double[8][size];
+        double[][] ys = new double[8][size];
+        Random random = new Random(3);
+        for (int i = 0; i < size; i++) {
+            xs[0][i] = random.nextDouble() * 4000;
+            ys[0][i] = random.nextDouble() * 4000;
+        }
+        for (int f = 1; f < xs.length; f++) {
+            for (int i = 0; i < size; i++) {
+                xs[f][i] = xs[f - 1][i] + (random.nextInt(10) == 0 ? random.nextGaussian() * 5 : 0);
+                ys[f][i] = ys[f - 1][i] + (random.nextInt(10) == 0 ? random.nextGaussian() * 5 : 0);
+            }
+        }
+        PositionCodec.Encoder encoder = PositionCodec.encoder(size);
+        PositionCodec.Decoder decoder = PositionCodec.decoder(size);
+        for (int warmup = 0; warmup < 2000; warmup++) {
+            int f = warmup % xs.length;
+            decoder.decode(encoder.buffer(), 0, encoder.encode(xs[f], ys[f], 0, 0));
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            int f = i % xs.length;
+            decoder.decode(encoder.buffer(), 0, encoder.encode(xs[f], ys[f], 0, 0));
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // Allow for the measurement itself, not for anything per frame
+        assertTrue(allocated < 16 * 1024, allocated + " bytes allocated encoding and decoding 1000 frames");
+    }
+}
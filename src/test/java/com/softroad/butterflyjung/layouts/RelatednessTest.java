@@ -0,0 +1,135 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomGraph;
+import static com.softroad.butterflyjung.layouts.TestGraphs.randomTree;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks breadth-first relatedness against the path enumeration it replaced,
+ * and the sparse and quantized stores against the dense one.
+ */
+class RelatednessTest {
+
+    @Test
+    void bfsMatchesPathEnumerationOnTrees() {
+        for (long seed = 1; seed <= 5; seed++) {
+            IntGraph tree = randomTree(40, seed);
+            for (int depth : new int[]{2, 5, 40}) {
+                ForceDirected fd = new ForceDirected(tree, 1536, 1024, new Random(seed), depth,
+                        ForceDirected.RelatednessStorage.DENSE, null);
+                for (int a = 0; a < tree.size(); a++) {
+                    for (int b = 0; b < tree.size(); b++) {
+                        if (a == b) {
+                            continue;
+                        }
+                        double expected = 0;
+                        for (IP path : fd.undirectedPathsBetween(a, b)) {
+                            int hops = path.size() - 1;
+                            if (hops <= depth) {
+                                expected += 1D / hops;
+                            }
+                        }
+                        assertEquals(expected, fd.relatedness.get(a, b), 1e-12,
+                                a + "," + b + " at depth " + depth + " of tree " + seed);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void sparseStoresMatchDense() {
+        IntGraph graph = randomGraph(300, 3);
+        Relatedness dense = relatedness(graph, ForceDirected.RelatednessStorage.DENSE);
+        double max = dense.max();
+        double[] tolerances = {0, 1e-6 * max, max / 0xFFFF, max / 0xFF};
+        for (ForceDirected.RelatednessStorage storage : ForceDirected.RelatednessStorage.values()) {
+            Relatedness rel = relatedness(graph, storage);
+            double tolerance = tolerances[storage.ordinal()];
+            assertEquals(dense.min(), rel.min(), 1e-6, "min of " + storage);
+            assertEquals(dense.max(), rel.max(), 1e-6 * max, "max of " + storage);
+            assertEquals(dense.unrelated(), rel.unrelated(), 0, "unrelated of " + storage);
+            for (int a = 0; a < graph.size(); a++) {
+                BitSet stored = new BitSet();
+                for (int n = 0; n < rel.rowLength(a); n++) {
+                    int col = rel.column(a, n);
+                    stored.set(col);
+                    assertEquals(rel.get(a, col), rel.value(a, n), 0, storage + " row " + a);
+                }
+                for (int b = 0; b < graph.size(); b++) {
+                    if (a == b) {
+                        continue;
+                    }
+                    assertEquals(dense.get(a, b), rel.get(a, b), tolerance, storage + " " + a + "," + b);
+                    if (storage != ForceDirected.RelatednessStorage.DENSE) {
+                        assertEquals(dense.get(a, b) > 0, stored.get(b),
+                                storage + " stores " + a + "," + b);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void minimumComesFromTheDiameterBeyondTheDepthCap() {
+        // A path of 20 nodes, so the ends are 19 apart
+        BitSet[] children = new BitSet[20];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new BitSet();
+            if (i > 0) {
+                children[i - 1].set(i);
+            }
+        }
+        IntGraph path = IntGraph.create(children);
+        ForceDirected fd = new ForceDirected(path, 1536, 1024, new Random(4),
+                ForceDirected.DEFAULT_RELATEDNESS_DEPTH, ForceDirected.RelatednessStorage.SPARSE, null);
+        assertEquals(0, fd.relatedness.min(), 0);
+        assertEquals(1D / 19, fd.minRel, 1e-12);
+        assertEquals(19, ForceDirected.estimateDiameter(Adjacency.of(path)));
+
+        // Unrelated pairs in a disconnected graph stay unrelated
+        children[10].clear();
+        IntGraph split = IntGraph.create(children);
+        assertEquals(-1, ForceDirected.estimateDiameter(Adjacency.of(split)));
+        fd = new ForceDirected(split, 1536, 1024, new Random(4),
+                ForceDirected.DEFAULT_RELATEDNESS_DEPTH, ForceDirected.RelatednessStorage.SPARSE, null);
+        assertEquals(0, fd.minRel, 0);
+        assertEquals(0, fd.relatedness.get(0, 19), 0);
+    }
+
+    private static Relatedness relatedness(IntGraph graph, ForceDirected.RelatednessStorage storage) {
+        return new ForceDirected(graph, 1536, 1024, new Random(3),
+                ForceDirected.DEFAULT_RELATEDNESS_DEPTH, storage, null).relatedness;
+    }
+}
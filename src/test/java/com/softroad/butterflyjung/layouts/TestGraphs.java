@@ -0,0 +1,80 @@
+/* 
+ * Copyright (c) 2020, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.layouts;
+
+import com.mastfrog.graph.IntGraph;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Graphs shared by the layout tests.
+ */
+final class TestGraphs {
+
+    private TestGraphs() {
+        throw new AssertionError();
+    }
+
+    /**
+     * A random tree with no extra edges, so every pair of nodes is joined by
+     * exactly one path.
+     */
+    static IntGraph randomTree(int size, long seed) {
+        Random random = new Random(seed);
+        BitSet[] children = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            children[i] = new BitSet();
+        }
+        for (int i = 1; i < size; i++) {
+            children[random.nextInt(i)].set(i);
+        }
+        return IntGraph.create(children);
+    }
+
+    /**
+     * A random tree, with roughly one node in eight given a second parent,
+     * so there are cycles in the undirected graph; the same seed always
+     * produces the same graph.
+     */
+    static IntGraph randomGraph(int size, long seed) {
+        Random random = new Random(seed);
+        BitSet[] children = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            children[i] = new BitSet();
+        }
+        for (int i = 1; i < size; i++) {
+            children[random.nextInt(i)].set(i);
+            if (random.nextInt(8) == 0) {
+                int other = random.nextInt(size);
+                if (other != i) {
+                    children[other].set(i);
+                }
+            }
+        }
+        return IntGraph.create(children);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that results come back as JSON or in the binary form depending
+ * on what the client accepts, and that failures map onto the right HTTP
+ * statuses.
+ */
+@WebMvcTest(LayoutController.class)
+class LayoutControllerTest {
+
+    private static final String REQUEST = "{\"layout\":\"kk\",\"nodes\":[\"a\",\"b\"],"
+            + "\"edges\":[[\"a\",\"b\"]]}";
+    private static final LayoutResult RESULT = new LayoutResult("kk", 100, 50, 1, 12,
+            true, false, 3, Arrays.asList(new LayoutResult.NodePosition("a", 10, 20),
+                    new LayoutResult.NodePosition("b", 90, 30)));
+
+    @Autowired
+    private MockMvc mvc;
+    @MockBean
+    private LayoutEngine engine;
+
+    @Test
+    void listsLayoutTypes() throws Exception {
+        mvc.perform(get("/layout/types"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value(LayoutType.values()[0].id()))
+                .andExpect(jsonPath("$.length()").value(LayoutType.values().length));
+    }
+
+    @Test
+    void returnsJsonWhenAccepted() throws Exception {
+        when(engine.layout(any(LayoutRequest.class))).thenReturn(RESULT);
+        mvc.perform(post("/layout").contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).content(REQUEST))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.layout").value("kk"))
+                .andExpect(jsonPath("$.steps").value(12))
+                .andExpect(jsonPath("$.nodes[1].id").value("b"))
+                .andExpect(jsonPath("$.nodes[1].x").value(90.0));
+    }
+
+    @Test
+    void returnsBinaryWhenAccepted() throws Exception {
+        when(engine.layout(any(LayoutRequest.class))).thenReturn(RESULT);
+        byte[] body = mvc.perform(post("/layout").contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_OCTET_STREAM).content(REQUEST))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertArrayEquals(binary(RESULT), body);
+    }
+
+    @Test
+    void acceptsEdgeLists() throws Exception {
+        when(engine.layout(any(byte[].class), eq("kk"), eq(100), isNull(), isNull()))
+                .thenReturn(RESULT);
+        byte[] edges = "a b\n".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(post("/layout").contentType(MediaType.TEXT_PLAIN)
+                .accept(MediaType.APPLICATION_JSON).content(edges)
+                .param("layout", "kk").param("width", "100"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.layout").value("kk"));
+        verify(engine).layout(eq(edges), eq("kk"), eq(100), isNull(), isNull());
+    }
+
+    @Test
+    void badInputIsABadRequest() throws Exception {
+        when(engine.layout(any(LayoutRequest.class)))
+                .thenThrow(new IllegalArgumentException("No such layout"));
+        mvc.perform(post("/layout").contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).content(REQUEST))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.status").value(400))
+                .andExpect(jsonPath("$.message").value("No such layout"));
+    }
+
+    @Test
+    void rejectionIsRetryable() throws Exception {
+        when(engine.layout(any(LayoutRequest.class))).thenThrow(new LayoutRejectedException(
+                "Too many large layouts in progress", LayoutJobScheduler.Lane.BULK,
+                Duration.ofMillis(2500)));
+        mvc.perform(post("/layout").contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).content(REQUEST))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "3"))
+                .andExpect(jsonPath("$.status").value(503))
+                .andExpect(jsonPath("$.message").value("Too many large layouts in progress"));
+    }
+
+    @Test
+    void timeoutIsAGatewayTimeout() throws Exception {
+        when(engine.layout(any(LayoutRequest.class))).thenThrow(new TimeoutException("Too slow"));
+        mvc.perform(post("/layout").contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON).content(REQUEST))
+                .andExpect(status().isGatewayTimeout())
+                .andExpect(jsonPath("$.status").value(504));
+    }
+
+    private static byte[] binary(LayoutResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeBinary(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import com.softroad.butterflyjung.service.LayoutJobScheduler.Lane;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks which lane jobs run in, that bulk jobs never take every thread,
+ * that jobs which do not fit are turned away, and that cancelling a job
+ * dequeues or interrupts it.
+ */
+class LayoutJobSchedulerTest {
+
+    private static final int INTERACTIVE_NODES = 10;
+    private static final int BULK_NODES = 20;
+
+    @Test
+    void bulkJobsLeaveAThreadForInteractiveOnes() throws Exception {
+        LayoutJobScheduler scheduler = scheduler(3, 0, 4, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            assertEquals(Lane.INTERACTIVE, scheduler.laneFor(INTERACTIVE_NODES));
+            assertEquals(Lane.BULK, scheduler.laneFor(INTERACTIVE_NODES + 1));
+            for (int i = 0; i < 3; i++) {
+                scheduler.submit(BULK_NODES, 0, () -> block(release));
+            }
+            waitFor(() -> scheduler.running(Lane.BULK) == 2);
+            // Two of three threads are free for bulk work, and the third
+            // job waits although a thread is idle
+            Thread.sleep(50);
+            assertEquals(2, scheduler.running(Lane.BULK));
+            assertEquals(1, scheduler.queued(Lane.BULK));
+            CompletableFuture<String> interactive = scheduler.submit(INTERACTIVE_NODES, 0,
+                    () -> "done");
+            assertEquals("done", interactive.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void atLeastTwoThreadsAreRequired() {
+        LayoutServiceProperties properties = new LayoutServiceProperties();
+        assertThrows(IllegalArgumentException.class, () -> properties.setThreads(1));
+    }
+
+    @Test
+    void bulkJobsAreLimitedByCost() throws Exception {
+        long cost = LayoutJobScheduler.cost(BULK_NODES, 0);
+        LayoutJobScheduler scheduler = scheduler(2, 0, 4, cost * 2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            assertThrows(IllegalArgumentException.class,
+                    () -> scheduler.submit(BULK_NODES * 2, 0, () -> null));
+            scheduler.submit(BULK_NODES, 0, () -> block(release));
+            scheduler.submit(BULK_NODES, 0, () -> block(release));
+            assertEquals(cost * 2, scheduler.bulkCost());
+            LayoutRejectedException ex = assertThrows(LayoutRejectedException.class,
+                    () -> scheduler.submit(INTERACTIVE_NODES + 1, 0, () -> null));
+            assertEquals(Lane.BULK, ex.getLane());
+            // Interactive jobs do not count toward the cost
+            assertEquals("ok", scheduler.submit(INTERACTIVE_NODES, 0, () -> "ok")
+                    .get(5, TimeUnit.SECONDS));
+            release.countDown();
+            waitFor(() -> scheduler.bulkCost() == 0);
+            scheduler.submit(BULK_NODES, 0, () -> null).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void fullQueuesAreRejectedWithARetryAfter() throws Exception {
+        LayoutJobScheduler scheduler = scheduler(2, 1, 1, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            scheduler.submit(BULK_NODES, 0, () -> block(release));
+            waitFor(() -> scheduler.running(Lane.BULK) == 1);
+            scheduler.submit(BULK_NODES, 0, () -> block(release));
+            LayoutRejectedException ex = assertThrows(LayoutRejectedException.class,
+                    () -> scheduler.submit(BULK_NODES, 0, () -> null));
+            assertEquals(Lane.BULK, ex.getLane());
+            assertTrue(ex.getRetryAfter().compareTo(Duration.ofSeconds(1)) >= 0,
+                    "Retry after " + ex.getRetryAfter());
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void cancellingAQueuedJobDequeuesIt() throws Exception {
+        LayoutJobScheduler scheduler = scheduler(2, 1, 4, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+        try {
+            CompletableFuture<Object> running = scheduler.submit(BULK_NODES, 0,
+                    () -> block(release));
+            waitFor(() -> scheduler.running(Lane.BULK) == 1);
+            CompletableFuture<Object> queued = scheduler.submit(BULK_NODES, 0, () -> {
+                ran.set(true);
+                return null;
+            });
+            assertEquals(1, scheduler.queued(Lane.BULK));
+            assertEquals(LayoutJobScheduler.cost(BULK_NODES, 0) * 2, scheduler.bulkCost());
+            queued.cancel(true);
+            assertEquals(0, scheduler.queued(Lane.BULK));
+            assertEquals(LayoutJobScheduler.cost(BULK_NODES, 0), scheduler.bulkCost());
+            release.countDown();
+            running.get(5, TimeUnit.SECONDS);
+            waitFor(() -> scheduler.bulkCost() == 0);
+            assertFalse(ran.get(), "Cancelled job was run");
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void cancellingARunningJobInterruptsIt() throws Exception {
+        LayoutJobScheduler scheduler = scheduler(2, 0, 4, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            CompletableFuture<Object> job = scheduler.submit(BULK_NODES, 0, () -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                    throw ex;
+                }
+                return null;
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            job.cancel(true);
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS), "Job was not interrupted");
+            assertThrows(CancellationException.class, job::get);
+            waitFor(() -> scheduler.running(Lane.BULK) == 0 && scheduler.bulkCost() == 0);
+            // The thread is not left interrupted for the next job
+            assertEquals("next", scheduler.submit(BULK_NODES, 0, () -> {
+                Thread.sleep(10);
+                return "next";
+            }).get(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static LayoutJobScheduler scheduler(int threads, int bulkThreads, int queueCapacity,
+            long maxBulkCost) {
+        LayoutServiceProperties properties = new LayoutServiceProperties();
+        properties.setThreads(threads);
+        properties.setBulkThreads(bulkThreads);
+        properties.setQueueCapacity(queueCapacity);
+        properties.setInteractiveNodes(INTERACTIVE_NODES);
+        properties.setMaxBulkCost(maxBulkCost);
+        return new LayoutJobScheduler(properties, new SimpleMeterRegistry());
+    }
+
+    private static Object block(CountDownLatch release) throws InterruptedException {
+        release.await();
+        return null;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013, Tim Boudreau
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.softroad.butterflyjung.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a client which falls behind sees fewer frames rather than
+ * slowing the layout, that the final result is always sent last, and that
+ * a layout whose client has gone away is abandoned.
+ */
+class LayoutStreamTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final Counter sent = Counter.builder("sent").register(registry);
+    private final Counter dropped = Counter.builder("dropped").register(registry);
+    private final AtomicReference<String> outcome = new AtomicReference<>();
+
+    @Test
+    void framesAreDroppedUntilTheClientCatchesUp() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        List<Runnable> sends = new ArrayList<>();
+        // Nothing is sent until the layout is over
+        LayoutStream stream = stream(emitter, Duration.ofMillis(300), sends::add);
+        stream.run();
+        assertEquals(1, sends.size(), "Only one send should be queued at a time");
+        sends.get(0).run();
+        assertEquals(2, emitter.events.size(), emitter.events.toString());
+        assertTrue(emitter.events.get(0) instanceof List<?>);
+        assertTrue(emitter.events.get(1) instanceof LayoutResult);
+        assertEquals(0, (int) sent.count());
+        assertTrue(dropped.count() > 0, "No frames were dropped");
+        assertEquals(0, emitter.completed.getCount());
+        assertEquals("budget", outcome.get());
+    }
+
+    @Test
+    void doneIsSentLastToASlowClient() throws InterruptedException {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.sendMillis = 20;
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            stream(emitter, Duration.ofMillis(300), sender).run();
+            assertTrue(emitter.completed.await(10, TimeUnit.SECONDS), "Never completed");
+        } finally {
+            sender.shutdown();
+        }
+        List<Object> events = emitter.events;
+        assertTrue(events.get(0) instanceof List<?>);
+        assertTrue(events.get(events.size() - 1) instanceof LayoutResult);
+        int lastStep = 0;
+        for (Object event : events.subList(1, events.size() - 1)) {
+            assertTrue(event instanceof LayoutFrame, "Unexpected " + event);
+            int step = ((LayoutFrame) event).getStep();
+            assertTrue(step > lastStep, "Frames out of order: " + step + " after " + lastStep);
+            lastStep = step;
+        }
+        assertEquals(events.size() - 2, (int) sent.count());
+        assertTrue(dropped.count() > 0, "No frames were dropped");
+    }
+
+    @Test
+    void layoutIsAbandonedWhenTheClientGoesAway() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.fail = true;
+        long start = System.nanoTime();
+        stream(emitter, Duration.ofSeconds(30), Runnable::run).run();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10),
+                "Layout ran on after the client went away");
+        assertEquals("cancelled", outcome.get());
+        assertEquals(1, emitter.completed.getCount(), "Completed a failed stream");
+    }
+
+    private LayoutStream stream(SseEmitter emitter, Duration budget,
+            Executor sender) {
+        // SpringLayout never converges, so it runs for the whole budget
+        return new LayoutStream(LayoutType.SPRING, graph(), new Dimension(800, 600), budget,
+                LayoutEngine.MAX_FRAMES_PER_SECOND, emitter, sender, sent, dropped,
+                outcome::set);
+    }
+
+    private static GraphInput graph() {
+        StringBuilder edges = new StringBuilder();
+        for (int i = 1; i < 60; i++) {
+            edges.append("n").append(i / 3).append(" n").append(i).append('\n');
+        }
+        return GraphInput.parse(edges.toString().getBytes(StandardCharsets.UTF_8), 1000);
+    }
+
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<Object> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile long sendMillis;
+        private volatile boolean fail;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("Client went away");
+            }
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                // The rest is the event's name and framing
+                if (!(part.getData() instanceof String)) {
+                    events.add(part.getData());
+                }
+            }
+            if (sendMillis > 0) {
+                try {
+                    Thread.sleep(sendMillis);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}